@@ -12,6 +12,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.core.io.Resource;
 
+import com.agilestage.core.utils.BeanHandle;
 import com.agilestage.core.utils.SpringBeanUtils;
 
 /**
@@ -56,7 +57,15 @@ public class Component {
 
     private Properties configProps;
     /** 组件事件监听接口——可选配置 */
-    private ComponentListener cmpListener;
+    private volatile ComponentListener cmpListener;
+    /** 监听器类型 */
+    private String listenerType;
+    /** 监听器名称：spring bean名称或java类名 */
+    private String listenerName;
+    /** spring类型的监听器句柄 */
+    private BeanHandle<ComponentListener> listenerHandle;
+    /** 监听器是否创建失败，失败后不再重复创建 */
+    private volatile boolean listenerFailed;
     /** 扩展属性——可选配置 */
     private Properties properties;
 
@@ -103,29 +112,50 @@ public class Component {
         }
     }
 
-    @SuppressWarnings("unchecked")
+    /**
+     * 只记录监听器的定义，监听器在第一次使用时才创建，参见{@link #getCmpListener()}
+     */
     private void initListener(Element el) {
         if (null != el) {
-            String listenerName = el.getTextTrim();
-            String listenerType = el.attributeValue("type");
-
-            ComponentListener listener = null;
-            if (LISTENERTYPE_SPRING.equals(listenerType)) {
-                listener = (ComponentListener) SpringBeanUtils.getBean(listenerName);
-            } else if (LISTENERTYPE_JAVABEAN.equals(listenerType)) {
-                try {
-                    Class<ComponentListener> adapterClass = (Class<ComponentListener>) Class.forName(listenerName);
-
-                    listener = SpringBeanUtils.createBean(adapterClass);
-                } catch (Exception e) {
-                    log.error("Exception while creating component listner '{}': {}", listenerName,
-                              ExceptionUtils.getRootCauseMessage(e));
-                }
-            } else {
-                log.error("Unknown listener type '{}' for component {}.", listenerType, this.code);
+            this.listenerName = el.getTextTrim();
+            this.listenerType = el.attributeValue("type");
+
+            if (LISTENERTYPE_SPRING.equals(this.listenerType)) {
+                this.listenerHandle = SpringBeanUtils.getHandle(this.listenerName, ComponentListener.class);
+            } else if (!LISTENERTYPE_JAVABEAN.equals(this.listenerType)) {
+                log.error("Unknown listener type '{}' for component {}.", this.listenerType, this.code);
             }
+        }
+    }
+
+    /**
+     * 创建javabean类型的监听器
+     */
+    @SuppressWarnings("unchecked")
+    private ComponentListener createListener() {
+        ComponentListener listener = null;
+        try {
+            Class<ComponentListener> adapterClass = (Class<ComponentListener>) Class.forName(this.listenerName);
+
+            listener = SpringBeanUtils.createBean(adapterClass);
+        } catch (Exception e) {
+            this.listenerFailed = true;
+            log.error("Exception while creating component listner '{}': {}", this.listenerName,
+                      ExceptionUtils.getRootCauseMessage(e));
+        }
+        return listener;
+    }
 
-            this.cmpListener = listener;
+    /**
+     * 组件重新扫描时沿用旧组件中已创建的监听器（监听器定义未变化时）
+     * 
+     * @param old 同一编码的旧组件
+     */
+    void reuseListener(final Component old) {
+        if (StringUtils.equals(this.listenerType, old.listenerType)
+            && StringUtils.equals(this.listenerName, old.listenerName)) {
+            this.cmpListener = old.cmpListener;
+            this.listenerFailed = old.listenerFailed;
         }
     }
 
@@ -222,7 +252,31 @@ public class Component {
     }
 
     public ComponentListener getCmpListener() {
-        return this.cmpListener;
+        ComponentListener listener = this.cmpListener;
+        if (null != listener) {
+            return listener;
+        }
+
+        if (null != this.listenerHandle) {
+            try {
+                return this.listenerHandle.get();
+            } catch (RuntimeException e) {
+                log.error("Exception while getting component listner '{}': {}", this.listenerName,
+                          ExceptionUtils.getRootCauseMessage(e));
+                return null;
+            }
+        }
+
+        if (LISTENERTYPE_JAVABEAN.equals(this.listenerType) && !this.listenerFailed) {
+            synchronized (this) {
+                listener = this.cmpListener;
+                if (null == listener && !this.listenerFailed) {
+                    listener = createListener();
+                    this.cmpListener = listener;
+                }
+            }
+        }
+        return listener;
     }
 
     void setCmpListener(final ComponentListener cmpListener) {
@@ -0,0 +1,115 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+
+import com.agilestage.core.common.Constants;
+
+/**
+ * 组件定义文件（components-def.xml）的指纹
+ * <p>
+ * jar包中的定义文件以“jar包路径+条目CRC”作为指纹，目录中的定义文件以“路径+修改时间+长度”作为指纹。
+ * jar包的修改时间和长度未变化时直接沿用上次的指纹，不打开jar包，刷新平台时未变化的定义文件只需要一次stat。
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月13日
+ */
+final class DefinitionFingerprint {
+
+    private static final String JAR_SEPARATOR = "!/";
+
+    /** 定义文件所在的物理文件：jar包或定义文件本身 */
+    private final File file;
+
+    private final long lastModified;
+
+    private final long length;
+
+    /** jar包中条目的CRC，目录中的定义文件为-1 */
+    private final long crc;
+
+    private DefinitionFingerprint(final File file, final long lastModified, final long length, final long crc) {
+        this.file = file;
+        this.lastModified = lastModified;
+        this.length = length;
+        this.crc = crc;
+    }
+
+    /**
+     * 计算定义文件的指纹
+     * 
+     * @param url 定义文件的url
+     * @param previous 上次的指纹，物理文件未变化时直接返回
+     * @return 不支持的url（非jar、file协议）返回null
+     * @throws IOException
+     */
+    static DefinitionFingerprint of(final URL url, final DefinitionFingerprint previous) throws IOException {
+        if ("file".equals(url.getProtocol())) {
+            File file = toFile(url);
+            return new DefinitionFingerprint(file, file.lastModified(), file.length(), -1L);
+        }
+
+        if (!"jar".equals(url.getProtocol())) {
+            return null;
+        }
+
+        String spec = url.getPath();
+        int sep = spec.indexOf(JAR_SEPARATOR);
+        if (sep < 0) {
+            return null;
+        }
+        URL jarUrl = new URL(spec.substring(0, sep));
+        if (!"file".equals(jarUrl.getProtocol())) {
+            return null;
+        }
+
+        File jar = toFile(jarUrl);
+        long modified = jar.lastModified();
+        long size = jar.length();
+        if (null != previous && previous.file.equals(jar) && previous.lastModified == modified
+            && previous.length == size) {
+            return previous;
+        }
+
+        JarFile jarFile = new JarFile(jar);
+        try {
+            ZipEntry entry = jarFile.getEntry(spec.substring(sep + JAR_SEPARATOR.length()));
+            if (null == entry) {
+                throw new IOException("entry not found: " + url);
+            }
+            return new DefinitionFingerprint(jar, modified, size, entry.getCrc());
+        } finally {
+            jarFile.close();
+        }
+    }
+
+    private static File toFile(final URL url) throws IOException {
+        return new File(URLDecoder.decode(url.getPath(), Constants.DEFAULT_ENCODING));
+    }
+
+    /**
+     * 定义文件的内容是否相同
+     */
+    boolean sameContent(final DefinitionFingerprint other) {
+        if (null == other || !this.file.equals(other.file)) {
+            return false;
+        }
+        if (this.crc >= 0 || other.crc >= 0) {
+            return this.crc == other.crc;
+        }
+        return this.lastModified == other.lastModified && this.length == other.length;
+    }
+
+    @Override
+    public String toString() {
+        return this.crc >= 0 ? this.file + ":" + Long.toHexString(this.crc)
+                             : this.file + ":" + this.lastModified + ":" + this.length;
+    }
+}
@@ -1,20 +1,25 @@
 package com.agilestage.core;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.JarURLConnection;
 import java.net.URL;
+import java.net.URLConnection;
 import java.net.URLDecoder;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
@@ -22,20 +27,32 @@ import javax.servlet.ServletContext;
 
 import org.apache.commons.configuration.ConfigurationException;
 import org.apache.commons.configuration.PropertiesConfiguration;
-import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.dom4j.Document;
 import org.dom4j.DocumentException;
 import org.dom4j.Element;
+import org.dom4j.util.XMLErrorHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
 
 import com.agilestage.core.common.Constants;
+import com.agilestage.core.config.ConfigChangeListener;
+import com.agilestage.core.config.ConfigSnapshot;
+import com.agilestage.core.config.PlatformSettings;
+import com.agilestage.core.journal.LifecycleEvent;
+import com.agilestage.core.journal.LifecycleJournal;
+import com.agilestage.core.metrics.ComponentMetricsRegistry;
+import com.agilestage.core.staticize.StaticPageEngine;
 import com.agilestage.core.utils.FileUtil;
 import com.agilestage.core.utils.WebappPath;
 import com.agilestage.core.utils.XmlUtils;
+import com.agilestage.core.web.ComponentRequestResolver;
+import com.agilestage.core.web.JspPrecompiler;
+import com.agilestage.core.web.RequestGate;
+import com.agilestage.core.web.WebappVersions;
 
 /**
  * 平台信息存储类
@@ -64,6 +81,42 @@ public final class Platform {
 
     /** 组件定义文件名 */
     private static final String COMPONENTS_DEF = "components-def.xml";
+    /** 组件定义文件的格式约束 */
+    private static final String COMPONENTS_XSD = "components-def.xsd";
+    /** 是否在扫描组件时校验组件定义文件 */
+    private static final String VALIDATE_KEY = "agilestage.components.validate";
+    /** 配置文件的检查间隔，小于等于0时不检查 */
+    private static final String RELOAD_INTERVAL_KEY = "agilestage.config.reload.interval";
+    /** 默认的配置文件检查间隔（毫秒） */
+    private static final long DEFAULT_RELOAD_INTERVAL = 10000L;
+    /** 禁用、删除、重新部署组件时等待处理中请求完成的最长时间 */
+    private static final String DRAIN_TIMEOUT_KEY = "agilestage.component.drain.timeout";
+    /** 默认的请求排空等待时间（毫秒） */
+    private static final long DEFAULT_DRAIN_TIMEOUT = 30000L;
+    /** jsp预编译时访问应用的地址，如：http://127.0.0.1:8080/agilestage-admin，为空时不预编译 */
+    private static final String JSP_PRECOMPILE_URL_KEY = "agilestage.jsp.precompile.url";
+    /** 单个jsp预编译请求的超时时间 */
+    private static final String JSP_PRECOMPILE_TIMEOUT_KEY = "agilestage.jsp.precompile.timeout";
+    /** jsp预编译线程数 */
+    private static final String JSP_PRECOMPILE_THREADS_KEY = "agilestage.jsp.precompile.threads";
+    /** 默认的jsp预编译等待时间（毫秒） */
+    private static final long DEFAULT_JSP_PRECOMPILE_TIMEOUT = 60000L;
+    /** 是否记录组件生命周期日志，默认不记录，参见{@link LifecycleJournal} */
+    private static final String JOURNAL_ENABLED_KEY = "agilestage.journal.enabled";
+    /** 生命周期日志目录，默认为webroot下的WEB-INF/journal，每个应用一个目录 */
+    private static final String JOURNAL_DIR_KEY = "agilestage.journal.dir";
+    /** 生命周期日志段大小（字节） */
+    private static final String JOURNAL_SEGMENT_SIZE_KEY = "agilestage.journal.segment.size";
+    /** 每追加多少条记录写一次检查点 */
+    private static final String JOURNAL_CHECKPOINT_INTERVAL_KEY = "agilestage.journal.checkpoint.interval";
+    /** 生命周期日志刷盘间隔 */
+    private static final String JOURNAL_FLUSH_INTERVAL_KEY = "agilestage.journal.flush.interval";
+    /** 是否以版本目录的方式释放组件的webapp，参见{@link WebappVersions} */
+    private static final String WEBAPP_VERSIONED_KEY = "agilestage.webapp.versioned";
+    /** 静态页目录（相对于webroot） */
+    private static final String STATIC_DIR_KEY = "agilestage.static.dir";
+    /** 静态页渲染线程数 */
+    private static final String STATIC_THREADS_KEY = "agilestage.static.threads";
     /** 平台配置文件 */
     private static final String CONFIG_LOCATION = "/agilestage.properties";
     /** 平台日志处理文件 */
@@ -85,19 +138,51 @@ public final class Platform {
     /**
      * 组件列表,此属性中的值不允许在该对象之外进行任何修改，以保证系统的一致性
      */
-    private static final Map<String, Component> components = new HashMap<String, Component>();
+    private static final Map<String, Component> components = new ConcurrentHashMap<String, Component>();
+
+    /**
+     * 组件的请求闸门：组件编码 -> 闸门
+     */
+    private static final Map<String, RequestGate> gates = new ConcurrentHashMap<String, RequestGate>();
+
+    /** 已扫描的组件定义文件：定义文件url -> 指纹及其中的组件，只在refresh中访问 */
+    private Map<String, ScannedDefinition> definitions = new HashMap<String, ScannedDefinition>();
+
+    /** 请求与组件的对应关系 */
+    private final ComponentRequestResolver requestResolver = new ComponentRequestResolver();
 
     private static Platform platform;
 
     /** 系统配置属性 */
     private PropertiesConfiguration config;
 
+    /** 系统配置的只读快照 */
+    private PlatformSettings settings;
+
     /** 日志属性 */
     private PropertiesConfiguration logStatus;
 
-    /** 是否启动标识，用户控制start方法只执行一次 */
+    /** 是否启动标识，用户控制start方法只执行一次，由start/stop的同步保护 */
     private boolean started;
 
+    /** 平台是否已完成启动，启动完成后部署的组件才进行jsp预编译 */
+    private volatile boolean running;
+
+    /** 组件webapp的版本管理，未开启时为null */
+    private volatile WebappVersions webappVersions;
+
+    /** 组件生命周期日志，未开启时为null。日志只记录组件操作的历史，组件状态始终以配置文件为准 */
+    private volatile LifecycleJournal journal;
+
+    /** 页面静态化引擎，平台启动后可用 */
+    private volatile StaticPageEngine staticPageEngine;
+
+    /** jsp预编译器，未配置预编译地址时为null */
+    private JspPrecompiler jspPrecompiler;
+
+    /** 组件的jsp预编译结果：组件编码 -> 结果，预编译成功并激活后删除 */
+    private final Map<String, JspPrecompiler.Result> precompiles = new ConcurrentHashMap<String, JspPrecompiler.Result>();
+
     /**
      * 单例类，不允许实例化 在构造时加载平台配置参数
      */
@@ -117,32 +202,24 @@ public final class Platform {
 
             this.config.load();
             this.logStatus.load();
-
-            initSystemProperty();
         } catch (ConfigurationException e) {
             log.info(e.getMessage(), e);
         } catch (UnsupportedEncodingException e) {
             log.info(e.getMessage(), e);
         }
 
+        this.settings = new PlatformSettings(this.config);
+
+        initSystemProperty();
     }
 
     /**
      * 将写入配置文件中的内容加载为系统变量，以便进行启动控制。注意：在系统启动后配置文件的更新不会同步到系统变量中来。
      */
     private void initSystemProperty() {
-        InputStream is = getClass().getResourceAsStream(CONFIG_LOCATION);
-        Properties prop = new Properties();
-        try {
-            prop.load(is);
-        } catch (IOException e) {
-            log.info(e.getMessage());
-        } finally {
-            IOUtils.closeQuietly(is);
-        }
-        for (String key : prop.stringPropertyNames()) {
-        	if(StringUtils.isNotBlank(key)) {
-        		 System.setProperty(key, prop.getProperty(key));
+        for (Entry<String, String> entry : this.settings.get().asMap().entrySet()) {
+        	if(StringUtils.isNotBlank(entry.getKey()) && null != entry.getValue()) {
+        		 System.setProperty(entry.getKey(), entry.getValue());
         	}
         }
     }
@@ -161,22 +238,40 @@ public final class Platform {
 
     /**
      * 激活组件 目前仅修改了注册状态，未做任何其他操作
+     * <p>
+     * 组件的jsp预编译未完成或失败时不激活，也不等待预编译；需要等待时先调用{@link #awaitPrecompile(String, long)}
+     * 
+     * @param code
+     * @return 是否已激活，组件不存在、jsp预编译未完成或失败时返回false
      */
-    public void active(final String code) {
+    public boolean active(final String code) {
 
         log.info("activating component：{} ...", code);
 
+        long begin = System.currentTimeMillis();
         Component cmp = components.get(code);
+        if (null == cmp) {
+            log.error("component {} is not activated because it is not deployed.", code);
+            return false;
+        }
+
+        if (!checkPrecompile(code)) {
+            log.error("component {} is not activated because its jsp is not compiled.", code);
+            return false;
+        }
 
         fireEvent(cmp, EventType.beforeActive);
 
         changeComponentState(cmp, Component.STATE_ACTIVE);
 
         fireEvent(cmp, EventType.afterActive);
+
+        journal(LifecycleEvent.Type.ACTIVE, code, Component.STATE_ACTIVE, begin);
+        return true;
     }
 
     /**
-     * 更新组件的状态
+     * 更新组件的状态并记录到配置文件中
      * 
      * @param cmp
      * @param state
@@ -184,6 +279,10 @@ public final class Platform {
     private void changeComponentState(final Component cmp, final String state) {
         cmp.setState(state);
         this.config.setProperty(cmp.getStateKey(), state);
+
+        if (Component.STATE_ACTIVE.equals(state)) {
+            getOrCreateGate(cmp.getCode()).open();
+        }
     }
 
     /**
@@ -193,12 +292,18 @@ public final class Platform {
      */
     public void deploy(final Component cmp) {
 
+        long begin = System.currentTimeMillis();
+
         fireEvent(cmp, EventType.beforeDeploy);
 
         log.info("deploying component: {}...", cmp.getCode());
 
+        // 重新部署时先排空正在处理的请求
+        drainRequests(cmp.getCode());
+
         if (!cmp.equals(components.get(cmp.getCode()))) {
             components.put(cmp.getCode(), cmp);
+            this.requestResolver.rebuild(components.values());
         }
 
         if (cmp.getLocal() != null) {
@@ -207,6 +312,9 @@ public final class Platform {
 
             // 释放webapp
             deployWebResource(cmp);
+
+            // 后台预编译jsp
+            precompileJsp(cmp);
         }
 
         changeComponentState(cmp, Component.STATE_DISABLE);
@@ -214,10 +322,12 @@ public final class Platform {
         log.info("deploy component：{} completed.", cmp.getCode());
 
         fireEvent(cmp, EventType.afterDeploy);
+
+        journal(LifecycleEvent.Type.DEPLOY, cmp.getCode(), Component.STATE_DISABLE, begin);
     }
 
     /**
-     * 取消激活
+     * 取消激活 不再接受组件的新请求，等待处理中的请求完成后修改组件状态
      * 
      * @param code
      */
@@ -225,14 +335,77 @@ public final class Platform {
 
         Component cmp = components.get(code);
 
-        // TODO 暂时未定义处理
-
         if (null != cmp) {
+            log.info("disabling component：{} ...", code);
+
+            long begin = System.currentTimeMillis();
+
+            drainRequests(code);
+
             changeComponentState(cmp, Component.STATE_DISABLE);
+
+            journal(LifecycleEvent.Type.DISABLE, code, Component.STATE_DISABLE, begin);
         }
 
     }
 
+    /**
+     * 关闭组件的请求闸门，并等待处理中的请求完成，超时后不再等待
+     * 
+     * @param code
+     */
+    private void drainRequests(final String code) {
+        RequestGate gate = gates.get(code);
+        if (null == gate) {
+            return;
+        }
+
+        gate.close();
+
+        long timeout = getSettings().getDuration(DRAIN_TIMEOUT_KEY, DEFAULT_DRAIN_TIMEOUT);
+        long start = System.currentTimeMillis();
+        if (gate.awaitDrained(timeout)) {
+            log.info("requests of component {} drained in {} ms.", code, System.currentTimeMillis() - start);
+        } else {
+            log.warn("{} requests of component {} are still running after {} ms, continue anyway.",
+                     gate.getInFlight(), code, timeout);
+        }
+    }
+
+    private RequestGate getOrCreateGate(final String code) {
+        RequestGate gate = gates.get(code);
+        if (null == gate) {
+            synchronized (gates) {
+                gate = gates.get(code);
+                if (null == gate) {
+                    gate = new RequestGate(code);
+                    gates.put(code, gate);
+                }
+            }
+        }
+        return gate;
+    }
+
+    /**
+     * 获取组件的请求闸门
+     * 
+     * @param code
+     * @return 组件尚未加载到平台时返回null
+     */
+    public RequestGate getRequestGate(final String code) {
+        return gates.get(code);
+    }
+
+    /**
+     * 获取请求所属的组件，参见{@link ComponentRequestResolver}
+     * 
+     * @param path 请求路径，不含contextPath
+     * @return 组件编码，不属于任何组件时返回null
+     */
+    public String resolveComponent(final String path) {
+        return this.requestResolver.resolve(path);
+    }
+
     /**
      * 根据code 获取组件描述
      * 
@@ -263,6 +436,24 @@ public final class Platform {
         return this.config;
     }
 
+    /**
+     * 获取平台配置的只读快照，配置变化后会发布新的快照，热点路径上应使用此方法读取配置
+     * 
+     * @return
+     */
+    public ConfigSnapshot getSettings() {
+        return this.settings.get();
+    }
+
+    /**
+     * 注册平台配置变化的监听器
+     * 
+     * @param listener
+     */
+    public void addConfigListener(final ConfigChangeListener listener) {
+        this.settings.addListener(listener);
+    }
+
     /**
      * 获取日志属性信息
      * 
@@ -298,13 +489,13 @@ public final class Platform {
      * <li>检查组件状态，并自动处理新发现的组件</li>
      * </ol>
      */
-    public void refresh() {
+    public synchronized void refresh() {
 
         // 扫描classpath，发现组件
-        scanComponentsInClasspath();
+        List<Component> changed = scanComponentsInClasspath();
 
-        // 初始化组件状态
-        stateCheck();
+        // 初始化新增或变化的组件的状态
+        stateCheck(changed);
     }
 
     /**
@@ -315,6 +506,18 @@ public final class Platform {
     private void regSettings(final Component cmp) {
         log.info("registering settings for component {}", cmp.getCode());
 
+        // 逐个复制配置项时不逐个保存和发布，完成后保存一次、发布一次
+        this.settings.beginUpdate();
+        this.config.setAutoSave(false);
+        try {
+            copySettings(cmp);
+        } finally {
+            this.config.setAutoSave(true);
+            this.settings.endUpdate();
+        }
+    }
+
+    private void copySettings(final Component cmp) {
         String cfgName = cmp.getConfigFile();
         if (StringUtils.isNotBlank(cfgName)) {
 
@@ -364,13 +567,209 @@ public final class Platform {
             URL url = cmp.getLocal().getURL();
             url = new URL(url, ".././webapp");
 
-            copyWebapp(url);
+            WebappVersions versions = this.webappVersions;
+            if (null != versions) {
+                deployVersionedWebapp(versions, cmp.getCode(), url);
+            } else {
+                copyWebapp(url);
+            }
 
         } catch (IOException e) {
             log.error("failed to release resources in component!\n" + e.getMessage(), e);
         }
     }
 
+    /**
+     * 把组件的webapp释放到新的版本目录中，释放完成后再切换到新版本，释放失败时保持原版本
+     * 
+     * @param versions
+     * @param code
+     * @param url
+     * @throws IOException
+     */
+    private void deployVersionedWebapp(final WebappVersions versions, final String code, final URL url)
+            throws IOException {
+        int version = versions.stage(code, new WebappVersions.Extractor() {
+
+            @Override
+            public void extractTo(final File dir) throws IOException {
+                if ("jar".equals(url.getProtocol())) {
+                    String jarPath = ((JarURLConnection) url.openConnection()).getJarFile().getName();
+                    if (!FileUtil.extractJar(jarPath, dir.getPath(), "webapp/", "", null, true)) {
+                        throw new IOException("failed to extract webapp from " + jarPath);
+                    }
+                } else {
+                    File src = new File(URLDecoder.decode(url.getPath(), Constants.DEFAULT_ENCODING));
+                    if (src.isDirectory()) {
+                        FileUtils.copyDirectory(src, dir);
+                    }
+                }
+            }
+        });
+
+        versions.activate(code, version);
+    }
+
+    /**
+     * 获取组件webapp的版本管理
+     * 
+     * @return 未开启agilestage.webapp.versioned时返回null
+     */
+    public WebappVersions getWebappVersions() {
+        return this.webappVersions;
+    }
+
+    /**
+     * 把组件的webapp切回上一个版本
+     * 
+     * @param code
+     * @return 未开启版本管理或没有上一个版本时返回false
+     */
+    public boolean rollbackWebapp(final String code) {
+        WebappVersions versions = this.webappVersions;
+        return null != versions && versions.rollback(code);
+    }
+
+    /**
+     * 在后台预编译组件的jsp，仅在平台启动完成后进行（启动过程中容器还不能处理请求）
+     * 
+     * @param cmp
+     */
+    private void precompileJsp(final Component cmp) {
+        JspPrecompiler precompiler = getJspPrecompiler();
+        if (null == precompiler || !this.running) {
+            return;
+        }
+
+        List<String> jsps = listJsps(cmp);
+        if (!jsps.isEmpty()) {
+            this.precompiles.put(cmp.getCode(), precompiler.precompile(cmp.getCode(), jsps));
+        } else {
+            this.precompiles.remove(cmp.getCode());
+        }
+    }
+
+    /**
+     * 等待组件的jsp预编译完成，部署后激活前调用
+     * 
+     * @param code
+     * @param timeoutMillis 最长等待时间，单位毫秒
+     * @return 没有进行预编译或在超时前完成时返回true，编译是否成功见{@link #getJspPrecompile(String)}
+     */
+    public boolean awaitPrecompile(final String code, final long timeoutMillis) {
+        JspPrecompiler.Result result = this.precompiles.get(code);
+        return null == result || result.await(timeoutMillis);
+    }
+
+    /**
+     * 检查组件的jsp预编译结果，不等待
+     * 
+     * @param code
+     * @return 没有进行预编译或预编译成功时返回true
+     */
+    private boolean checkPrecompile(final String code) {
+        JspPrecompiler.Result result = this.precompiles.get(code);
+        if (null == result) {
+            return true;
+        }
+
+        if (!result.isDone()) {
+            log.error("deploy error: jsp precompilation of component {} is not completed.", code);
+            return false;
+        }
+
+        List<String> failures = result.getFailures();
+        if (!failures.isEmpty()) {
+            log.error("deploy error: {} jsp of component {} failed to compile: {}", failures.size(), code, failures);
+            return false;
+        }
+
+        this.precompiles.remove(code);
+        return true;
+    }
+
+    /**
+     * 获取组件正在进行或尚未确认的jsp预编译
+     * 
+     * @param code
+     * @return 没有预编译时返回null
+     */
+    public JspPrecompiler.Result getJspPrecompile(final String code) {
+        return this.precompiles.get(code);
+    }
+
+    private synchronized JspPrecompiler getJspPrecompiler() {
+        if (null == this.jspPrecompiler) {
+            String url = getSettings().getString(JSP_PRECOMPILE_URL_KEY);
+            if (StringUtils.isNotBlank(url)) {
+                long timeout = getSettings().getDuration(JSP_PRECOMPILE_TIMEOUT_KEY, DEFAULT_JSP_PRECOMPILE_TIMEOUT);
+                this.jspPrecompiler = new JspPrecompiler(url.trim(), getSettings().getInt(JSP_PRECOMPILE_THREADS_KEY, 2),
+                                                         (int) Math.min(timeout, Integer.MAX_VALUE));
+            }
+        }
+        return this.jspPrecompiler;
+    }
+
+    /**
+     * 列出组件webapp中可以直接访问的jsp，WEB-INF和META-INF中的jsp不能通过http访问，不预编译
+     * 
+     * @param cmp
+     * @return jsp的webroot路径，如：/member/test.jsp
+     */
+    private List<String> listJsps(final Component cmp) {
+        List<String> jsps = new ArrayList<String>();
+        try {
+            URL url = new URL(cmp.getLocal().getURL(), ".././webapp");
+
+            if ("jar".equals(url.getProtocol())) {
+                JarFile jarFile = ((JarURLConnection) url.openConnection()).getJarFile();
+
+                Enumeration<JarEntry> entrys = jarFile.entries();
+                while (entrys.hasMoreElements()) {
+                    String name = entrys.nextElement().getName();
+                    if (name.startsWith("webapp/") && name.endsWith(".jsp")) {
+                        String path = name.substring("webapp".length());
+                        if (!isProtected(path.substring(1))) {
+                            jsps.add(path);
+                        }
+                    }
+                }
+            } else {
+                File dir = new File(URLDecoder.decode(url.getPath(), Constants.DEFAULT_ENCODING));
+                collectJsps(dir, "", jsps);
+            }
+        } catch (IOException e) {
+            log.warn("failed to list jsp of component {}: {}", cmp.getCode(), e.getMessage());
+        }
+        return jsps;
+    }
+
+    private static void collectJsps(final File dir, final String path, final List<String> jsps) {
+        File[] files = dir.listFiles();
+        if (null == files) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                if (path.isEmpty() && isProtected(file.getName() + "/")) {
+                    continue;
+                }
+                collectJsps(file, path + "/" + file.getName(), jsps);
+            } else if (file.getName().endsWith(".jsp")) {
+                jsps.add(path + "/" + file.getName());
+            }
+        }
+    }
+
+    /**
+     * 是否位于容器不对外提供访问的目录中
+     * 
+     * @param path webapp中的相对路径，不以"/"开头
+     */
+    private static boolean isProtected(final String path) {
+        return StringUtils.startsWithIgnoreCase(path, "WEB-INF/") || StringUtils.startsWithIgnoreCase(path, "META-INF/");
+    }
+
     /**
      * 复制指定url中的webapp到webroot中
      * 
@@ -409,8 +808,13 @@ public final class Platform {
      */
     public void remove(final Component cmp) {
 
+        long begin = System.currentTimeMillis();
+
         fireEvent(cmp, EventType.beforeRemove);
 
+        // 等待处理中的请求完成
+        drainRequests(cmp.getCode());
+
         // 删除释放出来的webapp
         removeWebapp(cmp);
 
@@ -419,10 +823,69 @@ public final class Platform {
 
         // 在组件列表中将其删除
         components.remove(cmp.getCode());
+        this.requestResolver.rebuild(components.values());
+        gates.remove(cmp.getCode());
+        ComponentMetricsRegistry.getInstance().remove(cmp.getCode());
+        this.precompiles.remove(cmp.getCode());
 
         this.config.clearProperty(cmp.getStateKey());
 
         fireEvent(cmp, EventType.afterRemove);
+
+        journal(LifecycleEvent.Type.REMOVE, cmp.getCode(), null, begin);
+    }
+
+    /**
+     * 在生命周期日志中记录一次组件操作
+     * 
+     * @param type 操作类型
+     * @param code 组件编码
+     * @param state 操作完成后的状态
+     * @param begin 操作开始的时间
+     */
+    private void journal(final LifecycleEvent.Type type, final String code, final String state, final long begin) {
+        LifecycleJournal current = this.journal;
+        if (null != current) {
+            long now = System.currentTimeMillis();
+            current.append(new LifecycleEvent(now, now - begin, type, code, state));
+        }
+    }
+
+    /**
+     * 获取页面静态化引擎，组件通过它注册需要静态化的页面
+     * 
+     * @return 平台未启动时返回null
+     */
+    public StaticPageEngine getStaticPageEngine() {
+        return this.staticPageEngine;
+    }
+
+    /**
+     * 组件生命周期日志，未开启时返回null
+     */
+    public LifecycleJournal getJournal() {
+        return this.journal;
+    }
+
+    /**
+     * 开启agilestage.journal.enabled时打开生命周期日志，日志在平台停止时关闭，参见{@link #stop()}
+     */
+    private void openJournal() {
+        ConfigSnapshot settings = getSettings();
+        if (!settings.getBoolean(JOURNAL_ENABLED_KEY, false)) {
+            return;
+        }
+
+        String dirName = settings.getString(JOURNAL_DIR_KEY);
+        File dir = StringUtils.isBlank(dirName) ? WebappPath.getPathFile("WEB-INF", "journal") : new File(dirName);
+        LifecycleJournal opening = new LifecycleJournal(dir, settings.getInt(JOURNAL_SEGMENT_SIZE_KEY, 4 * 1024 * 1024),
+                                                        settings.getInt(JOURNAL_CHECKPOINT_INTERVAL_KEY, 1000));
+        try {
+            opening.open(settings.getDuration(JOURNAL_FLUSH_INTERVAL_KEY, 1000L));
+            this.journal = opening;
+        } catch (IOException e) {
+            log.error("failed to open lifecycle journal in " + dir + ": " + e.getMessage(), e);
+        }
     }
 
     /**
@@ -468,13 +931,18 @@ public final class Platform {
 
                 PropertiesConfiguration propsCfg = new PropertiesConfiguration(url);
 
+                this.settings.beginUpdate();
                 this.config.setAutoSave(false);
-                Iterator<String> itKeys = propsCfg.getKeys();
-                while (itKeys.hasNext()) {
-                    this.config.clearProperty(itKeys.next());
+                try {
+                    Iterator<String> itKeys = propsCfg.getKeys();
+                    while (itKeys.hasNext()) {
+                        this.config.clearProperty(itKeys.next());
+                    }
+                    this.config.save();
+                } finally {
+                    this.config.setAutoSave(true);
+                    this.settings.endUpdate();
                 }
-                this.config.save();
-                this.config.setAutoSave(true);
 
                 log.info("settings remove success!");
             } catch (IOException e) {
@@ -497,6 +965,13 @@ public final class Platform {
 
         log.info("removing webapp in component...");
 
+        WebappVersions versions = this.webappVersions;
+        if (null != versions) {
+            versions.remove(cmp.getCode());
+            log.info("completed removing webapp for component.");
+            return;
+        }
+
         try {
             if (null != cmp.getLocal()) {
                 URL url = cmp.getLocal().getURL();
@@ -535,12 +1010,19 @@ public final class Platform {
 
     /**
      * 扫描classpath下的组件,并将组件添加到平台中
+     * <p>
+     * 只重新解析指纹发生变化的组件定义文件（参见{@link DefinitionFingerprint}），未变化的文件中的组件保持不变；
+     * 定义文件已不存在的组件从平台中注销。读取失败的定义文件只记录日志，其中的组件保持上一次扫描的结果
+     * 
+     * @return 新增或定义发生变化的组件
      */
     @SuppressWarnings("unchecked")
-    private void scanComponentsInClasspath() {
+    private List<Component> scanComponentsInClasspath() {
 
         log.info("scanning for components...");
 
+        List<Component> changed = new ArrayList<Component>();
+
         String path = new StringBuilder("classpath*:/META-INF/").append(COMPONENTS_DEF).toString();
 
         PathMatchingResourcePatternResolver pathResolver = new PathMatchingResourcePatternResolver();
@@ -551,37 +1033,168 @@ public final class Platform {
             InputStream is = null;
             Document doc = null;
 
+            // xsd只编译一次，所有组件定义文件共用
+            URL xsdUrl = getSettings().getBoolean(VALIDATE_KEY, true) ? getClass().getResource(COMPONENTS_XSD) : null;
+
+            Map<String, ScannedDefinition> scanned = new HashMap<String, ScannedDefinition>();
+
             for (Resource cmponentsRes : cmponentsResArr) {
-                is = cmponentsRes.getInputStream();
-                doc = XmlUtils.createDoc(is);
+                String key = cmponentsRes.getURL().toString();
+                ScannedDefinition previous = this.definitions.get(key);
+
+                DefinitionFingerprint fingerprint = fingerprint(cmponentsRes, previous);
+                if (null != previous && null != fingerprint && fingerprint.sameContent(previous.fingerprint)) {
+                    scanned.put(key, new ScannedDefinition(fingerprint, previous.codes));
+                    continue;
+                }
+
+                log.info("component definition {} is changed, reloading.", cmponentsRes.getDescription());
+
+                try {
+                    // 不使用缓存的jar包，jar包被替换后才能读到新的内容
+                    URLConnection conn = cmponentsRes.getURL().openConnection();
+                    conn.setUseCaches(false);
+                    is = conn.getInputStream();
+                    try {
+                        if (null != xsdUrl) {
+                            XMLErrorHandler errorHandler = new XMLErrorHandler();
+                            doc = XmlUtils.createDoc(is, xsdUrl, errorHandler);
+
+                            if (errorHandler.getErrors().hasContent()) {
+                                log.warn("invalid component definition {}: {}", cmponentsRes.getDescription(),
+                                         errorHandler.getErrors().asXML());
+                            }
+                        } else {
+                            doc = XmlUtils.createDoc(is);
+                        }
+                    } finally {
+                        is.close();
+                    }
+                } catch (IOException e) {
+                    log.error("error in reading component definition " + cmponentsRes.getDescription(), e);
+                    keepPrevious(scanned, key, previous);
+                    continue;
+                } catch (DocumentException e) {
+                    log.error("error in parsing component definition " + cmponentsRes.getDescription(), e);
+                    keepPrevious(scanned, key, previous);
+                    continue;
+                }
+
+                List<String> codes = new ArrayList<String>();
                 for (Element el : (List<Element>) doc.getRootElement().elements("component")) {
                     cmp = new Component(el);
 
                     cmp.setLocal(cmponentsRes);
 
+                    Component old = components.get(cmp.getCode());
+                    if (null != old) {
+                        cmp.reuseListener(old);
+                    }
+
                     components.put(cmp.getCode(), cmp);
+                    getOrCreateGate(cmp.getCode());
+
+                    codes.add(cmp.getCode());
+                    changed.add(cmp);
+                }
+                scanned.put(key, new ScannedDefinition(fingerprint, codes));
+            }
+
+            // 注销定义文件已不存在（或已不再包含）的组件
+            Set<String> current = new HashSet<String>();
+            for (ScannedDefinition def : scanned.values()) {
+                current.addAll(def.codes);
+            }
+            boolean removed = false;
+            for (ScannedDefinition def : this.definitions.values()) {
+                for (String code : def.codes) {
+                    if (!current.contains(code)) {
+                        removed |= unregister(code);
+                    }
                 }
-                is.close();
+            }
+            this.definitions = scanned;
+
+            if (!changed.isEmpty() || removed) {
+                this.requestResolver.rebuild(components.values());
             }
         } catch (IOException e2) {
             log.error("error in reading component jar file info!", e2);
-        } catch (DocumentException e) {
-            log.error("error in reading component definition file info!", e);
         }
 
-        log.info("scanning completed.");
+        log.info("scanning completed, {} components changed.", changed.size());
+
+        return changed;
+    }
+
+    /**
+     * 定义文件读取失败时沿用上一次扫描的结果，其中的组件不会被注销；没有上一次的结果时不记录，下次扫描时重新读取
+     */
+    private static void keepPrevious(final Map<String, ScannedDefinition> scanned, final String key,
+                                     final ScannedDefinition previous) {
+        if (null != previous) {
+            scanned.put(key, previous);
+        }
+    }
+
+    /**
+     * 计算组件定义文件的指纹，无法计算时返回null（按已变化处理）
+     */
+    private DefinitionFingerprint fingerprint(final Resource res, final ScannedDefinition previous) {
+        try {
+            return DefinitionFingerprint.of(res.getURL(), null == previous ? null : previous.fingerprint);
+        } catch (IOException e) {
+            log.warn("failed to fingerprint {}: {}", res.getDescription(), e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 从平台中注销定义文件已不存在的组件，不触发组件事件，也不删除组件释放的文件
+     * 
+     * @param code
+     * @return 组件存在并被注销时返回true
+     */
+    private boolean unregister(final String code) {
+        if (null == components.remove(code)) {
+            return false;
+        }
+        log.info("definition of component {} is gone, unregistered.", code);
+
+        RequestGate gate = gates.remove(code);
+        if (null != gate) {
+            gate.close();
+        }
+        ComponentMetricsRegistry.getInstance().remove(code);
+        this.precompiles.remove(code);
+        return true;
     }
 
     /**
      * 启动platform <br/>
      * started 属性控制平台只被启动一次<br/>
-     * 非public方法，限制其只能在本包内被访问到<br/>
+     * 与{@link #stop()}互斥，非public方法，限制其只能在本包内被访问到<br/>
      */
-    void start() {
+    synchronized void start() {
         if (!this.started) {
             this.started = true;
+
+            if (getSettings().getBoolean(WEBAPP_VERSIONED_KEY, false)) {
+                this.webappVersions = new WebappVersions(WebappPath.getRootFile());
+            }
+
+            openJournal();
+
+            String staticDir = getSettings().getString(STATIC_DIR_KEY, StaticPageEngine.DEFAULT_DIR);
+            int staticThreads = getSettings().getInt(STATIC_THREADS_KEY, Runtime.getRuntime().availableProcessors());
+            this.staticPageEngine = new StaticPageEngine(staticDir, staticThreads, Constants.DEFAULT_ENCODING);
+
             refresh();
 
+            this.settings.startWatching(getSettings().getDuration(RELOAD_INTERVAL_KEY, DEFAULT_RELOAD_INTERVAL));
+
+            this.running = true;
+
         } else {
             log.info("platform is already started.");
         }
@@ -593,27 +1206,73 @@ public final class Platform {
      * @param context
      */
     void start(ServletContext context) {
+        WebappPath.init(context);
         start();
     }
 
+    /**
+     * 停止平台，释放平台启动的后台线程等资源，在应用关闭时调用<br/>
+     * 非public方法，限制其只能在本包内被访问到<br/>
+     */
+    synchronized void stop() {
+        if (!this.started) {
+            return;
+        }
+        this.started = false;
+        this.running = false;
+
+        this.settings.stopWatching();
+
+        StaticPageEngine engine = this.staticPageEngine;
+        if (null != engine) {
+            this.staticPageEngine = null;
+            engine.shutdown();
+        }
+
+        if (null != this.jspPrecompiler) {
+            this.jspPrecompiler.shutdown();
+            this.jspPrecompiler = null;
+        }
+        this.precompiles.clear();
+
+        // 关闭时写检查点，下次启动时无需重放
+        LifecycleJournal current = this.journal;
+        if (null != current) {
+            this.journal = null;
+            current.close();
+        }
+
+        ComponentMetricsRegistry.getInstance().clear();
+
+        log.info("platform stopped.");
+    }
+
     /**
      * 检查组件的状态，判断是否需要部署或重新部署
+     * 
+     * @param cmps 需要检查的组件
      */
-    private void stateCheck() {
+    private void stateCheck(final List<Component> cmps) {
 
         log.info("checking component status...");
 
         String stateKey;
-        for (Component cmp : getComponentList()) {
+        for (Component cmp : cmps) {
             stateKey = cmp.getStateKey();
 
-            if (!StringUtils.isBlank(this.config.getString(stateKey))) {
+            if (!StringUtils.isBlank(getSettings().getString(stateKey))) {
                 cmp.setState(this.config);
+
+                if (StringUtils.equals(Component.STATE_ACTIVE, cmp.getState())) {
+                    getOrCreateGate(cmp.getCode()).open();
+                }
             } else {
                 // 自动部署并激活未部署组件
                 log.info("find new component：{}", cmp.getCode());
                 deploy(cmp);
-                active(cmp.getCode());
+                if (!active(cmp.getCode())) {
+                    log.error("new component {} is deployed but not activated.", cmp.getCode());
+                }
             }
 
             if (StringUtils.equals(Component.STATE_ACTIVE, cmp.getState())) {
@@ -664,4 +1323,20 @@ public final class Platform {
     public String getVersion() {
         return VERSION;
     }
+
+    /**
+     * 一个已扫描的组件定义文件
+     */
+    private static final class ScannedDefinition {
+
+        final DefinitionFingerprint fingerprint;
+
+        /** 定义文件中的组件编码 */
+        final List<String> codes;
+
+        ScannedDefinition(final DefinitionFingerprint fingerprint, final List<String> codes) {
+            this.fingerprint = fingerprint;
+            this.codes = codes;
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,33 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.stereotype.Service;
+
+/**
+ * 平台关闭监听
+ * <p>
+ * 应用关闭（ContextLoaderListener销毁根容器）时停止平台，释放平台的后台线程等资源，参见{@link Platform#stop()}
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月26日
+ */
+@Service
+public class ShutdownListener implements ApplicationListener<ContextClosedEvent> {
+
+    private static final Logger log = LoggerFactory.getLogger(ShutdownListener.class);
+
+    @Override
+    public void onApplicationEvent(final ContextClosedEvent event) {
+        if (event.getApplicationContext().getParent() == null) {
+            log.info("Stopping platform...");
+
+            Platform.getInstance().stop();
+        }
+    }
+}
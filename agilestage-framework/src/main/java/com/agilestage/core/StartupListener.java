@@ -5,9 +5,11 @@ package com.agilestage.core;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationListener;
 import org.springframework.context.event.ContextRefreshedEvent;
 import org.springframework.stereotype.Service;
+import org.springframework.web.context.WebApplicationContext;
 
 /**
  * 平台启动监听
@@ -31,7 +33,12 @@ public class StartupListener implements ApplicationListener<ContextRefreshedEven
 	        long start = System.currentTimeMillis();
 
 	        // 启动平台
-	        Platform.getInstance().start();
+	        ApplicationContext context = event.getApplicationContext();
+	        if (context instanceof WebApplicationContext) {
+	            Platform.getInstance().start(((WebApplicationContext) context).getServletContext());
+	        } else {
+	            Platform.getInstance().start();
+	        }
 
 	        log.info("platform started in {} sec.", (System.currentTimeMillis() - start) / TOSEC_RATE);
 		}
@@ -0,0 +1,20 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.core.cache;
+
+/**
+ * 缓存未命中时读取数据的方法
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月20日
+ */
+public interface CacheLoader<K, V> {
+
+    /**
+     * @param key
+     * @return 数据不存在时返回null
+     * @throws Exception 读取失败
+     */
+    V load(K key) throws Exception;
+}
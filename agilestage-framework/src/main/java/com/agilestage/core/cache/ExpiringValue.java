@@ -0,0 +1,61 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.core.cache;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 带有效期的缓存值，支持概率提前刷新
+ * <p>
+ * 按XFetch算法判断是否提前刷新：now - delta * beta * ln(rand) &gt;= expireAt，其中delta为上次读取的耗时。
+ * 越接近过期、读取越慢的值越早开始刷新，且各个请求随机地在过期前触发，热点key过期前通常已经由一个请求在后台刷新完成，
+ * 不会在过期的瞬间集中回源。beta为1时效果较好，大于1时更早刷新。
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月20日
+ */
+public final class ExpiringValue<V> {
+
+    private final V value;
+
+    private final long expireAt;
+
+    /** 读取耗时，单位毫秒 */
+    private final long delta;
+
+    /**
+     * @param value 值，可以为null（缓存不存在的数据）
+     * @param ttlMillis 有效期，单位毫秒
+     * @param delta 读取该值的耗时，单位毫秒
+     */
+    public ExpiringValue(final V value, final long ttlMillis, final long delta) {
+        this.value = value;
+        this.expireAt = System.currentTimeMillis() + ttlMillis;
+        this.delta = Math.max(delta, 1L);
+    }
+
+    public V getValue() {
+        return this.value;
+    }
+
+    public long getExpireAt() {
+        return this.expireAt;
+    }
+
+    public boolean isExpired(final long now) {
+        return now >= this.expireAt;
+    }
+
+    /**
+     * 是否应该提前刷新
+     * 
+     * @param now 当前时间
+     * @param beta 提前的倾向，一般为1
+     */
+    public boolean shouldRefresh(final long now, final double beta) {
+        // 1 - nextDouble()的范围为(0, 1]，避免ln(0)
+        double gap = -this.delta * beta * Math.log(1.0 - ThreadLocalRandom.current().nextDouble());
+        return now + gap >= this.expireAt;
+    }
+}
@@ -0,0 +1,153 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.core.cache;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 自动加载的缓存
+ * <p>
+ * 未命中或已过期时通过{@link SingleFlight}读取，同一个key的并发读取只回源一次；命中时按{@link ExpiringValue#shouldRefresh}
+ * 判断是否需要提前刷新，需要时在后台刷新，当前请求仍直接返回缓存的值。不存在的数据（null）同样缓存，避免反复回源。
+ * <p>
+ * 每次失效递增key的版本号（按key分段），读取以key和版本号合并，失效后的读取不会等待失效前开始的读取；
+ * 读取完成写入缓存后版本号已变化时删除刚写入的值，失效前开始的读取或后台刷新不会把旧数据写回缓存。
+ * <p>
+ * 缓存不限制条目数，适用于key的数量有限的数据，如分类、配置、会员等级等；需要限制条目数时在自己的缓存结构中组合使用
+ * {@link SingleFlight}和{@link ExpiringValue}。
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月20日
+ */
+public class RefreshingCache<K, V> {
+
+    private final ConcurrentHashMap<K, ExpiringValue<V>> entries = new ConcurrentHashMap<K, ExpiringValue<V>>();
+
+    /** 版本号的分段数，2的幂 */
+    private static final int GENERATION_STRIPES = 1024;
+
+    private final SingleFlight<Flight<K>, V> flights = new SingleFlight<Flight<K>, V>();
+
+    /** key的版本号，每次失效时递增 */
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+    private final CacheLoader<K, V> loader;
+
+    /** 读取并计时，版本号未变化时结果写入缓存 */
+    private final CacheLoader<Flight<K>, V> timedLoader;
+
+    private final long ttlMillis;
+
+    private final double beta;
+
+    private final Executor executor;
+
+    /**
+     * @param loader 读取方法
+     * @param ttlMillis 有效期，单位毫秒
+     * @param beta 提前刷新的倾向，一般为1，为0时不提前刷新
+     * @param executor 后台刷新的线程池
+     */
+    public RefreshingCache(final CacheLoader<K, V> loader, final long ttlMillis, final double beta,
+                           final Executor executor) {
+        this.loader = loader;
+        this.ttlMillis = ttlMillis;
+        this.beta = beta;
+        this.executor = executor;
+        this.timedLoader = new CacheLoader<Flight<K>, V>() {
+
+            @Override
+            public V load(final Flight<K> flight) throws Exception {
+                long begin = System.currentTimeMillis();
+                V value = RefreshingCache.this.loader.load(flight.key);
+                ExpiringValue<V> entry = new ExpiringValue<V>(value, RefreshingCache.this.ttlMillis,
+                                                              System.currentTimeMillis() - begin);
+                RefreshingCache.this.entries.put(flight.key, entry);
+
+                // 失效先递增版本号再删除缓存，失效要么发生在这次检查之前（由这里删除），要么它的删除发生在写入之后
+                if (RefreshingCache.this.generations.get(stripe(flight.key)) != flight.generation) {
+                    RefreshingCache.this.entries.remove(flight.key, entry);
+                }
+                return value;
+            }
+        };
+    }
+
+    /**
+     * 读取缓存，未命中时读取数据
+     * 
+     * @param key
+     * @return 数据不存在时返回null
+     * @throws Exception 读取失败
+     */
+    public V get(final K key) throws Exception {
+        Flight<K> flight = new Flight<K>(key, this.generations.get(stripe(key)));
+        ExpiringValue<V> entry = this.entries.get(key);
+        long now = System.currentTimeMillis();
+
+        if (null == entry || entry.isExpired(now)) {
+            return this.flights.load(flight, this.timedLoader);
+        }
+
+        if (this.beta > 0 && entry.shouldRefresh(now, this.beta)) {
+            this.flights.loadAsync(flight, this.timedLoader, this.executor, null);
+        }
+        return entry.getValue();
+    }
+
+    /**
+     * 删除缓存，下次读取时重新读取
+     */
+    public void invalidate(final K key) {
+        this.generations.incrementAndGet(stripe(key));
+        this.entries.remove(key);
+    }
+
+    public void clear() {
+        for (int i = 0; i < GENERATION_STRIPES; i++) {
+            this.generations.incrementAndGet(i);
+        }
+        this.entries.clear();
+    }
+
+    public int size() {
+        return this.entries.size();
+    }
+
+    private static int stripe(final Object key) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & (GENERATION_STRIPES - 1);
+    }
+
+    /**
+     * 一次读取：key和读取开始时的版本号
+     */
+    private static final class Flight<K> {
+
+        final K key;
+
+        final long generation;
+
+        Flight(final K key, final long generation) {
+            this.key = key;
+            this.generation = generation;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof Flight)) {
+                return false;
+            }
+            Flight<?> other = (Flight<?>) obj;
+            return this.generation == other.generation && this.key.equals(other.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * this.key.hashCode() + (int) (this.generation ^ (this.generation >>> 32));
+        }
+    }
+}
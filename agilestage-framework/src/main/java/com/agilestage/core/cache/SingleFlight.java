@@ -0,0 +1,152 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.core.cache;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 合并同一个key的并发读取
+ * <p>
+ * 同一时刻同一个key只有一次读取在进行，期间其他线程对该key的读取等待并共享这一次的结果（包括异常），
+ * 热点key过期时不会有大量请求同时回源到数据库。读取完成后立即移除，之后的读取重新执行，不缓存结果。
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月20日
+ */
+public final class SingleFlight<K, V> {
+
+    private static final Logger log = LoggerFactory.getLogger(SingleFlight.class);
+
+    private final ConcurrentHashMap<K, Call<V>> calls = new ConcurrentHashMap<K, Call<V>>();
+
+    /**
+     * 读取数据，同一个key正在读取时等待其结果
+     * 
+     * @param key
+     * @param loader 读取方法
+     * @return 读取结果
+     * @throws Exception 读取失败时抛出读取方法的异常
+     * @throws InterruptedException 等待时被中断
+     */
+    public V load(final K key, final CacheLoader<K, V> loader) throws Exception {
+        Call<V> call = new Call<V>();
+        Call<V> running = this.calls.putIfAbsent(key, call);
+        if (null != running) {
+            return running.await();
+        }
+
+        execute(key, loader, call);
+        return call.await();
+    }
+
+    /**
+     * 在后台读取数据，同一个key正在读取时直接返回
+     * 
+     * @param key
+     * @param loader 读取方法
+     * @param executor 执行读取的线程池
+     * @param callback 读取完成后的处理，可以为null
+     * @return 是否启动了新的读取
+     */
+    public boolean loadAsync(final K key, final CacheLoader<K, V> loader, final Executor executor,
+                             final Callback<K, V> callback) {
+        final Call<V> call = new Call<V>();
+        if (null != this.calls.putIfAbsent(key, call)) {
+            return false;
+        }
+
+        try {
+            executor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    execute(key, loader, call);
+                    if (null == call.error) {
+                        if (null != callback) {
+                            callback.onLoaded(key, call.value);
+                        }
+                    } else {
+                        log.warn("background load of {} failed: {}", key, call.error.getMessage());
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            call.fail(e);
+            this.calls.remove(key, call);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 正在读取的key的数量
+     */
+    public int inFlight() {
+        return this.calls.size();
+    }
+
+    private void execute(final K key, final CacheLoader<K, V> loader, final Call<V> call) {
+        try {
+            call.succeed(loader.load(key));
+        } catch (Exception e) {
+            call.fail(e);
+        } catch (Error e) {
+            call.fail(e);
+            throw e;
+        } finally {
+            this.calls.remove(key, call);
+        }
+    }
+
+    /**
+     * 一次读取
+     */
+    private static final class Call<V> {
+
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        private V value;
+
+        private Throwable error;
+
+        void succeed(final V v) {
+            this.value = v;
+            this.done.countDown();
+        }
+
+        void fail(final Throwable e) {
+            this.error = e;
+            this.done.countDown();
+        }
+
+        V await() throws Exception {
+            this.done.await();
+            if (null == this.error) {
+                return this.value;
+            }
+            if (this.error instanceof Exception) {
+                throw (Exception) this.error;
+            }
+            throw (Error) this.error;
+        }
+    }
+
+    /**
+     * 后台读取完成后的处理
+     */
+    public interface Callback<K, V> {
+
+        /**
+         * @param key
+         * @param value 读取结果，可能为null
+         */
+        void onLoaded(K key, V value);
+    }
+}
@@ -0,0 +1,24 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.core.config;
+
+/**
+ * 平台配置变化监听接口
+ * <p>
+ * 通过{@link PlatformSettings#addListener(ConfigChangeListener)}注册，配置变化并发布新的快照后回调。
+ * 回调在修改配置的线程或配置文件监视线程中执行，实现中不应有耗时操作。
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月7日
+ */
+public interface ConfigChangeListener {
+
+    /**
+     * 配置发生变化
+     * 
+     * @param oldSnapshot 变化前的配置
+     * @param newSnapshot 变化后的配置
+     */
+    void configChanged(ConfigSnapshot oldSnapshot, ConfigSnapshot newSnapshot);
+}
@@ -0,0 +1,210 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.core.config;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * 平台配置的不可变快照
+ * <p>
+ * 快照在创建时即把配置值预先解析为整数、布尔值和时长，读取时只是一次map查找，不做类型转换，也不需要加锁。
+ * 配置变化时由{@link PlatformSettings}发布新的快照，已获取的快照内容不会改变。
+ * <p>
+ * 时长的格式为数字加单位，单位支持：ms（毫秒）、s（秒）、m（分）、h（小时）、d（天），无单位时为毫秒，如：500ms、30s、5m
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月7日
+ */
+public final class ConfigSnapshot {
+
+    private static final Pattern DURATION_PATTERN = Pattern.compile("(\\d+)\\s*(ms|s|m|h|d)?",
+                                                                    Pattern.CASE_INSENSITIVE);
+
+    /** 空快照 */
+    public static final ConfigSnapshot EMPTY = new ConfigSnapshot(Collections.<String, String> emptyMap(), 0);
+
+    private final long version;
+
+    private final Map<String, String> values;
+
+    private final Map<String, Long> numbers;
+
+    private final Map<String, Boolean> booleans;
+
+    /** 时长，单位毫秒 */
+    private final Map<String, Long> durations;
+
+    /**
+     * @param values 配置项
+     * @param version 快照版本，每次发布新快照时递增
+     */
+    public ConfigSnapshot(final Map<String, String> values, final long version) {
+        this.version = version;
+
+        Map<String, String> strMap = new HashMap<String, String>();
+        Map<String, Long> numMap = new HashMap<String, Long>();
+        Map<String, Boolean> boolMap = new HashMap<String, Boolean>();
+        Map<String, Long> durationMap = new HashMap<String, Long>();
+
+        for (Entry<String, String> entry : values.entrySet()) {
+            String key = entry.getKey();
+            String value = entry.getValue();
+            strMap.put(key, value);
+
+            if (null == value) {
+                continue;
+            }
+            String trimmed = value.trim();
+
+            Long number = parseNumber(trimmed);
+            if (null != number) {
+                numMap.put(key, number);
+            }
+            Boolean bool = parseBoolean(trimmed);
+            if (null != bool) {
+                boolMap.put(key, bool);
+            }
+            Long duration = parseDuration(trimmed);
+            if (null != duration) {
+                durationMap.put(key, duration);
+            }
+        }
+
+        this.values = Collections.unmodifiableMap(strMap);
+        this.numbers = numMap;
+        this.booleans = boolMap;
+        this.durations = durationMap;
+    }
+
+    public long getVersion() {
+        return this.version;
+    }
+
+    public boolean containsKey(final String key) {
+        return this.values.containsKey(key);
+    }
+
+    public Set<String> getKeys() {
+        return this.values.keySet();
+    }
+
+    /**
+     * 只读方式获取全部配置项
+     */
+    public Map<String, String> asMap() {
+        return this.values;
+    }
+
+    public String getString(final String key) {
+        return this.values.get(key);
+    }
+
+    public String getString(final String key, final String defaultValue) {
+        String value = this.values.get(key);
+        return null == value ? defaultValue : value;
+    }
+
+    /**
+     * @return 配置项不存在或不是整数（超出int范围）时返回默认值
+     */
+    public int getInt(final String key, final int defaultValue) {
+        Long value = this.numbers.get(key);
+        if (null == value || value.longValue() > Integer.MAX_VALUE || value.longValue() < Integer.MIN_VALUE) {
+            return defaultValue;
+        }
+        return value.intValue();
+    }
+
+    /**
+     * @return 配置项不存在或不是整数时返回默认值
+     */
+    public long getLong(final String key, final long defaultValue) {
+        Long value = this.numbers.get(key);
+        return null == value ? defaultValue : value.longValue();
+    }
+
+    /**
+     * 布尔值支持：true/false、yes/no、on/off
+     * 
+     * @return 配置项不存在或不是布尔值时返回默认值
+     */
+    public boolean getBoolean(final String key, final boolean defaultValue) {
+        Boolean value = this.booleans.get(key);
+        return null == value ? defaultValue : value.booleanValue();
+    }
+
+    /**
+     * 获取时长
+     * 
+     * @param key
+     * @param defaultMillis 默认值，单位毫秒
+     * @return 时长，单位毫秒。配置项不存在或格式错误时返回默认值
+     */
+    public long getDuration(final String key, final long defaultMillis) {
+        Long value = this.durations.get(key);
+        return null == value ? defaultMillis : value.longValue();
+    }
+
+    private static Long parseNumber(final String value) {
+        if (value.isEmpty() || value.length() > 20) {
+            return null;
+        }
+        try {
+            return Long.valueOf(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static Boolean parseBoolean(final String value) {
+        if ("true".equalsIgnoreCase(value) || "yes".equalsIgnoreCase(value) || "on".equalsIgnoreCase(value)) {
+            return Boolean.TRUE;
+        }
+        if ("false".equalsIgnoreCase(value) || "no".equalsIgnoreCase(value) || "off".equalsIgnoreCase(value)) {
+            return Boolean.FALSE;
+        }
+        return null;
+    }
+
+    private static Long parseDuration(final String value) {
+        Matcher matcher = DURATION_PATTERN.matcher(value);
+        if (!matcher.matches()) {
+            return null;
+        }
+
+        long amount;
+        try {
+            amount = Long.parseLong(matcher.group(1));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+
+        String unit = StringUtils.lowerCase(matcher.group(2));
+        if (null == unit || "ms".equals(unit)) {
+            return amount;
+        } else if ("s".equals(unit)) {
+            return TimeUnit.SECONDS.toMillis(amount);
+        } else if ("m".equals(unit)) {
+            return TimeUnit.MINUTES.toMillis(amount);
+        } else if ("h".equals(unit)) {
+            return TimeUnit.HOURS.toMillis(amount);
+        } else {
+            return TimeUnit.DAYS.toMillis(amount);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ConfigSnapshot[version=" + this.version + ", size=" + this.values.size() + "]";
+    }
+}
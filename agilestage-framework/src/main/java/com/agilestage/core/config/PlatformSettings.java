@@ -0,0 +1,252 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.core.config;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.configuration.ConfigurationException;
+import org.apache.commons.configuration.PropertiesConfiguration;
+import org.apache.commons.configuration.event.ConfigurationEvent;
+import org.apache.commons.configuration.event.ConfigurationListener;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 平台配置快照的发布者
+ * <p>
+ * 配置文件仍由{@link PropertiesConfiguration}读写，每次配置被修改或配置文件被外部修改后，
+ * 重新生成一份{@link ConfigSnapshot}并通过volatile引用发布，读取方通过{@link #get()}获取当前快照。
+ * 快照中是配置文件中的原始值：以逗号分隔的多个值保持原样，${...}也不做替换。
+ * 快照内容变化时回调已注册的{@link ConfigChangeListener}。
+ * <p>
+ * 批量修改配置时在{@link #beginUpdate()}和{@link #endUpdate()}之间进行，期间的修改不逐个发布，结束时只发布一次。
+ * 配置文件的修改时间变化后，只有文件内容与当前配置不同时才重新加载，平台自己保存配置引起的变化被忽略。
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月7日
+ */
+public final class PlatformSettings {
+
+    private static final Logger log = LoggerFactory.getLogger(PlatformSettings.class);
+
+    private final PropertiesConfiguration config;
+
+    private final List<ConfigChangeListener> listeners = new CopyOnWriteArrayList<ConfigChangeListener>();
+
+    private volatile ConfigSnapshot snapshot = ConfigSnapshot.EMPTY;
+
+    private final Object publishLock = new Object();
+
+    /** 发布序号：开始读取配置时递增 */
+    private final AtomicLong publishSeq = new AtomicLong();
+
+    /** 最近一次发布所对应的序号，由publishLock保护 */
+    private long publishedSeq;
+
+    /** 配置文件监视线程 */
+    private ScheduledExecutorService watcher;
+
+    /** 最近一次加载时配置文件的修改时间 */
+    private volatile long lastModified;
+
+    /** 未结束的批量修改数，大于0时修改不逐个发布 */
+    private final AtomicInteger updating = new AtomicInteger();
+
+    public PlatformSettings(final PropertiesConfiguration config) {
+        this.config = config;
+
+        this.config.addConfigurationListener(new ConfigurationListener() {
+
+            @Override
+            public void configurationChanged(final ConfigurationEvent event) {
+                if (!event.isBeforeUpdate() && 0 == PlatformSettings.this.updating.get()) {
+                    publish();
+                }
+            }
+        });
+
+        File file = config.getFile();
+        this.lastModified = null == file ? 0L : file.lastModified();
+
+        publish();
+    }
+
+    /**
+     * 获取当前的配置快照
+     */
+    public ConfigSnapshot get() {
+        return this.snapshot;
+    }
+
+    public void addListener(final ConfigChangeListener listener) {
+        this.listeners.add(listener);
+    }
+
+    public void removeListener(final ConfigChangeListener listener) {
+        this.listeners.remove(listener);
+    }
+
+    /**
+     * 开始批量修改，必须在finally中调用{@link #endUpdate()}
+     */
+    public void beginUpdate() {
+        this.updating.incrementAndGet();
+    }
+
+    /**
+     * 结束批量修改，最外层的批量修改结束时发布一次快照
+     */
+    public void endUpdate() {
+        if (0 == this.updating.decrementAndGet()) {
+            publish();
+        }
+    }
+
+    /**
+     * 根据当前配置重新生成快照，内容变化时发布并通知监听器
+     * <p>
+     * 读取配置时不持有发布锁，避免与PropertiesConfiguration内部的锁形成死锁；
+     * 并发发布时，先开始读取的一方不会覆盖后开始读取的一方发布的快照
+     */
+    public void publish() {
+        long seq = this.publishSeq.incrementAndGet();
+        Map<String, String> values = values(this.config);
+
+        synchronized (this.publishLock) {
+            if (seq < this.publishedSeq) {
+                return;
+            }
+            this.publishedSeq = seq;
+
+            ConfigSnapshot old = this.snapshot;
+            if (values.equals(old.asMap())) {
+                return;
+            }
+
+            ConfigSnapshot current = new ConfigSnapshot(values, old.getVersion() + 1);
+            this.snapshot = current;
+
+            for (ConfigChangeListener listener : this.listeners) {
+                try {
+                    listener.configChanged(old, current);
+                } catch (RuntimeException e) {
+                    log.error("config change listener failed: " + listener, e);
+                }
+            }
+        }
+    }
+
+    private Map<String, String> values(final PropertiesConfiguration source) {
+        Map<String, String> values = new HashMap<String, String>();
+        Iterator<String> keys = source.getKeys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            values.put(key, rawValue(source.getProperty(key)));
+        }
+        return values;
+    }
+
+    /**
+     * 配置项的原始值，PropertiesConfiguration拆分后的多个值重新以分隔符连接
+     */
+    private String rawValue(final Object value) {
+        if (value instanceof Collection) {
+            return StringUtils.join((Collection<?>) value, this.config.getListDelimiter());
+        }
+        return null == value ? null : String.valueOf(value);
+    }
+
+    /**
+     * 开始监视配置文件，文件被修改后重新加载并发布快照
+     * 
+     * @param intervalMillis 检查间隔，单位毫秒，小于等于0时不监视
+     */
+    public synchronized void startWatching(final long intervalMillis) {
+        if (intervalMillis <= 0 || null != this.watcher || null == this.config.getFile()) {
+            return;
+        }
+
+        this.watcher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                Thread t = new Thread(r, "config-watcher");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        this.watcher.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                checkFile();
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+
+        log.info("watching config file {} every {} ms.", this.config.getFile(), intervalMillis);
+    }
+
+    /**
+     * 停止监视配置文件
+     */
+    public synchronized void stopWatching() {
+        if (null != this.watcher) {
+            this.watcher.shutdownNow();
+            this.watcher = null;
+        }
+    }
+
+    private void checkFile() {
+        long modified = this.config.getFile().lastModified();
+        // 批量修改期间文件与内存中的配置不一致，等批量修改结束后再检查
+        if (modified == this.lastModified || this.updating.get() > 0) {
+            return;
+        }
+        this.lastModified = modified;
+
+        try {
+            if (values(readFile()).equals(values(this.config))) {
+                // 平台自己保存的配置
+                return;
+            }
+
+            beginUpdate();
+            try {
+                this.config.refresh();
+            } finally {
+                endUpdate();
+            }
+
+            log.info("config file reloaded, version {}.", this.snapshot.getVersion());
+        } catch (ConfigurationException e) {
+            log.error("failed to reload config file: " + e.getMessage(), e);
+        } catch (RuntimeException e) {
+            log.error("failed to reload config file: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 按当前配置的解析方式读取配置文件，不影响当前配置
+     */
+    private PropertiesConfiguration readFile() throws ConfigurationException {
+        PropertiesConfiguration file = new PropertiesConfiguration();
+        file.setListDelimiter(this.config.getListDelimiter());
+        file.setDelimiterParsingDisabled(this.config.isDelimiterParsingDisabled());
+        file.load(this.config.getFile());
+        return file;
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.core.journal;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * 组件生命周期事件，即日志中的一条记录
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月15日
+ */
+public final class LifecycleEvent {
+
+    /**
+     * 事件类型，按序号写入日志，只能在末尾添加新的类型
+     */
+    public enum Type {
+        DEPLOY,
+        ACTIVE,
+        DISABLE,
+        REMOVE
+    }
+
+    private final long timestamp;
+
+    private final long duration;
+
+    private final Type type;
+
+    private final String code;
+
+    private final String state;
+
+    /**
+     * @param timestamp 事件完成的时间
+     * @param duration 操作耗时，单位毫秒
+     * @param type 事件类型
+     * @param code 组件编码
+     * @param state 操作完成后组件的状态，删除时为null
+     */
+    public LifecycleEvent(final long timestamp, final long duration, final Type type, final String code,
+                          final String state) {
+        this.timestamp = timestamp;
+        this.duration = duration;
+        this.type = type;
+        this.code = code;
+        this.state = state;
+    }
+
+    public long getTimestamp() {
+        return this.timestamp;
+    }
+
+    public long getDuration() {
+        return this.duration;
+    }
+
+    public Type getType() {
+        return this.type;
+    }
+
+    public String getCode() {
+        return this.code;
+    }
+
+    public String getState() {
+        return this.state;
+    }
+
+    @Override
+    public String toString() {
+        return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").format(new Date(this.timestamp)) + " " + this.type
+               + " " + this.code + " -> " + this.state + " (" + this.duration + " ms)";
+    }
+}
@@ -0,0 +1,462 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.core.journal;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.agilestage.core.common.Constants;
+import com.agilestage.core.utils.FileUtil;
+
+/**
+ * 组件生命周期日志
+ * <p>
+ * 组件的每次部署、激活、禁用、删除都以一条定长头部的二进制记录追加到内存映射的日志段中：
+ * 
+ * <pre>
+ * [长度 int][时间 long][耗时 long][类型 byte][编码长度 short][编码][状态长度 short][状态][CRC32 int]
+ * </pre>
+ * 
+ * 日志段写满后创建下一个段，旧的段保留作为历史记录（参见{@link #read(String)}）。
+ * 每隔一定数量的记录写一次检查点：各组件的最新状态及其对应的日志位置，以“临时文件+重命名”的方式写入。
+ * 启动时读取检查点，再重放检查点之后的记录即可恢复各组件的状态；重放到长度为0或CRC不符的记录（写了一半的记录）时停止，
+ * 之后的写入从该位置开始。
+ * <p>
+ * 映射内存由后台线程定期刷到磁盘，进程崩溃不会丢失已追加的记录。
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月15日
+ */
+public final class LifecycleJournal {
+
+    private static final Logger log = LoggerFactory.getLogger(LifecycleJournal.class);
+
+    private static final Charset UTF8 = Charset.forName(Constants.DEFAULT_ENCODING);
+
+    private static final String SEGMENT_PREFIX = "journal-";
+
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final String CHECKPOINT_FILE = "checkpoint";
+
+    private static final String STATE_PREFIX = "state.";
+
+    /** 长度、时间、耗时、类型、两个字符串长度、CRC */
+    private static final int RECORD_OVERHEAD = 4 + 8 + 8 + 1 + 2 + 2 + 4;
+
+    private final File dir;
+
+    private final int segmentSize;
+
+    private final int checkpointInterval;
+
+    /** 组件编码 -> 最新状态，由this保护 */
+    private final Map<String, String> states = new HashMap<String, String>();
+
+    private final CRC32 crc = new CRC32();
+
+    private long segment;
+
+    private MappedByteBuffer buffer;
+
+    private int sinceCheckpoint;
+
+    private boolean dirty;
+
+    private ScheduledExecutorService flusher;
+
+    /**
+     * @param dir 日志目录
+     * @param segmentSize 日志段大小，单位字节
+     * @param checkpointInterval 每追加多少条记录写一次检查点
+     */
+    public LifecycleJournal(final File dir, final int segmentSize, final int checkpointInterval) {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.checkpointInterval = Math.max(checkpointInterval, 1);
+    }
+
+    /**
+     * 打开日志：读取检查点并重放之后的记录
+     * 
+     * @param flushIntervalMillis 映射内存刷盘的间隔，单位毫秒
+     * @throws IOException
+     */
+    public synchronized void open(final long flushIntervalMillis) throws IOException {
+        if (!this.dir.isDirectory() && !this.dir.mkdirs()) {
+            throw new IOException("failed to create journal dir " + this.dir);
+        }
+
+        long[] position = loadCheckpoint();
+        long seq = position[0];
+        int offset = (int) position[1];
+
+        int replayed = 0;
+        long[] segments = listSegments();
+        for (long s : segments) {
+            if (s < seq) {
+                continue;
+            }
+            MappedByteBuffer mapped = map(s);
+            mapped.position(s == seq ? offset : 0);
+
+            LifecycleEvent event;
+            while (null != (event = decode(mapped))) {
+                apply(event);
+                replayed++;
+            }
+
+            this.segment = s;
+            this.buffer = mapped;
+        }
+
+        if (null == this.buffer) {
+            this.segment = Math.max(seq, 1L);
+            this.buffer = map(this.segment);
+            this.buffer.position(this.segment == seq ? offset : 0);
+        }
+
+        log.info("lifecycle journal opened in {}, {} components, {} records replayed.", this.dir,
+                 this.states.size(), replayed);
+
+        if (flushIntervalMillis > 0) {
+            this.flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+                @Override
+                public Thread newThread(final Runnable r) {
+                    Thread t = new Thread(r, "journal-flusher");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            this.flusher.scheduleWithFixedDelay(new Runnable() {
+
+                @Override
+                public void run() {
+                    flush();
+                }
+            }, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 追加一条记录
+     * 
+     * @param event
+     */
+    public synchronized void append(final LifecycleEvent event) {
+        if (null == this.buffer) {
+            throw new IllegalStateException("journal is not opened.");
+        }
+
+        byte[] code = event.getCode().getBytes(UTF8);
+        byte[] state = null == event.getState() ? new byte[0] : event.getState().getBytes(UTF8);
+        int size = RECORD_OVERHEAD + code.length + state.length;
+        if (size > this.segmentSize) {
+            throw new IllegalArgumentException("record is too large: " + event);
+        }
+
+        try {
+            // 放不下时换到下一个段，段尾保留为0作为结束标记
+            if (this.buffer.remaining() < size + 4) {
+                roll();
+            }
+        } catch (IOException e) {
+            log.error("failed to roll journal segment, event not recorded: " + event, e);
+            return;
+        }
+
+        int start = this.buffer.position();
+        this.buffer.position(start + 4);
+        this.buffer.putLong(event.getTimestamp());
+        this.buffer.putLong(event.getDuration());
+        this.buffer.put((byte) event.getType().ordinal());
+        this.buffer.putShort((short) code.length);
+        this.buffer.put(code);
+        this.buffer.putShort((short) state.length);
+        this.buffer.put(state);
+        int end = this.buffer.position();
+
+        this.crc.reset();
+        for (int i = start + 4; i < end; i++) {
+            this.crc.update(this.buffer.get(i));
+        }
+        this.buffer.putInt((int) this.crc.getValue());
+
+        // 最后写入长度，长度不为0的记录才是完整的
+        this.buffer.putInt(start, end - start - 4);
+
+        apply(event);
+        this.dirty = true;
+
+        if (++this.sinceCheckpoint >= this.checkpointInterval) {
+            checkpoint();
+        }
+    }
+
+    /**
+     * 组件的最新状态
+     * 
+     * @param code 组件编码
+     * @return 日志中没有该组件或组件已删除时返回null
+     */
+    public synchronized String getState(final String code) {
+        return this.states.get(code);
+    }
+
+    /**
+     * 全部组件的最新状态
+     */
+    public synchronized Map<String, String> getStates() {
+        return Collections.unmodifiableMap(new HashMap<String, String>(this.states));
+    }
+
+    /**
+     * 读取日志中的历史记录
+     * 
+     * @param code 组件编码，为null时读取全部组件的记录
+     * @return 按时间顺序排列的记录
+     * @throws IOException
+     */
+    public List<LifecycleEvent> read(final String code) throws IOException {
+        List<LifecycleEvent> events = new ArrayList<LifecycleEvent>();
+        for (long s : listSegments()) {
+            ByteBuffer buf;
+            synchronized (this) {
+                buf = s == this.segment && null != this.buffer ? (ByteBuffer) this.buffer.duplicate().flip() : null;
+            }
+            if (null == buf) {
+                buf = mapReadOnly(s);
+            }
+
+            LifecycleEvent event;
+            while (null != (event = decode(buf))) {
+                if (null == code || code.equals(event.getCode())) {
+                    events.add(event);
+                }
+            }
+        }
+        return events;
+    }
+
+    /**
+     * 把映射内存刷到磁盘
+     */
+    public synchronized void flush() {
+        if (this.dirty && null != this.buffer) {
+            this.buffer.force();
+            this.dirty = false;
+        }
+    }
+
+    /**
+     * 写检查点：各组件的最新状态及当前的日志位置
+     */
+    public synchronized void checkpoint() {
+        if (null == this.buffer) {
+            return;
+        }
+        flush();
+
+        Properties props = new Properties();
+        props.setProperty("segment", String.valueOf(this.segment));
+        props.setProperty("offset", String.valueOf(this.buffer.position()));
+        for (Map.Entry<String, String> entry : this.states.entrySet()) {
+            props.setProperty(STATE_PREFIX + entry.getKey(), entry.getValue());
+        }
+
+        try {
+            StringWriter writer = new StringWriter();
+            props.store(writer, "agilestage lifecycle journal checkpoint");
+            FileUtil.writeAtomically(writer.toString(), new File(this.dir, CHECKPOINT_FILE), Constants.DEFAULT_ENCODING);
+            this.sinceCheckpoint = 0;
+        } catch (IOException e) {
+            log.error("failed to write journal checkpoint: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 写检查点并关闭日志
+     */
+    public synchronized void close() {
+        if (null != this.flusher) {
+            this.flusher.shutdownNow();
+            this.flusher = null;
+        }
+        if (null != this.buffer) {
+            checkpoint();
+            this.buffer = null;
+        }
+    }
+
+    private void apply(final LifecycleEvent event) {
+        if (LifecycleEvent.Type.REMOVE == event.getType() || null == event.getState()) {
+            this.states.remove(event.getCode());
+        } else {
+            this.states.put(event.getCode(), event.getState());
+        }
+    }
+
+    private void roll() throws IOException {
+        this.buffer.force();
+        this.segment++;
+        this.buffer = map(this.segment);
+        this.buffer.position(0);
+
+        log.info("journal segment {} created.", this.segment);
+        checkpoint();
+    }
+
+    /**
+     * 从当前位置读取一条记录
+     * 
+     * @return 到达结尾或记录不完整时返回null，此时位置停在该记录的开头
+     */
+    private LifecycleEvent decode(final ByteBuffer buf) {
+        int start = buf.position();
+        if (buf.limit() - start < 4) {
+            return null;
+        }
+        int length = buf.getInt(start);
+        if (length <= 0 || length + 8 > buf.limit() - start) {
+            return null;
+        }
+
+        CRC32 check = new CRC32();
+        for (int i = start + 4; i < start + 4 + length; i++) {
+            check.update(buf.get(i));
+        }
+        if ((int) check.getValue() != buf.getInt(start + 4 + length)) {
+            log.warn("journal record at {} is corrupted, replay stopped.", start);
+            return null;
+        }
+
+        buf.position(start + 4);
+        long timestamp = buf.getLong();
+        long duration = buf.getLong();
+        int type = buf.get();
+        String code = readString(buf);
+        String state = readString(buf);
+        buf.position(start + 8 + length);
+
+        LifecycleEvent.Type[] types = LifecycleEvent.Type.values();
+        if (type < 0 || type >= types.length) {
+            log.warn("unknown journal record type {} at {}, skipped.", type, start);
+            return decode(buf);
+        }
+        return new LifecycleEvent(timestamp, duration, types[type], code, state.isEmpty() ? null : state);
+    }
+
+    private static String readString(final ByteBuffer buf) {
+        byte[] bytes = new byte[buf.getShort()];
+        buf.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    private MappedByteBuffer map(final long seq) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(segmentFile(seq), "rw");
+        try {
+            return file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, this.segmentSize);
+        } finally {
+            file.close();
+        }
+    }
+
+    private ByteBuffer mapReadOnly(final long seq) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(segmentFile(seq), "r");
+        try {
+            return file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+        } finally {
+            file.close();
+        }
+    }
+
+    private File segmentFile(final long seq) {
+        return new File(this.dir, SEGMENT_PREFIX + String.format("%020d", seq) + SEGMENT_SUFFIX);
+    }
+
+    private long[] listSegments() {
+        String[] names = this.dir.list();
+        if (null == names) {
+            return new long[0];
+        }
+
+        long[] seqs = new long[names.length];
+        int count = 0;
+        for (String name : names) {
+            if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                try {
+                    seqs[count++] = Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                                                                  name.length() - SEGMENT_SUFFIX.length()));
+                } catch (NumberFormatException e) {
+                    log.warn("unknown file in journal dir: {}", name);
+                }
+            }
+        }
+        long[] result = Arrays.copyOf(seqs, count);
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * 读取检查点，恢复各组件的状态
+     * 
+     * @return 检查点对应的日志位置：[段号, 偏移]，没有检查点时为[0, 0]
+     */
+    private long[] loadCheckpoint() {
+        File file = new File(this.dir, CHECKPOINT_FILE);
+        if (!file.isFile()) {
+            return new long[] { 0L, 0L };
+        }
+
+        Reader reader = null;
+        try {
+            reader = new InputStreamReader(new FileInputStream(file), UTF8);
+            Properties props = new Properties();
+            props.load(reader);
+
+            for (String name : props.stringPropertyNames()) {
+                if (name.startsWith(STATE_PREFIX)) {
+                    this.states.put(name.substring(STATE_PREFIX.length()), props.getProperty(name));
+                }
+            }
+            return new long[] { Long.parseLong(props.getProperty("segment", "0")),
+                                Long.parseLong(props.getProperty("offset", "0")) };
+        } catch (IOException e) {
+            log.warn("failed to read journal checkpoint, replaying the whole journal: {}", e.getMessage());
+        } catch (NumberFormatException e) {
+            log.warn("invalid journal checkpoint, replaying the whole journal: {}", e.getMessage());
+        } finally {
+            IOUtils.closeQuietly(reader);
+        }
+
+        this.states.clear();
+        return new long[] { 0L, 0L };
+    }
+}
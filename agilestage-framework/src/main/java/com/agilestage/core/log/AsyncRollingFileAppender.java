@@ -0,0 +1,596 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.core.log;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Appender;
+import org.apache.log4j.Layout;
+import org.apache.log4j.Priority;
+import org.apache.log4j.helpers.LogLog;
+import org.apache.log4j.helpers.OnlyOnceErrorHandler;
+import org.apache.log4j.helpers.OptionConverter;
+import org.apache.log4j.spi.ErrorCode;
+import org.apache.log4j.spi.ErrorHandler;
+import org.apache.log4j.spi.Filter;
+import org.apache.log4j.spi.LoggingEvent;
+import org.apache.log4j.spi.OptionHandler;
+
+/**
+ * 异步滚动文件日志
+ * <p>
+ * 业务线程只把日志放入有界无锁环形缓冲区，由后台线程批量格式化并写入文件，写文件不再占用请求线程。
+ * 缓冲区满时按Blocking参数处理：false（默认）丢弃日志并计数，true等待缓冲区有空位。
+ * 文件按大小滚动，与log4j的RollingFileAppender一致。运行指标通过JMX发布，参见{@link AsyncRollingFileAppenderMBean}。
+ * 相对路径的File相对于Tomcat的catalina.base，未设置时依次为catalina.home、当前目录，在Tomcat之外运行时也能写到可用的位置。
+ * <p>
+ * 格式化或写入时的异常（包括RuntimeException）交给ErrorHandler处理，写入线程继续运行。
+ * <p>
+ * 注意：log4j的AppenderSkeleton在doAppend上加了对象锁，因此本类直接实现Appender接口。
+ * 
+ * <pre>
+ * log4j.appender.R=com.agilestage.core.log.AsyncRollingFileAppender
+ * log4j.appender.R.File=logs/agilestage.log
+ * log4j.appender.R.MaxFileSize=10MB
+ * log4j.appender.R.MaxBackupIndex=10
+ * log4j.appender.R.BufferSize=8192
+ * log4j.appender.R.Blocking=false
+ * </pre>
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月8日
+ */
+public class AsyncRollingFileAppender implements Appender, OptionHandler, AsyncRollingFileAppenderMBean {
+
+    /** 写入线程空闲时的最长等待时间 */
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /** 阻塞模式下缓冲区满时的等待时间 */
+    private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    /** 关闭时等待写入线程结束的时间 */
+    private static final long CLOSE_TIMEOUT = 5000L;
+
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    private String name;
+
+    private Layout layout;
+
+    private Priority threshold;
+
+    private ErrorHandler errorHandler = new OnlyOnceErrorHandler();
+
+    private Filter headFilter;
+
+    private Filter tailFilter;
+
+    // 配置参数
+
+    private String fileName;
+
+    private boolean fileAppend = true;
+
+    private String encoding;
+
+    private long maxFileSize = 10 * 1024 * 1024;
+
+    private int maxBackupIndex = 1;
+
+    private int bufferSize = 8192;
+
+    private int batchSize = 512;
+
+    private boolean blocking;
+
+    private boolean locationInfo;
+
+    // 运行状态
+
+    private EventRingBuffer<LoggingEvent> buffer;
+
+    private Thread writerThread;
+
+    /** 写入线程是否处于等待状态，生产者据此决定是否唤醒 */
+    private volatile boolean writerParked;
+
+    private volatile boolean closed;
+
+    private Writer writer;
+
+    /** 当前文件的大小（按字符数估算），只由写入线程访问 */
+    private long fileSize;
+
+    private ObjectName objectName;
+
+    // 指标
+
+    private final AtomicLong appended = new AtomicLong();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final AtomicLong blocked = new AtomicLong();
+
+    private volatile long written;
+
+    private volatile long batches;
+
+    @Override
+    public void activateOptions() {
+        if (null == this.fileName) {
+            LogLog.error("File option not set for appender [" + this.name + "].");
+            return;
+        }
+
+        try {
+            openFile(this.fileAppend);
+        } catch (IOException e) {
+            this.errorHandler.error("failed to open log file " + this.fileName, e, ErrorCode.FILE_OPEN_FAILURE);
+            return;
+        } catch (RuntimeException e) {
+            this.errorHandler.error("failed to open log file " + this.fileName, e, ErrorCode.FILE_OPEN_FAILURE);
+            return;
+        }
+
+        this.buffer = new EventRingBuffer<LoggingEvent>(this.bufferSize);
+        this.writerThread = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "log-writer-" + this.name);
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+
+        registerMBean();
+    }
+
+    @Override
+    public void doAppend(final LoggingEvent event) {
+        if (this.closed || null == this.buffer || !isAsSevereAsThreshold(event.getLevel()) || isDenied(event)) {
+            return;
+        }
+
+        // 与线程相关的信息必须在业务线程中获取
+        event.getNDC();
+        event.getThreadName();
+        event.getMDCCopy();
+        event.getRenderedMessage();
+        event.getThrowableStrRep();
+        if (this.locationInfo) {
+            event.getLocationInformation();
+        }
+
+        if (!this.buffer.offer(event)) {
+            if (!this.blocking) {
+                this.dropped.incrementAndGet();
+                return;
+            }
+
+            this.blocked.incrementAndGet();
+            boolean offered;
+            do {
+                LockSupport.unpark(this.writerThread);
+                LockSupport.parkNanos(FULL_PARK_NANOS);
+                offered = this.buffer.offer(event);
+            } while (!offered && !this.closed);
+
+            if (!offered) {
+                // 等待期间已关闭，日志未放入缓冲区
+                this.dropped.incrementAndGet();
+                return;
+            }
+        }
+        this.appended.incrementAndGet();
+
+        if (this.writerParked) {
+            LockSupport.unpark(this.writerThread);
+        }
+    }
+
+    /**
+     * 写入线程：取出缓冲区中的日志，每批最多batchSize条，一批写完后刷新一次
+     */
+    private void writeLoop() {
+        while (true) {
+            int count;
+            try {
+                count = drain();
+            } catch (RuntimeException e) {
+                // 写入线程不能退出，否则阻塞模式下业务线程将一直等待，非阻塞模式下全部日志被丢弃
+                this.errorHandler.error("log writer failed: " + e.getMessage(), e, ErrorCode.GENERIC_FAILURE);
+                continue;
+            }
+
+            if (count == 0) {
+                if (this.closed) {
+                    break;
+                }
+                this.writerParked = true;
+                // 再检查一次，避免在设置等待标识前放入的日志无人唤醒
+                if (this.buffer.size() == 0) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                this.writerParked = false;
+            }
+        }
+
+        closeFile();
+    }
+
+    private int drain() {
+        int count = 0;
+        LoggingEvent event;
+        while (count < this.batchSize && null != (event = this.buffer.poll())) {
+            write(event);
+            count++;
+        }
+
+        if (count > 0) {
+            try {
+                this.writer.flush();
+            } catch (IOException e) {
+                this.errorHandler.error("failed to flush log file " + this.fileName, e, ErrorCode.FLUSH_FAILURE);
+            } catch (RuntimeException e) {
+                this.errorHandler.error("failed to flush log file " + this.fileName, e, ErrorCode.FLUSH_FAILURE);
+            }
+            this.written += count;
+            this.batches++;
+        }
+        return count;
+    }
+
+    private void write(final LoggingEvent event) {
+        try {
+            String text = this.layout.format(event);
+            this.writer.write(text);
+            this.fileSize += text.length();
+
+            if (this.layout.ignoresThrowable()) {
+                String[] lines = event.getThrowableStrRep();
+                if (null != lines) {
+                    for (String line : lines) {
+                        this.writer.write(line);
+                        this.writer.write(Layout.LINE_SEP);
+                        this.fileSize += line.length() + Layout.LINE_SEP.length();
+                    }
+                }
+            }
+
+            if (this.fileSize >= this.maxFileSize) {
+                rollOver();
+            }
+        } catch (IOException e) {
+            this.errorHandler.error("failed to write log file " + this.fileName, e, ErrorCode.WRITE_FAILURE);
+        } catch (RuntimeException e) {
+            this.errorHandler.error("failed to write log file " + this.fileName, e, ErrorCode.WRITE_FAILURE);
+        }
+    }
+
+    /**
+     * 滚动日志文件：file.(n-1) -> file.n ... file -> file.1
+     */
+    private void rollOver() throws IOException {
+        this.writer.close();
+
+        if (this.maxBackupIndex > 0) {
+            File oldest = new File(this.fileName + '.' + this.maxBackupIndex);
+            if (oldest.exists()) {
+                oldest.delete();
+            }
+            for (int i = this.maxBackupIndex - 1; i >= 1; i--) {
+                File file = new File(this.fileName + "." + i);
+                if (file.exists()) {
+                    file.renameTo(new File(this.fileName + '.' + (i + 1)));
+                }
+            }
+            new File(this.fileName).renameTo(new File(this.fileName + ".1"));
+        }
+
+        openFile(false);
+    }
+
+    private void openFile(final boolean append) throws IOException {
+        File file = new File(this.fileName);
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (!parent.exists()) {
+            parent.mkdirs();
+        }
+
+        FileOutputStream out = new FileOutputStream(file, append);
+        OutputStreamWriter streamWriter = null == this.encoding ? new OutputStreamWriter(out)
+                                                                : new OutputStreamWriter(out, this.encoding);
+        this.writer = new BufferedWriter(streamWriter, WRITE_BUFFER_SIZE);
+        this.fileSize = append ? file.length() : 0L;
+
+        String header = this.layout.getHeader();
+        if (null != header) {
+            this.writer.write(header);
+        }
+    }
+
+    private void closeFile() {
+        if (null == this.writer) {
+            return;
+        }
+        try {
+            String footer = this.layout.getFooter();
+            if (null != footer) {
+                this.writer.write(footer);
+            }
+            this.writer.close();
+        } catch (IOException e) {
+            this.errorHandler.error("failed to close log file " + this.fileName, e, ErrorCode.CLOSE_FAILURE);
+        } catch (RuntimeException e) {
+            this.errorHandler.error("failed to close log file " + this.fileName, e, ErrorCode.CLOSE_FAILURE);
+        }
+    }
+
+    /**
+     * 关闭时写完缓冲区中剩余的日志
+     */
+    @Override
+    public void close() {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+
+        if (null != this.writerThread) {
+            LockSupport.unpark(this.writerThread);
+            try {
+                this.writerThread.join(CLOSE_TIMEOUT);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        unregisterMBean();
+    }
+
+    private boolean isAsSevereAsThreshold(final Priority priority) {
+        return null == this.threshold || priority.isGreaterOrEqual(this.threshold);
+    }
+
+    private boolean isDenied(final LoggingEvent event) {
+        Filter filter = this.headFilter;
+        while (null != filter) {
+            switch (filter.decide(event)) {
+                case Filter.DENY:
+                    return true;
+                case Filter.ACCEPT:
+                    return false;
+                default:
+                    filter = filter.getNext();
+            }
+        }
+        return false;
+    }
+
+    private void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objName = new ObjectName("com.agilestage:type=Logging,name=" + ObjectName.quote(this.name));
+            if (!server.isRegistered(objName)) {
+                server.registerMBean(this, objName);
+                this.objectName = objName;
+            }
+        } catch (JMException e) {
+            LogLog.warn("failed to register log metrics for appender [" + this.name + "].", e);
+        }
+    }
+
+    private void unregisterMBean() {
+        if (null == this.objectName) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.objectName);
+        } catch (JMException e) {
+            LogLog.warn("failed to unregister log metrics for appender [" + this.name + "].", e);
+        }
+        this.objectName = null;
+    }
+
+    // Appender
+
+    @Override
+    public void addFilter(final Filter newFilter) {
+        if (null == this.headFilter) {
+            this.headFilter = newFilter;
+            this.tailFilter = newFilter;
+        } else {
+            this.tailFilter.setNext(newFilter);
+            this.tailFilter = newFilter;
+        }
+    }
+
+    @Override
+    public Filter getFilter() {
+        return this.headFilter;
+    }
+
+    @Override
+    public void clearFilters() {
+        this.headFilter = null;
+        this.tailFilter = null;
+    }
+
+    @Override
+    public String getName() {
+        return this.name;
+    }
+
+    @Override
+    public void setName(final String name) {
+        this.name = name;
+    }
+
+    @Override
+    public ErrorHandler getErrorHandler() {
+        return this.errorHandler;
+    }
+
+    @Override
+    public void setErrorHandler(final ErrorHandler errorHandler) {
+        if (null != errorHandler) {
+            this.errorHandler = errorHandler;
+        }
+    }
+
+    @Override
+    public Layout getLayout() {
+        return this.layout;
+    }
+
+    @Override
+    public void setLayout(final Layout layout) {
+        this.layout = layout;
+    }
+
+    @Override
+    public boolean requiresLayout() {
+        return true;
+    }
+
+    // 配置参数
+
+    public Priority getThreshold() {
+        return this.threshold;
+    }
+
+    public void setThreshold(final Priority threshold) {
+        this.threshold = threshold;
+    }
+
+    public String getFile() {
+        return this.fileName;
+    }
+
+    public void setFile(final String file) {
+        this.fileName = null == file ? null : resolveFile(file.trim());
+    }
+
+    private static String resolveFile(final String file) {
+        if (file.isEmpty() || new File(file).isAbsolute()) {
+            return file;
+        }
+        String base = System.getProperty("catalina.base",
+                                         System.getProperty("catalina.home", System.getProperty("user.dir")));
+        return new File(base, file).getPath();
+    }
+
+    public boolean getAppend() {
+        return this.fileAppend;
+    }
+
+    public void setAppend(final boolean append) {
+        this.fileAppend = append;
+    }
+
+    public String getEncoding() {
+        return this.encoding;
+    }
+
+    public void setEncoding(final String encoding) {
+        this.encoding = encoding;
+    }
+
+    public void setMaxFileSize(final String value) {
+        this.maxFileSize = OptionConverter.toFileSize(value, this.maxFileSize + 1);
+    }
+
+    public int getMaxBackupIndex() {
+        return this.maxBackupIndex;
+    }
+
+    public void setMaxBackupIndex(final int maxBackupIndex) {
+        this.maxBackupIndex = maxBackupIndex;
+    }
+
+    /**
+     * 缓冲区容量，会被调整为2的幂
+     */
+    public void setBufferSize(final int bufferSize) {
+        this.bufferSize = Math.max(bufferSize, 2);
+    }
+
+    /**
+     * 每批写入的最大日志数
+     */
+    public void setBatchSize(final int batchSize) {
+        this.batchSize = Math.max(batchSize, 1);
+    }
+
+    public void setBlocking(final boolean blocking) {
+        this.blocking = blocking;
+    }
+
+    public boolean getLocationInfo() {
+        return this.locationInfo;
+    }
+
+    /**
+     * 布局中需要输出类名、行号等位置信息时需设置为true
+     */
+    public void setLocationInfo(final boolean locationInfo) {
+        this.locationInfo = locationInfo;
+    }
+
+    // 指标
+
+    @Override
+    public int getBufferCapacity() {
+        return null == this.buffer ? 0 : this.buffer.capacity();
+    }
+
+    @Override
+    public int getBufferSize() {
+        return null == this.buffer ? 0 : this.buffer.size();
+    }
+
+    @Override
+    public long getAppendedCount() {
+        return this.appended.get();
+    }
+
+    @Override
+    public long getWrittenCount() {
+        return this.written;
+    }
+
+    @Override
+    public long getDroppedCount() {
+        return this.dropped.get();
+    }
+
+    @Override
+    public long getBlockedCount() {
+        return this.blocked.get();
+    }
+
+    @Override
+    public long getBatchCount() {
+        return this.batches;
+    }
+
+    @Override
+    public boolean isBlocking() {
+        return this.blocking;
+    }
+}
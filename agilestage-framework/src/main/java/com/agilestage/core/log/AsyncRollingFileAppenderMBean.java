@@ -0,0 +1,37 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.core.log;
+
+/**
+ * 异步日志的运行指标，通过JMX发布，ObjectName为：com.agilestage:type=Logging,name=&lt;appender名称&gt;
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月8日
+ */
+public interface AsyncRollingFileAppenderMBean {
+
+    /** 缓冲区容量 */
+    int getBufferCapacity();
+
+    /** 缓冲区中待写入的日志数 */
+    int getBufferSize();
+
+    /** 进入缓冲区的日志数 */
+    long getAppendedCount();
+
+    /** 已写入文件的日志数 */
+    long getWrittenCount();
+
+    /** 缓冲区满时被丢弃的日志数 */
+    long getDroppedCount();
+
+    /** 缓冲区满时等待写入的次数（阻塞模式） */
+    long getBlockedCount();
+
+    /** 批量写入的次数 */
+    long getBatchCount();
+
+    /** 是否为阻塞模式 */
+    boolean isBlocking();
+}
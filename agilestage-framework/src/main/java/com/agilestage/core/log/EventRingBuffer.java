@@ -0,0 +1,89 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.core.log;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 有界无锁环形缓冲区（多生产者、单消费者）
+ * <p>
+ * 生产者通过CAS申请槽位，写入元素后即对消费者可见；消费者按顺序取出元素并清空槽位。
+ * 缓冲区满时{@link #offer(Object)}立即返回false，由调用方决定丢弃还是等待。
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月8日
+ */
+final class EventRingBuffer<E> {
+
+    private final AtomicReferenceArray<E> slots;
+
+    private final int mask;
+
+    /** 下一个可申请的位置 */
+    private final AtomicLong tail = new AtomicLong();
+
+    /** 下一个待消费的位置，只由消费者线程修改 */
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * @param capacity 容量，会被调整为不小于该值的2的幂
+     */
+    EventRingBuffer(final int capacity) {
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.slots = new AtomicReferenceArray<E>(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * 放入元素
+     * 
+     * @return 缓冲区已满时返回false
+     */
+    boolean offer(final E element) {
+        long t;
+        do {
+            t = this.tail.get();
+            if (t - this.head.get() >= this.slots.length()) {
+                return false;
+            }
+        } while (!this.tail.compareAndSet(t, t + 1));
+
+        this.slots.set((int) t & this.mask, element);
+        return true;
+    }
+
+    /**
+     * 取出元素，只能由消费者线程调用
+     * 
+     * @return 没有已写入的元素时返回null
+     */
+    E poll() {
+        long h = this.head.get();
+        int index = (int) h & this.mask;
+
+        // 槽位已被申请但生产者尚未写入时同样返回null
+        E element = this.slots.get(index);
+        if (null != element) {
+            this.slots.set(index, null);
+            this.head.lazySet(h + 1);
+        }
+        return element;
+    }
+
+    /**
+     * 当前缓冲的元素数（近似值）
+     */
+    int size() {
+        long size = this.tail.get() - this.head.get();
+        return (int) Math.max(0, Math.min(size, this.slots.length()));
+    }
+
+    int capacity() {
+        return this.slots.length();
+    }
+}
@@ -0,0 +1,174 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.core.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 单个组件的请求指标
+ * <p>
+ * 按响应状态分类（2xx、3xx、4xx、5xx）分别记录请求耗时（微秒），请求数和错误数使用{@link StripedCounter}累计。
+ * 记录一次请求只做几次原子加，不创建对象。
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月11日
+ */
+public final class ComponentMetrics implements ComponentMetricsMBean {
+
+    /** 状态分类的名称，与{@link #histograms}的下标对应 */
+    private static final String[] STATUS_CLASSES = { "2xx", "3xx", "4xx", "5xx" };
+
+    private static final double MICROS_PER_MILLI = 1000.0;
+
+    private final String code;
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[STATUS_CLASSES.length];
+
+    private final StripedCounter requests = new StripedCounter();
+
+    private final StripedCounter errors = new StripedCounter();
+
+    private volatile long startTime = System.currentTimeMillis();
+
+    public ComponentMetrics(final String code) {
+        this.code = code;
+        for (int i = 0; i < this.histograms.length; i++) {
+            this.histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * 记录一次请求
+     * 
+     * @param status 响应状态码，处理时抛出异常的请求按500记录
+     * @param micros 请求耗时，单位微秒
+     */
+    public void record(final int status, final long micros) {
+        this.requests.increment();
+        if (status >= 500) {
+            this.errors.increment();
+        }
+        this.histograms[statusIndex(status)].record(micros);
+    }
+
+    private static int statusIndex(final int status) {
+        if (status < 300) {
+            return 0;
+        } else if (status < 400) {
+            return 1;
+        } else if (status < 500) {
+            return 2;
+        }
+        return 3;
+    }
+
+    /**
+     * 全部请求的耗时统计
+     */
+    public LatencyHistogram.Snapshot snapshot() {
+        LatencyHistogram.Snapshot merged = this.histograms[0].snapshot();
+        for (int i = 1; i < this.histograms.length; i++) {
+            merged = merged.merge(this.histograms[i].snapshot());
+        }
+        return merged;
+    }
+
+    /**
+     * 各状态分类的耗时统计：分类名称 -> 统计
+     */
+    public Map<String, LatencyHistogram.Snapshot> snapshotByStatus() {
+        Map<String, LatencyHistogram.Snapshot> result = new LinkedHashMap<String, LatencyHistogram.Snapshot>();
+        for (int i = 0; i < this.histograms.length; i++) {
+            result.put(STATUS_CLASSES[i], this.histograms[i].snapshot());
+        }
+        return result;
+    }
+
+    @Override
+    public String getCode() {
+        return this.code;
+    }
+
+    @Override
+    public long getStartTime() {
+        return this.startTime;
+    }
+
+    @Override
+    public long getRequestCount() {
+        return this.requests.sum();
+    }
+
+    @Override
+    public long getErrorCount() {
+        return this.errors.sum();
+    }
+
+    @Override
+    public long getStatus2xxCount() {
+        return this.histograms[0].snapshot().getCount();
+    }
+
+    @Override
+    public long getStatus3xxCount() {
+        return this.histograms[1].snapshot().getCount();
+    }
+
+    @Override
+    public long getStatus4xxCount() {
+        return this.histograms[2].snapshot().getCount();
+    }
+
+    @Override
+    public long getStatus5xxCount() {
+        return this.histograms[3].snapshot().getCount();
+    }
+
+    @Override
+    public double getThroughput() {
+        long elapsed = System.currentTimeMillis() - this.startTime;
+        return elapsed <= 0 ? 0 : getRequestCount() * 1000.0 / elapsed;
+    }
+
+    @Override
+    public double getMeanMillis() {
+        return snapshot().getMean() / MICROS_PER_MILLI;
+    }
+
+    @Override
+    public double getP50Millis() {
+        return snapshot().getValueAtPercentile(50) / MICROS_PER_MILLI;
+    }
+
+    @Override
+    public double getP90Millis() {
+        return snapshot().getValueAtPercentile(90) / MICROS_PER_MILLI;
+    }
+
+    @Override
+    public double getP99Millis() {
+        return snapshot().getValueAtPercentile(99) / MICROS_PER_MILLI;
+    }
+
+    @Override
+    public double getP999Millis() {
+        return snapshot().getValueAtPercentile(99.9) / MICROS_PER_MILLI;
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return snapshot().getMax() / MICROS_PER_MILLI;
+    }
+
+    @Override
+    public void reset() {
+        for (LatencyHistogram histogram : this.histograms) {
+            histogram.reset();
+        }
+        this.requests.reset();
+        this.errors.reset();
+        this.startTime = System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,57 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.core.metrics;
+
+/**
+ * 组件请求指标的JMX接口，耗时的单位为毫秒
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月11日
+ */
+public interface ComponentMetricsMBean {
+
+    String getCode();
+
+    /**
+     * 开始统计的时间
+     */
+    long getStartTime();
+
+    long getRequestCount();
+
+    /**
+     * 返回5xx或处理时抛出异常的请求数
+     */
+    long getErrorCount();
+
+    long getStatus2xxCount();
+
+    long getStatus3xxCount();
+
+    long getStatus4xxCount();
+
+    long getStatus5xxCount();
+
+    /**
+     * 开始统计以来的平均吞吐量（请求数/秒）
+     */
+    double getThroughput();
+
+    double getMeanMillis();
+
+    double getP50Millis();
+
+    double getP90Millis();
+
+    double getP99Millis();
+
+    double getP999Millis();
+
+    double getMaxMillis();
+
+    /**
+     * 清空统计数据，重新开始统计
+     */
+    void reset();
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.core.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 组件请求指标的注册表
+ * <p>
+ * 每个组件第一次被记录时创建{@link ComponentMetrics}，并以com.agilestage:type=ComponentMetrics,name={code}注册到JMX。
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月11日
+ */
+public final class ComponentMetricsRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(ComponentMetricsRegistry.class);
+
+    private static final ComponentMetricsRegistry instance = new ComponentMetricsRegistry();
+
+    private final ConcurrentMap<String, ComponentMetrics> metrics = new ConcurrentHashMap<String, ComponentMetrics>();
+
+    private ComponentMetricsRegistry() {
+    }
+
+    public static ComponentMetricsRegistry getInstance() {
+        return instance;
+    }
+
+    /**
+     * 获取组件的指标，不存在时创建
+     * 
+     * @param code 组件编码
+     */
+    public ComponentMetrics get(final String code) {
+        ComponentMetrics cm = this.metrics.get(code);
+        if (null == cm) {
+            ComponentMetrics created = new ComponentMetrics(code);
+            cm = this.metrics.putIfAbsent(code, created);
+            if (null == cm) {
+                cm = created;
+                register(created);
+            }
+        }
+        return cm;
+    }
+
+    /**
+     * 只读方式获取全部组件的指标
+     */
+    public Map<String, ComponentMetrics> getAll() {
+        return Collections.unmodifiableMap(this.metrics);
+    }
+
+    /**
+     * 删除组件的指标
+     * 
+     * @param code 组件编码
+     */
+    public void remove(final String code) {
+        if (null != this.metrics.remove(code)) {
+            unregister(code);
+        }
+    }
+
+    /**
+     * 删除全部组件的指标，应用关闭时调用，避免JMX中的MBean持有应用的类加载器
+     */
+    public void clear() {
+        for (String code : this.metrics.keySet()) {
+            remove(code);
+        }
+    }
+
+    private void register(final ComponentMetrics cm) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = objectName(cm.getCode());
+            if (!server.isRegistered(name)) {
+                server.registerMBean(cm, name);
+            }
+        } catch (JMException e) {
+            log.warn("failed to register metrics of component {}: {}", cm.getCode(), e.getMessage());
+        }
+    }
+
+    private void unregister(final String code) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = objectName(code);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            log.warn("failed to unregister metrics of component {}: {}", code, e.getMessage());
+        }
+    }
+
+    private static ObjectName objectName(final String code) throws JMException {
+        return new ObjectName("com.agilestage:type=ComponentMetrics,name=" + ObjectName.quote(code));
+    }
+}
@@ -0,0 +1,176 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.core.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 固定内存的无锁耗时直方图
+ * <p>
+ * 按HDR Histogram的方式分桶：每个2的幂区间再线性划分为{@link #SUB_BUCKETS}个子桶，相对误差不超过1/32。
+ * 记录的单位由调用方决定（平台内统一使用微秒），可记录的最大值为2^37-1，更大的值计入最后一个桶。
+ * <p>
+ * 记录时只对一个桶做一次原子加，不创建任何对象；读取时复制当前的桶计数生成{@link Snapshot}。
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月11日
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BITS = 5;
+
+    /** 每个2的幂区间内的子桶数 */
+    static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    /** 可记录的最大值的位数 */
+    private static final int MAX_BITS = 37;
+
+    private static final int BUCKETS = (MAX_BITS - SUB_BITS) * SUB_BUCKETS + SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * 记录一个值，负数按0记录
+     * 
+     * @param value
+     */
+    public void record(final long value) {
+        long v = value < 0 ? 0 : value;
+        this.counts.incrementAndGet(indexOf(v));
+
+        long current = this.max.get();
+        while (v > current && !this.max.compareAndSet(current, v)) {
+            current = this.max.get();
+        }
+    }
+
+    /**
+     * 清空已记录的值
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            this.counts.set(i, 0L);
+        }
+        this.max.set(0L);
+    }
+
+    /**
+     * 读取当前的统计结果
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = this.counts.get(i);
+        }
+        return new Snapshot(copy, this.max.get());
+    }
+
+    static int indexOf(final long value) {
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        if (shift <= 0) {
+            return (int) value;
+        }
+        int index = shift * SUB_BUCKETS + (int) (value >>> shift);
+        return index < BUCKETS ? index : BUCKETS - 1;
+    }
+
+    /**
+     * 桶的取值下限
+     */
+    static long lowerBound(final int index) {
+        int shift = Math.max(0, index / SUB_BUCKETS - 1);
+        return (long) (index - shift * SUB_BUCKETS) << shift;
+    }
+
+    /**
+     * 桶的取值上限
+     */
+    static long upperBound(final int index) {
+        int shift = Math.max(0, index / SUB_BUCKETS - 1);
+        return lowerBound(index) + (1L << shift) - 1;
+    }
+
+    /**
+     * 直方图在某一时刻的只读副本，可以合并多个副本后再计算分位数
+     */
+    public static final class Snapshot {
+
+        private final long[] counts;
+
+        private final long max;
+
+        private final long count;
+
+        Snapshot(final long[] counts, final long max) {
+            this.counts = counts;
+            this.max = max;
+
+            long total = 0;
+            for (long c : counts) {
+                total += c;
+            }
+            this.count = total;
+        }
+
+        /**
+         * 合并两个副本
+         */
+        public Snapshot merge(final Snapshot other) {
+            long[] merged = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                merged[i] = this.counts[i] + other.counts[i];
+            }
+            return new Snapshot(merged, Math.max(this.max, other.max));
+        }
+
+        public long getCount() {
+            return this.count;
+        }
+
+        public long getMax() {
+            return this.max;
+        }
+
+        /**
+         * 平均值（按桶的中间值估算）
+         */
+        public double getMean() {
+            if (this.count == 0) {
+                return 0;
+            }
+            double sum = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                if (this.counts[i] > 0) {
+                    sum += this.counts[i] * ((lowerBound(i) + upperBound(i)) / 2.0);
+                }
+            }
+            return sum / this.count;
+        }
+
+        /**
+         * 分位数，返回所在桶的上限（不超过记录到的最大值）
+         * 
+         * @param percentile 百分位，如：99.9
+         */
+        public long getValueAtPercentile(final double percentile) {
+            if (this.count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * this.count);
+            rank = Math.max(rank, 1);
+
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += this.counts[i];
+                if (seen >= rank) {
+                    return Math.min(upperBound(i), this.max);
+                }
+            }
+            return this.max;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.core.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 分段计数器
+ * <p>
+ * 多个线程频繁累加同一个计数时，按线程把累加分散到不同的槽上，读取时再求和，避免所有线程争用同一个原子变量。
+ * 相邻的槽之间留有间隔，避免不同的槽落在同一缓存行上。
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月11日
+ */
+public final class StripedCounter {
+
+    /** 槽之间的间隔（long的个数），8个long为64字节，即一个缓存行 */
+    private static final int PADDING = 8;
+
+    private static final int STRIPES;
+
+    static {
+        int n = 1;
+        while (n < Runtime.getRuntime().availableProcessors() * 2) {
+            n <<= 1;
+        }
+        STRIPES = n;
+    }
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    public void increment() {
+        add(1L);
+    }
+
+    public void add(final long delta) {
+        this.cells.addAndGet(stripe() * PADDING, delta);
+    }
+
+    /**
+     * 当前的累计值，并发累加时为近似值
+     */
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += this.cells.get(i * PADDING);
+        }
+        return sum;
+    }
+
+    public void reset() {
+        for (int i = 0; i < STRIPES; i++) {
+            this.cells.set(i * PADDING, 0L);
+        }
+    }
+
+    private static int stripe() {
+        long id = Thread.currentThread().getId();
+        int h = (int) (id ^ (id >>> 32));
+        h ^= h >>> 16;
+        h *= 0x45d9f3b;
+        return (h ^ (h >>> 16)) & (STRIPES - 1);
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(sum());
+    }
+}
@@ -0,0 +1,49 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.core.staticize;
+
+/**
+ * 可静态化的页面描述
+ * <p>
+ * 由业务组件实现（如商品详情页），交给{@link StaticPageEngine}在后台生成html文件。
+ * 引擎通过{@link #getFingerprint()}判断页面的输入是否发生变化，未变化的页面不会被重新渲染。
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月5日
+ */
+public interface StaticPage {
+
+    /**
+     * 页面的唯一标识，如：product:1001
+     */
+    String getKey();
+
+    /**
+     * 页面在前台的访问路径（不含contextPath），如：/product/1001.mvc
+     */
+    String getUri();
+
+    /**
+     * 生成的html文件相对于静态页根目录的路径，如：product/1001.html
+     */
+    String getPath();
+
+    /**
+     * 页面输入数据的指纹（如商品的版本号或更新时间），指纹不变时页面不会被重新生成
+     */
+    String getFingerprint();
+
+    /**
+     * 页面所依赖的数据标识，如：product:1001、category:12。对应数据变化时页面需要重新生成
+     */
+    String[] getDependencies();
+
+    /**
+     * 渲染页面内容
+     * 
+     * @return 完整的html内容
+     * @throws Exception 渲染失败时抛出，页面保留上一次生成的结果
+     */
+    String render() throws Exception;
+}
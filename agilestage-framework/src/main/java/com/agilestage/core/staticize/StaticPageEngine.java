@@ -0,0 +1,326 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.core.staticize;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.agilestage.core.common.Constants;
+import com.agilestage.core.utils.FileUtil;
+import com.agilestage.core.utils.WebappPath;
+
+/**
+ * 页面静态化引擎
+ * <p>
+ * 引擎的主要工作包括：
+ * <ul>
+ * <li>通过工作队列在后台线程池中并行渲染页面</li>
+ * <li>比较页面输入指纹，跳过内容未变化的页面</li>
+ * <li>以“临时文件+重命名”的方式写入html，前台不会读到写了一半的页面</li>
+ * <li>数据变化时只重新生成依赖该数据的页面，参见{@link #invalidate(String)}</li>
+ * </ul>
+ * 生成的页面保存在webroot下的静态页目录中，由{@link StaticPageFilter}拦截对应的前台请求并直接返回html。
+ * 同一页面在排队期间多次提交只会渲染一次（以最后一次提交的描述为准）。
+ * 平台重启后，页面重新注册时如果html文件已存在则立即发布，在重新生成完成前继续使用磁盘上的页面。
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月5日
+ */
+public class StaticPageEngine {
+
+    private static final Logger log = LoggerFactory.getLogger(StaticPageEngine.class);
+
+    /** 默认的静态页目录（相对于webroot） */
+    public static final String DEFAULT_DIR = "static";
+
+    /** 关闭引擎时等待队列中任务完成的时间（秒） */
+    private static final long SHUTDOWN_TIMEOUT = 30;
+
+    /** 页面生成锁的分段数，保证同一页面不会被两个线程同时生成 */
+    private static final int LOCK_STRIPES = 64;
+
+    /** 已注册的页面：key -> 页面描述 */
+    private final ConcurrentMap<String, StaticPage> pages = new ConcurrentHashMap<String, StaticPage>();
+
+    /** 等待渲染的页面：key -> 页面描述，用于合并排队期间的重复提交 */
+    private final ConcurrentMap<String, StaticPage> pending = new ConcurrentHashMap<String, StaticPage>();
+
+    /** 已生成页面的输入指纹：key -> 指纹 */
+    private final ConcurrentMap<String, String> fingerprints = new ConcurrentHashMap<String, String>();
+
+    /** 数据依赖索引：依赖标识 -> 页面key集合 */
+    private final ConcurrentMap<String, Set<String>> dependents = new ConcurrentHashMap<String, Set<String>>();
+
+    /** 已发布的页面：前台访问路径 -> 静态页的webroot路径 */
+    private final ConcurrentMap<String, String> published = new ConcurrentHashMap<String, String>();
+
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    private final ExecutorService executor;
+
+    /** 静态页目录（相对于webroot，不以"/"开头和结尾） */
+    private final String webDir;
+
+    private final String charSet;
+
+    public StaticPageEngine() {
+        this(DEFAULT_DIR, Runtime.getRuntime().availableProcessors(), Constants.DEFAULT_ENCODING);
+    }
+
+    /**
+     * @param webDir 静态页目录，相对于webroot
+     * @param threads 渲染线程数
+     * @param charSet 页面编码
+     */
+    public StaticPageEngine(final String webDir, final int threads, final String charSet) {
+        this.webDir = StringUtils.strip(webDir, FileUtil.FILE_SEPARATOR);
+        this.charSet = charSet;
+
+        for (int i = 0; i < this.locks.length; i++) {
+            this.locks[i] = new Object();
+        }
+
+        final AtomicInteger seq = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                                               new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+
+                                                   @Override
+                                                   public Thread newThread(final Runnable r) {
+                                                       Thread t = new Thread(r, "static-page-" + seq.incrementAndGet());
+                                                       t.setDaemon(true);
+                                                       return t;
+                                                   }
+                                               });
+    }
+
+    /**
+     * 注册页面并提交生成
+     * <p>
+     * 已注册的同key页面会被替换，其依赖关系以新的描述为准；页面的html文件已存在时（如平台重启后）先发布已有的文件
+     * 
+     * @param page
+     */
+    public void register(final StaticPage page) {
+        synchronized (lockFor(page.getKey())) {
+            StaticPage old = this.pages.put(page.getKey(), page);
+            if (null != old) {
+                unindex(old);
+                if (!StringUtils.equals(old.getUri(), page.getUri())) {
+                    this.published.remove(old.getUri());
+                }
+            }
+            index(page);
+
+            if (getTargetFile(page).isFile()) {
+                this.published.putIfAbsent(page.getUri(), getWebPath(page));
+            }
+        }
+
+        submit(page);
+    }
+
+    /**
+     * 注销页面，并删除已生成的html文件
+     * <p>
+     * 与该页面的生成持有同一把锁，正在生成的页面不会在注销后被重新发布
+     * 
+     * @param key
+     */
+    public void unregister(final String key) {
+        synchronized (lockFor(key)) {
+            StaticPage page = this.pages.remove(key);
+            if (null == page) {
+                return;
+            }
+            unindex(page);
+            this.pending.remove(key);
+            this.fingerprints.remove(key);
+            this.published.remove(page.getUri());
+
+            FileUtil.removeFile(getTargetFile(page).getPath());
+        }
+    }
+
+    /**
+     * 数据变化时调用，重新生成依赖该数据的全部页面
+     * 
+     * @param dependency 依赖标识，如：product:1001
+     * @return 被提交重新生成的页面数
+     */
+    public int invalidate(final String dependency) {
+        Set<String> keys = this.dependents.get(dependency);
+        if (null == keys) {
+            return 0;
+        }
+
+        int count = 0;
+        for (String key : keys) {
+            StaticPage page = this.pages.get(key);
+            if (null != page) {
+                submit(page);
+                count++;
+            }
+        }
+        log.debug("{} pages submitted for changed data {}", count, dependency);
+        return count;
+    }
+
+    /**
+     * 将页面放入工作队列，排队中的同一页面只保留最新的描述
+     * 
+     * @param page
+     */
+    public void submit(final StaticPage page) {
+        if (null == this.pending.put(page.getKey(), page)) {
+            this.executor.execute(new RenderTask(page.getKey()));
+        }
+    }
+
+    /**
+     * 获取前台路径对应的静态页
+     * 
+     * @param uri 前台访问路径（不含contextPath）
+     * @return 静态页的webroot路径，如：/static/product/1001.html；未生成时返回null
+     */
+    public String lookup(final String uri) {
+        return this.published.get(uri);
+    }
+
+    /**
+     * 关闭引擎，等待已排队的页面生成完成
+     */
+    public void shutdown() {
+        this.executor.shutdown();
+        try {
+            if (!this.executor.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS)) {
+                log.warn("static page engine is not terminated in {} sec.", SHUTDOWN_TIMEOUT);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 渲染并写入页面，输入指纹未变化且文件存在时直接跳过；在页面的锁内执行
+     * 
+     * @param page
+     */
+    private void generate(final StaticPage page) {
+        String key = page.getKey();
+        String fingerprint = page.getFingerprint();
+        File target = getTargetFile(page);
+
+        if (null != fingerprint && fingerprint.equals(this.fingerprints.get(key)) && target.exists()) {
+            log.debug("page {} is not changed, skipped.", key);
+            return;
+        }
+
+        try {
+            long start = System.currentTimeMillis();
+
+            String content = page.render();
+            FileUtil.writeAtomically(content, target, this.charSet);
+
+            // 页面在渲染期间被注销时不再发布；被替换时由新的描述发布
+            StaticPage current = this.pages.get(key);
+            if (null == current) {
+                FileUtil.removeFile(target.getPath());
+                return;
+            }
+            if (current != page) {
+                return;
+            }
+
+            if (null != fingerprint) {
+                this.fingerprints.put(key, fingerprint);
+            }
+            this.published.put(page.getUri(), getWebPath(page));
+
+            log.debug("page {} generated in {} ms.", key, System.currentTimeMillis() - start);
+        } catch (IOException e) {
+            log.error("failed to write static page " + key, e);
+        } catch (Exception e) {
+            log.error("failed to render static page " + key, e);
+        }
+    }
+
+    private void index(final StaticPage page) {
+        String[] deps = page.getDependencies();
+        if (null == deps) {
+            return;
+        }
+        for (String dep : deps) {
+            Set<String> keys = this.dependents.get(dep);
+            if (null == keys) {
+                Set<String> created = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+                keys = this.dependents.putIfAbsent(dep, created);
+                if (null == keys) {
+                    keys = created;
+                }
+            }
+            keys.add(page.getKey());
+        }
+    }
+
+    private void unindex(final StaticPage page) {
+        String[] deps = page.getDependencies();
+        if (null == deps) {
+            return;
+        }
+        for (String dep : deps) {
+            Set<String> keys = this.dependents.get(dep);
+            if (null != keys) {
+                keys.remove(page.getKey());
+            }
+        }
+    }
+
+    private Object lockFor(final String key) {
+        return this.locks[(key.hashCode() & Integer.MAX_VALUE) % LOCK_STRIPES];
+    }
+
+    private File getTargetFile(final StaticPage page) {
+        return WebappPath.getPathFile(this.webDir, page.getPath());
+    }
+
+    private String getWebPath(final StaticPage page) {
+        return FileUtil.path("", this.webDir, page.getPath());
+    }
+
+    /**
+     * 渲染任务，执行时取出队列中该页面最新的描述
+     */
+    private class RenderTask implements Runnable {
+
+        private final String key;
+
+        RenderTask(final String key) {
+            this.key = key;
+        }
+
+        @Override
+        public void run() {
+            synchronized (lockFor(this.key)) {
+                StaticPage page = StaticPageEngine.this.pending.remove(this.key);
+                if (null != page) {
+                    generate(page);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.core.staticize;
+
+import java.io.IOException;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.agilestage.core.Platform;
+import com.agilestage.core.utils.SpringBeanUtils;
+
+/**
+ * 静态页过滤器
+ * <p>
+ * 对已由{@link StaticPageEngine}生成静态页的前台请求，直接转发到html文件，不再渲染jsp。
+ * 默认使用平台的引擎（参见{@link Platform#getStaticPageEngine()}），也可通过初始化参数engineBean指定一个spring bean：
+ * 
+ * <pre>
+ *  &lt;filter&gt;
+ *      &lt;filter-name&gt;staticPageFilter&lt;/filter-name&gt;
+ *      &lt;filter-class&gt;com.agilestage.core.staticize.StaticPageFilter&lt;/filter-class&gt;
+ *  &lt;/filter&gt;
+ * </pre>
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月5日
+ */
+public class StaticPageFilter implements Filter {
+
+    private static final Logger log = LoggerFactory.getLogger(StaticPageFilter.class);
+
+    /** 引擎的spring bean名称，为空时使用平台的引擎 */
+    private String engineBean;
+
+    private volatile StaticPageEngine engine;
+
+    /** 引擎bean不存在时不再重复查找 */
+    private volatile boolean unavailable;
+
+    @Override
+    public void init(final FilterConfig filterConfig) throws ServletException {
+        this.engineBean = StringUtils.trimToNull(filterConfig.getInitParameter("engineBean"));
+    }
+
+    @Override
+    public void doFilter(final ServletRequest request, final ServletResponse response,
+                         final FilterChain chain) throws IOException, ServletException {
+        HttpServletRequest httpRequest = (HttpServletRequest) request;
+
+        StaticPageEngine pageEngine = getEngine();
+        if (null != pageEngine && "GET".equals(httpRequest.getMethod())) {
+            String uri = httpRequest.getRequestURI().substring(httpRequest.getContextPath().length());
+            String target = pageEngine.lookup(uri);
+
+            if (null != target) {
+                httpRequest.getRequestDispatcher(target).forward(request, response);
+                return;
+            }
+        }
+
+        chain.doFilter(request, response);
+    }
+
+    @Override
+    public void destroy() {
+        this.engine = null;
+    }
+
+    private StaticPageEngine getEngine() {
+        if (null == this.engineBean) {
+            return Platform.getInstance().getStaticPageEngine();
+        }
+
+        StaticPageEngine pageEngine = this.engine;
+        if (null == pageEngine && !this.unavailable && null != SpringBeanUtils.getApplicationContext()) {
+            try {
+                pageEngine = SpringBeanUtils.getBean(this.engineBean, StaticPageEngine.class);
+                this.engine = pageEngine;
+            } catch (RuntimeException e) {
+                this.unavailable = true;
+                log.warn("static page engine '{}' is not available: {}", this.engineBean, e.getMessage());
+            }
+        }
+        return pageEngine;
+    }
+}
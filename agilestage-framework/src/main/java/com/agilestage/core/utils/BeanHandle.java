@@ -0,0 +1,93 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.core.utils;
+
+import org.springframework.context.ApplicationContext;
+
+/**
+ * spring bean 句柄
+ * <p>
+ * 第一次访问时按名称或类型解析bean，单例bean的解析结果连同解析时的上下文代数被缓存，之后的访问只是两次volatile读。
+ * spring上下文刷新时{@link SpringBeanUtils}递增上下文代数，代数不同的缓存不再使用，下次访问时重新解析；
+ * 解析期间上下文被刷新时，解析结果标记为旧的代数，不会被当作新上下文的bean。非单例的bean每次访问都从上下文中获取。
+ * <p>
+ * 句柄通过{@link SpringBeanUtils#getHandle(String, Class)}等方法获取
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月6日
+ */
+public final class BeanHandle<T> {
+
+    /** bean名称，按类型解析时为null */
+    private final String name;
+
+    /** bean类型 */
+    private final Class<T> type;
+
+    /** 已解析的单例bean */
+    private volatile Resolved<T> resolved;
+
+    BeanHandle(final String name, final Class<T> type) {
+        this.name = name;
+        this.type = type;
+    }
+
+    /**
+     * 获取bean
+     * 
+     * @return bean实例
+     * @throws org.springframework.beans.BeansException bean不存在或创建失败时抛出
+     */
+    public T get() {
+        long generation = SpringBeanUtils.getContextGeneration();
+        Resolved<T> current = this.resolved;
+        if (null != current && current.generation == generation) {
+            return current.instance;
+        }
+        return resolve(generation);
+    }
+
+    /**
+     * @param generation 开始解析前的上下文代数
+     */
+    private T resolve(final long generation) {
+        ApplicationContext context = SpringBeanUtils.getApplicationContext();
+
+        String beanName = this.name;
+        if (null == beanName) {
+            String[] names = context.getBeanNamesForType(this.type);
+            if (names.length != 1) {
+                // 没有或存在多个候选bean时交给spring处理（如primary bean或抛出异常）
+                return context.getBean(this.type);
+            }
+            beanName = names[0];
+        }
+
+        T bean = context.getBean(beanName, this.type);
+        if (context.isSingleton(beanName)) {
+            this.resolved = new Resolved<T>(bean, generation);
+        }
+        return bean;
+    }
+
+    /**
+     * 已解析的单例bean及解析时的上下文代数
+     */
+    private static final class Resolved<T> {
+
+        final T instance;
+
+        final long generation;
+
+        Resolved(final T instance, final long generation) {
+            this.instance = instance;
+            this.generation = generation;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "BeanHandle[name=" + this.name + ", type=" + this.type.getName() + "]";
+    }
+}
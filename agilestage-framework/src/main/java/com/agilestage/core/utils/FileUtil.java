@@ -16,6 +16,9 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.List;
@@ -319,14 +322,61 @@ public class FileUtil {
 
         checkAndCreateFilePath(filePath);
         File dest = new File(filePath, fileName);
-        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(dest), chartSet));
-        out.write(content);
-        out.close();
+        writeAtomically(content, dest, chartSet);
 
         return dest.getCanonicalPath();
 
     }
 
+    /**
+     * 以“临时文件+重命名”的方式写入文件内容
+     * <p>
+     * 内容先写入目标目录下的临时文件，写入完成后再替换目标文件，读取方不会看到写了一半的文件
+     * 
+     * @param content 文件内容
+     * @param dest 目标文件
+     * @param charSet 字符集
+     * @throws IOException
+     */
+    public static void writeAtomically(final String content, final File dest, final String charSet) throws IOException {
+        File dir = dest.getAbsoluteFile().getParentFile();
+        checkAndCreateFilePath(dir.getPath());
+
+        File tmp = File.createTempFile(dest.getName(), ".tmp", dir);
+        Writer out = null;
+        try {
+            out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmp), charSet));
+            out.write(content);
+            out.close();
+            out = null;
+
+            moveAtomically(tmp, dest);
+        } finally {
+            IOUtils.closeQuietly(out);
+            if (tmp.exists()) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * 将文件重命名为目标文件（覆盖已存在的目标文件）
+     * <p>
+     * 文件系统不支持原子重命名时退化为普通的覆盖移动
+     * 
+     * @param src 源文件
+     * @param dest 目标文件
+     * @throws IOException
+     */
+    public static void moveAtomically(final File src, final File dest) throws IOException {
+        try {
+            Files.move(src.toPath(), dest.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(src.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
     /**
      * 解压jar包
      * <p>
@@ -3,26 +3,44 @@
  */
 package com.agilestage.core.utils;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.BeansException;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
 import org.springframework.stereotype.Component;
 import org.springframework.web.context.ConfigurableWebApplicationContext;
 
 /**
  * spring bean 相关操作工具类
+ * <p>
+ * 按名称或类型获取bean时使用缓存的{@link BeanHandle}，单例bean只需解析一次。spring上下文刷新时递增上下文代数，
+ * 全部句柄失效，句柄缓存也被清空；句柄缓存最多保存{@value #MAX_HANDLES}个，超出后不再缓存新的句柄。
  * 
  * @author <a href="mailto:729824941@qq.com">fengxing</a>
  * 2016年11月28日
  */
 @Component
-public class SpringBeanUtils implements ApplicationContextAware{
+public class SpringBeanUtils implements ApplicationContextAware, ApplicationListener<ContextRefreshedEvent>{
 
 	private Logger log = LoggerFactory.getLogger(SpringBeanUtils.class);
 	
 	private static ApplicationContext applicationContext = null;
+
+	/** 句柄缓存的最大数量 */
+	private static final int MAX_HANDLES = 1024;
+
+	/** 已创建的bean句柄 */
+	private static final ConcurrentMap<HandleKey, BeanHandle<?>> handles = new ConcurrentHashMap<HandleKey, BeanHandle<?>>();
+
+	/** 上下文代数，每次刷新时递增 */
+	private static final AtomicLong contextGeneration = new AtomicLong();
 	 
     @Override
     public void setApplicationContext(ApplicationContext applicationContext){
@@ -40,13 +58,29 @@ public class SpringBeanUtils implements ApplicationContextAware{
        return applicationContext;
     }
    
+    /**
+     * 当前的上下文代数，句柄据此判断已解析的bean是否仍然有效
+     */
+    static long getContextGeneration() {
+        return contextGeneration.get();
+    }
+
+    /**
+     * spring上下文刷新后，已解析的bean可能已被替换，使全部句柄失效
+     */
+    @Override
+    public void onApplicationEvent(ContextRefreshedEvent event) {
+        contextGeneration.incrementAndGet();
+        handles.clear();
+    }
+   
     /**
      * 通过name获取 Bean.
      * @param name
      * @return
      */
     public static Object getBean(String name){
-       return getApplicationContext().getBean(name);
+       return getHandle(name).get();
     }
    
     /**
@@ -56,7 +90,7 @@ public class SpringBeanUtils implements ApplicationContextAware{
      * @return
      */
     public static <T> T getBean(Class<T> clazz){
-       return getApplicationContext().getBean(clazz);
+       return getHandle(clazz).get();
     }
    
     /**
@@ -66,7 +100,51 @@ public class SpringBeanUtils implements ApplicationContextAware{
      * @return
      */
     public static <T> T getBean(String name,Class<T> clazz){
-       return getApplicationContext().getBean(name, clazz);
+       return getHandle(name, clazz).get();
+    }
+
+    /**
+     * 获取按name解析的bean句柄
+     * 
+     * @param name
+     * @return
+     */
+    public static BeanHandle<Object> getHandle(String name) {
+        return getHandle(name, Object.class);
+    }
+
+    /**
+     * 获取按class解析的bean句柄
+     * 
+     * @param clazz
+     * @return
+     */
+    public static <T> BeanHandle<T> getHandle(Class<T> clazz) {
+        return getHandle(null, clazz);
+    }
+
+    /**
+     * 获取按name和class解析的bean句柄，句柄可被调用方保存以避免重复查找
+     * 
+     * @param name 为null时按class解析
+     * @param clazz
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> BeanHandle<T> getHandle(String name, Class<T> clazz) {
+        HandleKey key = new HandleKey(name, clazz);
+        BeanHandle<?> handle = handles.get(key);
+        if (null == handle) {
+            BeanHandle<T> created = new BeanHandle<T>(name, clazz);
+            if (handles.size() >= MAX_HANDLES) {
+                return created;
+            }
+            handle = handles.putIfAbsent(key, created);
+            if (null == handle) {
+                handle = created;
+            }
+        }
+        return (BeanHandle<T>) handle;
     }
 
 
@@ -88,4 +166,33 @@ public class SpringBeanUtils implements ApplicationContextAware{
     public static void refreshContext() {
         ((ConfigurableWebApplicationContext) getApplicationContext()).refresh();
     }
+
+    /**
+     * 句柄的缓存键：bean名称 + bean类型
+     */
+    private static final class HandleKey {
+
+        private final String name;
+
+        private final Class<?> type;
+
+        HandleKey(String name, Class<?> type) {
+            this.name = name;
+            this.type = type;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof HandleKey)) {
+                return false;
+            }
+            HandleKey other = (HandleKey) obj;
+            return this.type == other.type && (null == this.name ? null == other.name : this.name.equals(other.name));
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (null == this.name ? 0 : this.name.hashCode()) + this.type.hashCode();
+        }
+    }
 }
\ No newline at end of file
@@ -4,17 +4,65 @@
 package com.agilestage.core.utils;
 
 import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.servlet.ServletContext;
+
+import com.agilestage.core.common.Constants;
 
 /**
  * <b>取WEB应用资源的物理路径</b>
  * <p>
+ * 根路径在启动时通过{@link #init(ServletContext)}确定一次，未初始化时（如非web环境）根据classpath推算一次。
+ * 校验过的子路径会被缓存，只有新出现的路径才需要访问文件系统获取规范路径。
  * 
  * @author <a href="mailto:729824941@qq.com">fengxing</a>
  * 2016年11月29日
  */
 public final class WebappPath {
+
+    /** 子路径缓存的最大条目数 */
+    private static final int CACHE_SIZE = 1024;
+
     private static String contextPath;
 
+    /** WEB应用的根目录 */
+    private static volatile File rootFile;
+
+    /** 已校验的子路径：拼接后的相对路径 -> 文件，按访问顺序淘汰 */
+    private static final Map<String, File> pathCache = new LinkedHashMap<String, File>(16, 0.75f, true) {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, File> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private WebappPath() {
+    }
+
+    /**
+     * 使用ServletContext初始化WEB应用的根路径，在平台启动时调用
+     * 
+     * @param context
+     */
+    public static void init(final ServletContext context) {
+        String realPath = context.getRealPath("/");
+        if (null != realPath) {
+            rootFile = new File(realPath);
+        }
+        contextPath = context.getContextPath();
+
+        synchronized (pathCache) {
+            pathCache.clear();
+        }
+    }
+
     public static String getContextPath() {
         return contextPath;
     }
@@ -58,19 +106,50 @@ public final class WebappPath {
      * @throws IllegalArgumentException 当资源路径中包含".."导致其位置超出WEB应用的根路径时抛出
      */
     public static File getPathFile(String... pathes) {
-        String realPath = null;
-        String rootPath = "/";
-
-        realPath = WebappPath.class.getResource(rootPath).getPath();
+        File root = getRoot();
+        if (null == pathes || pathes.length == 0) {
+            return root;
+        }
 
-        int index = realPath.indexOf("WEB-INF");
-        if (index < 0) {
-            index = realPath.indexOf("bin");
+        String key = FileUtil.path(pathes);
+        File file;
+        synchronized (pathCache) {
+            file = pathCache.get(key);
         }
-        if (index > 0) {
-            realPath = realPath.substring(0, index);
+
+        if (null == file) {
+            file = FileUtil.subfile(root, key);
+            synchronized (pathCache) {
+                pathCache.put(key, file);
+            }
         }
+        return file;
+    }
 
-        return FileUtil.subfile(realPath, pathes);
+    /**
+     * 获取WEB应用的根目录，未通过ServletContext初始化时根据classpath推算
+     */
+    private static File getRoot() {
+        File root = rootFile;
+        if (null == root) {
+            String realPath = WebappPath.class.getResource("/").getPath();
+            try {
+                realPath = URLDecoder.decode(realPath, Constants.DEFAULT_ENCODING);
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+
+            int index = realPath.indexOf("WEB-INF");
+            if (index < 0) {
+                index = realPath.indexOf("bin");
+            }
+            if (index > 0) {
+                realPath = realPath.substring(0, index);
+            }
+
+            root = new File(realPath);
+            rootFile = root;
+        }
+        return root;
     }
 }
@@ -3,6 +3,8 @@
  */
 package com.agilestage.core.utils;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -12,23 +14,38 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import javax.xml.XMLConstants;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
-import javax.xml.transform.Transformer;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stax.StAXSource;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.Validator;
 
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.dom4j.Document;
 import org.dom4j.DocumentException;
 import org.dom4j.DocumentHelper;
 import org.dom4j.Element;
+import org.dom4j.io.DocumentSource;
 import org.dom4j.io.OutputFormat;
 import org.dom4j.io.SAXReader;
-import org.dom4j.io.SAXValidator;
 import org.dom4j.io.XMLWriter;
 import org.dom4j.util.XMLErrorHandler;
 import org.slf4j.Logger;
@@ -48,6 +65,25 @@ public final class XmlUtils {
 
     private static String encoding = "UTF-8";
 
+    /** 文件读写的缓冲区大小 */
+    private static final int BUFFER_SIZE = 8192;
+
+    /** StAX输出工厂，创建XMLStreamWriter是线程安全的 */
+    private static final XMLOutputFactory xmlOutputFactory = XMLOutputFactory.newInstance();
+
+    /** 编译xsl样式表所用的工厂，TransformerFactory不是线程安全的，使用时需同步 */
+    private static final TransformerFactory transformerFactory = TransformerFactory.newInstance();
+
+    /** 已编译的xsl样式表：样式表绝对路径 -> 编译结果 */
+    private static final ConcurrentMap<String, CachedTemplates> templatesCache =
+            new ConcurrentHashMap<String, CachedTemplates>();
+
+    /** 编译xsd的工厂，SchemaFactory不是线程安全的，使用时需同步 */
+    private static final SchemaFactory schemaFactory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+
+    /** 已编译的xsd：xsd的url -> 编译结果 */
+    private static final ConcurrentMap<String, CachedSchema> schemaCache = new ConcurrentHashMap<String, CachedSchema>();
+
     private XmlUtils() {
     }
 
@@ -96,6 +132,36 @@ public final class XmlUtils {
         return xmlReader.read(is);
     }
 
+    /**
+     * 使用InputStream读取XML文件，并在解析的同时使用xsd进行校验
+     * <p>
+     * 校验错误不会中断解析，而是交给errorHandler处理，如{@link XMLErrorHandler}会收集全部的校验错误
+     * 
+     * @param is
+     * @param xsdUrl xsd的位置，编译结果会被缓存
+     * @param errorHandler 校验错误的处理器
+     * @throws DocumentException 解析失败或xsd编译失败时抛出
+     */
+    public static Document createDoc(final InputStream is, final URL xsdUrl,
+                                     final ErrorHandler errorHandler) throws DocumentException {
+        try {
+            CachedSchema cached = getCachedSchema(xsdUrl);
+
+            SAXParser parser;
+            synchronized (cached.parserFactory) {
+                parser = cached.parserFactory.newSAXParser();
+            }
+
+            SAXReader xmlReader = new SAXReader(parser.getXMLReader());
+            xmlReader.setErrorHandler(errorHandler);
+            return xmlReader.read(is);
+        } catch (SAXException e) {
+            throw new DocumentException(e.getMessage(), e);
+        } catch (ParserConfigurationException e) {
+            throw new DocumentException(e.getMessage(), e);
+        }
+    }
+
     /**
      * createXml( String StrOXML)
      * 
@@ -146,6 +212,8 @@ public final class XmlUtils {
 
     /**
      * 使用xsd校验xml文件
+     * <p>
+     * xsd的编译结果会被缓存，文件修改后重新编译。需要在读取xml时校验的，请使用{@link #createDoc(InputStream, URL, ErrorHandler)}
      * 
      * @param xsdFileName
      * @param doc
@@ -155,23 +223,11 @@ public final class XmlUtils {
         try {
             XMLErrorHandler errorHandler = new XMLErrorHandler();
 
-            SAXParserFactory factory = SAXParserFactory.newInstance();
-
-            factory.setValidating(true);
-            factory.setNamespaceAware(true);
-
-            SAXParser parser = factory.newSAXParser();
-
-            Document xmlDocument = doc;
-            parser.setProperty("http://java.sun.com/xml/jaxp/properties/schemaLanguage",
-                               "http://www.w3.org/2001/XMLSchema");
-            parser.setProperty("http://java.sun.com/xml/jaxp/properties/schemaSource", "file:" + xsdFileName);
-
-            SAXValidator validator = new SAXValidator(parser.getXMLReader());
+            Validator validator = getSchema(new File(xsdFileName).toURI().toURL()).newValidator();
 
             validator.setErrorHandler(errorHandler);
 
-            validator.validate(xmlDocument);
+            validator.validate(new DocumentSource(doc));
 
             if (errorHandler.getErrors().hasContent()) {
                 log.warn("XSD validate failed !");
@@ -183,12 +239,44 @@ public final class XmlUtils {
             return errorHandler;
         } catch (SAXException ex) {
             log.debug(ex.getMessage(), ex);
-        } catch (ParserConfigurationException e) {
+        } catch (IOException e) {
             log.debug(e.getMessage(), e);
         }
         return null;
     }
 
+    /**
+     * 获取编译后的xsd
+     * <p>
+     * 编译结果按xsd的url缓存，file协议的xsd修改后会重新编译。Schema是线程安全的，可被多个线程共享
+     * 
+     * @param xsdUrl xsd的位置
+     * @return Schema
+     * @throws SAXException xsd编译失败时抛出
+     */
+    public static Schema getSchema(final URL xsdUrl) throws SAXException {
+        return getCachedSchema(xsdUrl).schema;
+    }
+
+    private static CachedSchema getCachedSchema(final URL xsdUrl) throws SAXException {
+        String key = xsdUrl.toExternalForm();
+        // 只有文件系统中的xsd需要检查修改时间，jar包中的xsd在运行期间不会变化
+        long lastModified = "file".equals(xsdUrl.getProtocol()) ? FileUtils.toFile(xsdUrl).lastModified() : 0L;
+
+        CachedSchema cached = schemaCache.get(key);
+        if (null == cached || cached.lastModified != lastModified) {
+            Schema schema;
+            synchronized (schemaFactory) {
+                schema = schemaFactory.newSchema(xsdUrl);
+            }
+            cached = new CachedSchema(schema, lastModified);
+            schemaCache.put(key, cached);
+
+            log.debug("xsd compiled: {}", key);
+        }
+        return cached;
+    }
+
     /**
      * 把Document写到指定路径的xml文件
      * 
@@ -213,49 +301,65 @@ public final class XmlUtils {
 
     /**
      * 把Document写到指定路径的xml文件
+     * <p>
+     * 内容先写入临时文件，完成后再替换目标文件
      * 
      * @param doc Document：要输出的Document对象
      * @param file File：输出的文件路径
      */
     public static void write(final Document doc, final File file) throws IOException {
-        write(doc, new FileOutputStream(file));
+        write(doc, file, null);
     }
 
     /**
      * 把Document写到指定路径的xml文件
+     * <p>
+     * 内容先写入临时文件，完成后再替换目标文件
      * 
      * @param doc
      * @param file
-     * @param format
+     * @param format 为null时使用默认格式
      * @throws IOException
      */
     public static void write(final Document doc, final File file, final OutputFormat format) throws IOException {
-        write(doc, new FileOutputStream(file), format);
+        if (doc == null) {
+            return;
+        }
+
+        File tmp = createTempFile(file);
+        try {
+            OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(tmp), BUFFER_SIZE);
+            if (null == format) {
+                write(doc, outputStream);
+            } else {
+                write(doc, outputStream, format);
+            }
+
+            FileUtil.moveAtomically(tmp, file);
+        } finally {
+            if (tmp.exists()) {
+                tmp.delete();
+            }
+        }
     }
 
     /**
-     * 把Document写到输出流
+     * 把Document写到输出流，写入完成后关闭输出流
+     * <p>
+     * 每次写入创建新的XMLWriter，写入失败时不会影响之后的写入
      * 
      * @param doc
      * @param outputStream
      * @throws IOException
      */
     public static void write(final Document doc, final OutputStream outputStream) throws IOException {
-        if (doc == null) {
-            return;
-        }
         OutputFormat format = new OutputFormat();
         format.setEncoding(encoding);
-
-        XMLWriter xmlWriter = new XMLWriter(outputStream, format);
-
-        xmlWriter.write(doc);
-        outputStream.close();
-        xmlWriter.close();
+        write(doc, outputStream, format);
     }
 
     /**
-     * 把Document写到输出流
+     * 把Document写到输出流，写入完成后关闭输出流
      * 
      * @param doc
      * @param outputStream
@@ -267,10 +371,72 @@ public final class XmlUtils {
         if (doc == null) {
             return;
         }
-        XMLWriter xmlWriter = new XMLWriter(outputStream, format);
-        xmlWriter.write(doc);
-        outputStream.close();
-        xmlWriter.close();
+        try {
+            XMLWriter xmlWriter = new XMLWriter(outputStream, format);
+            xmlWriter.write(doc);
+            // XMLWriter关闭时会先刷新缓冲再关闭输出流
+            xmlWriter.close();
+        } finally {
+            IOUtils.closeQuietly(outputStream);
+        }
+    }
+
+    /**
+     * 以StAX流的方式生成xml文件，适用于不便在内存中构造完整Document的大文件
+     * <p>
+     * 内容先写入临时文件，完成后再替换目标文件
+     * 
+     * @param file 输出的文件
+     * @param emitter 输出xml内容
+     * @throws IOException 写入文件或输出xml内容失败时抛出
+     */
+    public static void write(final File file, final XmlStreamEmitter emitter) throws IOException {
+        File tmp = createTempFile(file);
+        try {
+            write(new BufferedOutputStream(new FileOutputStream(tmp), BUFFER_SIZE), emitter);
+
+            FileUtil.moveAtomically(tmp, file);
+        } finally {
+            if (tmp.exists()) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * 以StAX流的方式输出xml，写入完成后关闭输出流
+     * <p>
+     * 文档的开始和结束由本方法输出，emitter只需输出根元素
+     * 
+     * @param outputStream 输出流
+     * @param emitter 输出xml内容
+     * @throws IOException 写入或输出xml内容失败时抛出
+     */
+    public static void write(final OutputStream outputStream, final XmlStreamEmitter emitter) throws IOException {
+        try {
+            XMLStreamWriter writer = xmlOutputFactory.createXMLStreamWriter(outputStream, encoding);
+            writer.writeStartDocument(encoding, "1.0");
+            emitter.emit(writer);
+            writer.writeEndDocument();
+            writer.close();
+
+            outputStream.close();
+        } catch (XMLStreamException e) {
+            throw new IOException(e.getMessage(), e);
+        } finally {
+            IOUtils.closeQuietly(outputStream);
+        }
+    }
+
+    /**
+     * 在目标文件所在目录中创建临时文件，保证替换目标文件时不需要跨文件系统
+     */
+    private static File createTempFile(final File file) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+        return File.createTempFile(file.getName(), ".tmp", dir);
     }
 
     /**
@@ -283,16 +449,18 @@ public final class XmlUtils {
     public static void
             xmlToHtml(final File xmlFile, final File htmlFile, final File xslFile) throws FileNotFoundException,
                                                                                   TransformerException {
-        TransformerFactory tFactory = TransformerFactory.newInstance();
-
-        Transformer transformer = tFactory.newTransformer(new StreamSource(new FileInputStream(xslFile)));
-
-        transformer.transform(new StreamSource(new FileInputStream(xmlFile)),
-                              new StreamResult(new FileOutputStream(htmlFile)));
+        InputStream inputStream = new BufferedInputStream(new FileInputStream(xmlFile), BUFFER_SIZE);
+        try {
+            transformToFile(new StreamSource(inputStream, xmlFile.toURI().toString()), htmlFile, xslFile);
+        } finally {
+            IOUtils.closeQuietly(inputStream);
+        }
     }
 
     /**
      * Document根据xsl样式表文件生成html文件
+     * <p>
+     * Document直接作为转换的输入，不再序列化成字符串后重新解析
      * 
      * @param doc Document
      * @param htmlFile File
@@ -305,13 +473,145 @@ public final class XmlUtils {
             return;
         }
 
-        String xmlStr = doc2Str(doc);
-        InputStream inputStream = new ByteArrayInputStream(xmlStr.getBytes());
+        transformToFile(new DocumentSource(doc), htmlFile, xslFile);
+    }
+
+    /**
+     * Document根据xsl样式表直接输出到流中，输出流由调用方关闭
+     * 
+     * @param doc Document
+     * @param outputStream 输出流
+     * @param xslFile xsl样式表文件
+     * @throws TransformerException
+     */
+    public static void
+            transform(final Document doc, final OutputStream outputStream, final File xslFile) throws TransformerException {
+        if (doc == null) {
+            return;
+        }
+
+        transform(new DocumentSource(doc), outputStream, xslFile);
+    }
+
+    /**
+     * 以StAX方式读取xml，根据xsl样式表直接输出到流中，适用于较大的xml数据，输出流由调用方关闭
+     * 
+     * @param reader StAX读取器
+     * @param outputStream 输出流
+     * @param xslFile xsl样式表文件
+     * @throws TransformerException
+     */
+    public static void transform(final XMLStreamReader reader, final OutputStream outputStream,
+                                 final File xslFile) throws TransformerException {
+        transform(new StAXSource(reader), outputStream, xslFile);
+    }
+
+    /**
+     * 使用缓存的xsl样式表进行转换，输出流由调用方关闭
+     * 
+     * @param source 转换的输入
+     * @param outputStream 输出流
+     * @param xslFile xsl样式表文件
+     * @throws TransformerException
+     */
+    public static void
+            transform(final Source source, final OutputStream outputStream, final File xslFile) throws TransformerException {
+        getTemplates(xslFile).newTransformer().transform(source, new StreamResult(outputStream));
+    }
+
+    /**
+     * 获取编译后的xsl样式表
+     * <p>
+     * 编译结果按样式表路径缓存，样式表文件修改后会重新编译。Templates是线程安全的，可被多个线程共享
+     * 
+     * @param xslFile xsl样式表文件
+     * @return Templates
+     * @throws TransformerConfigurationException 样式表编译失败时抛出
+     */
+    public static Templates getTemplates(final File xslFile) throws TransformerConfigurationException {
+        String key = xslFile.getAbsolutePath();
+        long lastModified = xslFile.lastModified();
+
+        CachedTemplates cached = templatesCache.get(key);
+        if (null == cached || cached.lastModified != lastModified) {
+            Templates templates;
+            synchronized (transformerFactory) {
+                templates = transformerFactory.newTemplates(new StreamSource(xslFile));
+            }
+            cached = new CachedTemplates(templates, lastModified);
+            templatesCache.put(key, cached);
+
+            log.debug("xsl compiled: {}", key);
+        }
+        return cached.templates;
+    }
+
+    /**
+     * 转换结果写入文件
+     */
+    private static void transformToFile(final Source source, final File htmlFile,
+                                        final File xslFile) throws FileNotFoundException, TransformerException {
+        OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(htmlFile), BUFFER_SIZE);
+        try {
+            transform(source, outputStream, xslFile);
+            outputStream.close();
+        } catch (IOException e) {
+            throw new TransformerException(e);
+        } finally {
+            IOUtils.closeQuietly(outputStream);
+        }
+    }
 
-        TransformerFactory tFactory = TransformerFactory.newInstance();
-        Transformer transformer = tFactory.newTransformer(new StreamSource(new FileInputStream(xslFile)));
+    /**
+     * 以StAX流的方式输出xml内容，参见{@link XmlUtils#write(OutputStream, XmlStreamEmitter)}
+     */
+    public interface XmlStreamEmitter {
+
+        /**
+         * 输出xml内容（不含文档的开始和结束）
+         * 
+         * @param writer
+         * @throws XMLStreamException
+         */
+        void emit(XMLStreamWriter writer) throws XMLStreamException;
+    }
 
-        transformer.transform(new StreamSource(inputStream), new StreamResult(new FileOutputStream(htmlFile)));
+    /**
+     * 编译后的xsd及编译时xsd文件的修改时间
+     * <p>
+     * 同时保存绑定了该xsd的解析器工厂，使解析xml时可以直接进行校验
+     */
+    private static final class CachedSchema {
+
+        private final Schema schema;
+
+        private final long lastModified;
+
+        private final SAXParserFactory parserFactory;
+
+        CachedSchema(final Schema schema, final long lastModified) {
+            this.schema = schema;
+            this.lastModified = lastModified;
+
+            this.parserFactory = SAXParserFactory.newInstance();
+            this.parserFactory.setNamespaceAware(true);
+            this.parserFactory.setSchema(schema);
+        }
+    }
+
+    /**
+     * 编译后的xsl样式表及编译时样式表文件的修改时间
+     */
+    private static final class CachedTemplates {
+
+        private final Templates templates;
+
+        private final long lastModified;
+
+        CachedTemplates(final Templates templates, final long lastModified) {
+            this.templates = templates;
+            this.lastModified = lastModified;
+        }
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,221 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.core.web;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 组件的并发隔离舱
+ * <p>
+ * 以信号量限制组件同时处理的请求数，超出限制的请求最多排队queueLength个，每个最多等待timeout毫秒，
+ * 排队已满或等待超时的请求被拒绝，慢组件因此只会占用有限的容器线程。
+ * <p>
+ * 自适应模式（{@link #MODE_ADAPTIVE}）下，并发上限在1到maxConcurrent之间按AIMD调整：
+ * 请求耗时超过targetLatency或请求被拒绝时上限乘以{@link #DECREASE_FACTOR}（每个targetLatency周期内最多缩减一次，
+ * 避免同一批慢请求把上限连续压到最低），连续完成“上限”个未超时的请求后上限加1。
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月10日
+ */
+public final class Bulkhead {
+
+    /** 固定并发上限 */
+    public static final String MODE_FIXED = "fixed";
+
+    /** 按请求耗时自动调整并发上限 */
+    public static final String MODE_ADAPTIVE = "adaptive";
+
+    /** 自适应模式下上限的缩减比例 */
+    static final double DECREASE_FACTOR = 0.9;
+
+    private final String code;
+
+    private final int maxConcurrent;
+
+    private final int queueLength;
+
+    private final long timeoutMillis;
+
+    private final boolean adaptive;
+
+    private final long targetLatencyNanos;
+
+    private final AdjustableSemaphore permits;
+
+    /** 当前的并发上限，由this保护，读取不加锁 */
+    private volatile int limit;
+
+    /** 自上次调整以来完成的未超时请求数 */
+    private final AtomicInteger successes = new AtomicInteger();
+
+    /** 上次缩减上限的时间（System.nanoTime），由this保护 */
+    private long lastDecrease;
+
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * @param code 组件编码
+     * @param maxConcurrent 最大并发请求数
+     * @param queueLength 最大排队请求数
+     * @param timeoutMillis 排队的最长等待时间，单位毫秒
+     * @param mode 并发上限模式：fixed或adaptive
+     * @param targetLatencyMillis 自适应模式下的目标请求耗时，单位毫秒
+     */
+    public Bulkhead(final String code, final int maxConcurrent, final int queueLength, final long timeoutMillis,
+                    final String mode, final long targetLatencyMillis) {
+        if (maxConcurrent <= 0) {
+            throw new IllegalArgumentException("maxConcurrent must be positive: " + maxConcurrent);
+        }
+        this.code = code;
+        this.maxConcurrent = maxConcurrent;
+        this.queueLength = Math.max(queueLength, 0);
+        this.timeoutMillis = Math.max(timeoutMillis, 0L);
+        this.adaptive = MODE_ADAPTIVE.equalsIgnoreCase(mode);
+        this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(targetLatencyMillis);
+        this.limit = maxConcurrent;
+        this.lastDecrease = System.nanoTime() - this.targetLatencyNanos;
+        this.permits = new AdjustableSemaphore(maxConcurrent);
+    }
+
+    /**
+     * 获取执行许可
+     * 
+     * @return 获取成功时返回true，排队已满、等待超时或线程被中断时返回false
+     */
+    public boolean acquire() {
+        if (this.permits.tryAcquire()) {
+            return true;
+        }
+
+        if (this.waiting.incrementAndGet() > this.queueLength) {
+            this.waiting.decrementAndGet();
+            reject();
+            return false;
+        }
+
+        try {
+            if (this.timeoutMillis > 0 && this.permits.tryAcquire(this.timeoutMillis, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            this.waiting.decrementAndGet();
+        }
+
+        reject();
+        return false;
+    }
+
+    /**
+     * 释放执行许可
+     * 
+     * @param elapsedNanos 请求的处理时间
+     */
+    public void release(final long elapsedNanos) {
+        this.permits.release();
+
+        if (!this.adaptive) {
+            return;
+        }
+
+        if (elapsedNanos > this.targetLatencyNanos) {
+            decrease();
+        } else if (this.successes.incrementAndGet() >= this.limit) {
+            increase();
+        }
+    }
+
+    private void reject() {
+        this.rejected.incrementAndGet();
+        if (this.adaptive) {
+            decrease();
+        }
+    }
+
+    private synchronized void increase() {
+        this.successes.set(0);
+        if (this.limit < this.maxConcurrent) {
+            this.limit++;
+            this.permits.release();
+        }
+    }
+
+    private synchronized void decrease() {
+        this.successes.set(0);
+
+        long now = System.nanoTime();
+        if (now - this.lastDecrease < this.targetLatencyNanos) {
+            return;
+        }
+        this.lastDecrease = now;
+
+        int newLimit = Math.max(1, (int) (this.limit * DECREASE_FACTOR));
+        if (newLimit < this.limit) {
+            this.permits.reducePermits(this.limit - newLimit);
+            this.limit = newLimit;
+        }
+    }
+
+    public String getCode() {
+        return this.code;
+    }
+
+    /**
+     * 当前的并发上限
+     */
+    public int getLimit() {
+        return this.limit;
+    }
+
+    public int getMaxConcurrent() {
+        return this.maxConcurrent;
+    }
+
+    /**
+     * 正在排队的请求数
+     */
+    public int getWaiting() {
+        return this.waiting.get();
+    }
+
+    /**
+     * 被拒绝的请求总数
+     */
+    public long getRejected() {
+        return this.rejected.get();
+    }
+
+    public boolean isAdaptive() {
+        return this.adaptive;
+    }
+
+    @Override
+    public String toString() {
+        return "Bulkhead[code=" + this.code + ", limit=" + this.limit + "/" + this.maxConcurrent + ", queue="
+               + this.queueLength + ", timeout=" + this.timeoutMillis + ", adaptive=" + this.adaptive + "]";
+    }
+
+    /**
+     * 可以缩减许可数的信号量
+     */
+    private static final class AdjustableSemaphore extends Semaphore {
+
+        private static final long serialVersionUID = 1L;
+
+        AdjustableSemaphore(final int permits) {
+            super(permits);
+        }
+
+        @Override
+        protected void reducePermits(final int reduction) {
+            super.reducePermits(reduction);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.core.web;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.agilestage.core.Component;
+import com.agilestage.core.Platform;
+import com.agilestage.core.config.ConfigSnapshot;
+
+/**
+ * 组件并发隔离过滤器
+ * <p>
+ * 按组件定义文件中的扩展属性为组件创建{@link Bulkhead}，限制组件同时处理的请求数，超出限制的请求返回503：
+ * 
+ * <pre>
+ *  &lt;properties&gt;
+ *      &lt;property name="bulkhead.maxConcurrent"&gt;50&lt;/property&gt;
+ *      &lt;property name="bulkhead.queueLength"&gt;20&lt;/property&gt;
+ *      &lt;property name="bulkhead.timeout"&gt;500ms&lt;/property&gt;
+ *      &lt;property name="bulkhead.mode"&gt;adaptive&lt;/property&gt;
+ *      &lt;property name="bulkhead.targetLatency"&gt;1s&lt;/property&gt;
+ *  &lt;/properties&gt;
+ * </pre>
+ * 
+ * 未配置bulkhead.maxConcurrent的组件不做限制。请求所属的组件由{@link ComponentRequestFilter}确定，
+ * 因此本过滤器需要配置在其后。
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月10日
+ */
+public class ComponentBulkheadFilter implements Filter {
+
+    private static final Logger log = LoggerFactory.getLogger(ComponentBulkheadFilter.class);
+
+    public static final String MAX_CONCURRENT_KEY = "bulkhead.maxConcurrent";
+
+    public static final String QUEUE_LENGTH_KEY = "bulkhead.queueLength";
+
+    public static final String TIMEOUT_KEY = "bulkhead.timeout";
+
+    public static final String MODE_KEY = "bulkhead.mode";
+
+    public static final String TARGET_LATENCY_KEY = "bulkhead.targetLatency";
+
+    private static final long DEFAULT_TIMEOUT = 1000L;
+
+    private static final long DEFAULT_TARGET_LATENCY = 1000L;
+
+    /** 拒绝请求时建议客户端的重试间隔（秒） */
+    private static final String RETRY_AFTER = "1";
+
+    /** 组件编码 -> 隔离舱，组件重新加载后按新的定义重建 */
+    private final ConcurrentMap<String, Holder> bulkheads = new ConcurrentHashMap<String, Holder>();
+
+    private Platform platform;
+
+    @Override
+    public void init(final FilterConfig filterConfig) throws ServletException {
+        this.platform = Platform.getInstance();
+    }
+
+    @Override
+    public void doFilter(final ServletRequest request, final ServletResponse response,
+                         final FilterChain chain) throws IOException, ServletException {
+        String code = (String) request.getAttribute(ComponentRequestResolver.COMPONENT_ATTRIBUTE);
+        Bulkhead bulkhead = null == code ? null : getBulkhead(code);
+
+        if (null == bulkhead) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        if (!bulkhead.acquire()) {
+            log.debug("component {} is overloaded, request rejected: {}", code, bulkhead);
+
+            HttpServletResponse httpResponse = (HttpServletResponse) response;
+            httpResponse.setHeader("Retry-After", RETRY_AFTER);
+            httpResponse.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            return;
+        }
+
+        long start = System.nanoTime();
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            bulkhead.release(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        this.bulkheads.clear();
+        this.platform = null;
+    }
+
+    /**
+     * 获取组件的隔离舱，组件定义变化（重新扫描）后重新创建
+     * 
+     * @param code
+     * @return 组件未配置并发限制时返回null
+     */
+    Bulkhead getBulkhead(final String code) {
+        Component cmp = this.platform.getComponent(code);
+        if (null == cmp) {
+            return null;
+        }
+
+        Holder holder = this.bulkheads.get(code);
+        if (null == holder || holder.component != cmp) {
+            Holder created = new Holder(cmp, createBulkhead(cmp));
+            if (null == holder ? null == this.bulkheads.putIfAbsent(code, created)
+                               : this.bulkheads.replace(code, holder, created)) {
+                if (null != created.bulkhead) {
+                    log.info("bulkhead for component {} created: {}", code, created.bulkhead);
+                }
+                holder = created;
+            } else {
+                holder = this.bulkheads.get(code);
+            }
+        }
+        return null == holder ? null : holder.bulkhead;
+    }
+
+    private Bulkhead createBulkhead(final Component cmp) {
+        Properties props = cmp.getProperties();
+        if (null == props || null == props.getProperty(MAX_CONCURRENT_KEY)) {
+            return null;
+        }
+
+        Map<String, String> values = new HashMap<String, String>();
+        for (String name : props.stringPropertyNames()) {
+            values.put(name, props.getProperty(name));
+        }
+        ConfigSnapshot cfg = new ConfigSnapshot(values, 0);
+
+        int maxConcurrent = cfg.getInt(MAX_CONCURRENT_KEY, 0);
+        if (maxConcurrent <= 0) {
+            log.warn("invalid {} for component {}: {}", MAX_CONCURRENT_KEY, cmp.getCode(),
+                     props.getProperty(MAX_CONCURRENT_KEY));
+            return null;
+        }
+
+        return new Bulkhead(cmp.getCode(), maxConcurrent, cfg.getInt(QUEUE_LENGTH_KEY, maxConcurrent),
+                            cfg.getDuration(TIMEOUT_KEY, DEFAULT_TIMEOUT),
+                            cfg.getString(MODE_KEY, Bulkhead.MODE_FIXED),
+                            cfg.getDuration(TARGET_LATENCY_KEY, DEFAULT_TARGET_LATENCY));
+    }
+
+    /**
+     * 隔离舱及其所对应的组件定义
+     */
+    private static final class Holder {
+
+        final Component component;
+
+        final Bulkhead bulkhead;
+
+        Holder(final Component component, final Bulkhead bulkhead) {
+            this.component = component;
+            this.bulkhead = bulkhead;
+        }
+    }
+}
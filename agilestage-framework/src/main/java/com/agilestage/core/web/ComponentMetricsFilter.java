@@ -0,0 +1,79 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.core.web;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.agilestage.core.Platform;
+import com.agilestage.core.metrics.ComponentMetrics;
+import com.agilestage.core.metrics.ComponentMetricsRegistry;
+
+/**
+ * 组件请求指标过滤器
+ * <p>
+ * 按请求所属的组件记录请求耗时和响应状态，统计结果通过JMX和{@link ComponentMetricsServlet}查看。
+ * 请求所属的组件优先从{@link ComponentRequestFilter}设置的请求属性中读取，未配置该过滤器时按{@link ComponentRequestResolver}计算。
+ * <p>
+ * 记录响应状态的包装对象每个请求创建一个，不缓存在容器的工作线程上，重新部署时不会持有应用的类加载器。
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月11日
+ */
+public class ComponentMetricsFilter implements Filter {
+
+    private Platform platform;
+
+    private ComponentMetricsRegistry registry;
+
+    @Override
+    public void init(final FilterConfig filterConfig) throws ServletException {
+        this.platform = Platform.getInstance();
+        this.registry = ComponentMetricsRegistry.getInstance();
+    }
+
+    @Override
+    public void doFilter(final ServletRequest request, final ServletResponse response,
+                         final FilterChain chain) throws IOException, ServletException {
+        HttpServletRequest httpRequest = (HttpServletRequest) request;
+
+        String code = (String) request.getAttribute(ComponentRequestResolver.COMPONENT_ATTRIBUTE);
+        if (null == code) {
+            code = this.platform.resolveComponent(httpRequest.getRequestURI()
+                                                             .substring(httpRequest.getContextPath().length()));
+        }
+        if (null == code) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        ComponentMetrics metrics = this.registry.get(code);
+        StatusCaptureResponse wrapper = new StatusCaptureResponse((HttpServletResponse) response);
+
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            chain.doFilter(request, wrapper);
+            failed = false;
+        } finally {
+            long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+            metrics.record(failed ? HttpServletResponse.SC_INTERNAL_SERVER_ERROR : wrapper.getStatus(), micros);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        this.platform = null;
+        this.registry = null;
+    }
+}
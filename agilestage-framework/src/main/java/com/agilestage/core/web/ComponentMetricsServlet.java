@@ -0,0 +1,94 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.core.web;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.agilestage.core.common.Constants;
+import com.agilestage.core.metrics.ComponentMetrics;
+import com.agilestage.core.metrics.ComponentMetricsRegistry;
+import com.agilestage.core.metrics.LatencyHistogram;
+import com.alibaba.fastjson.JSON;
+
+/**
+ * 以json格式输出各组件的请求指标，耗时的单位为毫秒
+ * <p>
+ * 参数code指定只输出一个组件。统计数据只读，需要清空时通过JMX的reset操作，参见{@link ComponentMetricsRegistry}。
+ * 
+ * <pre>
+ *  &lt;servlet&gt;
+ *      &lt;servlet-name&gt;componentMetrics&lt;/servlet-name&gt;
+ *      &lt;servlet-class&gt;com.agilestage.core.web.ComponentMetricsServlet&lt;/servlet-class&gt;
+ *  &lt;/servlet&gt;
+ * </pre>
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月11日
+ */
+public class ComponentMetricsServlet extends HttpServlet {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final double MICROS_PER_MILLI = 1000.0;
+
+    @Override
+    protected void doGet(final HttpServletRequest request, final HttpServletResponse response)
+            throws ServletException, IOException {
+        write(request, response);
+    }
+
+    private void write(final HttpServletRequest request, final HttpServletResponse response) throws IOException {
+        String code = request.getParameter("code");
+
+        Map<String, Object> result = new LinkedHashMap<String, Object>();
+        for (Entry<String, ComponentMetrics> entry : ComponentMetricsRegistry.getInstance().getAll().entrySet()) {
+            if (null == code || code.equals(entry.getKey())) {
+                result.put(entry.getKey(), toMap(entry.getValue()));
+            }
+        }
+
+        response.setContentType("application/json");
+        response.setCharacterEncoding(Constants.DEFAULT_ENCODING);
+        response.setHeader("Cache-Control", "no-cache");
+        response.getWriter().write(JSON.toJSONString(result));
+    }
+
+    private static Map<String, Object> toMap(final ComponentMetrics metrics) {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("startTime", metrics.getStartTime());
+        map.put("requests", metrics.getRequestCount());
+        map.put("errors", metrics.getErrorCount());
+        map.put("throughput", metrics.getThroughput());
+        map.put("latency", toMap(metrics.snapshot()));
+
+        Map<String, Object> statuses = new LinkedHashMap<String, Object>();
+        for (Entry<String, LatencyHistogram.Snapshot> entry : metrics.snapshotByStatus().entrySet()) {
+            if (entry.getValue().getCount() > 0) {
+                statuses.put(entry.getKey(), toMap(entry.getValue()));
+            }
+        }
+        map.put("status", statuses);
+        return map;
+    }
+
+    private static Map<String, Object> toMap(final LatencyHistogram.Snapshot snapshot) {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("count", snapshot.getCount());
+        map.put("mean", snapshot.getMean() / MICROS_PER_MILLI);
+        map.put("p50", snapshot.getValueAtPercentile(50) / MICROS_PER_MILLI);
+        map.put("p90", snapshot.getValueAtPercentile(90) / MICROS_PER_MILLI);
+        map.put("p99", snapshot.getValueAtPercentile(99) / MICROS_PER_MILLI);
+        map.put("p999", snapshot.getValueAtPercentile(99.9) / MICROS_PER_MILLI);
+        map.put("max", snapshot.getMax() / MICROS_PER_MILLI);
+        return map;
+    }
+}
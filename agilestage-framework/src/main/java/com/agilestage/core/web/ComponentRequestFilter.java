@@ -0,0 +1,117 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.core.web;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.agilestage.core.Platform;
+
+/**
+ * 组件请求过滤器
+ * <p>
+ * 按{@link ComponentRequestResolver}确定请求所属的组件，并通过组件的{@link RequestGate}记录处理中的请求数。
+ * 组件正在被禁用、删除或重新部署时闸门关闭，新请求直接返回503。请求所属的组件编码保存在请求属性
+ * {@link ComponentRequestResolver#COMPONENT_ATTRIBUTE}中，供后续的过滤器使用。
+ * 
+ * <pre>
+ *  &lt;filter&gt;
+ *      &lt;filter-name&gt;componentRequestFilter&lt;/filter-name&gt;
+ *      &lt;filter-class&gt;com.agilestage.core.web.ComponentRequestFilter&lt;/filter-class&gt;
+ *  &lt;/filter&gt;
+ * </pre>
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月9日
+ */
+public class ComponentRequestFilter implements Filter {
+
+    private static final Logger log = LoggerFactory.getLogger(ComponentRequestFilter.class);
+
+    /** 拒绝请求时建议客户端的重试间隔（秒） */
+    private static final String RETRY_AFTER = "5";
+
+    private Platform platform;
+
+    @Override
+    public void init(final FilterConfig filterConfig) throws ServletException {
+        this.platform = Platform.getInstance();
+    }
+
+    @Override
+    public void doFilter(final ServletRequest request, final ServletResponse response,
+                         final FilterChain chain) throws IOException, ServletException {
+        HttpServletRequest httpRequest = (HttpServletRequest) request;
+
+        String path = httpRequest.getRequestURI().substring(httpRequest.getContextPath().length());
+        String code = this.platform.resolveComponent(path);
+        RequestGate gate = null == code ? null : this.platform.getRequestGate(code);
+
+        if (null == gate) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        if (!gate.tryEnter()) {
+            // 部署过程中的jsp预编译请求不受闸门限制，参见JspPrecompiler
+            if (isPrecompile(code, path, httpRequest)) {
+                chain.doFilter(request, response);
+                return;
+            }
+
+            log.debug("component {} is not available, request {} rejected.", code, path);
+
+            HttpServletResponse httpResponse = (HttpServletResponse) response;
+            httpResponse.setHeader("Retry-After", RETRY_AFTER);
+            httpResponse.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            return;
+        }
+
+        try {
+            request.setAttribute(ComponentRequestResolver.COMPONENT_ATTRIBUTE, code);
+            chain.doFilter(request, response);
+        } finally {
+            gate.exit();
+        }
+    }
+
+    /**
+     * 是否为平台正在进行的预编译请求：本机发出、请求jsp、带有该组件本次预编译的令牌
+     */
+    private boolean isPrecompile(final String code, final String path, final HttpServletRequest request) {
+        String query = request.getQueryString();
+        if (null == query || !query.startsWith(JspPrecompiler.PRECOMPILE_PARAM) || !path.endsWith(".jsp")) {
+            return false;
+        }
+
+        JspPrecompiler.Result result = this.platform.getJspPrecompile(code);
+        if (null == result || !result.accepts(request.getHeader(JspPrecompiler.TOKEN_HEADER))) {
+            return false;
+        }
+
+        try {
+            return InetAddress.getByName(request.getRemoteAddr()).isLoopbackAddress();
+        } catch (UnknownHostException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void destroy() {
+        this.platform = null;
+    }
+}
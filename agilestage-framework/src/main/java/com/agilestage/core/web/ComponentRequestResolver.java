@@ -0,0 +1,96 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.core.web;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.commons.lang3.StringUtils;
+
+import com.agilestage.core.Component;
+
+/**
+ * 请求与组件的对应关系
+ * <p>
+ * 请求路径（不含contextPath）以"/{namespace}/"开头或等于组件的入口url时，认为请求属于该组件。
+ * namespace默认为组件编码，可通过组件定义文件中的扩展属性namespace修改：
+ * 
+ * <pre>
+ *  &lt;properties&gt;
+ *      &lt;property name="namespace"&gt;vip&lt;/property&gt;
+ *  &lt;/properties&gt;
+ * </pre>
+ * 
+ * 对应关系在组件变化时整体重建，请求线程只读取不可变的数组，匹配过程不创建对象。
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月9日
+ */
+public final class ComponentRequestResolver {
+
+    /** 组件扩展属性：请求路径前缀 */
+    public static final String NAMESPACE_PROPERTY = "namespace";
+
+    /** 请求属性：请求所属的组件编码 */
+    public static final String COMPONENT_ATTRIBUTE = ComponentRequestResolver.class.getName() + ".COMPONENT";
+
+    private volatile Mapping[] mappings = new Mapping[0];
+
+    /**
+     * 根据组件列表重建对应关系
+     * 
+     * @param components
+     */
+    public void rebuild(final Collection<Component> components) {
+        List<Mapping> list = new ArrayList<Mapping>();
+        for (Component cmp : components) {
+            String namespace = cmp.getCode();
+            Properties props = cmp.getProperties();
+            if (null != props && StringUtils.isNotBlank(props.getProperty(NAMESPACE_PROPERTY))) {
+                namespace = props.getProperty(NAMESPACE_PROPERTY).trim();
+            }
+            namespace = StringUtils.strip(namespace, "/");
+            if (StringUtils.isBlank(namespace)) {
+                continue;
+            }
+
+            String enter = StringUtils.substringBefore(cmp.getEnter(), "?");
+            list.add(new Mapping(cmp.getCode(), "/" + namespace + "/", StringUtils.trimToNull(enter)));
+        }
+        this.mappings = list.toArray(new Mapping[list.size()]);
+    }
+
+    /**
+     * 获取请求所属的组件
+     * 
+     * @param path 请求路径，不含contextPath
+     * @return 组件编码，不属于任何组件时返回null
+     */
+    public String resolve(final String path) {
+        Mapping[] current = this.mappings;
+        for (Mapping mapping : current) {
+            if (path.startsWith(mapping.prefix) || path.equals(mapping.enter)) {
+                return mapping.code;
+            }
+        }
+        return null;
+    }
+
+    private static final class Mapping {
+
+        final String code;
+
+        final String prefix;
+
+        final String enter;
+
+        Mapping(final String code, final String prefix, final String enter) {
+            this.code = code;
+            this.prefix = prefix;
+            this.enter = enter;
+        }
+    }
+}
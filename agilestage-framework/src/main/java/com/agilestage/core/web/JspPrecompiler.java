@@ -0,0 +1,234 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.core.web;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * jsp预编译
+ * <p>
+ * 组件部署后，在后台线程中逐个向容器发送jsp_precompile请求（JSP规范定义的预编译协议，容器只编译jsp而不执行），
+ * 组件的jsp因此在被激活前就已编译完成，部署后的第一批用户不再承担编译耗时。
+ * 编译失败的jsp（容器返回非200）作为部署错误记录在{@link Result}中。
+ * <p>
+ * 请求发往baseUrl（应用的本机访问地址，如：http://127.0.0.1:8080/agilestage-admin）。
+ * 每次预编译生成一个随机令牌，通过{@link #TOKEN_HEADER}请求头发送，组件闸门关闭期间只放行带有当前令牌的本机预编译请求，
+ * 参见{@link ComponentRequestFilter}。
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月12日
+ */
+public class JspPrecompiler {
+
+    private static final Logger log = LoggerFactory.getLogger(JspPrecompiler.class);
+
+    /** 预编译请求的参数 */
+    public static final String PRECOMPILE_PARAM = "jsp_precompile";
+
+    /** 预编译令牌的请求头 */
+    public static final String TOKEN_HEADER = "X-Agilestage-Precompile";
+
+    private static final Charset TOKEN_CHARSET = Charset.forName("US-ASCII");
+
+    private static final SecureRandom random = new SecureRandom();
+
+    private static final int CONNECT_TIMEOUT = 5000;
+
+    private static final int BUFFER_SIZE = 4096;
+
+    private final String baseUrl;
+
+    private final int readTimeout;
+
+    private final ExecutorService executor;
+
+    /**
+     * @param baseUrl 应用的访问地址，不以"/"结尾
+     * @param threads 预编译线程数
+     * @param readTimeoutMillis 单个jsp的编译超时时间，单位毫秒
+     */
+    public JspPrecompiler(final String baseUrl, final int threads, final int readTimeoutMillis) {
+        this.baseUrl = StringUtils.removeEnd(baseUrl, "/");
+        this.readTimeout = readTimeoutMillis;
+
+        final AtomicInteger seq = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                                               new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+
+                                                   @Override
+                                                   public Thread newThread(final Runnable r) {
+                                                       Thread t = new Thread(r, "jsp-precompile-" + seq.incrementAndGet());
+                                                       t.setDaemon(true);
+                                                       return t;
+                                                   }
+                                               });
+    }
+
+    /**
+     * 在后台预编译组件的jsp
+     * 
+     * @param code 组件编码
+     * @param jspPaths jsp的webroot路径，如：/member/test.jsp
+     * @return 预编译结果，可通过{@link Result#await(long)}等待完成
+     */
+    public Result precompile(final String code, final List<String> jspPaths) {
+        final Result result = new Result(code, jspPaths.size(),
+                                         Long.toHexString(random.nextLong()) + Long.toHexString(random.nextLong()));
+        if (jspPaths.isEmpty()) {
+            return result;
+        }
+
+        log.info("precompiling {} jsp of component {} ...", jspPaths.size(), code);
+        for (final String path : jspPaths) {
+            this.executor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        compile(path, result);
+                    } finally {
+                        result.latch.countDown();
+                    }
+                }
+            });
+        }
+        return result;
+    }
+
+    private void compile(final String path, final Result result) {
+        HttpURLConnection conn = null;
+        try {
+            URL url = new URL(this.baseUrl + path + "?" + PRECOMPILE_PARAM + "=true");
+            conn = (HttpURLConnection) url.openConnection();
+            conn.setConnectTimeout(CONNECT_TIMEOUT);
+            conn.setReadTimeout(this.readTimeout);
+            conn.setUseCaches(false);
+            conn.setRequestProperty(TOKEN_HEADER, result.token);
+
+            int status = conn.getResponseCode();
+            drain(status < 400 ? conn.getInputStream() : conn.getErrorStream());
+
+            if (status != HttpURLConnection.HTTP_OK) {
+                result.fail(path + ": HTTP " + status);
+            } else {
+                log.debug("jsp {} precompiled.", path);
+            }
+        } catch (IOException e) {
+            result.fail(path + ": " + e.getMessage());
+        } finally {
+            if (null != conn) {
+                conn.disconnect();
+            }
+        }
+    }
+
+    /**
+     * 读完响应内容，连接才能被复用
+     */
+    private static void drain(final InputStream in) throws IOException {
+        if (null == in) {
+            return;
+        }
+        try {
+            byte[] buf = new byte[BUFFER_SIZE];
+            while (in.read(buf) >= 0) {
+                // 丢弃
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    public void shutdown() {
+        this.executor.shutdownNow();
+    }
+
+    /**
+     * 一个组件的预编译结果
+     */
+    public static final class Result {
+
+        private final String code;
+
+        private final CountDownLatch latch;
+
+        /** 本次预编译的令牌 */
+        private final String token;
+
+        private final List<String> failures = Collections.synchronizedList(new ArrayList<String>());
+
+        Result(final String code, final int count, final String token) {
+            this.code = code;
+            this.latch = new CountDownLatch(count);
+            this.token = token;
+        }
+
+        void fail(final String message) {
+            this.failures.add(message);
+            log.error("failed to precompile jsp of component {}: {}", this.code, message);
+        }
+
+        /**
+         * 等待预编译完成
+         * 
+         * @param timeoutMillis 最长等待时间，单位毫秒
+         * @return 在超时前完成时返回true
+         */
+        public boolean await(final long timeoutMillis) {
+            try {
+                return this.latch.await(timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        public boolean isDone() {
+            return this.latch.getCount() == 0;
+        }
+
+        /**
+         * 是否为本次预编译发出的请求，预编译完成后不再接受
+         * 
+         * @param token 请求中的令牌
+         */
+        public boolean accepts(final String token) {
+            return null != token && !isDone()
+                   && MessageDigest.isEqual(this.token.getBytes(TOKEN_CHARSET), token.getBytes(TOKEN_CHARSET));
+        }
+
+        /**
+         * 编译失败的jsp及原因
+         */
+        public List<String> getFailures() {
+            synchronized (this.failures) {
+                return new ArrayList<String>(this.failures);
+            }
+        }
+
+        public String getCode() {
+            return this.code;
+        }
+    }
+}
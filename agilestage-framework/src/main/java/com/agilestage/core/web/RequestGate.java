@@ -0,0 +1,128 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.core.web;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 组件的请求闸门
+ * <p>
+ * 记录组件正在处理中的请求数。闸门关闭后不再接受新请求，{@link #awaitDrained(long)}等待处理中的请求全部完成，
+ * 平台在禁用、删除、重新部署组件前通过闸门排空请求，避免请求读到处理了一半的组件资源。
+ * <p>
+ * 闸门由{@link com.agilestage.core.Platform}按组件编码维护，由{@link ComponentRequestFilter}在请求进出时计数。
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月9日
+ */
+public final class RequestGate {
+
+    /** 当前线程正在处理的请求所属的闸门，用于在请求线程中操作本组件时扣除自身 */
+    private static final ThreadLocal<RequestGate> current = new ThreadLocal<RequestGate>();
+
+    private final String code;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private volatile boolean open;
+
+    public RequestGate(final String code) {
+        this.code = code;
+    }
+
+    /**
+     * 请求进入，闸门关闭时返回false
+     */
+    boolean tryEnter() {
+        if (!this.open) {
+            return false;
+        }
+        this.inFlight.incrementAndGet();
+
+        // 计数后再检查一次，避免与close()交错时漏掉正在进入的请求
+        if (!this.open) {
+            exit();
+            return false;
+        }
+        current.set(this);
+        return true;
+    }
+
+    /**
+     * 请求完成
+     */
+    void exit() {
+        if (current.get() == this) {
+            current.remove();
+        }
+        // 在本组件的请求中等待排空时，等待方自身占一个计数，降到1时也需要唤醒
+        if (this.inFlight.decrementAndGet() <= 1 && !this.open) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * 打开闸门，接受新请求
+     */
+    public void open() {
+        this.open = true;
+    }
+
+    /**
+     * 关闭闸门，不再接受新请求，已进入的请求继续处理
+     */
+    public void close() {
+        this.open = false;
+    }
+
+    public boolean isOpen() {
+        return this.open;
+    }
+
+    /**
+     * 等待处理中的请求全部完成，调用前应先关闭闸门
+     * 
+     * @param timeoutMillis 最长等待时间，单位毫秒
+     * @return 在超时前排空时返回true
+     */
+    public boolean awaitDrained(final long timeoutMillis) {
+        // 在本组件的请求中调用时（如组件自身的管理页面），当前请求不计入等待
+        int self = current.get() == this ? 1 : 0;
+
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (this) {
+            while (this.inFlight.get() > self) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                try {
+                    wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    public String getCode() {
+        return this.code;
+    }
+
+    /**
+     * 正在处理中的请求数
+     */
+    public int getInFlight() {
+        return this.inFlight.get();
+    }
+
+    @Override
+    public String toString() {
+        return "RequestGate[code=" + this.code + ", open=" + this.open + ", inFlight=" + this.inFlight.get() + "]";
+    }
+}
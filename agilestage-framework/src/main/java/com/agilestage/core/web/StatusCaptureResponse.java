@@ -0,0 +1,59 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.core.web;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * 记录响应状态码的包装类（servlet 2.5不能从响应中读取状态码）
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月11日
+ */
+final class StatusCaptureResponse extends HttpServletResponseWrapper {
+
+    private int status = SC_OK;
+
+    StatusCaptureResponse(final HttpServletResponse response) {
+        super(response);
+    }
+
+    int getStatus() {
+        return this.status;
+    }
+
+    @Override
+    public void setStatus(final int sc) {
+        this.status = sc;
+        super.setStatus(sc);
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public void setStatus(final int sc, final String sm) {
+        this.status = sc;
+        super.setStatus(sc, sm);
+    }
+
+    @Override
+    public void sendError(final int sc) throws IOException {
+        this.status = sc;
+        super.sendError(sc);
+    }
+
+    @Override
+    public void sendError(final int sc, final String msg) throws IOException {
+        this.status = sc;
+        super.sendError(sc, msg);
+    }
+
+    @Override
+    public void sendRedirect(final String location) throws IOException {
+        this.status = SC_FOUND;
+        super.sendRedirect(location);
+    }
+}
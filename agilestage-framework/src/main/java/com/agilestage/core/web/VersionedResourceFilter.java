@@ -0,0 +1,91 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.core.web;
+
+import java.io.IOException;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+
+import com.agilestage.core.Platform;
+
+/**
+ * 组件webapp版本过滤器
+ * <p>
+ * 平台开启agilestage.webapp.versioned后，组件的webapp资源释放在版本目录中（参见{@link WebappVersions}），
+ * 本过滤器把前台请求转发到组件当前版本中的对应资源，请求参数保持不变。不属于任何组件版本的请求不做处理。
+ * <p>
+ * 视图解析后的转发（如UrlBasedViewResolver转发到/{code}/x.jsp）和jsp:include同样需要转到当前版本，
+ * 因此映射时需包含FORWARD和INCLUDE：include时按被包含的路径解析并以include方式转到当前版本。
+ * 
+ * <pre>
+ *  &lt;filter&gt;
+ *      &lt;filter-name&gt;versionedResourceFilter&lt;/filter-name&gt;
+ *      &lt;filter-class&gt;com.agilestage.core.web.VersionedResourceFilter&lt;/filter-class&gt;
+ *  &lt;/filter&gt;
+ *  &lt;filter-mapping&gt;
+ *      &lt;filter-name&gt;versionedResourceFilter&lt;/filter-name&gt;
+ *      &lt;url-pattern&gt;/*&lt;/url-pattern&gt;
+ *      &lt;dispatcher&gt;REQUEST&lt;/dispatcher&gt;
+ *      &lt;dispatcher&gt;FORWARD&lt;/dispatcher&gt;
+ *      &lt;dispatcher&gt;INCLUDE&lt;/dispatcher&gt;
+ *  &lt;/filter-mapping&gt;
+ * </pre>
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月14日
+ */
+public class VersionedResourceFilter implements Filter {
+
+    /** include时被包含资源的servlet路径，由容器设置 */
+    private static final String INCLUDE_SERVLET_PATH = "javax.servlet.include.servlet_path";
+
+    private static final String INCLUDE_PATH_INFO = "javax.servlet.include.path_info";
+
+    private Platform platform;
+
+    @Override
+    public void init(final FilterConfig filterConfig) throws ServletException {
+        this.platform = Platform.getInstance();
+    }
+
+    @Override
+    public void doFilter(final ServletRequest request, final ServletResponse response,
+                         final FilterChain chain) throws IOException, ServletException {
+        HttpServletRequest httpRequest = (HttpServletRequest) request;
+
+        WebappVersions versions = this.platform.getWebappVersions();
+        if (null != versions) {
+            String includePath = (String) request.getAttribute(INCLUDE_SERVLET_PATH);
+            if (null != includePath) {
+                String pathInfo = (String) request.getAttribute(INCLUDE_PATH_INFO);
+                String target = versions.resolve(null == pathInfo ? includePath : includePath + pathInfo);
+                if (null != target) {
+                    httpRequest.getRequestDispatcher(target).include(request, response);
+                    return;
+                }
+            } else {
+                // 转发时getRequestURI()已是转发后的路径
+                String target = versions.resolve(httpRequest.getRequestURI()
+                                                             .substring(httpRequest.getContextPath().length()));
+                if (null != target) {
+                    httpRequest.getRequestDispatcher(target).forward(request, response);
+                    return;
+                }
+            }
+        }
+
+        chain.doFilter(request, response);
+    }
+
+    @Override
+    public void destroy() {
+        this.platform = null;
+    }
+}
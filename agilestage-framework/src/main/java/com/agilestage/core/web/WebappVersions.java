@@ -0,0 +1,391 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.core.web;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.agilestage.core.common.Constants;
+import com.agilestage.core.utils.FileUtil;
+
+/**
+ * 组件webapp资源的版本管理
+ * <p>
+ * 组件的webapp资源不再直接释放到webroot中，而是先释放到独立的版本目录WEB-INF/versions/{code}/{n}/，
+ * 释放完成后通过{@link #activate(String, int)}一次性切换访问路径，切换只是替换一个volatile引用，
+ * 前台不会看到缺失或新旧混杂的资源。前台请求由{@link VersionedResourceFilter}按{@link #resolve(String)}转发到当前版本。
+ * <p>
+ * 多个组件释放了相同的前台路径时，先激活的组件保留该路径，冲突记录为错误日志。
+ * <p>
+ * 每个组件保留当前版本和上一个版本，{@link #rollback(String)}可以立即切回上一个版本，更早的版本在后台删除。
+ * 当前版本记录在组件版本目录下的CURRENT文件中，重启后按此恢复。
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月14日
+ */
+public final class WebappVersions {
+
+    private static final Logger log = LoggerFactory.getLogger(WebappVersions.class);
+
+    /** 版本目录（相对于webroot） */
+    public static final String VERSIONS_DIR = "/WEB-INF/versions";
+
+    /** 记录当前版本的文件 */
+    private static final String MARKER_FILE = "CURRENT";
+
+    private final File root;
+
+    /** 前台路径 -> 当前版本中的资源路径，只整体替换，不修改 */
+    private volatile Map<String, String> routes = Collections.emptyMap();
+
+    /** 组件编码 -> 已激活的版本，按首次激活的顺序，由this保护 */
+    private final Map<String, ActiveVersion> versions = new LinkedHashMap<String, ActiveVersion>();
+
+    private final ExecutorService cleaner = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            Thread t = new Thread(r, "webapp-version-cleaner");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    /**
+     * @param webRoot webroot目录
+     */
+    public WebappVersions(final File webRoot) {
+        this.root = new File(webRoot, VERSIONS_DIR);
+        recover();
+    }
+
+    /**
+     * 获取前台路径对应的资源
+     * 
+     * @param path 前台访问路径（不含contextPath）
+     * @return 当前版本中的资源路径（相对于webroot），不属于任何组件版本时返回null
+     */
+    public String resolve(final String path) {
+        return this.routes.get(path);
+    }
+
+    /**
+     * 把组件的webapp释放到新的版本目录中，释放完成后调用{@link #activate(String, int)}切换到新版本
+     * 
+     * @param code 组件编码
+     * @param extractor 释放资源的操作
+     * @return 新的版本号
+     * @throws IOException 释放失败时抛出，新版本目录会被删除，当前版本不受影响
+     */
+    public int stage(final String code, final Extractor extractor) throws IOException {
+        File dir;
+        int version;
+        synchronized (this) {
+            version = 1;
+            File[] dirs = new File(this.root, code).listFiles();
+            if (null != dirs) {
+                for (File d : dirs) {
+                    version = Math.max(version, parseVersion(d.getName()) + 1);
+                }
+            }
+            dir = getVersionDir(code, version);
+            if (!dir.mkdirs()) {
+                throw new IOException("failed to create version dir " + dir);
+            }
+        }
+
+        try {
+            extractor.extractTo(dir);
+        } catch (IOException e) {
+            FileUtils.deleteQuietly(dir);
+            throw e;
+        }
+        return version;
+    }
+
+    private File getVersionDir(final String code, final int version) {
+        return new File(new File(this.root, code), String.valueOf(version));
+    }
+
+    /**
+     * 切换组件的当前版本，原来的当前版本保留为上一个版本，更早的版本在后台删除
+     * 
+     * @param code 组件编码
+     * @param version 版本号
+     */
+    public synchronized void activate(final String code, final int version) {
+        Map<String, String> files = index(code, version);
+
+        ActiveVersion old = this.versions.get(code);
+        ActiveVersion current = new ActiveVersion(version, files, null == old ? null : old.withoutPrevious());
+        this.versions.put(code, current);
+        publish();
+        saveMarker(code, current);
+
+        log.info("webapp of component {} switched to version {} ({} files).", code, version, files.size());
+
+        cleanup(code, current);
+    }
+
+    /**
+     * 切回上一个版本
+     * 
+     * @param code 组件编码
+     * @return 没有上一个版本时返回false
+     */
+    public synchronized boolean rollback(final String code) {
+        ActiveVersion current = this.versions.get(code);
+        if (null == current || null == current.previous) {
+            return false;
+        }
+
+        ActiveVersion rolledBack = new ActiveVersion(current.previous.version, current.previous.files,
+                                                     current.withoutPrevious());
+        this.versions.put(code, rolledBack);
+        publish();
+        saveMarker(code, rolledBack);
+
+        log.info("webapp of component {} rolled back from version {} to {}.", code, current.version,
+                 current.previous.version);
+        return true;
+    }
+
+    /**
+     * 删除组件的全部版本
+     * 
+     * @param code 组件编码
+     */
+    public synchronized void remove(final String code) {
+        if (null != this.versions.remove(code)) {
+            publish();
+        }
+
+        final File dir = new File(this.root, code);
+        this.cleaner.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                FileUtils.deleteQuietly(dir);
+            }
+        });
+    }
+
+    /**
+     * 当前版本号，没有激活的版本时返回0
+     */
+    public synchronized int getCurrentVersion(final String code) {
+        ActiveVersion current = this.versions.get(code);
+        return null == current ? 0 : current.version;
+    }
+
+    public void shutdown() {
+        this.cleaner.shutdown();
+    }
+
+    /**
+     * 重新生成路由表并整体替换，路径冲突时先激活的组件优先
+     */
+    private void publish() {
+        Map<String, String> merged = new HashMap<String, String>();
+        Map<String, String> owners = new HashMap<String, String>();
+        for (Entry<String, ActiveVersion> version : this.versions.entrySet()) {
+            for (Entry<String, String> file : version.getValue().files.entrySet()) {
+                String owner = owners.get(file.getKey());
+                if (null != owner) {
+                    log.error("webapp path {} of component {} is already used by component {}, ignored.",
+                              file.getKey(), version.getKey(), owner);
+                    continue;
+                }
+                owners.put(file.getKey(), version.getKey());
+                merged.put(file.getKey(), file.getValue());
+            }
+        }
+        this.routes = merged;
+    }
+
+    /**
+     * 在后台删除当前版本和上一个版本以外的版本目录
+     */
+    private void cleanup(final String code, final ActiveVersion current) {
+        final File[] dirs = new File(this.root, code).listFiles();
+        if (null == dirs) {
+            return;
+        }
+
+        final int keep = current.version;
+        final int keepPrevious = null == current.previous ? -1 : current.previous.version;
+        this.cleaner.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                for (File dir : dirs) {
+                    int version = parseVersion(dir.getName());
+                    if (version > 0 && version != keep && version != keepPrevious && version < keep) {
+                        FileUtils.deleteQuietly(dir);
+                        log.debug("old webapp version {} removed.", dir);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * 建立版本中全部文件的路由：前台路径 -> 版本中的资源路径
+     */
+    private Map<String, String> index(final String code, final int version) {
+        Map<String, String> files = new HashMap<String, String>();
+        String base = FileUtil.path(VERSIONS_DIR, code, String.valueOf(version));
+        collect(getVersionDir(code, version), "", base, files);
+        return Collections.unmodifiableMap(files);
+    }
+
+    private static void collect(final File dir, final String path, final String base, final Map<String, String> files) {
+        File[] children = dir.listFiles();
+        if (null == children) {
+            return;
+        }
+        for (File child : children) {
+            String childPath = path + "/" + child.getName();
+            if (child.isDirectory()) {
+                collect(child, childPath, base, files);
+            } else {
+                files.put(childPath, base + childPath);
+            }
+        }
+    }
+
+    /**
+     * 记录组件的当前版本和上一个版本，重启后据此恢复
+     */
+    private void saveMarker(final String code, final ActiveVersion current) {
+        String content = null == current.previous ? String.valueOf(current.version)
+                                                  : current.version + "," + current.previous.version;
+        try {
+            FileUtil.writeAtomically(content, new File(new File(this.root, code), MARKER_FILE), Constants.DEFAULT_ENCODING);
+        } catch (IOException e) {
+            log.warn("failed to save webapp version of component {}: {}", code, e.getMessage());
+        }
+    }
+
+    /**
+     * 恢复上次运行时激活的版本，没有版本记录时以最大的版本为当前版本
+     */
+    private synchronized void recover() {
+        File[] cmpDirs = this.root.listFiles();
+        if (null == cmpDirs) {
+            return;
+        }
+
+        for (File cmpDir : cmpDirs) {
+            String code = cmpDir.getName();
+            int current = -1;
+            int previous = -1;
+
+            File marker = new File(cmpDir, MARKER_FILE);
+            if (marker.isFile()) {
+                try {
+                    String[] values = StringUtils.split(FileUtil.readFileToString(marker.getPath()).trim(), ',');
+                    current = parseVersion(values[0]);
+                    previous = values.length > 1 ? parseVersion(values[1]) : -1;
+                } catch (IOException e) {
+                    log.warn("failed to read webapp version of component {}: {}", code, e.getMessage());
+                }
+            }
+
+            if (current <= 0) {
+                TreeSet<Integer> found = new TreeSet<Integer>();
+                File[] dirs = cmpDir.listFiles();
+                if (null != dirs) {
+                    for (File dir : dirs) {
+                        int version = parseVersion(dir.getName());
+                        if (version > 0) {
+                            found.add(version);
+                        }
+                    }
+                }
+                if (found.isEmpty()) {
+                    continue;
+                }
+                current = found.last();
+            }
+
+            ActiveVersion prev = previous > 0 && getVersionDir(code, previous).isDirectory()
+                                 ? new ActiveVersion(previous, index(code, previous), null) : null;
+            this.versions.put(code, new ActiveVersion(current, index(code, current), prev));
+
+            log.info("webapp of component {} recovered at version {}.", code, current);
+        }
+        publish();
+    }
+
+    private static int parseVersion(final String name) {
+        try {
+            return Integer.parseInt(name);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("WebappVersions[");
+        synchronized (this) {
+            for (Entry<String, ActiveVersion> entry : this.versions.entrySet()) {
+                sb.append(entry.getKey()).append('=').append(entry.getValue().version).append(' ');
+            }
+        }
+        return sb.append(']').toString();
+    }
+
+    /**
+     * 已激活的版本及其文件路由
+     */
+    private static final class ActiveVersion {
+
+        final int version;
+
+        final Map<String, String> files;
+
+        final ActiveVersion previous;
+
+        ActiveVersion(final int version, final Map<String, String> files, final ActiveVersion previous) {
+            this.version = version;
+            this.files = files;
+            this.previous = previous;
+        }
+
+        /**
+         * 只保留一级历史版本
+         */
+        ActiveVersion withoutPrevious() {
+            return null == this.previous ? this : new ActiveVersion(this.version, this.files, null);
+        }
+    }
+
+    /**
+     * 释放资源的操作
+     */
+    public interface Extractor {
+
+        /**
+         * @param dir 目标目录
+         * @throws IOException
+         */
+        void extractTo(File dir) throws IOException;
+    }
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.service.cart;
+
+/**
+ * 购物车中一个商品数量的修改，增减或直接设置
+ * <p>
+ * 同一商品连续的修改可以合并为一个：设置后再增减合并为设置，增减后再设置以后者为准，两次增减相加。
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月25日
+ */
+public final class CartChange {
+
+    /** 是否直接设置数量，否则为增减 */
+    private final boolean absolute;
+
+    private final int quantity;
+
+    private CartChange(final boolean absolute, final int quantity) {
+        this.absolute = absolute;
+        this.quantity = quantity;
+    }
+
+    /**
+     * 增减数量，减到0以下时删除
+     */
+    public static CartChange add(final int delta) {
+        return new CartChange(false, delta);
+    }
+
+    /**
+     * 设置数量，0表示删除
+     */
+    public static CartChange set(final int quantity) {
+        return new CartChange(true, quantity);
+    }
+
+    /**
+     * 先执行本修改再执行later的效果
+     */
+    public CartChange then(final CartChange later) {
+        if (later.absolute) {
+            return later;
+        }
+        return new CartChange(this.absolute, this.quantity + later.quantity);
+    }
+
+    /**
+     * 作用于原有数量
+     * 
+     * @param current 原有数量，不存在时为0
+     * @return 修改后的数量，不大于0表示删除
+     */
+    public int applyTo(final int current) {
+        return this.absolute ? this.quantity : current + this.quantity;
+    }
+
+    public boolean isAbsolute() {
+        return this.absolute;
+    }
+
+    public int getQuantity() {
+        return this.quantity;
+    }
+
+    @Override
+    public String toString() {
+        return this.absolute ? "=" + this.quantity : (this.quantity < 0 ? "" : "+") + this.quantity;
+    }
+}
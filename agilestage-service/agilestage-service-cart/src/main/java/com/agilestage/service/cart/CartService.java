@@ -0,0 +1,440 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.service.cart;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 购物车服务
+ * <p>
+ * 修改先进入本地的写缓冲，同一购物车同一商品的连续修改合并为一个（见{@link CartChange#then}），后台线程每隔一个窗口
+ * 把所有购物车的修改通过{@link CartStore#write}一次批量写入。用户连续点击加减时只产生一次写入，写入也不阻塞请求。
+ * <p>
+ * 每次写入带一个writeId，存储未执行或结果未知的购物车原样保留这次的修改和writeId，按退避间隔重试，
+ * 存储对同一writeId只执行一次，回复超时等情况下重试也不会重复增减。重试期间该购物车之后的修改留在缓冲中，
+ * 重试成功后再写入，保持修改的顺序。达到最多写入次数仍失败时丢弃这些修改并记录错误。
+ * <p>
+ * 读取时如果该购物车还有未写入的修改，先触发一次写入并等待完成再读取，保证读到自己之前的修改；
+ * 修改被丢弃或等待超时时抛出{@link IllegalStateException}，不返回缺少自己修改的内容。
+ * 未调用{@link #start()}时修改直接写入存储。
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月25日
+ */
+public class CartService {
+
+    private static final Logger log = LoggerFactory.getLogger(CartService.class);
+
+    /** 读取时等待写入的最长时间 */
+    private static final long FLUSH_WAIT_MILLIS = 1000L;
+
+    /** 一批修改的最多写入次数 */
+    private static final int MAX_ATTEMPTS = 8;
+
+    /** 重试间隔的初始值，每次翻倍 */
+    private static final long RETRY_BASE_MILLIS = 100L;
+
+    private static final long RETRY_MAX_MILLIS = 5000L;
+
+    private final CartStore store;
+
+    /** 合并窗口，单位毫秒 */
+    private final long windowMillis;
+
+    private final ConcurrentHashMap<String, PendingCart> pending = new ConcurrentHashMap<String, PendingCart>();
+
+    /** 等待重试的修改，只由写入线程修改 */
+    private final ConcurrentHashMap<String, PendingCart> retries = new ConcurrentHashMap<String, PendingCart>();
+
+    /** 写入时持有，停止时等待写入线程超时也不会并发写入 */
+    private final Object writeLock = new Object();
+
+    private final Object signal = new Object();
+
+    /** 是否有读取在等待写入，由signal保护 */
+    private boolean flushRequested;
+
+    private volatile boolean running;
+
+    private Thread flusher;
+
+    /**
+     * @param store 购物车存储
+     * @param windowMillis 合并窗口，单位毫秒，一般为几毫秒到几十毫秒
+     */
+    public CartService(final CartStore store, final long windowMillis) {
+        if (windowMillis <= 0) {
+            throw new IllegalArgumentException("windowMillis must be positive: " + windowMillis);
+        }
+        this.store = store;
+        this.windowMillis = windowMillis;
+    }
+
+    public synchronized void start() {
+        if (this.running) {
+            return;
+        }
+
+        this.running = true;
+        this.flusher = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                while (CartService.this.running) {
+                    awaitWindow();
+                    flush(false);
+                }
+            }
+        }, "cart-write-buffer");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * 停止后台写入，并写入剩余的修改，包括未到重试时间的修改
+     */
+    public synchronized void stop() {
+        if (!this.running) {
+            return;
+        }
+
+        this.running = false;
+        synchronized (this.signal) {
+            this.signal.notifyAll();
+        }
+        try {
+            this.flusher.join(10000L);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.flusher = null;
+        flush(true);
+
+        synchronized (this.writeLock) {
+            for (Entry<String, PendingCart> entry : this.retries.entrySet()) {
+                log.error("dropping changes {} of cart {} on stop", entry.getValue().changes, entry.getKey());
+                this.retries.remove(entry.getKey());
+                entry.getValue().finish(false);
+            }
+        }
+    }
+
+    /**
+     * 增加商品数量
+     */
+    public void add(final String cartId, final long skuId, final int quantity) {
+        change(cartId, skuId, CartChange.add(quantity));
+    }
+
+    /**
+     * 设置商品数量，0表示删除
+     */
+    public void setQuantity(final String cartId, final long skuId, final int quantity) {
+        change(cartId, skuId, CartChange.set(quantity));
+    }
+
+    public void remove(final String cartId, final long skuId) {
+        change(cartId, skuId, CartChange.set(0));
+    }
+
+    /**
+     * @return 商品ID -&gt; 数量
+     */
+    public Map<Long, Integer> get(final String cartId) {
+        awaitPending(Collections.singletonList(cartId));
+        return this.store.load(cartId);
+    }
+
+    /**
+     * 读取多个购物车，一次批量读取
+     */
+    public Map<String, Map<Long, Integer>> getAll(final Collection<String> cartIds) {
+        awaitPending(cartIds);
+        return this.store.loadAll(cartIds);
+    }
+
+    /**
+     * 登录时把游客购物车合并到会员购物车
+     * 
+     * @return 合并后会员购物车的内容
+     */
+    public Map<Long, Integer> merge(final String guestCartId, final String memberCartId) {
+        List<String> cartIds = new ArrayList<String>(2);
+        cartIds.add(guestCartId);
+        cartIds.add(memberCartId);
+        awaitPending(cartIds);
+        return this.store.merge(guestCartId, memberCartId);
+    }
+
+    public void clear(final String cartId) {
+        awaitPending(Collections.singletonList(cartId));
+        this.store.clear(cartId);
+    }
+
+    /**
+     * 未写入的购物车数
+     */
+    public int getPendingCount() {
+        return this.pending.size();
+    }
+
+    private void change(final String cartId, final long skuId, final CartChange change) {
+        if (!this.running) {
+            if (!this.store.write(newWriteId(), Collections.singletonMap(cartId, Collections.singletonMap(skuId, change)))
+                           .isEmpty()) {
+                throw new IllegalStateException("failed to write cart " + cartId);
+            }
+            return;
+        }
+
+        while (true) {
+            PendingCart cart = this.pending.get(cartId);
+            if (null == cart) {
+                PendingCart created = new PendingCart();
+                cart = this.pending.putIfAbsent(cartId, created);
+                if (null == cart) {
+                    cart = created;
+                }
+            }
+            synchronized (cart) {
+                if (!cart.closed) {
+                    cart.add(skuId, change);
+                    return;
+                }
+            }
+            // 正在写入，之后的修改放到新的缓冲中，在下一个窗口写入
+            this.pending.replace(cartId, cart, new PendingCart());
+        }
+    }
+
+    /**
+     * 这些购物车有未写入的修改时，立即触发写入并等待完成
+     * 
+     * @throws IllegalStateException 修改被丢弃或未在等待时间内写入
+     */
+    private void awaitPending(final Collection<String> cartIds) {
+        Map<PendingCart, String> carts = new LinkedHashMap<PendingCart, String>();
+        for (String cartId : cartIds) {
+            PendingCart retry = this.retries.get(cartId);
+            if (null != retry) {
+                carts.put(retry, cartId);
+            }
+            PendingCart cart = this.pending.get(cartId);
+            if (null != cart) {
+                carts.put(cart, cartId);
+            }
+        }
+        if (carts.isEmpty()) {
+            return;
+        }
+
+        synchronized (this.signal) {
+            this.flushRequested = true;
+            this.signal.notifyAll();
+        }
+        try {
+            for (Entry<PendingCart, String> entry : carts.entrySet()) {
+                if (!entry.getKey().done.await(FLUSH_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    throw new IllegalStateException("changes of cart " + entry.getValue() + " not written in "
+                                                    + FLUSH_WAIT_MILLIS + "ms");
+                }
+                if (entry.getKey().failed) {
+                    throw new IllegalStateException("failed to write changes of cart " + entry.getValue());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting for cart changes to be written", e);
+        }
+    }
+
+    private void awaitWindow() {
+        synchronized (this.signal) {
+            if (!this.flushRequested && this.running) {
+                try {
+                    this.signal.wait(this.windowMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            this.flushRequested = false;
+        }
+    }
+
+    /**
+     * 先重试到期的失败修改，再写入所有缓冲的修改，只由后台线程或停止时调用
+     * 
+     * @param force 是否忽略重试间隔
+     */
+    private void flush(final boolean force) {
+        synchronized (this.writeLock) {
+            retry(force);
+
+            Map<String, Map<Long, CartChange>> batch = new HashMap<String, Map<Long, CartChange>>();
+            Map<String, PendingCart> taken = new HashMap<String, PendingCart>();
+            for (Entry<String, PendingCart> entry : this.pending.entrySet()) {
+                // 等待重试的购物车，之后的修改在重试成功后再写入
+                if (this.retries.containsKey(entry.getKey())) {
+                    continue;
+                }
+                PendingCart cart = entry.getValue();
+                synchronized (cart) {
+                    if (cart.closed) {
+                        continue;
+                    }
+                    cart.closed = true;
+                }
+                taken.put(entry.getKey(), cart);
+                if (!cart.changes.isEmpty()) {
+                    batch.put(entry.getKey(), cart.changes);
+                }
+            }
+            if (taken.isEmpty()) {
+                return;
+            }
+
+            String writeId = newWriteId();
+            Set<String> failed = write(writeId, batch);
+            for (Entry<String, PendingCart> entry : taken.entrySet()) {
+                PendingCart cart = entry.getValue();
+                this.pending.remove(entry.getKey(), cart);
+                if (failed.contains(entry.getKey())) {
+                    cart.writeId = writeId;
+                    retryLater(entry.getKey(), cart);
+                } else {
+                    cart.finish(true);
+                }
+            }
+        }
+    }
+
+    /**
+     * 以原来的writeId重试到期的失败修改，需持有writeLock
+     */
+    private void retry(final boolean force) {
+        if (this.retries.isEmpty()) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        Map<String, Map<String, Map<Long, CartChange>>> batches = new HashMap<String, Map<String, Map<Long, CartChange>>>();
+        for (Entry<String, PendingCart> entry : this.retries.entrySet()) {
+            PendingCart cart = entry.getValue();
+            if (!force && cart.retryAt > now) {
+                continue;
+            }
+            Map<String, Map<Long, CartChange>> batch = batches.get(cart.writeId);
+            if (null == batch) {
+                batch = new HashMap<String, Map<Long, CartChange>>();
+                batches.put(cart.writeId, batch);
+            }
+            batch.put(entry.getKey(), cart.changes);
+        }
+
+        for (Entry<String, Map<String, Map<Long, CartChange>>> batch : batches.entrySet()) {
+            Set<String> failed = write(batch.getKey(), batch.getValue());
+            for (String cartId : batch.getValue().keySet()) {
+                PendingCart cart = this.retries.get(cartId);
+                if (failed.contains(cartId)) {
+                    retryLater(cartId, cart);
+                } else {
+                    this.retries.remove(cartId);
+                    cart.finish(true);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return 未执行或结果未知、需要重试的购物车
+     */
+    private Set<String> write(final String writeId, final Map<String, Map<Long, CartChange>> batch) {
+        if (batch.isEmpty()) {
+            return Collections.emptySet();
+        }
+
+        try {
+            Set<String> failed = this.store.write(writeId, batch);
+            if (!failed.isEmpty()) {
+                log.warn("failed to write changes of carts {}, will retry", failed);
+            }
+            return failed;
+        } catch (RuntimeException e) {
+            // 无法确定哪些购物车已写入，以相同的writeId全部重试，已写入的不会重复执行
+            log.error("failed to write changes of " + batch.size() + " carts, will retry", e);
+            return batch.keySet();
+        }
+    }
+
+    /**
+     * 安排失败的修改按退避间隔重试，超过次数时丢弃，需持有writeLock
+     */
+    private void retryLater(final String cartId, final PendingCart cart) {
+        cart.attempts++;
+        if (cart.attempts >= MAX_ATTEMPTS) {
+            this.retries.remove(cartId);
+            log.error("dropping changes {} of cart {} after {} attempts", cart.changes, cartId, cart.attempts);
+            cart.finish(false);
+            return;
+        }
+
+        long delay = Math.min(RETRY_BASE_MILLIS << cart.attempts, RETRY_MAX_MILLIS);
+        cart.retryAt = System.currentTimeMillis() + delay;
+        this.retries.put(cartId, cart);
+    }
+
+    private static String newWriteId() {
+        return UUID.randomUUID().toString();
+    }
+
+    /**
+     * 一个购物车未写入的修改
+     */
+    private static final class PendingCart {
+
+        /** 商品ID -&gt; 合并后的修改，关闭后不再修改 */
+        final Map<Long, CartChange> changes = new LinkedHashMap<Long, CartChange>();
+
+        /** 已被取走写入，不再接受修改 */
+        boolean closed;
+
+        /** 写入完成（成功或被丢弃） */
+        final CountDownLatch done = new CountDownLatch(1);
+
+        /** 修改被丢弃，在done之前设置 */
+        volatile boolean failed;
+
+        /** 以下由写入线程在writeLock下访问：首次写入的writeId、已写入次数、下次重试的时间 */
+        String writeId;
+
+        int attempts;
+
+        long retryAt;
+
+        void add(final long skuId, final CartChange change) {
+            CartChange existing = this.changes.get(skuId);
+            this.changes.put(skuId, null == existing ? change : existing.then(change));
+        }
+
+        void finish(final boolean written) {
+            this.failed = !written;
+            this.done.countDown();
+        }
+    }
+}
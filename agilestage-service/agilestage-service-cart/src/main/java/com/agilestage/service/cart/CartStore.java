@@ -0,0 +1,54 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.service.cart;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 购物车存储，购物车内容为商品ID -&gt; 数量
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月25日
+ */
+public interface CartStore {
+
+    /**
+     * @param cartId 购物车ID，如会员ID或游客的会话ID
+     * @return 不存在时返回空的Map
+     */
+    Map<Long, Integer> load(String cartId);
+
+    /**
+     * 读取多个购物车
+     * 
+     * @return 购物车ID -&gt; 内容，不存在的购物车内容为空
+     */
+    Map<String, Map<Long, Integer>> loadAll(Collection<String> cartIds);
+
+    /**
+     * 批量修改多个购物车，同一购物车的修改原子地执行
+     * <p>
+     * 各购物车的结果互不影响。增减是相对修改，重复执行会重复生效，因此同一writeId对同一购物车只执行一次，
+     * 结果未知（如抛出异常）时用相同的writeId和相同的修改重试，已执行的购物车不会重复生效。
+     * 确定未执行的购物车作为可重试返回；执行出错、可能已部分生效的购物车不返回，由实现记录错误。
+     * 
+     * @param writeId 本次写入的唯一标识，重试时不变
+     * @param changes 购物车ID -&gt; 商品ID -&gt; 修改
+     * @return 未执行、可以重试的购物车ID
+     */
+    Set<String> write(String writeId, Map<String, Map<Long, CartChange>> changes);
+
+    /**
+     * 把source合并到target中，同一商品数量相加，然后删除source
+     * 
+     * @param sourceCartId 如游客的购物车
+     * @param targetCartId 如会员的购物车
+     * @return 合并后target的内容
+     */
+    Map<Long, Integer> merge(String sourceCartId, String targetCartId);
+
+    void clear(String cartId);
+}
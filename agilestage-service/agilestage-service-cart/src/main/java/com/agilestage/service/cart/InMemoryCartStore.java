@@ -0,0 +1,114 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.service.cart;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 内存中的购物车存储，用于测试和单机开发环境，数据不持久化、不过期
+ * <p>
+ * 写入不会出现结果未知的情况，不记录writeId。
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月25日
+ */
+public class InMemoryCartStore implements CartStore {
+
+    private final ConcurrentHashMap<String, Map<Long, Integer>> carts = new ConcurrentHashMap<String, Map<Long, Integer>>();
+
+    @Override
+    public Map<Long, Integer> load(final String cartId) {
+        Map<Long, Integer> cart = this.carts.get(cartId);
+        if (null == cart) {
+            return new HashMap<Long, Integer>();
+        }
+        synchronized (cart) {
+            return new HashMap<Long, Integer>(cart);
+        }
+    }
+
+    @Override
+    public Map<String, Map<Long, Integer>> loadAll(final Collection<String> cartIds) {
+        Map<String, Map<Long, Integer>> result = new LinkedHashMap<String, Map<Long, Integer>>();
+        for (String cartId : cartIds) {
+            result.put(cartId, load(cartId));
+        }
+        return result;
+    }
+
+    @Override
+    public Set<String> write(final String writeId, final Map<String, Map<Long, CartChange>> changes) {
+        for (Entry<String, Map<Long, CartChange>> entry : changes.entrySet()) {
+            while (true) {
+                Map<Long, Integer> cart = getOrCreate(entry.getKey());
+                synchronized (cart) {
+                    // 加锁前已被清空或合并掉，重新创建
+                    if (cart != this.carts.get(entry.getKey())) {
+                        continue;
+                    }
+                    for (Entry<Long, CartChange> change : entry.getValue().entrySet()) {
+                        Integer current = cart.get(change.getKey());
+                        int quantity = change.getValue().applyTo(null == current ? 0 : current);
+                        if (quantity > 0) {
+                            cart.put(change.getKey(), quantity);
+                        } else {
+                            cart.remove(change.getKey());
+                        }
+                    }
+                }
+                break;
+            }
+        }
+        return Collections.emptySet();
+    }
+
+    @Override
+    public Map<Long, Integer> merge(final String sourceCartId, final String targetCartId) {
+        Map<Long, Integer> source = this.carts.remove(sourceCartId);
+        Map<Long, Integer> items = new HashMap<Long, Integer>();
+        if (null != source) {
+            synchronized (source) {
+                items.putAll(source);
+            }
+        }
+
+        while (true) {
+            Map<Long, Integer> target = getOrCreate(targetCartId);
+            synchronized (target) {
+                if (target != this.carts.get(targetCartId)) {
+                    continue;
+                }
+                for (Entry<Long, Integer> entry : items.entrySet()) {
+                    Integer current = target.get(entry.getKey());
+                    target.put(entry.getKey(), null == current ? entry.getValue() : current + entry.getValue());
+                }
+                return new HashMap<Long, Integer>(target);
+            }
+        }
+    }
+
+    @Override
+    public void clear(final String cartId) {
+        this.carts.remove(cartId);
+    }
+
+    private Map<Long, Integer> getOrCreate(final String cartId) {
+        Map<Long, Integer> cart = this.carts.get(cartId);
+        if (null == cart) {
+            Map<Long, Integer> created = new HashMap<Long, Integer>();
+            cart = this.carts.putIfAbsent(cartId, created);
+            if (null == cart) {
+                cart = created;
+            }
+        }
+        return cart;
+    }
+}
@@ -0,0 +1,260 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.service.cart;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.exceptions.JedisException;
+
+/**
+ * 基于Redis的购物车存储
+ * <p>
+ * 每个购物车一个hash，field为商品ID，value为数量。一个购物车的多个修改由一次Lua脚本原子地执行，
+ * 多个购物车的修改和读取在同一个pipeline中发送，一次往返完成；登录时游客购物车的合并也由一个脚本完成。
+ * 每次修改后刷新有效期。
+ * <p>
+ * 脚本执行修改前以SET NX记录本次写入的writeId（带有效期），已记录过的直接跳过，
+ * 读取回复超时等结果未知时用相同的writeId重试，已执行的增减不会被重复执行。
+ * <p>
+ * Redis是购物车的唯一存储，读写失败时抛出{@link JedisException}，不像缓存那样忽略。
+ * 批量修改时各购物车的结果分别处理：Redis拒绝执行的命令（OOM、LOADING、READONLY等）作为可重试返回，
+ * 脚本执行出错的购物车可能已部分生效，只记录错误，不返回重试，避免增减被重复执行。
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月25日
+ */
+public class RedisCartStore implements CartStore {
+
+    private static final Logger log = LoggerFactory.getLogger(RedisCartStore.class);
+
+    /** 命令未被执行的错误前缀，这些购物车可以重试 */
+    private static final String[] REJECTED_ERRORS = { "OOM", "BUSY", "LOADING", "READONLY", "MASTERDOWN", "TRYAGAIN" };
+
+    /** writeId记录的有效期，单位秒，应远大于写入重试的总时长 */
+    private static final int WRITE_ID_TTL_SECONDS = 3600;
+
+    /**
+     * KEYS[1]为购物车，KEYS[2]为writeId的记录，ARGV[1]为有效期（秒），ARGV[2]为writeId记录的有效期（秒），
+     * 之后每3个参数为一个修改：商品ID、s（设置）或d（增减）、数量。已执行过时返回1
+     */
+    private static final String WRITE_SCRIPT = "local key = KEYS[1] "
+                                               + "if not redis.call('SET', KEYS[2], '1', 'NX', 'EX', ARGV[2]) then return 1 end "
+                                               + "for i = 3, #ARGV, 3 do "
+                                               + "  local q "
+                                               + "  if ARGV[i + 1] == 's' then q = tonumber(ARGV[i + 2]) "
+                                               + "  else q = redis.call('HINCRBY', key, ARGV[i], ARGV[i + 2]) end "
+                                               + "  if q <= 0 then redis.call('HDEL', key, ARGV[i]) "
+                                               + "  elseif ARGV[i + 1] == 's' then redis.call('HSET', key, ARGV[i], ARGV[i + 2]) end "
+                                               + "end "
+                                               + "if redis.call('EXISTS', key) == 1 then redis.call('EXPIRE', key, ARGV[1]) end "
+                                               + "return 0";
+
+    /**
+     * KEYS[1]为合并来源，KEYS[2]为合并目标，ARGV[1]为有效期（秒），返回合并后目标的全部内容
+     */
+    private static final String MERGE_SCRIPT = "local items = redis.call('HGETALL', KEYS[1]) "
+                                               + "for i = 1, #items, 2 do "
+                                               + "  redis.call('HINCRBY', KEYS[2], items[i], items[i + 1]) "
+                                               + "end "
+                                               + "redis.call('DEL', KEYS[1]) "
+                                               + "if redis.call('EXISTS', KEYS[2]) == 1 then redis.call('EXPIRE', KEYS[2], ARGV[1]) end "
+                                               + "return redis.call('HGETALL', KEYS[2])";
+
+    private final JedisPool pool;
+
+    private final String prefix;
+
+    private final int ttlSeconds;
+
+    /** 修改脚本的SHA1，Redis重启或清空脚本后重新加载 */
+    private volatile String writeSha;
+
+    /**
+     * @param pool 连接池
+     * @param prefix key的前缀，如：cart:
+     * @param ttlSeconds 购物车的有效期，单位秒
+     */
+    public RedisCartStore(final JedisPool pool, final String prefix, final int ttlSeconds) {
+        this.pool = pool;
+        this.prefix = prefix;
+        this.ttlSeconds = ttlSeconds;
+    }
+
+    @Override
+    public Map<Long, Integer> load(final String cartId) {
+        Jedis jedis = this.pool.getResource();
+        try {
+            return toCart(cartId, jedis.hgetAll(this.prefix + cartId));
+        } finally {
+            jedis.close();
+        }
+    }
+
+    @Override
+    public Map<String, Map<Long, Integer>> loadAll(final Collection<String> cartIds) {
+        Map<String, Response<Map<String, String>>> responses = new LinkedHashMap<String, Response<Map<String, String>>>();
+        Jedis jedis = this.pool.getResource();
+        try {
+            Pipeline pipeline = jedis.pipelined();
+            for (String cartId : cartIds) {
+                responses.put(cartId, pipeline.hgetAll(this.prefix + cartId));
+            }
+            pipeline.sync();
+        } finally {
+            jedis.close();
+        }
+
+        Map<String, Map<Long, Integer>> result = new LinkedHashMap<String, Map<Long, Integer>>();
+        for (Entry<String, Response<Map<String, String>>> entry : responses.entrySet()) {
+            result.put(entry.getKey(), toCart(entry.getKey(), entry.getValue().get()));
+        }
+        return result;
+    }
+
+    @Override
+    public Set<String> write(final String writeId, final Map<String, Map<Long, CartChange>> changes) {
+        Set<String> rejected = new LinkedHashSet<String>();
+        if (changes.isEmpty()) {
+            return rejected;
+        }
+
+        Jedis jedis = this.pool.getResource();
+        try {
+            List<String> cartIds = new ArrayList<String>(changes.keySet());
+            List<String> missing = execute(jedis, writeId, cartIds, changes, rejected);
+            if (!missing.isEmpty()) {
+                // 脚本缓存已被清空，重新加载后只重试未执行的购物车
+                log.info("write script missing on redis, reloading");
+                this.writeSha = jedis.scriptLoad(WRITE_SCRIPT);
+                missing = execute(jedis, writeId, missing, changes, rejected);
+                if (!missing.isEmpty()) {
+                    log.warn("write script missing after reload, carts: {}", missing);
+                    rejected.addAll(missing);
+                }
+            }
+        } finally {
+            jedis.close();
+        }
+        return rejected;
+    }
+
+    @Override
+    public Map<Long, Integer> merge(final String sourceCartId, final String targetCartId) {
+        Jedis jedis = this.pool.getResource();
+        try {
+            Object reply = jedis.eval(MERGE_SCRIPT, Arrays.asList(this.prefix + sourceCartId, this.prefix + targetCartId),
+                                      Collections.singletonList(String.valueOf(this.ttlSeconds)));
+            Map<String, String> fields = new HashMap<String, String>();
+            if (reply instanceof List) {
+                List<?> values = (List<?>) reply;
+                for (int i = 0; i + 1 < values.size(); i += 2) {
+                    fields.put(String.valueOf(values.get(i)), String.valueOf(values.get(i + 1)));
+                }
+            }
+            return toCart(targetCartId, fields);
+        } finally {
+            jedis.close();
+        }
+    }
+
+    @Override
+    public void clear(final String cartId) {
+        Jedis jedis = this.pool.getResource();
+        try {
+            jedis.del(this.prefix + cartId);
+        } finally {
+            jedis.close();
+        }
+    }
+
+    /**
+     * 在一个pipeline中执行多个购物车的修改，一个购物车出错不影响其他购物车的结果
+     * 
+     * @param rejected 收集被Redis拒绝执行的购物车
+     * @return 因脚本不存在而未执行的购物车
+     */
+    private List<String> execute(final Jedis jedis, final String writeId, final List<String> cartIds,
+                                 final Map<String, Map<Long, CartChange>> changes, final Set<String> rejected) {
+        String sha = this.writeSha;
+        if (null == sha) {
+            sha = jedis.scriptLoad(WRITE_SCRIPT);
+            this.writeSha = sha;
+        }
+
+        Pipeline pipeline = jedis.pipelined();
+        for (String cartId : cartIds) {
+            Map<Long, CartChange> cart = changes.get(cartId);
+            List<String> args = new ArrayList<String>(2 + cart.size() * 3);
+            args.add(String.valueOf(this.ttlSeconds));
+            args.add(String.valueOf(WRITE_ID_TTL_SECONDS));
+            for (Entry<Long, CartChange> change : cart.entrySet()) {
+                args.add(String.valueOf(change.getKey()));
+                args.add(change.getValue().isAbsolute() ? "s" : "d");
+                args.add(String.valueOf(change.getValue().getQuantity()));
+            }
+            pipeline.evalsha(sha, Arrays.asList(this.prefix + cartId, this.prefix + "written:" + writeId + ":" + cartId),
+                             args);
+        }
+        List<Object> replies = pipeline.syncAndReturnAll();
+
+        List<String> missing = new ArrayList<String>();
+        for (int i = 0; i < replies.size(); i++) {
+            Object reply = replies.get(i);
+            if (!(reply instanceof JedisException)) {
+                continue;
+            }
+            String message = String.valueOf(((JedisException) reply).getMessage());
+            if (message.startsWith("NOSCRIPT")) {
+                missing.add(cartIds.get(i));
+            } else if (isRejected(message)) {
+                rejected.add(cartIds.get(i));
+            } else {
+                log.error("failed to write cart {}, changes may be partially applied and are dropped: {}",
+                          cartIds.get(i), message);
+            }
+        }
+        return missing;
+    }
+
+    private static boolean isRejected(final String message) {
+        for (String prefix : REJECTED_ERRORS) {
+            if (message.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Map<Long, Integer> toCart(final String cartId, final Map<String, String> fields) {
+        Map<Long, Integer> cart = new HashMap<Long, Integer>();
+        if (null == fields) {
+            return cart;
+        }
+        for (Entry<String, String> field : fields.entrySet()) {
+            try {
+                cart.put(Long.parseLong(field.getKey()), Integer.parseInt(field.getValue()));
+            } catch (NumberFormatException e) {
+                log.warn("invalid item {}={} in cart {}", field.getKey(), field.getValue(), cartId);
+            }
+        }
+        return cart;
+    }
+}
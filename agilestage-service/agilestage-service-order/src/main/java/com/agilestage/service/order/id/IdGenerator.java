@@ -0,0 +1,28 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.service.order.id;
+
+/**
+ * 全局唯一ID生成器
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月16日
+ */
+public interface IdGenerator {
+
+    /**
+     * 生成一个ID
+     * 
+     * @return 全局唯一，且同一节点上单调递增
+     */
+    long nextId();
+
+    /**
+     * 批量生成ID，用于一次创建多个订单等场景
+     * 
+     * @param count 数量
+     * @return 单调递增的ID
+     */
+    long[] nextIds(int count);
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.service.order.id;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 进程内的工作节点编号注册中心，用于单机部署和测试
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月16日
+ */
+public class InMemoryWorkerIdRegistry implements WorkerIdRegistry {
+
+    private final AtomicReferenceArray<Lease> leases;
+
+    /**
+     * @param capacity 编号数量，编号范围为[0, capacity)
+     */
+    public InMemoryWorkerIdRegistry(final int capacity) {
+        this.leases = new AtomicReferenceArray<Lease>(capacity);
+    }
+
+    @Override
+    public int acquire(final String nodeId, final int maxWorkerId, final long leaseMillis) {
+        int max = Math.min(maxWorkerId, this.leases.length() - 1);
+        long now = System.currentTimeMillis();
+        Lease lease = new Lease(nodeId, now + leaseMillis);
+
+        for (int i = 0; i <= max; i++) {
+            Lease old = this.leases.get(i);
+            if ((null == old || old.expireAt < now || old.nodeId.equals(nodeId))
+                && this.leases.compareAndSet(i, old, lease)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public boolean renew(final int workerId, final String nodeId, final long leaseMillis) {
+        if (workerId < 0 || workerId >= this.leases.length()) {
+            return false;
+        }
+
+        Lease lease = new Lease(nodeId, System.currentTimeMillis() + leaseMillis);
+        while (true) {
+            Lease old = this.leases.get(workerId);
+            if (null == old || !old.nodeId.equals(nodeId)) {
+                return false;
+            }
+            if (this.leases.compareAndSet(workerId, old, lease)) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public void release(final int workerId, final String nodeId) {
+        if (workerId < 0 || workerId >= this.leases.length()) {
+            return;
+        }
+
+        Lease old = this.leases.get(workerId);
+        if (null != old && old.nodeId.equals(nodeId)) {
+            this.leases.compareAndSet(workerId, old, null);
+        }
+    }
+
+    private static final class Lease {
+
+        final String nodeId;
+
+        final long expireAt;
+
+        Lease(final String nodeId, final long expireAt) {
+            this.nodeId = nodeId;
+            this.expireAt = expireAt;
+        }
+    }
+}
@@ -0,0 +1,296 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.service.order.id;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Snowflake算法的ID生成器
+ * <p>
+ * ID由三部分组成（共63位，始终为正数）：
+ * 
+ * <pre>
+ * [41位 毫秒时间戳，相对于{@link #EPOCH}][10位 工作节点编号][12位 毫秒内序号]
+ * </pre>
+ * 
+ * 工作节点编号通过{@link WorkerIdRegistry}以租约方式占用并在后台定期续约，保证节点间不重复。
+ * 本地记录租约的到期时间（从发起占用或续约时开始计算），注册中心不可用或进程长时间停顿导致租约可能已过期时，
+ * 停止生成ID，直到续约成功，避免与重新占用该编号的节点生成重复的ID。
+ * 最近一次的时间戳和序号合并保存在一个AtomicLong中，生成ID只需一次CAS，不加锁，多核并发时也不会互相阻塞。
+ * 一毫秒内的序号用完时自旋等待下一毫秒。
+ * <p>
+ * 系统时钟回拨不超过maxBackwardMillis时继续使用上次的时间戳，序号用完后等待时钟追上；回拨超过该值时抛出异常，
+ * 避免生成重复的ID。
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月16日
+ */
+public class SnowflakeIdGenerator implements IdGenerator {
+
+    private static final Logger log = LoggerFactory.getLogger(SnowflakeIdGenerator.class);
+
+    /** 时间戳的起点：2016-01-01 00:00:00 UTC */
+    public static final long EPOCH = 1451606400000L;
+
+    public static final int WORKER_ID_BITS = 10;
+
+    public static final int SEQUENCE_BITS = 12;
+
+    public static final int MAX_WORKER_ID = (1 << WORKER_ID_BITS) - 1;
+
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    private static final int TIMESTAMP_SHIFT = WORKER_ID_BITS + SEQUENCE_BITS;
+
+    /** 租约到期前停止使用编号的提前量，为租约时长的1/10 */
+    private static final int LEASE_MARGIN_DIVISOR = 10;
+
+    /** 最近一次的时间戳（相对于EPOCH）和序号：时间戳 &lt;&lt; SEQUENCE_BITS | 序号 */
+    private final AtomicLong state = new AtomicLong();
+
+    private final WorkerIdRegistry registry;
+
+    private final String nodeId;
+
+    private final long leaseMillis;
+
+    private final long maxBackwardMillis;
+
+    /** 当前占用的工作节点编号，未占用或租约丢失时为-1 */
+    private volatile int workerId = -1;
+
+    /** 租约的本地到期时间（System.nanoTime()），已扣除提前量 */
+    private volatile long leaseDeadline;
+
+    private ScheduledExecutorService renewer;
+
+    /**
+     * @param registry 工作节点编号注册中心
+     * @param nodeId 节点标识，如：ip:port
+     * @param leaseMillis 编号租约时长，单位毫秒，每隔1/3租约时长续约一次
+     * @param maxBackwardMillis 允许的时钟回拨，单位毫秒
+     */
+    public SnowflakeIdGenerator(final WorkerIdRegistry registry, final String nodeId, final long leaseMillis,
+                                final long maxBackwardMillis) {
+        this.registry = registry;
+        this.nodeId = nodeId;
+        this.leaseMillis = leaseMillis;
+        this.maxBackwardMillis = maxBackwardMillis;
+    }
+
+    /**
+     * 占用工作节点编号并开始定期续约
+     * 
+     * @throws IllegalStateException 没有空闲的编号时抛出
+     */
+    public synchronized void start() {
+        if (null != this.renewer) {
+            return;
+        }
+
+        acquireWorkerId();
+        if (this.workerId < 0) {
+            throw new IllegalStateException("no free worker id for node " + this.nodeId);
+        }
+
+        this.renewer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                Thread t = new Thread(r, "worker-id-renewer");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        long period = Math.max(this.leaseMillis / 3, 1L);
+        this.renewer.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                renew();
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 停止续约并释放工作节点编号
+     */
+    public synchronized void stop() {
+        if (null != this.renewer) {
+            this.renewer.shutdownNow();
+            this.renewer = null;
+        }
+
+        int worker = this.workerId;
+        this.workerId = -1;
+        if (worker >= 0) {
+            this.registry.release(worker, this.nodeId);
+        }
+    }
+
+    @Override
+    public long nextId() {
+        int worker = checkWorkerId();
+
+        while (true) {
+            long current = this.state.get();
+            long last = current >>> SEQUENCE_BITS;
+            long now = timestamp(last);
+
+            long next;
+            if (now > last) {
+                next = now << SEQUENCE_BITS;
+            } else if ((current & SEQUENCE_MASK) < SEQUENCE_MASK) {
+                next = current + 1;
+            } else {
+                // 本毫秒的序号已用完
+                Thread.yield();
+                continue;
+            }
+
+            if (this.state.compareAndSet(current, next)) {
+                return compose(next, worker);
+            }
+        }
+    }
+
+    @Override
+    public long[] nextIds(final int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("count must not be negative: " + count);
+        }
+
+        int worker = checkWorkerId();
+        long[] ids = new long[count];
+        int filled = 0;
+
+        while (filled < count) {
+            long current = this.state.get();
+            long last = current >>> SEQUENCE_BITS;
+            long now = timestamp(last);
+
+            long first;
+            if (now > last) {
+                first = now << SEQUENCE_BITS;
+            } else if ((current & SEQUENCE_MASK) < SEQUENCE_MASK) {
+                first = current + 1;
+            } else {
+                Thread.yield();
+                continue;
+            }
+
+            // 一次CAS预留本毫秒内剩余的序号
+            long available = SEQUENCE_MASK - (first & SEQUENCE_MASK) + 1;
+            int taken = (int) Math.min(available, count - filled);
+            long end = first + taken - 1;
+
+            if (this.state.compareAndSet(current, end)) {
+                for (long s = first; s <= end; s++) {
+                    ids[filled++] = compose(s, worker);
+                }
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * 当前占用的工作节点编号，未占用时返回-1
+     */
+    public int getWorkerId() {
+        return this.workerId;
+    }
+
+    /**
+     * 解析ID的生成时间
+     * 
+     * @param id
+     * @return 毫秒时间戳
+     */
+    public static long getTimestamp(final long id) {
+        return (id >>> TIMESTAMP_SHIFT) + EPOCH;
+    }
+
+    /**
+     * 解析ID的工作节点编号
+     */
+    public static int getWorkerId(final long id) {
+        return (int) ((id >>> SEQUENCE_BITS) & MAX_WORKER_ID);
+    }
+
+    private static long compose(final long state, final int worker) {
+        return ((state >>> SEQUENCE_BITS) << TIMESTAMP_SHIFT) | ((long) worker << SEQUENCE_BITS)
+               | (state & SEQUENCE_MASK);
+    }
+
+    /**
+     * 当前时间戳，检查时钟回拨
+     * 
+     * @param last 上次的时间戳
+     */
+    private long timestamp(final long last) {
+        long now = System.currentTimeMillis() - EPOCH;
+        if (last - now > this.maxBackwardMillis) {
+            throw new IllegalStateException("clock moved backwards by " + (last - now) + " ms, refusing to generate id.");
+        }
+        return now;
+    }
+
+    private int checkWorkerId() {
+        int worker = this.workerId;
+        if (worker < 0) {
+            throw new IllegalStateException("node " + this.nodeId + " holds no worker id.");
+        }
+        if (System.nanoTime() - this.leaseDeadline >= 0) {
+            throw new IllegalStateException("lease of worker id " + worker + " of node " + this.nodeId
+                                            + " may have expired, refusing to generate id.");
+        }
+        return worker;
+    }
+
+    private void acquireWorkerId() {
+        long begin = System.nanoTime();
+        int worker = this.registry.acquire(this.nodeId, MAX_WORKER_ID, this.leaseMillis);
+        if (worker >= 0) {
+            extendLease(begin);
+            log.info("node {} acquired worker id {}.", this.nodeId, worker);
+        }
+        this.workerId = worker;
+    }
+
+    /**
+     * 记录租约的到期时间，从发起请求时开始计算，注册中心实际授予的租约不会早于此时开始
+     */
+    private void extendLease(final long begin) {
+        long margin = Math.max(this.leaseMillis / LEASE_MARGIN_DIVISOR, 1L);
+        this.leaseDeadline = begin + TimeUnit.MILLISECONDS.toNanos(this.leaseMillis - margin);
+    }
+
+    /**
+     * 续约，编号已被其他节点占用时重新占用一个编号
+     */
+    private void renew() {
+        try {
+            int worker = this.workerId;
+            long begin = System.nanoTime();
+            if (worker >= 0 && this.registry.renew(worker, this.nodeId, this.leaseMillis)) {
+                extendLease(begin);
+                return;
+            }
+
+            log.warn("worker id {} of node {} is lost, acquiring a new one.", worker, this.nodeId);
+            this.workerId = -1;
+            acquireWorkerId();
+        } catch (RuntimeException e) {
+            // 租约到期前续约仍未成功时，checkWorkerId拒绝生成ID
+            log.error("failed to renew worker id of node " + this.nodeId + ": " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.service.order.id;
+
+/**
+ * 工作节点编号的注册中心
+ * <p>
+ * 节点以租约的方式占用编号，需要在租约到期前续约；节点失联后租约过期，编号可以分配给其他节点。
+ * 同一时刻一个编号只能被一个节点占用，否则生成的ID可能重复。
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月16日
+ */
+public interface WorkerIdRegistry {
+
+    /**
+     * 占用一个空闲的编号
+     * 
+     * @param nodeId 节点标识
+     * @param maxWorkerId 编号的最大值
+     * @param leaseMillis 租约时长，单位毫秒
+     * @return 编号，没有空闲编号时返回-1
+     */
+    int acquire(String nodeId, int maxWorkerId, long leaseMillis);
+
+    /**
+     * 续约
+     * 
+     * @param workerId 编号
+     * @param nodeId 节点标识
+     * @param leaseMillis 租约时长，单位毫秒
+     * @return 编号已被其他节点占用时返回false
+     */
+    boolean renew(int workerId, String nodeId, long leaseMillis);
+
+    /**
+     * 释放编号
+     * 
+     * @param workerId 编号
+     * @param nodeId 节点标识
+     */
+    void release(int workerId, String nodeId);
+}
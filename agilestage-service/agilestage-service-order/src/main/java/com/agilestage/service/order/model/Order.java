@@ -0,0 +1,90 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.service.order.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 订单
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月18日
+ */
+public class Order {
+
+    public static final int STATUS_CREATED = 0;
+
+    /** 订单号，由{@link com.agilestage.service.order.id.IdGenerator}生成 */
+    private long id;
+
+    private String memberId;
+
+    private int status = STATUS_CREATED;
+
+    /** 下单时间，毫秒时间戳 */
+    private long createTime;
+
+    private List<OrderItem> items = new ArrayList<OrderItem>();
+
+    public long getId() {
+        return this.id;
+    }
+
+    public void setId(final long id) {
+        this.id = id;
+    }
+
+    public String getMemberId() {
+        return this.memberId;
+    }
+
+    public void setMemberId(final String memberId) {
+        this.memberId = memberId;
+    }
+
+    public int getStatus() {
+        return this.status;
+    }
+
+    public void setStatus(final int status) {
+        this.status = status;
+    }
+
+    public long getCreateTime() {
+        return this.createTime;
+    }
+
+    public void setCreateTime(final long createTime) {
+        this.createTime = createTime;
+    }
+
+    public List<OrderItem> getItems() {
+        return this.items;
+    }
+
+    public void setItems(final List<OrderItem> items) {
+        this.items = items;
+    }
+
+    public void addItem(final OrderItem item) {
+        this.items.add(item);
+    }
+
+    /**
+     * 订单总金额，单位分
+     */
+    public long getTotalAmount() {
+        long total = 0L;
+        for (OrderItem item : this.items) {
+            total += item.getAmount();
+        }
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        return "Order[" + this.id + "]";
+    }
+}
@@ -0,0 +1,60 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.service.order.model;
+
+/**
+ * 订单明细
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月18日
+ */
+public class OrderItem {
+
+    private String skuId;
+
+    private int quantity;
+
+    /** 单价，单位分 */
+    private long price;
+
+    public OrderItem() {
+    }
+
+    public OrderItem(final String skuId, final int quantity, final long price) {
+        this.skuId = skuId;
+        this.quantity = quantity;
+        this.price = price;
+    }
+
+    public String getSkuId() {
+        return this.skuId;
+    }
+
+    public void setSkuId(final String skuId) {
+        this.skuId = skuId;
+    }
+
+    public int getQuantity() {
+        return this.quantity;
+    }
+
+    public void setQuantity(final int quantity) {
+        this.quantity = quantity;
+    }
+
+    public long getPrice() {
+        return this.price;
+    }
+
+    public void setPrice(final long price) {
+        this.price = price;
+    }
+
+    /**
+     * 金额，单位分
+     */
+    public long getAmount() {
+        return this.price * this.quantity;
+    }
+}
@@ -0,0 +1,409 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.service.order.persist;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.agilestage.core.metrics.LatencyHistogram;
+import com.agilestage.core.metrics.StripedCounter;
+import com.agilestage.service.order.id.IdGenerator;
+import com.agilestage.service.order.model.Order;
+import com.agilestage.service.order.model.OrderItem;
+
+/**
+ * 订单批量写入
+ * <p>
+ * 下单线程通过{@link #submit(Order)}把订单放入队列后立即返回{@link OrderWriteFuture}；少量写入线程从队列中取出订单，
+ * 第一个订单到达后最多再等待maxWaitMicros收集更多订单（最多maxBatchSize个），然后在一个事务中用多行INSERT写入：
+ * 
+ * <pre>
+ * t_order(order_id, member_id, total_amount, status, create_time)
+ * t_order_item(order_id, sku_id, quantity, price, amount)
+ * t_stock_ledger(order_id, sku_id, quantity, create_time)
+ * </pre>
+ * 
+ * 一个批次只占用一个连接、三到几条语句，数据库连接数不再限制下单的吞吐量。
+ * 批次写入失败时逐个订单单独重试，只有本身写入失败的订单以失败结束。
+ * <p>
+ * 批次大小、批次写入耗时（含失败的批次）、订单从提交到写入完成的耗时（微秒）通过{@link LatencyHistogram}统计。
+ * 停止后提交的订单、以及停止时仍在队列中的订单都以失败结束，调用方等待结果时不会永远阻塞。
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月18日
+ */
+public class OrderWriteBatcher {
+
+    private static final Logger log = LoggerFactory.getLogger(OrderWriteBatcher.class);
+
+    /** 一条INSERT语句中的最大行数，避免超过max_allowed_packet */
+    private static final int MAX_ROWS_PER_STATEMENT = 500;
+
+    /** 队列满时每次等待的时间，等待期间写入停止则不再提交 */
+    private static final long OFFER_WAIT_MILLIS = 100L;
+
+    private static final String ORDER_TABLE = "t_order(order_id, member_id, total_amount, status, create_time)";
+
+    private static final String ITEM_TABLE = "t_order_item(order_id, sku_id, quantity, price, amount)";
+
+    private static final String LEDGER_TABLE = "t_stock_ledger(order_id, sku_id, quantity, create_time)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final IdGenerator idGenerator;
+
+    private final int maxBatchSize;
+
+    private final long maxWaitNanos;
+
+    private final BlockingQueue<OrderWriteFuture> queue;
+
+    private final List<Thread> writers = new ArrayList<Thread>();
+
+    private volatile boolean running;
+
+    private final LatencyHistogram batchSizes = new LatencyHistogram();
+
+    private final LatencyHistogram batchLatency = new LatencyHistogram();
+
+    private final LatencyHistogram writeLatency = new LatencyHistogram();
+
+    private final StripedCounter written = new StripedCounter();
+
+    private final StripedCounter failed = new StripedCounter();
+
+    /**
+     * @param jdbcTemplate
+     * @param idGenerator 为没有订单号的订单生成订单号
+     * @param maxBatchSize 一个批次的最大订单数
+     * @param maxWaitMicros 收集批次的最长等待时间，单位微秒
+     * @param queueCapacity 队列容量，队列满时提交订单的线程阻塞等待，直到有空间或写入停止
+     */
+    public OrderWriteBatcher(final JdbcTemplate jdbcTemplate, final IdGenerator idGenerator, final int maxBatchSize,
+                             final long maxWaitMicros, final int queueCapacity) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.idGenerator = idGenerator;
+        this.maxBatchSize = Math.max(maxBatchSize, 1);
+        this.maxWaitNanos = TimeUnit.MICROSECONDS.toNanos(maxWaitMicros);
+        this.queue = new LinkedBlockingQueue<OrderWriteFuture>(queueCapacity);
+    }
+
+    /**
+     * 启动写入线程
+     * 
+     * @param writerCount 写入线程数，即同时占用的最大连接数，应小于连接池的maxActive
+     */
+    public synchronized void start(final int writerCount) {
+        if (this.running) {
+            return;
+        }
+        this.running = true;
+
+        for (int i = 0; i < Math.max(writerCount, 1); i++) {
+            Thread writer = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    writeLoop();
+                }
+            }, "order-writer-" + i);
+            writer.setDaemon(true);
+            writer.start();
+            this.writers.add(writer);
+        }
+    }
+
+    /**
+     * 停止接收订单，等待队列中的订单写入完成，写入线程退出后仍在队列中的订单以失败结束
+     * 
+     * @param timeoutMillis 最长等待时间
+     */
+    public synchronized void stop(final long timeoutMillis) {
+        this.running = false;
+
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        for (Thread writer : this.writers) {
+            try {
+                writer.join(Math.max(deadline - System.currentTimeMillis(), 1L));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        this.writers.clear();
+
+        List<OrderWriteFuture> rest = new ArrayList<OrderWriteFuture>();
+        this.queue.drainTo(rest);
+        for (OrderWriteFuture future : rest) {
+            future.fail(new IllegalStateException("order writer is stopped."));
+        }
+    }
+
+    /**
+     * 提交订单
+     * 
+     * @param order 订单，没有订单号时生成订单号
+     * @return 订单写入结果
+     * @throws InterruptedException 等待队列空间时被中断
+     */
+    public OrderWriteFuture submit(final Order order) throws InterruptedException {
+        if (0 == order.getId()) {
+            order.setId(this.idGenerator.nextId());
+        }
+        if (0 == order.getCreateTime()) {
+            order.setCreateTime(System.currentTimeMillis());
+        }
+
+        OrderWriteFuture future = new OrderWriteFuture(order);
+        while (this.running) {
+            if (!this.queue.offer(future, OFFER_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                // 队列已满，写入停止后不再等待
+                continue;
+            }
+            // 入队与停止并发时，停止后的最后一次清理可能已经结束，订单由自己取回并以失败结束；
+            // 取不回说明已被写入线程或停止时的清理取走，由它们结束
+            if (!this.running && this.queue.remove(future)) {
+                break;
+            }
+            return future;
+        }
+
+        future.fail(new IllegalStateException("order writer is not running."));
+        return future;
+    }
+
+    private void writeLoop() {
+        List<OrderWriteFuture> batch = new ArrayList<OrderWriteFuture>(this.maxBatchSize);
+        while (this.running || !this.queue.isEmpty()) {
+            try {
+                OrderWriteFuture first = this.queue.poll(100, TimeUnit.MILLISECONDS);
+                if (null == first) {
+                    continue;
+                }
+                batch.add(first);
+                collect(batch);
+
+                write(batch);
+            } catch (InterruptedException e) {
+                for (OrderWriteFuture future : batch) {
+                    future.fail(e);
+                }
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log.error("order writer failed: " + e.getMessage(), e);
+                for (OrderWriteFuture future : batch) {
+                    future.fail(e);
+                }
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * 在等待窗口内收集更多的订单，批次已满或超时后返回
+     */
+    private void collect(final List<OrderWriteFuture> batch) throws InterruptedException {
+        long deadline = System.nanoTime() + this.maxWaitNanos;
+        while (batch.size() < this.maxBatchSize) {
+            // 队列中已有的订单直接取走，不等待
+            if (this.queue.drainTo(batch, this.maxBatchSize - batch.size()) > 0) {
+                continue;
+            }
+
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return;
+            }
+            OrderWriteFuture next = this.queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (null == next) {
+                return;
+            }
+            batch.add(next);
+        }
+    }
+
+    private void write(final List<OrderWriteFuture> batch) {
+        List<Order> orders = new ArrayList<Order>(batch.size());
+        for (OrderWriteFuture future : batch) {
+            orders.add(future.getOrder());
+        }
+
+        long begin = System.nanoTime();
+        RuntimeException error = null;
+        try {
+            insert(orders);
+        } catch (RuntimeException e) {
+            error = e;
+        }
+
+        // 失败的批次同样计入批次统计，数据库变慢或出错时的耗时才能体现在分布中
+        this.batchSizes.record(batch.size());
+        this.batchLatency.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - begin));
+
+        if (null == error) {
+            for (OrderWriteFuture future : batch) {
+                complete(future, null);
+            }
+            return;
+        }
+        if (1 == batch.size()) {
+            complete(batch.get(0), error);
+            return;
+        }
+
+        log.warn("batch of {} orders failed, writing them one by one: {}", batch.size(), error.getMessage());
+        for (OrderWriteFuture future : batch) {
+            try {
+                insert(Collections.singletonList(future.getOrder()));
+                complete(future, null);
+            } catch (RuntimeException single) {
+                complete(future, single);
+            }
+        }
+    }
+
+    private void complete(final OrderWriteFuture future, final RuntimeException error) {
+        if (null == error) {
+            this.written.increment();
+            this.writeLatency.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - future.submitted));
+            future.complete();
+        } else {
+            this.failed.increment();
+            log.error("failed to write order " + future.getOrder().getId() + ": " + error.getMessage(), error);
+            future.fail(error);
+        }
+    }
+
+    /**
+     * 在一个事务中写入订单、订单明细和库存流水
+     */
+    private void insert(final List<Order> orders) {
+        final List<Object[]> orderRows = new ArrayList<Object[]>(orders.size());
+        final List<Object[]> itemRows = new ArrayList<Object[]>();
+        final List<Object[]> ledgerRows = new ArrayList<Object[]>();
+        for (Order order : orders) {
+            orderRows.add(new Object[] { order.getId(), order.getMemberId(), order.getTotalAmount(),
+                                         order.getStatus(), new Timestamp(order.getCreateTime()) });
+            for (OrderItem item : order.getItems()) {
+                itemRows.add(new Object[] { order.getId(), item.getSkuId(), item.getQuantity(), item.getPrice(),
+                                            item.getAmount() });
+                ledgerRows.add(new Object[] { order.getId(), item.getSkuId(), -item.getQuantity(),
+                                              new Timestamp(order.getCreateTime()) });
+            }
+        }
+
+        this.jdbcTemplate.execute(new ConnectionCallback<Void>() {
+
+            @Override
+            public Void doInConnection(final Connection con) throws SQLException {
+                boolean autoCommit = con.getAutoCommit();
+                con.setAutoCommit(false);
+                try {
+                    insertRows(con, ORDER_TABLE, 5, orderRows);
+                    insertRows(con, ITEM_TABLE, 5, itemRows);
+                    insertRows(con, LEDGER_TABLE, 4, ledgerRows);
+                    con.commit();
+                } catch (SQLException e) {
+                    con.rollback();
+                    throw e;
+                } catch (RuntimeException e) {
+                    con.rollback();
+                    throw e;
+                } finally {
+                    con.setAutoCommit(autoCommit);
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * 多行INSERT：INSERT INTO table VALUES (?, ...), (?, ...), ...
+     */
+    private static void insertRows(final Connection con, final String table, final int columns,
+                                   final List<Object[]> rows) throws SQLException {
+        for (int from = 0; from < rows.size(); from += MAX_ROWS_PER_STATEMENT) {
+            int to = Math.min(from + MAX_ROWS_PER_STATEMENT, rows.size());
+
+            StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" VALUES ");
+            for (int i = from; i < to; i++) {
+                sql.append(i == from ? "(" : ", (");
+                for (int c = 0; c < columns; c++) {
+                    sql.append(0 == c ? "?" : ", ?");
+                }
+                sql.append(')');
+            }
+
+            PreparedStatement ps = con.prepareStatement(sql.toString());
+            try {
+                int index = 1;
+                for (int i = from; i < to; i++) {
+                    for (Object value : rows.get(i)) {
+                        ps.setObject(index++, value);
+                    }
+                }
+                ps.executeUpdate();
+            } finally {
+                ps.close();
+            }
+        }
+    }
+
+    /**
+     * 批次大小的分布
+     */
+    public LatencyHistogram.Snapshot getBatchSizes() {
+        return this.batchSizes.snapshot();
+    }
+
+    /**
+     * 批次写入耗时的分布，单位微秒
+     */
+    public LatencyHistogram.Snapshot getBatchLatency() {
+        return this.batchLatency.snapshot();
+    }
+
+    /**
+     * 订单从提交到写入完成的耗时分布，单位微秒
+     */
+    public LatencyHistogram.Snapshot getWriteLatency() {
+        return this.writeLatency.snapshot();
+    }
+
+    /**
+     * 已写入的订单数
+     */
+    public long getWritten() {
+        return this.written.sum();
+    }
+
+    /**
+     * 写入失败的订单数
+     */
+    public long getFailed() {
+        return this.failed.sum();
+    }
+
+    /**
+     * 队列中等待写入的订单数
+     */
+    public int getQueued() {
+        return this.queue.size();
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.service.order.persist;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.agilestage.service.order.model.Order;
+
+/**
+ * 订单写入结果，订单所在的批次提交后完成，结果为订单号
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月18日
+ */
+public final class OrderWriteFuture implements Future<Long> {
+
+    private final Order order;
+
+    /** 提交时间，纳秒 */
+    final long submitted = System.nanoTime();
+
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    private volatile Throwable failure;
+
+    OrderWriteFuture(final Order order) {
+        this.order = order;
+    }
+
+    public Order getOrder() {
+        return this.order;
+    }
+
+    void complete() {
+        this.done.countDown();
+    }
+
+    void fail(final Throwable cause) {
+        if (isDone()) {
+            return;
+        }
+        this.failure = cause;
+        this.done.countDown();
+    }
+
+    /**
+     * 写入的订单不能取消
+     */
+    @Override
+    public boolean cancel(final boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public boolean isDone() {
+        return 0 == this.done.getCount();
+    }
+
+    @Override
+    public Long get() throws InterruptedException, ExecutionException {
+        this.done.await();
+        return result();
+    }
+
+    @Override
+    public Long get(final long timeout, final TimeUnit unit)
+        throws InterruptedException, ExecutionException, TimeoutException {
+        if (!this.done.await(timeout, unit)) {
+            throw new TimeoutException("order " + this.order.getId() + " is not written in time.");
+        }
+        return result();
+    }
+
+    private Long result() throws ExecutionException {
+        if (null != this.failure) {
+            throw new ExecutionException(this.failure);
+        }
+        return this.order.getId();
+    }
+}
@@ -0,0 +1,181 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.service.product.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPubSub;
+
+/**
+ * 通过Redis发布/订阅在节点间广播缓存失效
+ * <p>
+ * 每个节点用一个后台线程订阅失效频道，收到消息后删除本地缓存中对应的key。订阅连接断开后每隔一段时间重新订阅，
+ * 断开期间错过的消息由本地缓存的有效期兜底。
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月19日
+ */
+public class CacheInvalidator {
+
+    private static final Logger log = LoggerFactory.getLogger(CacheInvalidator.class);
+
+    /** 重新订阅的间隔 */
+    private static final long RESUBSCRIBE_INTERVAL = 3000L;
+
+    private final JedisPool pool;
+
+    private final String channel;
+
+    private final Listener listener;
+
+    private volatile boolean running;
+
+    private volatile JedisPubSub subscriber;
+
+    /** 订阅是否建立过，订阅中断后只通知一次 */
+    private volatile boolean subscribed;
+
+    private Thread thread;
+
+    /**
+     * @param pool 连接池，订阅会长期占用其中一个连接
+     * @param channel 失效频道
+     * @param listener 收到失效消息时的处理
+     */
+    public CacheInvalidator(final JedisPool pool, final String channel, final Listener listener) {
+        this.pool = pool;
+        this.channel = channel;
+        this.listener = listener;
+    }
+
+    public synchronized void start() {
+        if (this.running) {
+            return;
+        }
+        this.running = true;
+
+        this.thread = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                subscribeLoop();
+            }
+        }, "cache-invalidator-" + this.channel);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    public synchronized void stop() {
+        this.running = false;
+        JedisPubSub current = this.subscriber;
+        if (null != current && current.isSubscribed()) {
+            current.unsubscribe();
+        }
+        if (null != this.thread) {
+            this.thread.interrupt();
+            this.thread = null;
+        }
+    }
+
+    /**
+     * 广播失效消息，包括本节点在内的所有节点都会收到
+     * 
+     * @param key 失效的key
+     */
+    public void publish(final String key) {
+        Jedis jedis = null;
+        try {
+            jedis = this.pool.getResource();
+            jedis.publish(this.channel, key);
+        } catch (RuntimeException e) {
+            log.warn("failed to publish invalidation of {}: {}", key, e.getMessage());
+        } finally {
+            RedisCache.close(jedis);
+        }
+    }
+
+    private void subscribeLoop() {
+        while (this.running) {
+            Jedis jedis = null;
+            try {
+                jedis = this.pool.getResource();
+                this.subscriber = new Subscriber();
+                // 阻塞直到取消订阅或连接断开
+                jedis.subscribe(this.subscriber, this.channel);
+            } catch (RuntimeException e) {
+                log.warn("subscription of {} is broken: {}", this.channel, e.getMessage());
+            } finally {
+                RedisCache.close(jedis);
+            }
+
+            if (this.running) {
+                // 订阅中断期间可能错过失效消息
+                if (this.subscribed) {
+                    this.subscribed = false;
+                    this.listener.onReset();
+                }
+                try {
+                    Thread.sleep(RESUBSCRIBE_INTERVAL);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private final class Subscriber extends JedisPubSub {
+
+        @Override
+        public void onMessage(final String ch, final String message) {
+            try {
+                CacheInvalidator.this.listener.onInvalidate(message);
+            } catch (RuntimeException e) {
+                log.error("failed to invalidate " + message + ": " + e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public void onPMessage(final String pattern, final String ch, final String message) {
+            onMessage(ch, message);
+        }
+
+        @Override
+        public void onSubscribe(final String ch, final int subscribedChannels) {
+            CacheInvalidator.this.subscribed = true;
+            log.info("subscribed to cache invalidation channel {}.", ch);
+        }
+
+        @Override
+        public void onUnsubscribe(final String ch, final int subscribedChannels) {
+            log.info("unsubscribed from cache invalidation channel {}.", ch);
+        }
+
+        @Override
+        public void onPUnsubscribe(final String pattern, final int subscribedChannels) {
+        }
+
+        @Override
+        public void onPSubscribe(final String pattern, final int subscribedChannels) {
+        }
+    }
+
+    /**
+     * 失效消息的处理
+     */
+    public interface Listener {
+
+        /**
+         * @param key 失效的key
+         */
+        void onInvalidate(String key);
+
+        /**
+         * 订阅中断，期间的失效消息可能已丢失
+         */
+        void onReset();
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.service.product.cache;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 访问频率的近似统计（Count-Min Sketch），用于TinyLFU的准入判断
+ * <p>
+ * 每个key对应4个4位计数器（最大15），取最小值作为频率。累计记录次数达到10倍容量后所有计数器减半，
+ * 使频率反映最近的访问情况。
+ * <p>
+ * 计数器通过CAS更新，已达到15的计数器不再增加，并发时不会进位到相邻的计数器；读取频率不加锁。
+ * 减半与更新并发时可能丢失少量记录，对近似频率没有影响。
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月19日
+ */
+final class FrequencySketch {
+
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private static final int[] SEEDS = { 0x97cb3127, 0xc3a5c85c, 0x1b873593, 0xcc9e2d51 };
+
+    /** 每个long包含16个4位计数器 */
+    private final AtomicLongArray table;
+
+    private final int mask;
+
+    private final int sampleSize;
+
+    private final AtomicInteger additions = new AtomicInteger();
+
+    /**
+     * @param capacity 缓存容量
+     */
+    FrequencySketch(final int capacity) {
+        int size = 1;
+        while (size < Math.max(capacity, 16)) {
+            size <<= 1;
+        }
+        this.table = new AtomicLongArray(size);
+        this.mask = size - 1;
+        this.sampleSize = 10 * Math.max(capacity, 16);
+    }
+
+    /**
+     * 记录一次访问
+     */
+    void increment(final Object key) {
+        int hash = spread(key.hashCode());
+        boolean added = false;
+        for (int i = 0; i < SEEDS.length; i++) {
+            int h = rehash(hash, i);
+            int index = h & this.mask;
+            int offset = ((h >>> 24) & 15) << 2;
+            if (incrementAt(index, offset)) {
+                added = true;
+            }
+        }
+
+        if (added && this.additions.incrementAndGet() >= this.sampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * 计数器未满时加1
+     * 
+     * @return 是否增加
+     */
+    private boolean incrementAt(final int index, final int offset) {
+        while (true) {
+            long current = this.table.get(index);
+            if (((current >>> offset) & 15L) == 15L) {
+                return false;
+            }
+            if (this.table.compareAndSet(index, current, current + (1L << offset))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 访问频率，最大为15
+     */
+    int frequency(final Object key) {
+        int hash = spread(key.hashCode());
+        int frequency = 15;
+        for (int i = 0; i < SEEDS.length; i++) {
+            int h = rehash(hash, i);
+            int offset = ((h >>> 24) & 15) << 2;
+            frequency = Math.min(frequency, (int) ((this.table.get(h & this.mask) >>> offset) & 15L));
+        }
+        return frequency;
+    }
+
+    private synchronized void reset() {
+        // 多个线程同时达到阈值时只减半一次
+        if (this.additions.get() < this.sampleSize) {
+            return;
+        }
+        for (int i = 0; i < this.table.length(); i++) {
+            while (true) {
+                long current = this.table.get(i);
+                if (this.table.compareAndSet(i, current, (current >>> 1) & RESET_MASK)) {
+                    break;
+                }
+            }
+        }
+        this.additions.set(this.additions.get() >>> 1);
+    }
+
+    private static int rehash(final int hash, final int i) {
+        int h = hash * SEEDS[i];
+        return h ^ (h >>> 17);
+    }
+
+    private static int spread(final int hash) {
+        int h = hash * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+}
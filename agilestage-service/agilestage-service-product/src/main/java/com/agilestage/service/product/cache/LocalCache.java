@@ -0,0 +1,193 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.service.product.cache;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 有界的进程内缓存
+ * <p>
+ * 读取只访问ConcurrentHashMap并设置条目的访问标记，不加锁。写入在锁内按CLOCK算法选择淘汰对象：
+ * 指针扫过的条目如果有访问标记则清除标记跳过，没有访问标记（或已过期）的条目作为候选。
+ * 缓存已满时按TinyLFU准入：新条目的访问频率（参见{@link FrequencySketch}）高于候选条目时才替换候选条目，
+ * 否则不缓存新条目，偶发的冷数据不会把热点数据挤出缓存。
+ * <p>
+ * 条目到期后读取时视为不存在，之后被写入时的淘汰扫描回收。
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月19日
+ */
+public final class LocalCache<K, V> {
+
+    private final ConcurrentHashMap<K, Node<K, V>> map;
+
+    private final FrequencySketch sketch;
+
+    /** CLOCK环，由this保护 */
+    private final Node<K, V>[] ring;
+
+    private int hand;
+
+    private int size;
+
+    /**
+     * @param capacity 最大条目数
+     */
+    @SuppressWarnings("unchecked")
+    public LocalCache(final int capacity) {
+        int max = Math.max(capacity, 1);
+        this.map = new ConcurrentHashMap<K, Node<K, V>>(max * 4 / 3 + 1);
+        this.sketch = new FrequencySketch(max);
+        this.ring = new Node[max];
+    }
+
+    /**
+     * 读取缓存
+     * 
+     * @return 不存在或已过期时返回null
+     */
+    public V get(final K key) {
+        this.sketch.increment(key);
+
+        Node<K, V> node = this.map.get(key);
+        if (null == node) {
+            return null;
+        }
+        if (node.expireAt <= System.currentTimeMillis()) {
+            return null;
+        }
+        if (!node.referenced) {
+            node.referenced = true;
+        }
+        return node.value;
+    }
+
+    /**
+     * 写入缓存
+     * 
+     * @param ttlMillis 有效期，单位毫秒
+     * @return 未通过准入、没有缓存时返回false
+     */
+    public synchronized boolean put(final K key, final V value, final long ttlMillis) {
+        long expireAt = System.currentTimeMillis() + ttlMillis;
+
+        Node<K, V> existing = this.map.get(key);
+        if (null != existing) {
+            // 替换为新的节点，读取方不会看到值和过期时间不一致的节点
+            Node<K, V> node = new Node<K, V>(key, value, expireAt, existing.slot);
+            this.ring[existing.slot] = node;
+            this.map.put(key, node);
+            return true;
+        }
+
+        int slot;
+        if (this.size < this.ring.length) {
+            slot = findFreeSlot();
+            this.size++;
+        } else {
+            slot = findVictim();
+            Node<K, V> victim = this.ring[slot];
+            boolean expired = victim.expireAt <= System.currentTimeMillis();
+            if (!expired && this.sketch.frequency(key) <= this.sketch.frequency(victim.key)) {
+                return false;
+            }
+            this.map.remove(victim.key);
+        }
+
+        Node<K, V> node = new Node<K, V>(key, value, expireAt, slot);
+        this.ring[slot] = node;
+        this.map.put(key, node);
+        return true;
+    }
+
+    /**
+     * 删除缓存
+     */
+    public synchronized void remove(final K key) {
+        Node<K, V> node = this.map.remove(key);
+        if (null != node) {
+            this.ring[node.slot] = null;
+            this.size--;
+        }
+    }
+
+    /**
+     * 清空缓存
+     */
+    public synchronized void clear() {
+        this.map.clear();
+        for (int i = 0; i < this.ring.length; i++) {
+            this.ring[i] = null;
+        }
+        this.size = 0;
+        this.hand = 0;
+    }
+
+    /**
+     * 当前的条目数（含已过期未回收的条目）
+     */
+    public int size() {
+        return this.map.size();
+    }
+
+    public int capacity() {
+        return this.ring.length;
+    }
+
+    private int findFreeSlot() {
+        while (null != this.ring[this.hand]) {
+            advance();
+        }
+        int slot = this.hand;
+        advance();
+        return slot;
+    }
+
+    /**
+     * 按CLOCK算法选择候选淘汰条目，最多扫描两圈
+     */
+    private int findVictim() {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < this.ring.length * 2; i++) {
+            Node<K, V> node = this.ring[this.hand];
+            int slot = this.hand;
+            advance();
+
+            if (node.expireAt <= now || !node.referenced) {
+                return slot;
+            }
+            node.referenced = false;
+        }
+        int slot = this.hand;
+        advance();
+        return slot;
+    }
+
+    private void advance() {
+        if (++this.hand == this.ring.length) {
+            this.hand = 0;
+        }
+    }
+
+    private static final class Node<K, V> {
+
+        final K key;
+
+        final V value;
+
+        final long expireAt;
+
+        final int slot;
+
+        /** 访问标记，读取时设置，CLOCK扫描时清除 */
+        volatile boolean referenced;
+
+        Node(final K key, final V value, final long expireAt, final int slot) {
+            this.key = key;
+            this.value = value;
+            this.expireAt = expireAt;
+            this.slot = slot;
+        }
+    }
+}
@@ -0,0 +1,313 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.service.product.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import redis.clients.jedis.JedisPool;
+
+import com.agilestage.core.cache.CacheLoader;
+import com.agilestage.core.cache.ExpiringValue;
+import com.agilestage.core.cache.SingleFlight;
+import com.agilestage.core.metrics.LatencyHistogram;
+import com.agilestage.core.metrics.StripedCounter;
+import com.agilestage.service.product.model.Product;
+
+/**
+ * 商品两级缓存
+ * <p>
+ * 读取顺序：进程内缓存（{@link LocalCache}） -&gt; Redis（{@link RedisCache}） -&gt; 数据源（{@link CacheLoader}），
+ * 下层读到的商品回填到上层。进程内缓存命中时不访问网络，只有一次ConcurrentHashMap查询。
+ * <p>
+ * 进程内缓存未命中时通过{@link SingleFlight}回源，同一商品的并发请求只读取一次Redis/数据源；
+ * 命中时按{@link ExpiringValue#shouldRefresh}提前在后台刷新，热点商品过期时不会集中回源。
+ * 不存在的商品也在进程内缓存，避免反复查询数据库。
+ * <p>
+ * 商品修改后调用{@link #invalidate(long)}：删除Redis中的缓存，并通过{@link CacheInvalidator}通知所有节点删除进程内缓存。
+ * 每次失效递增商品的版本号（按商品编号分段），回源前记下版本号，回填后版本号已变化时删除刚回填的值，
+ * 失效前开始的回源或后台刷新不会把旧数据写回缓存。
+ * 其他节点在失效前读到旧数据、失效消息在其检查版本号之后才到达时，旧数据仍可能被写回Redis，
+ * 因此失效后延迟一段时间再删除一次（延迟双删），并再次通知所有节点，旧数据最多保留这段延迟。
+ * <p>
+ * 统计各层的命中次数和读取耗时（纳秒）。
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月19日
+ */
+public class ProductCache {
+
+    /** 失效频道 */
+    public static final String INVALIDATE_CHANNEL = "agilestage:product:invalidate";
+
+    private static final String REDIS_PREFIX = "agilestage:product:";
+
+    /** 提前刷新的倾向，参见{@link ExpiringValue#shouldRefresh} */
+    private static final double REFRESH_BETA = 1.0;
+
+    /** 版本号的分段数，2的幂 */
+    private static final int GENERATION_STRIPES = 1024;
+
+    /** 默认的第二次删除的延迟，单位毫秒 */
+    public static final long DEFAULT_SECOND_DELETE_DELAY = 1000L;
+
+    private final LocalCache<Long, ExpiringValue<Product>> local;
+
+    private final RedisCache<Product> redis;
+
+    private final CacheInvalidator invalidator;
+
+    private final CacheLoader<Long, Product> loader;
+
+    /** 依次从Redis、数据源读取并回填 */
+    private final CacheLoader<Long, Product> sourceLoader;
+
+    private final SingleFlight<Long, Product> flights = new SingleFlight<Long, Product>();
+
+    /** 商品的版本号，每次失效时递增 */
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+    private final Executor refresher;
+
+    private final long localTtlMillis;
+
+    private final int redisTtlSeconds;
+
+    private final long secondDeleteDelayMillis;
+
+    /** 延迟执行第二次删除 */
+    private ScheduledExecutorService delayedDeleter;
+
+    private final StripedCounter localHits = new StripedCounter();
+
+    private final StripedCounter redisHits = new StripedCounter();
+
+    private final StripedCounter misses = new StripedCounter();
+
+    private final StripedCounter refreshes = new StripedCounter();
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    /**
+     * @param pool Redis连接池
+     * @param loader 数据源
+     * @param localCapacity 进程内缓存的最大商品数
+     * @param localTtlMillis 进程内缓存的有效期，单位毫秒，也是失效消息丢失时数据不一致的最长时间
+     * @param redisTtlSeconds Redis缓存的有效期，单位秒
+     * @param refresher 后台提前刷新的线程池
+     */
+    public ProductCache(final JedisPool pool, final CacheLoader<Long, Product> loader, final int localCapacity,
+                        final long localTtlMillis, final int redisTtlSeconds, final Executor refresher) {
+        this(pool, loader, localCapacity, localTtlMillis, redisTtlSeconds, refresher, DEFAULT_SECOND_DELETE_DELAY);
+    }
+
+    /**
+     * @param pool Redis连接池
+     * @param loader 数据源
+     * @param localCapacity 进程内缓存的最大商品数
+     * @param localTtlMillis 进程内缓存的有效期，单位毫秒，也是失效消息丢失时数据不一致的最长时间
+     * @param redisTtlSeconds Redis缓存的有效期，单位秒
+     * @param refresher 后台提前刷新的线程池
+     * @param secondDeleteDelayMillis 失效后第二次删除的延迟，单位毫秒，应大于一次回源的最长耗时，小于等于0时不做第二次删除
+     */
+    public ProductCache(final JedisPool pool, final CacheLoader<Long, Product> loader, final int localCapacity,
+                        final long localTtlMillis, final int redisTtlSeconds, final Executor refresher,
+                        final long secondDeleteDelayMillis) {
+        this.local = new LocalCache<Long, ExpiringValue<Product>>(localCapacity);
+        this.redis = new RedisCache<Product>(pool, REDIS_PREFIX, Product.class);
+        this.loader = loader;
+        this.localTtlMillis = localTtlMillis;
+        this.redisTtlSeconds = redisTtlSeconds;
+        this.refresher = refresher;
+        this.secondDeleteDelayMillis = secondDeleteDelayMillis;
+        this.sourceLoader = new CacheLoader<Long, Product>() {
+
+            @Override
+            public Product load(final Long id) throws Exception {
+                return loadFromSource(id);
+            }
+        };
+        this.invalidator = new CacheInvalidator(pool, INVALIDATE_CHANNEL, new CacheInvalidator.Listener() {
+
+            @Override
+            public void onInvalidate(final String key) {
+                long id = Long.parseLong(key);
+                ProductCache.this.generations.incrementAndGet(stripe(id));
+                ProductCache.this.local.remove(id);
+            }
+
+            @Override
+            public void onReset() {
+                for (int i = 0; i < GENERATION_STRIPES; i++) {
+                    ProductCache.this.generations.incrementAndGet(i);
+                }
+                ProductCache.this.local.clear();
+            }
+        });
+    }
+
+    /**
+     * 开始接收其他节点的失效通知
+     */
+    public synchronized void start() {
+        this.invalidator.start();
+        if (this.secondDeleteDelayMillis > 0 && null == this.delayedDeleter) {
+            this.delayedDeleter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+                @Override
+                public Thread newThread(final Runnable r) {
+                    Thread t = new Thread(r, "product-cache-deleter");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+    }
+
+    /**
+     * 停止接收失效通知，已安排的第二次删除仍会执行
+     */
+    public synchronized void stop() {
+        this.invalidator.stop();
+        if (null != this.delayedDeleter) {
+            this.delayedDeleter.shutdown();
+            this.delayedDeleter = null;
+        }
+    }
+
+    /**
+     * 读取商品
+     * 
+     * @param id 商品编号
+     * @return 商品不存在时返回null
+     * @throws IllegalStateException 数据源读取失败
+     */
+    public Product get(final long id) {
+        long begin = System.nanoTime();
+        try {
+            Long key = id;
+            ExpiringValue<Product> cached = this.local.get(key);
+            if (null != cached) {
+                this.localHits.increment();
+                if (cached.shouldRefresh(System.currentTimeMillis(), REFRESH_BETA)
+                    && this.flights.loadAsync(key, this.sourceLoader, this.refresher, null)) {
+                    this.refreshes.increment();
+                }
+                return cached.getValue();
+            }
+
+            try {
+                return this.flights.load(key, this.sourceLoader);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IllegalStateException("failed to load product " + id + ": " + e.getMessage(), e);
+            }
+        } finally {
+            this.latency.record(System.nanoTime() - begin);
+        }
+    }
+
+    /**
+     * 从Redis或数据源读取商品，并回填到上层缓存
+     * <p>
+     * 回填后版本号已变化说明读取期间商品被修改过，删除刚回填的值；失效先递增版本号再删除缓存，
+     * 因此失效要么发生在这次检查之前（由这里删除），要么它的删除发生在回填之后。
+     */
+    private Product loadFromSource(final long id) throws Exception {
+        long begin = System.currentTimeMillis();
+        int stripe = stripe(id);
+        long generation = this.generations.get(stripe);
+        String redisKey = String.valueOf(id);
+
+        boolean fromSource = false;
+        Product product = this.redis.get(redisKey);
+        if (null != product) {
+            this.redisHits.increment();
+        } else {
+            this.misses.increment();
+            product = this.loader.load(id);
+            if (null != product) {
+                this.redis.put(redisKey, product, this.redisTtlSeconds);
+                fromSource = true;
+            }
+        }
+
+        this.local.put(id, new ExpiringValue<Product>(product, this.localTtlMillis, System.currentTimeMillis() - begin),
+                       this.localTtlMillis);
+
+        if (this.generations.get(stripe) != generation) {
+            if (fromSource) {
+                this.redis.remove(redisKey);
+            }
+            this.local.remove(id);
+        }
+        return product;
+    }
+
+    /**
+     * 商品修改后使所有节点的缓存失效，{@link #start()}之后还会在延迟后再失效一次
+     * 
+     * @param id 商品编号
+     */
+    public void invalidate(final long id) {
+        evict(id);
+
+        ScheduledExecutorService deleter;
+        synchronized (this) {
+            deleter = this.delayedDeleter;
+        }
+        if (null != deleter) {
+            try {
+                deleter.schedule(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        evict(id);
+                    }
+                }, this.secondDeleteDelayMillis, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // 已停止
+            }
+        }
+    }
+
+    private void evict(final long id) {
+        String key = String.valueOf(id);
+        this.generations.incrementAndGet(stripe(id));
+        this.redis.remove(key);
+        this.local.remove(id);
+        this.invalidator.publish(key);
+    }
+
+    private static int stripe(final long id) {
+        int h = (int) (id ^ (id >>> 32));
+        return (h ^ (h >>> 16)) & (GENERATION_STRIPES - 1);
+    }
+
+    /**
+     * 缓存统计
+     */
+    public Map<String, Object> getStats() {
+        LatencyHistogram.Snapshot snapshot = this.latency.snapshot();
+        Map<String, Object> stats = new LinkedHashMap<String, Object>();
+        stats.put("localHits", this.localHits.sum());
+        stats.put("redisHits", this.redisHits.sum());
+        stats.put("misses", this.misses.sum());
+        stats.put("refreshes", this.refreshes.sum());
+        stats.put("localSize", this.local.size());
+        stats.put("localCapacity", this.local.capacity());
+        stats.put("latencyP50Nanos", snapshot.getValueAtPercentile(50));
+        stats.put("latencyP99Nanos", snapshot.getValueAtPercentile(99));
+        stats.put("latencyMaxNanos", snapshot.getMax());
+        return stats;
+    }
+}
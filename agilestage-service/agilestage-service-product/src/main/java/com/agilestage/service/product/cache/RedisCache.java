@@ -0,0 +1,89 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.service.product.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+
+import com.alibaba.fastjson.JSON;
+
+/**
+ * Redis缓存层，值以JSON格式保存
+ * <p>
+ * Redis不可用时读取返回null、写入和删除只记录日志，调用方回源读取，缓存故障不影响业务。
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月19日
+ */
+public class RedisCache<V> {
+
+    private static final Logger log = LoggerFactory.getLogger(RedisCache.class);
+
+    private final JedisPool pool;
+
+    private final String prefix;
+
+    private final Class<V> type;
+
+    /**
+     * @param pool 连接池
+     * @param prefix key的前缀，如：product:
+     * @param type 值的类型
+     */
+    public RedisCache(final JedisPool pool, final String prefix, final Class<V> type) {
+        this.pool = pool;
+        this.prefix = prefix;
+        this.type = type;
+    }
+
+    public V get(final String key) {
+        Jedis jedis = null;
+        try {
+            jedis = this.pool.getResource();
+            String json = jedis.get(this.prefix + key);
+            return null == json ? null : JSON.parseObject(json, this.type);
+        } catch (RuntimeException e) {
+            log.warn("failed to read {}{} from redis: {}", this.prefix, key, e.getMessage());
+            return null;
+        } finally {
+            close(jedis);
+        }
+    }
+
+    /**
+     * @param ttlSeconds 有效期，单位秒
+     */
+    public void put(final String key, final V value, final int ttlSeconds) {
+        Jedis jedis = null;
+        try {
+            jedis = this.pool.getResource();
+            jedis.setex(this.prefix + key, ttlSeconds, JSON.toJSONString(value));
+        } catch (RuntimeException e) {
+            log.warn("failed to write {}{} to redis: {}", this.prefix, key, e.getMessage());
+        } finally {
+            close(jedis);
+        }
+    }
+
+    public void remove(final String key) {
+        Jedis jedis = null;
+        try {
+            jedis = this.pool.getResource();
+            jedis.del(this.prefix + key);
+        } catch (RuntimeException e) {
+            log.warn("failed to delete {}{} from redis: {}", this.prefix, key, e.getMessage());
+        } finally {
+            close(jedis);
+        }
+    }
+
+    static void close(final Jedis jedis) {
+        if (null != jedis) {
+            jedis.close();
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.service.product.category;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+
+import com.agilestage.service.product.model.Category;
+
+/**
+ * 分类服务
+ * <p>
+ * 启动时从数据库读取全部分类建立{@link CategoryTreeSnapshot}，之后定时检查分类表的行数和最后修改时间：
+ * 
+ * <pre>
+ * SELECT COUNT(*), MAX(update_time) FROM t_category
+ * </pre>
+ * 
+ * 有变化时重新读取并建立新的快照，通过volatile字段整体替换，正在使用旧快照的请求不受影响。分类页面、面包屑、
+ * 按分类子树筛选商品都只读取快照，不访问数据库。后台修改分类后也可以直接调用{@link #reload()}。
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月23日
+ */
+public class CategoryService {
+
+    private static final Logger log = LoggerFactory.getLogger(CategoryService.class);
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final String selectSql;
+
+    private final String versionSql;
+
+    private volatile CategoryTreeSnapshot snapshot = CategoryTreeSnapshot.build(Collections.<Category> emptyList());
+
+    /** 避免并发重新加载，先读取的数据后发布 */
+    private final Object reloadLock = new Object();
+
+    /** 上次加载时分类表的行数和最后修改时间 */
+    private String version;
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * 使用默认的表t_category(id, parent_id, name, sort_order, update_time)
+     * 
+     * @param jdbcTemplate
+     */
+    public CategoryService(final JdbcTemplate jdbcTemplate) {
+        this(jdbcTemplate, "t_category");
+    }
+
+    /**
+     * @param jdbcTemplate
+     * @param table 分类表，包含id, parent_id, name, sort_order, update_time列
+     */
+    public CategoryService(final JdbcTemplate jdbcTemplate, final String table) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.selectSql = "SELECT id, parent_id, name, sort_order FROM " + table;
+        this.versionSql = "SELECT COUNT(*), MAX(update_time) FROM " + table;
+    }
+
+    /**
+     * 加载分类，并定时检查变化
+     * 
+     * @param checkIntervalMillis 检查间隔
+     */
+    public synchronized void start(final long checkIntervalMillis) {
+        if (null != this.scheduler) {
+            return;
+        }
+
+        reload();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                Thread t = new Thread(r, "category-reload");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        this.scheduler.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    reloadIfChanged();
+                } catch (RuntimeException e) {
+                    log.error("reload categories failed, keep the previous snapshot", e);
+                }
+            }
+        }, checkIntervalMillis, checkIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (null != this.scheduler) {
+            this.scheduler.shutdown();
+            try {
+                this.scheduler.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            this.scheduler = null;
+        }
+    }
+
+    /**
+     * 当前的分类树，同一次请求内应使用同一个快照
+     */
+    public CategoryTreeSnapshot getSnapshot() {
+        return this.snapshot;
+    }
+
+    /**
+     * 分类表有变化时重新加载
+     * 
+     * @return 是否重新加载了
+     */
+    public boolean reloadIfChanged() {
+        synchronized (this.reloadLock) {
+            if (queryVersion().equals(this.version)) {
+                return false;
+            }
+            reload();
+            return true;
+        }
+    }
+
+    /**
+     * 重新加载全部分类
+     */
+    public void reload() {
+        synchronized (this.reloadLock) {
+            long begin = System.currentTimeMillis();
+            // 先读版本再读数据，期间的修改会在下次检查时发现
+            String current = queryVersion();
+            List<Category> categories = this.jdbcTemplate.query(this.selectSql, new RowMapper<Category>() {
+
+                @Override
+                public Category mapRow(final ResultSet rs, final int rowNum) throws SQLException {
+                    return new Category(rs.getLong(1), rs.getLong(2), rs.getString(3), rs.getInt(4));
+                }
+            });
+            CategoryTreeSnapshot rebuilt = CategoryTreeSnapshot.build(categories);
+            this.snapshot = rebuilt;
+            this.version = current;
+            log.info("loaded {} categories in {}ms", rebuilt.size(), System.currentTimeMillis() - begin);
+        }
+    }
+
+    private String queryVersion() {
+        return this.jdbcTemplate.queryForObject(this.versionSql, new RowMapper<String>() {
+
+            @Override
+            public String mapRow(final ResultSet rs, final int rowNum) throws SQLException {
+                return rs.getLong(1) + "/" + rs.getString(2);
+            }
+        });
+    }
+}
@@ -0,0 +1,323 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.service.product.category;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.agilestage.service.product.model.Category;
+
+/**
+ * 分类树的只读快照
+ * <p>
+ * 分类按先序遍历（同级按排序值、ID）编号，每棵子树的编号连续：节点i的子树为[i, end[i])。
+ * 因此判断祖先关系只需比较区间，为O(1)；子树的全部分类是ids数组中的一段，直接复制；路径沿parent数组向上，为O(深度)。
+ * 所有查询只读数组，不访问数据库。
+ * <p>
+ * 父分类不存在的分类作为顶级分类；成环的分类无法从顶级分类到达，被丢弃。
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月23日
+ */
+public final class CategoryTreeSnapshot {
+
+    private static final Logger log = LoggerFactory.getLogger(CategoryTreeSnapshot.class);
+
+    private static final Comparator<Category> BY_SORT_ORDER = new Comparator<Category>() {
+
+        @Override
+        public int compare(final Category o1, final Category o2) {
+            if (o1.getSortOrder() != o2.getSortOrder()) {
+                return Integer.compare(o1.getSortOrder(), o2.getSortOrder());
+            }
+            return Long.compare(o1.getId(), o2.getId());
+        }
+    };
+
+    /** 分类ID -&gt; 先序编号 */
+    private final Map<Long, Integer> indexes;
+
+    /** 先序编号 -&gt; 分类ID */
+    private final long[] ids;
+
+    /** 父分类的先序编号，顶级分类为-1 */
+    private final int[] parents;
+
+    /** 子树结束的先序编号（不含） */
+    private final int[] ends;
+
+    /** 深度，顶级分类为0 */
+    private final int[] depths;
+
+    private final String[] names;
+
+    private final int[] sortOrders;
+
+    private CategoryTreeSnapshot(final Map<Long, Integer> indexes, final long[] ids, final int[] parents,
+                                 final int[] ends, final int[] depths, final String[] names, final int[] sortOrders) {
+        this.indexes = indexes;
+        this.ids = ids;
+        this.parents = parents;
+        this.ends = ends;
+        this.depths = depths;
+        this.names = names;
+        this.sortOrders = sortOrders;
+    }
+
+    /**
+     * 根据全部分类建立快照
+     */
+    public static CategoryTreeSnapshot build(final List<Category> categories) {
+        Map<Long, Category> byId = new HashMap<Long, Category>(categories.size() * 2);
+        for (Category category : categories) {
+            if (null != byId.put(category.getId(), category)) {
+                log.warn("duplicate category {}, the later one is used", category.getId());
+            }
+        }
+
+        List<Category> roots = new ArrayList<Category>();
+        Map<Long, List<Category>> children = new HashMap<Long, List<Category>>();
+        for (Category category : byId.values()) {
+            long parentId = category.getParentId();
+            if (Category.ROOT_PARENT_ID == parentId || !byId.containsKey(parentId)) {
+                if (Category.ROOT_PARENT_ID != parentId) {
+                    log.warn("parent {} of category {} not found, treated as top level", parentId, category.getId());
+                }
+                roots.add(category);
+                continue;
+            }
+            List<Category> siblings = children.get(parentId);
+            if (null == siblings) {
+                siblings = new ArrayList<Category>();
+                children.put(parentId, siblings);
+            }
+            siblings.add(category);
+        }
+        Collections.sort(roots, BY_SORT_ORDER);
+        for (List<Category> siblings : children.values()) {
+            Collections.sort(siblings, BY_SORT_ORDER);
+        }
+
+        int n = byId.size();
+        Map<Long, Integer> indexes = new HashMap<Long, Integer>(n * 2);
+        long[] ids = new long[n];
+        int[] parents = new int[n];
+        int[] ends = new int[n];
+        int[] depths = new int[n];
+        String[] names = new String[n];
+        int[] sortOrders = new int[n];
+
+        // 先序遍历，使用显式栈避免深层分类的递归
+        Deque<Category> stack = new ArrayDeque<Category>();
+        for (int i = roots.size() - 1; i >= 0; i--) {
+            stack.push(roots.get(i));
+        }
+        int count = 0;
+        while (!stack.isEmpty()) {
+            Category category = stack.pop();
+            int index = count++;
+            Integer parent = indexes.get(category.getParentId());
+            indexes.put(category.getId(), index);
+            ids[index] = category.getId();
+            parents[index] = null != parent && Category.ROOT_PARENT_ID != category.getParentId() ? parent : -1;
+            depths[index] = parents[index] < 0 ? 0 : depths[parents[index]] + 1;
+            names[index] = category.getName();
+            sortOrders[index] = category.getSortOrder();
+            ends[index] = index + 1;
+
+            List<Category> siblings = children.get(category.getId());
+            if (null != siblings) {
+                for (int i = siblings.size() - 1; i >= 0; i--) {
+                    stack.push(siblings.get(i));
+                }
+            }
+        }
+
+        if (count < n) {
+            log.warn("{} categories are in a cycle and dropped", n - count);
+        }
+
+        // 倒序把子树的结束位置传递给父节点
+        for (int i = count - 1; i >= 0; i--) {
+            if (parents[i] >= 0 && ends[i] > ends[parents[i]]) {
+                ends[parents[i]] = ends[i];
+            }
+        }
+
+        return new CategoryTreeSnapshot(indexes, Arrays.copyOf(ids, count), Arrays.copyOf(parents, count),
+                                        Arrays.copyOf(ends, count), Arrays.copyOf(depths, count),
+                                        Arrays.copyOf(names, count), Arrays.copyOf(sortOrders, count));
+    }
+
+    /**
+     * 分类数
+     */
+    public int size() {
+        return this.ids.length;
+    }
+
+    public boolean contains(final long id) {
+        return this.indexes.containsKey(id);
+    }
+
+    /**
+     * @return 分类不存在时返回null
+     */
+    public Category getCategory(final long id) {
+        int index = indexOf(id);
+        if (index < 0) {
+            return null;
+        }
+        int parent = this.parents[index];
+        return new Category(id, parent < 0 ? Category.ROOT_PARENT_ID : this.ids[parent], this.names[index],
+                            this.sortOrders[index]);
+    }
+
+    /**
+     * @return 分类不存在时返回null
+     */
+    public String getName(final long id) {
+        int index = indexOf(id);
+        return index < 0 ? null : this.names[index];
+    }
+
+    /**
+     * @return 顶级分类为0，分类不存在时返回-1
+     */
+    public int getDepth(final long id) {
+        int index = indexOf(id);
+        return index < 0 ? -1 : this.depths[index];
+    }
+
+    /**
+     * ancestorId是否为id的祖先（不含自身）
+     */
+    public boolean isAncestor(final long ancestorId, final long id) {
+        int a = indexOf(ancestorId);
+        int b = indexOf(id);
+        return a >= 0 && b >= 0 && a < b && b < this.ends[a];
+    }
+
+    /**
+     * id是否在rootId的子树中（含自身），用于按分类筛选商品
+     */
+    public boolean inSubtree(final long id, final long rootId) {
+        int root = indexOf(rootId);
+        int index = indexOf(id);
+        return root >= 0 && index >= root && index < this.ends[root];
+    }
+
+    /**
+     * 子树的全部分类ID（含自身），先序排列
+     * 
+     * @return 分类不存在时返回空数组
+     */
+    public long[] getSubtreeIds(final long id) {
+        int index = indexOf(id);
+        return index < 0 ? new long[0] : Arrays.copyOfRange(this.ids, index, this.ends[index]);
+    }
+
+    /**
+     * 子树的分类数（含自身）
+     */
+    public int getSubtreeSize(final long id) {
+        int index = indexOf(id);
+        return index < 0 ? 0 : this.ends[index] - index;
+    }
+
+    /**
+     * 直接子分类ID，按排序值排列
+     */
+    public long[] getChildIds(final long id) {
+        int index = indexOf(id);
+        if (index < 0) {
+            return new long[0];
+        }
+        return collect(index + 1, this.ends[index]);
+    }
+
+    /**
+     * 顶级分类ID，按排序值排列
+     */
+    public long[] getRootIds() {
+        return collect(0, this.ids.length);
+    }
+
+    /**
+     * 从顶级分类到该分类的路径（含自身）
+     * 
+     * @return 分类不存在时返回空数组
+     */
+    public long[] getPath(final long id) {
+        int index = indexOf(id);
+        if (index < 0) {
+            return new long[0];
+        }
+        long[] path = new long[this.depths[index] + 1];
+        for (int i = path.length - 1; i >= 0; i--) {
+            path[i] = this.ids[index];
+            index = this.parents[index];
+        }
+        return path;
+    }
+
+    /**
+     * 面包屑文本，如“手机数码 &gt; 手机 &gt; 智能手机”
+     * 
+     * @param id 分类ID
+     * @param separator 分隔符
+     * @return 分类不存在时返回空字符串
+     */
+    public String renderPath(final long id, final String separator) {
+        int index = indexOf(id);
+        if (index < 0) {
+            return "";
+        }
+        String[] parts = new String[this.depths[index] + 1];
+        for (int i = parts.length - 1; i >= 0; i--) {
+            parts[i] = this.names[index];
+            index = this.parents[index];
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < parts.length; i++) {
+            if (i > 0) {
+                sb.append(separator);
+            }
+            sb.append(parts[i]);
+        }
+        return sb.toString();
+    }
+
+    private int indexOf(final long id) {
+        Integer index = this.indexes.get(id);
+        return null != index ? index : -1;
+    }
+
+    /**
+     * [from, to)范围内的顶层子树的根，跳过每棵子树即可得到同级的节点
+     */
+    private long[] collect(final int from, final int to) {
+        int count = 0;
+        for (int i = from; i < to; i = this.ends[i]) {
+            count++;
+        }
+        long[] result = new long[count];
+        count = 0;
+        for (int i = from; i < to; i = this.ends[i]) {
+            result[count++] = this.ids[i];
+        }
+        return result;
+    }
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.service.product.model;
+
+/**
+ * 商品分类
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月23日
+ */
+public class Category {
+
+    /** 顶级分类的父分类ID */
+    public static final long ROOT_PARENT_ID = 0L;
+
+    private long id;
+
+    private long parentId;
+
+    private String name;
+
+    /** 同级分类的排序，越小越靠前 */
+    private int sortOrder;
+
+    public Category() {
+    }
+
+    public Category(final long id, final long parentId, final String name, final int sortOrder) {
+        this.id = id;
+        this.parentId = parentId;
+        this.name = name;
+        this.sortOrder = sortOrder;
+    }
+
+    public long getId() {
+        return this.id;
+    }
+
+    public void setId(final long id) {
+        this.id = id;
+    }
+
+    public long getParentId() {
+        return this.parentId;
+    }
+
+    public void setParentId(final long parentId) {
+        this.parentId = parentId;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public void setName(final String name) {
+        this.name = name;
+    }
+
+    public int getSortOrder() {
+        return this.sortOrder;
+    }
+
+    public void setSortOrder(final int sortOrder) {
+        this.sortOrder = sortOrder;
+    }
+}
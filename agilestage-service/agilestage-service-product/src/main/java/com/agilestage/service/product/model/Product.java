@@ -0,0 +1,104 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.service.product.model;
+
+/**
+ * 商品
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月19日
+ */
+public class Product {
+
+    public static final int STATUS_ON_SALE = 1;
+
+    public static final int STATUS_OFF_SALE = 0;
+
+    private long id;
+
+    private String name;
+
+    private String brand;
+
+    private long categoryId;
+
+    /** 价格，单位分 */
+    private long price;
+
+    private String description;
+
+    private int status;
+
+    /** 最后修改时间，毫秒时间戳 */
+    private long updateTime;
+
+    public long getId() {
+        return this.id;
+    }
+
+    public void setId(final long id) {
+        this.id = id;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public void setName(final String name) {
+        this.name = name;
+    }
+
+    public String getBrand() {
+        return this.brand;
+    }
+
+    public void setBrand(final String brand) {
+        this.brand = brand;
+    }
+
+    public long getCategoryId() {
+        return this.categoryId;
+    }
+
+    public void setCategoryId(final long categoryId) {
+        this.categoryId = categoryId;
+    }
+
+    public long getPrice() {
+        return this.price;
+    }
+
+    public void setPrice(final long price) {
+        this.price = price;
+    }
+
+    public String getDescription() {
+        return this.description;
+    }
+
+    public void setDescription(final String description) {
+        this.description = description;
+    }
+
+    public int getStatus() {
+        return this.status;
+    }
+
+    public void setStatus(final int status) {
+        this.status = status;
+    }
+
+    public long getUpdateTime() {
+        return this.updateTime;
+    }
+
+    public void setUpdateTime(final long updateTime) {
+        this.updateTime = updateTime;
+    }
+
+    @Override
+    public String toString() {
+        return "Product[" + this.id + " " + this.name + "]";
+    }
+}
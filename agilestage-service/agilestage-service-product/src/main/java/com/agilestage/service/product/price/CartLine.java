@@ -0,0 +1,49 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.service.product.price;
+
+/**
+ * 待计价的购物车商品
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月24日
+ */
+public class CartLine {
+
+    private final long skuId;
+
+    private final long categoryId;
+
+    private final int quantity;
+
+    /** 原价，单位分 */
+    private final long unitPrice;
+
+    public CartLine(final long skuId, final long categoryId, final int quantity, final long unitPrice) {
+        if (quantity <= 0 || unitPrice < 0) {
+            throw new IllegalArgumentException("invalid cart line of sku " + skuId + ": quantity " + quantity
+                                               + ", price " + unitPrice);
+        }
+        this.skuId = skuId;
+        this.categoryId = categoryId;
+        this.quantity = quantity;
+        this.unitPrice = unitPrice;
+    }
+
+    public long getSkuId() {
+        return this.skuId;
+    }
+
+    public long getCategoryId() {
+        return this.categoryId;
+    }
+
+    public int getQuantity() {
+        return this.quantity;
+    }
+
+    public long getUnitPrice() {
+        return this.unitPrice;
+    }
+}
@@ -0,0 +1,446 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.service.product.price;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.agilestage.service.product.category.CategoryTreeSnapshot;
+
+/**
+ * 编译后的促销规则，只读
+ * <p>
+ * 只保留编译时正在进行的规则，并按范围分为商品、分类、全部三张表。每张表的key有序存放，按二分查找定位；
+ * 每个key按会员等级预先算好最低的会员价、最低的折扣和优先级最高的满减，等级为L的用户直接读取第L格，
+ * 计价时每件商品只需查三张表，与规则的数量无关。分类规则在编译时展开到该分类的整棵子树，计价时只需按商品的直接分类查找。
+ * 规则的开始或结束时间到达后需要重新编译，见{@link #getValidUntil()}；每格同时记下所选规则的结束时间，
+ * 重新编译之前计价时跳过已结束的规则，已结束的优惠不会再被使用。
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月24日
+ */
+final class CompiledPromotions {
+
+    private static final Logger log = LoggerFactory.getLogger(CompiledPromotions.class);
+
+    private static final long NO_PRICE = Long.MAX_VALUE;
+
+    /** 折扣率的基数，千分比 */
+    private static final int FULL_RATE = 1000;
+
+    /** 会员等级数，等级更高的用户按最高一级计算 */
+    private final int levels;
+
+    private final RuleTable skuRules;
+
+    private final RuleTable categoryRules;
+
+    private final RuleTable globalRules;
+
+    /** 满减规则，下标即表中记录的编号 */
+    private final long[] reductionIds;
+
+    private final long[] thresholds;
+
+    private final long[] reductions;
+
+    private final boolean[] repeats;
+
+    private final int[] priorities;
+
+    private final long[] reductionEnds;
+
+    /** 有效期，到达后需要重新编译 */
+    private final long validUntil;
+
+    private final int ruleCount;
+
+    private CompiledPromotions(final List<Promotion> active, final int levels, final long validUntil,
+                               final CategoryTreeSnapshot categories) {
+        this.levels = levels;
+        this.validUntil = validUntil;
+        this.ruleCount = active.size();
+
+        List<Promotion> fullReductions = new ArrayList<Promotion>();
+        for (Promotion promotion : active) {
+            if (Promotion.TYPE_FULL_REDUCTION == promotion.getType()) {
+                fullReductions.add(promotion);
+            }
+        }
+        int count = fullReductions.size();
+        this.reductionIds = new long[count];
+        this.thresholds = new long[count];
+        this.reductions = new long[count];
+        this.repeats = new boolean[count];
+        this.priorities = new int[count];
+        this.reductionEnds = new long[count];
+        for (int i = 0; i < count; i++) {
+            Promotion promotion = fullReductions.get(i);
+            this.reductionIds[i] = promotion.getId();
+            this.thresholds[i] = promotion.getThreshold();
+            this.reductions[i] = promotion.getReduction();
+            this.repeats[i] = promotion.isRepeat();
+            this.priorities[i] = promotion.getPriority();
+            this.reductionEnds[i] = promotion.getEndTime();
+        }
+
+        this.skuRules = new RuleTable(keys(active, Promotion.SCOPE_SKU, categories), levels);
+        this.categoryRules = new RuleTable(keys(active, Promotion.SCOPE_CATEGORY, categories), levels);
+        this.globalRules = new RuleTable(keys(active, Promotion.SCOPE_ALL, categories), levels);
+
+        int reductionIndex = 0;
+        for (Promotion promotion : active) {
+            int scope = normalizeScope(promotion.getScope());
+            RuleTable table = table(scope);
+            for (long target : targets(promotion, scope, categories)) {
+                int base = table.indexOf(target) * levels;
+                for (int level = Math.max(promotion.getMinMemberLevel(), 0); level < levels; level++) {
+                    apply(promotion, table, base + level, reductionIndex);
+                }
+            }
+            if (Promotion.TYPE_FULL_REDUCTION == promotion.getType()) {
+                reductionIndex++;
+            }
+        }
+    }
+
+    /**
+     * 编译当前正在进行的规则
+     * 
+     * @param promotions 全部未结束的规则
+     * @param now 编译时间
+     * @param categories 分类树，为null时分类规则只对直接属于该分类的商品有效
+     */
+    static CompiledPromotions compile(final List<Promotion> promotions, final long now,
+                                      final CategoryTreeSnapshot categories) {
+        List<Promotion> active = new ArrayList<Promotion>();
+        long validUntil = Long.MAX_VALUE;
+        int levels = 1;
+        for (Promotion promotion : promotions) {
+            if (promotion.getEndTime() <= now) {
+                continue;
+            }
+            if (promotion.getStartTime() > now) {
+                validUntil = Math.min(validUntil, promotion.getStartTime());
+                continue;
+            }
+            if (!isValid(promotion)) {
+                log.warn("invalid promotion {} ignored", promotion.getId());
+                continue;
+            }
+            validUntil = Math.min(validUntil, promotion.getEndTime());
+            levels = Math.max(levels, promotion.getMinMemberLevel() + 1);
+            active.add(promotion);
+        }
+        return new CompiledPromotions(active, levels, validUntil, categories);
+    }
+
+    long getValidUntil() {
+        return this.validUntil;
+    }
+
+    int getRuleCount() {
+        return this.ruleCount;
+    }
+
+    /**
+     * 计价
+     * 
+     * @param lines 购物车商品
+     * @param memberLevel 会员等级，0为普通用户
+     * @param now 计价时间，跳过此时已结束的规则
+     */
+    PriceResult price(final List<CartLine> lines, final int memberLevel, final long now) {
+        int n = lines.size();
+        int level = Math.min(Math.max(memberLevel, 0), this.levels - 1);
+        long[] unitPrices = new long[n];
+        long[] amounts = new long[n];
+        long[] itemPromotionIds = new long[n];
+        long[] orderPromotionIds = new long[n];
+
+        // 参加各个满减的商品：line -> 第几个用到的满减，以及每个满减的规则编号和商品金额合计
+        int[] lineGroups = new int[n];
+        int[] groupRules = new int[n];
+        long[] groupAmounts = new long[n];
+        int groups = 0;
+
+        long originalAmount = 0;
+        int global = this.globalRules.indexOf(0L);
+        for (int i = 0; i < n; i++) {
+            CartLine line = lines.get(i);
+            int sku = this.skuRules.indexOf(line.getSkuId());
+            int category = this.categoryRules.indexOf(line.getCategoryId());
+
+            unitPrices[i] = line.getUnitPrice();
+            applyItemRules(this.skuRules, sku, level, now, line.getUnitPrice(), i, unitPrices, itemPromotionIds);
+            applyItemRules(this.categoryRules, category, level, now, line.getUnitPrice(), i, unitPrices,
+                           itemPromotionIds);
+            applyItemRules(this.globalRules, global, level, now, line.getUnitPrice(), i, unitPrices, itemPromotionIds);
+
+            amounts[i] = unitPrices[i] * line.getQuantity();
+            originalAmount += line.getUnitPrice() * line.getQuantity();
+
+            // 范围越小的满减在优先级相同时越优先
+            int rule = preferred(-1, unexpired(this.skuRules.reductionRule(sku, level), now));
+            rule = preferred(rule, unexpired(this.categoryRules.reductionRule(category, level), now));
+            rule = preferred(rule, unexpired(this.globalRules.reductionRule(global, level), now));
+            if (rule < 0) {
+                lineGroups[i] = -1;
+                continue;
+            }
+            int group = 0;
+            while (group < groups && groupRules[group] != rule) {
+                group++;
+            }
+            if (group == groups) {
+                groupRules[groups++] = rule;
+            }
+            groupAmounts[group] += amounts[i];
+            lineGroups[i] = group;
+        }
+
+        long reductionAmount = 0;
+        for (int group = 0; group < groups; group++) {
+            reductionAmount += reduce(group, groupRules[group], groupAmounts[group], lineGroups, amounts,
+                                      orderPromotionIds);
+        }
+
+        long payableAmount = 0;
+        for (int i = 0; i < n; i++) {
+            payableAmount += amounts[i];
+        }
+        return new PriceResult(unitPrices, amounts, itemPromotionIds, orderPromotionIds, originalAmount,
+                               payableAmount, reductionAmount);
+    }
+
+    /**
+     * 把一条规则写入规则表的一格，会员价和折扣保留最低的，满减保留优先的
+     */
+    private void apply(final Promotion promotion, final RuleTable table, final int slot, final int reductionIndex) {
+        switch (promotion.getType()) {
+            case Promotion.TYPE_MEMBER_PRICE:
+                if (promotion.getMemberPrice() < table.memberPrices[slot]) {
+                    table.memberPrices[slot] = promotion.getMemberPrice();
+                    table.memberPriceIds[slot] = promotion.getId();
+                    table.memberPriceEnds[slot] = promotion.getEndTime();
+                }
+                break;
+            case Promotion.TYPE_DISCOUNT:
+                if (promotion.getDiscountRate() < table.rates[slot]) {
+                    table.rates[slot] = promotion.getDiscountRate();
+                    table.rateIds[slot] = promotion.getId();
+                    table.rateEnds[slot] = promotion.getEndTime();
+                }
+                break;
+            default:
+                table.reductionRules[slot] = preferred(table.reductionRules[slot], reductionIndex);
+                break;
+        }
+    }
+
+    /**
+     * 会员价和折扣取最低的单价，跳过已结束的规则
+     */
+    private static void applyItemRules(final RuleTable table, final int index, final int level, final long now,
+                                       final long unitPrice, final int line, final long[] unitPrices,
+                                       final long[] promotionIds) {
+        if (index < 0) {
+            return;
+        }
+        int slot = index * table.levels + level;
+        if (table.memberPrices[slot] < unitPrices[line] && table.memberPriceEnds[slot] > now) {
+            unitPrices[line] = table.memberPrices[slot];
+            promotionIds[line] = table.memberPriceIds[slot];
+        }
+        if (table.rates[slot] < FULL_RATE && table.rateEnds[slot] > now) {
+            // 四舍五入到分
+            long discounted = (unitPrice * table.rates[slot] + FULL_RATE / 2) / FULL_RATE;
+            if (discounted < unitPrices[line]) {
+                unitPrices[line] = discounted;
+                promotionIds[line] = table.rateIds[slot];
+            }
+        }
+    }
+
+    /**
+     * 计算一个满减的优惠，并按金额比例分摊到参加的商品上，分摊的尾差计入最后一件
+     * 
+     * @return 优惠金额
+     */
+    private long reduce(final int group, final int rule, final long total, final int[] lineGroups,
+                        final long[] amounts, final long[] promotionIds) {
+        long reduction;
+        if (this.repeats[rule]) {
+            reduction = total / this.thresholds[rule] * this.reductions[rule];
+        } else {
+            reduction = total >= this.thresholds[rule] ? this.reductions[rule] : 0L;
+        }
+        reduction = Math.min(reduction, total);
+        if (reduction <= 0) {
+            return 0L;
+        }
+
+        int last = -1;
+        long allocated = 0;
+        for (int i = 0; i < amounts.length; i++) {
+            if (lineGroups[i] != group) {
+                continue;
+            }
+            promotionIds[i] = this.reductionIds[rule];
+            if (last >= 0) {
+                long share = reduction * amounts[last] / total;
+                amounts[last] -= share;
+                allocated += share;
+            }
+            last = i;
+        }
+        long rest = Math.min(reduction - allocated, amounts[last]);
+        amounts[last] -= rest;
+        return allocated + rest;
+    }
+
+    /**
+     * @return 满减规则已结束时返回-1
+     */
+    private int unexpired(final int rule, final long now) {
+        return rule >= 0 && this.reductionEnds[rule] > now ? rule : -1;
+    }
+
+    /**
+     * 两个满减规则中优先的一个，优先级相同时保留先出现的
+     */
+    private int preferred(final int current, final int candidate) {
+        if (candidate < 0) {
+            return current;
+        }
+        if (current < 0 || this.priorities[candidate] > this.priorities[current]) {
+            return candidate;
+        }
+        return current;
+    }
+
+    private RuleTable table(final int scope) {
+        switch (scope) {
+            case Promotion.SCOPE_SKU:
+                return this.skuRules;
+            case Promotion.SCOPE_CATEGORY:
+                return this.categoryRules;
+            default:
+                return this.globalRules;
+        }
+    }
+
+    /**
+     * 规则作用的key：全部商品为0，分类为整棵子树
+     */
+    private static long[] targets(final Promotion promotion, final int scope, final CategoryTreeSnapshot categories) {
+        if (Promotion.SCOPE_ALL == scope) {
+            return new long[] { 0L };
+        }
+        if (Promotion.SCOPE_CATEGORY == scope && null != categories && categories.contains(promotion.getTargetId())) {
+            return categories.getSubtreeIds(promotion.getTargetId());
+        }
+        return new long[] { promotion.getTargetId() };
+    }
+
+    private static long[] keys(final List<Promotion> promotions, final int scope,
+                               final CategoryTreeSnapshot categories) {
+        long[] keys = new long[16];
+        int count = 0;
+        for (Promotion promotion : promotions) {
+            if (scope != normalizeScope(promotion.getScope())) {
+                continue;
+            }
+            for (long target : targets(promotion, scope, categories)) {
+                if (count == keys.length) {
+                    keys = Arrays.copyOf(keys, count * 2);
+                }
+                keys[count++] = target;
+            }
+        }
+        Arrays.sort(keys, 0, count);
+
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            if (0 == unique || keys[unique - 1] != keys[i]) {
+                keys[unique++] = keys[i];
+            }
+        }
+        return Arrays.copyOf(keys, unique);
+    }
+
+    private static int normalizeScope(final int scope) {
+        return Promotion.SCOPE_SKU == scope || Promotion.SCOPE_CATEGORY == scope ? scope : Promotion.SCOPE_ALL;
+    }
+
+    private static boolean isValid(final Promotion promotion) {
+        switch (promotion.getType()) {
+            case Promotion.TYPE_MEMBER_PRICE:
+                return promotion.getMemberPrice() >= 0;
+            case Promotion.TYPE_DISCOUNT:
+                return promotion.getDiscountRate() > 0 && promotion.getDiscountRate() < FULL_RATE;
+            case Promotion.TYPE_FULL_REDUCTION:
+                return promotion.getThreshold() > 0 && promotion.getReduction() > 0;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * 一种范围的规则表，每个key占levels格
+     */
+    private static final class RuleTable {
+
+        final long[] keys;
+
+        final int levels;
+
+        final long[] memberPrices;
+
+        final long[] memberPriceIds;
+
+        final long[] memberPriceEnds;
+
+        final int[] rates;
+
+        final long[] rateIds;
+
+        final long[] rateEnds;
+
+        /** 满减规则的编号，-1表示没有 */
+        final int[] reductionRules;
+
+        RuleTable(final long[] keys, final int levels) {
+            this.keys = keys;
+            this.levels = levels;
+            int size = keys.length * levels;
+            this.memberPrices = new long[size];
+            this.memberPriceIds = new long[size];
+            this.memberPriceEnds = new long[size];
+            this.rates = new int[size];
+            this.rateIds = new long[size];
+            this.rateEnds = new long[size];
+            this.reductionRules = new int[size];
+            Arrays.fill(this.memberPrices, NO_PRICE);
+            Arrays.fill(this.rates, FULL_RATE);
+            Arrays.fill(this.reductionRules, -1);
+        }
+
+        /**
+         * @return 不存在时返回-1
+         */
+        int indexOf(final long key) {
+            int index = Arrays.binarySearch(this.keys, key);
+            return index >= 0 ? index : -1;
+        }
+
+        int reductionRule(final int index, final int level) {
+            return index < 0 ? -1 : this.reductionRules[index * this.levels + level];
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.service.product.price;
+
+/**
+ * 购物车的计价结果，数组下标与输入的购物车商品一一对应，金额单位均为分
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月24日
+ */
+public class PriceResult {
+
+    /** 会员价、折扣后的单价 */
+    private final long[] unitPrices;
+
+    /** 满减分摊后的应付金额 */
+    private final long[] amounts;
+
+    /** 单价使用的促销，0表示原价 */
+    private final long[] itemPromotionIds;
+
+    /** 参加的满减，0表示未参加 */
+    private final long[] orderPromotionIds;
+
+    /** 原价总额 */
+    private final long originalAmount;
+
+    /** 应付总额 */
+    private final long payableAmount;
+
+    /** 满减优惠的总额 */
+    private final long reductionAmount;
+
+    PriceResult(final long[] unitPrices, final long[] amounts, final long[] itemPromotionIds,
+                final long[] orderPromotionIds, final long originalAmount, final long payableAmount,
+                final long reductionAmount) {
+        this.unitPrices = unitPrices;
+        this.amounts = amounts;
+        this.itemPromotionIds = itemPromotionIds;
+        this.orderPromotionIds = orderPromotionIds;
+        this.originalAmount = originalAmount;
+        this.payableAmount = payableAmount;
+        this.reductionAmount = reductionAmount;
+    }
+
+    public long[] getUnitPrices() {
+        return this.unitPrices;
+    }
+
+    public long[] getAmounts() {
+        return this.amounts;
+    }
+
+    public long[] getItemPromotionIds() {
+        return this.itemPromotionIds;
+    }
+
+    public long[] getOrderPromotionIds() {
+        return this.orderPromotionIds;
+    }
+
+    public long getOriginalAmount() {
+        return this.originalAmount;
+    }
+
+    public long getPayableAmount() {
+        return this.payableAmount;
+    }
+
+    public long getReductionAmount() {
+        return this.reductionAmount;
+    }
+
+    /**
+     * 优惠的总额
+     */
+    public long getDiscountAmount() {
+        return this.originalAmount - this.payableAmount;
+    }
+}
@@ -0,0 +1,227 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.service.product.price;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.agilestage.service.product.category.CategoryService;
+import com.agilestage.service.product.category.CategoryTreeSnapshot;
+
+/**
+ * 计价引擎
+ * <p>
+ * 促销规则编译为按商品、分类、会员等级索引的{@link CompiledPromotions}，计价时对购物车只遍历一次，全部用long按分计算。
+ * 规则变化后调用{@link #invalidate()}，后台线程在下次检查时重新读取并编译，编好后通过volatile字段整体替换，计价不加锁，
+ * 读取数据来源时也不持有编译锁。
+ * 每次编译后在后台线程上安排一次定时任务，到有规则开始或结束的时间时用上次读取的规则重新编译（不访问数据来源）。
+ * 计价线程不参与编译，重新编译完成前仍使用当前的编译结果，并跳过其中已结束的规则，已结束的规则不会再生效。
+ * <p>
+ * 分类规则按编译时的分类树展开到子分类，分类调整后也需要调用{@link #invalidate()}。
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月24日
+ */
+public class PricingEngine {
+
+    private static final Logger log = LoggerFactory.getLogger(PricingEngine.class);
+
+    private final PromotionSource source;
+
+    private final CategoryService categoryService;
+
+    private volatile CompiledPromotions compiled = CompiledPromotions.compile(Collections.<Promotion> emptyList(),
+                                                                              System.currentTimeMillis(), null);
+
+    /** 规则已变化，需要重新读取 */
+    private volatile boolean dirty = true;
+
+    /** 上次读取的规则，规则开始或结束时用于重新编译 */
+    private List<Promotion> promotions = Collections.emptyList();
+
+    private final Object compileLock = new Object();
+
+    /** 编译时在其上安排下次重新编译，start之后才有 */
+    private volatile ScheduledExecutorService scheduler;
+
+    /**
+     * @param source 促销规则的数据来源
+     * @param categoryService 分类服务，为null时分类规则只对直接属于该分类的商品有效
+     */
+    public PricingEngine(final PromotionSource source, final CategoryService categoryService) {
+        this.source = source;
+        this.categoryService = categoryService;
+    }
+
+    /**
+     * 立即读取并编译一次，之后定时检查
+     * 
+     * @param checkIntervalMillis 检查间隔
+     * @throws Exception 首次读取失败
+     */
+    public synchronized void start(final long checkIntervalMillis) throws Exception {
+        if (null != this.scheduler) {
+            return;
+        }
+
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                Thread t = new Thread(r, "pricing-engine");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        // 停止时不再等待尚未到时间的重新编译
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        this.scheduler = executor;
+        try {
+            recompile();
+        } catch (Exception e) {
+            this.scheduler.shutdownNow();
+            this.scheduler = null;
+            throw e;
+        }
+        this.scheduler.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    check();
+                } catch (Exception e) {
+                    log.error("recompile promotions failed, keep the previous rules", e);
+                }
+            }
+        }, checkIntervalMillis, checkIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (null != this.scheduler) {
+            this.scheduler.shutdown();
+            try {
+                this.scheduler.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            this.scheduler = null;
+        }
+    }
+
+    /**
+     * 规则已变化，下次检查时重新读取
+     */
+    public void invalidate() {
+        this.dirty = true;
+    }
+
+    /**
+     * 读取规则并编译，在调用线程上执行
+     * 
+     * @throws Exception 读取失败
+     */
+    public void recompile() throws Exception {
+        this.dirty = false;
+        List<Promotion> loaded;
+        try {
+            loaded = this.source.load();
+        } catch (Exception e) {
+            this.dirty = true;
+            throw e;
+        }
+
+        CompiledPromotions rebuilt = compile(loaded);
+        synchronized (this.compileLock) {
+            this.promotions = loaded;
+            this.compiled = rebuilt;
+        }
+        scheduleBoundary(rebuilt);
+    }
+
+    /**
+     * 计价
+     * 
+     * @param lines 购物车商品
+     * @param memberLevel 会员等级，0为普通用户
+     */
+    public PriceResult price(final List<CartLine> lines, final int memberLevel) {
+        return this.compiled.price(lines, memberLevel, System.currentTimeMillis());
+    }
+
+    /**
+     * 正在进行的规则数，到有规则开始或结束的时间后，重新编译完成前为近似值
+     */
+    public int getActiveRuleCount() {
+        return this.compiled.getRuleCount();
+    }
+
+    private void check() throws Exception {
+        if (this.dirty) {
+            recompile();
+        } else {
+            // 定时任务被拒绝或延迟时兜底
+            compileAtBoundary();
+        }
+    }
+
+    /**
+     * 有规则开始或结束时用上次读取的规则重新编译，在后台线程上执行
+     */
+    private void compileAtBoundary() {
+        CompiledPromotions rebuilt;
+        synchronized (this.compileLock) {
+            // 期间可能已重新读取并编译
+            if (System.currentTimeMillis() < this.compiled.getValidUntil()) {
+                return;
+            }
+            rebuilt = compile(this.promotions);
+            this.compiled = rebuilt;
+        }
+        scheduleBoundary(rebuilt);
+    }
+
+    /**
+     * 在后台线程上安排到编译结果失效时重新编译
+     */
+    private void scheduleBoundary(final CompiledPromotions current) {
+        ScheduledExecutorService executor = this.scheduler;
+        if (null == executor || Long.MAX_VALUE == current.getValidUntil()) {
+            return;
+        }
+
+        long delay = Math.max(current.getValidUntil() - System.currentTimeMillis(), 0L);
+        try {
+            executor.schedule(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        compileAtBoundary();
+                    } catch (RuntimeException e) {
+                        log.error("recompile promotions failed, keep the previous rules", e);
+                    }
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // 已停止
+        }
+    }
+
+    private CompiledPromotions compile(final List<Promotion> rules) {
+        long begin = System.currentTimeMillis();
+        CategoryTreeSnapshot categories = null != this.categoryService ? this.categoryService.getSnapshot() : null;
+        CompiledPromotions rebuilt = CompiledPromotions.compile(rules, begin, categories);
+        log.info("compiled {} active promotions of {} in {}ms", rebuilt.getRuleCount(), rules.size(),
+                 System.currentTimeMillis() - begin);
+        return rebuilt;
+    }
+}
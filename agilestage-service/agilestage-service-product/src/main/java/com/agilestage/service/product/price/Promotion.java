@@ -0,0 +1,178 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.service.product.price;
+
+/**
+ * 促销规则
+ * <p>
+ * 会员价和折扣作用于单件商品，同一商品只取其中最低的价格；满减作用于订单，按范围内商品（已按会员价、折扣计算后）的金额计算，
+ * 同一商品只参加优先级最高的一个满减，满减与会员价、折扣叠加。金额单位均为分。
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月24日
+ */
+public class Promotion {
+
+    /** 会员价 */
+    public static final int TYPE_MEMBER_PRICE = 1;
+
+    /** 折扣 */
+    public static final int TYPE_DISCOUNT = 2;
+
+    /** 满减 */
+    public static final int TYPE_FULL_REDUCTION = 3;
+
+    /** 全部商品 */
+    public static final int SCOPE_ALL = 0;
+
+    /** 指定分类的商品 */
+    public static final int SCOPE_CATEGORY = 1;
+
+    /** 指定商品 */
+    public static final int SCOPE_SKU = 2;
+
+    private long id;
+
+    private int type;
+
+    private int scope;
+
+    /** 商品ID或分类ID，范围为全部商品时忽略 */
+    private long targetId;
+
+    /** 最低会员等级，0表示所有用户 */
+    private int minMemberLevel;
+
+    /** 满减的优先级，越大越优先 */
+    private int priority;
+
+    /** 开始时间，毫秒时间戳 */
+    private long startTime;
+
+    /** 结束时间（不含），毫秒时间戳 */
+    private long endTime;
+
+    /** 会员价 */
+    private long memberPrice;
+
+    /** 折扣，千分比，如880表示八八折 */
+    private int discountRate;
+
+    /** 满减的门槛 */
+    private long threshold;
+
+    /** 满减的金额 */
+    private long reduction;
+
+    /** 是否每满门槛都减，如每满300减30 */
+    private boolean repeat;
+
+    public boolean isActive(final long now) {
+        return now >= this.startTime && now < this.endTime;
+    }
+
+    public long getId() {
+        return this.id;
+    }
+
+    public void setId(final long id) {
+        this.id = id;
+    }
+
+    public int getType() {
+        return this.type;
+    }
+
+    public void setType(final int type) {
+        this.type = type;
+    }
+
+    public int getScope() {
+        return this.scope;
+    }
+
+    public void setScope(final int scope) {
+        this.scope = scope;
+    }
+
+    public long getTargetId() {
+        return this.targetId;
+    }
+
+    public void setTargetId(final long targetId) {
+        this.targetId = targetId;
+    }
+
+    public int getMinMemberLevel() {
+        return this.minMemberLevel;
+    }
+
+    public void setMinMemberLevel(final int minMemberLevel) {
+        this.minMemberLevel = minMemberLevel;
+    }
+
+    public int getPriority() {
+        return this.priority;
+    }
+
+    public void setPriority(final int priority) {
+        this.priority = priority;
+    }
+
+    public long getStartTime() {
+        return this.startTime;
+    }
+
+    public void setStartTime(final long startTime) {
+        this.startTime = startTime;
+    }
+
+    public long getEndTime() {
+        return this.endTime;
+    }
+
+    public void setEndTime(final long endTime) {
+        this.endTime = endTime;
+    }
+
+    public long getMemberPrice() {
+        return this.memberPrice;
+    }
+
+    public void setMemberPrice(final long memberPrice) {
+        this.memberPrice = memberPrice;
+    }
+
+    public int getDiscountRate() {
+        return this.discountRate;
+    }
+
+    public void setDiscountRate(final int discountRate) {
+        this.discountRate = discountRate;
+    }
+
+    public long getThreshold() {
+        return this.threshold;
+    }
+
+    public void setThreshold(final long threshold) {
+        this.threshold = threshold;
+    }
+
+    public long getReduction() {
+        return this.reduction;
+    }
+
+    public void setReduction(final long reduction) {
+        this.reduction = reduction;
+    }
+
+    public boolean isRepeat() {
+        return this.repeat;
+    }
+
+    public void setRepeat(final boolean repeat) {
+        this.repeat = repeat;
+    }
+}
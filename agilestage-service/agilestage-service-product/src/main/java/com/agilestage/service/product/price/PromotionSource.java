@@ -0,0 +1,22 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.service.product.price;
+
+import java.util.List;
+
+/**
+ * 促销规则的数据来源
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月24日
+ */
+public interface PromotionSource {
+
+    /**
+     * 读取未结束的促销规则，包括尚未开始的
+     * 
+     * @throws Exception 读取失败
+     */
+    List<Promotion> load() throws Exception;
+}
@@ -0,0 +1,74 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.service.product.search;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.agilestage.service.product.model.Product;
+
+/**
+ * 索引的文档
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月21日
+ */
+public class IndexDocument {
+
+    public static final String FACET_BRAND = "brand";
+
+    public static final String FACET_CATEGORY = "category";
+
+    private final long productId;
+
+    /** 全文检索的文本 */
+    private final String text;
+
+    /** 属性，用于过滤和分面统计，如品牌、分类、颜色 */
+    private final Map<String, String> attributes;
+
+    /** 排序得分，越大越靠前，如销量、人气 */
+    private final int score;
+
+    public IndexDocument(final long productId, final String text, final Map<String, String> attributes,
+                         final int score) {
+        this.productId = productId;
+        this.text = text;
+        this.attributes = null != attributes ? attributes : new HashMap<String, String>();
+        this.score = score;
+    }
+
+    /**
+     * 商品的索引文档，名称和品牌参与检索，品牌和分类作为属性
+     * 
+     * @param product
+     * @param score 排序得分
+     */
+    public static IndexDocument of(final Product product, final int score) {
+        Map<String, String> attributes = new HashMap<String, String>();
+        if (null != product.getBrand()) {
+            attributes.put(FACET_BRAND, product.getBrand());
+        }
+        attributes.put(FACET_CATEGORY, String.valueOf(product.getCategoryId()));
+
+        String text = null != product.getBrand() ? product.getName() + " " + product.getBrand() : product.getName();
+        return new IndexDocument(product.getId(), text, attributes, score);
+    }
+
+    public long getProductId() {
+        return this.productId;
+    }
+
+    public String getText() {
+        return this.text;
+    }
+
+    public Map<String, String> getAttributes() {
+        return this.attributes;
+    }
+
+    public int getScore() {
+        return this.score;
+    }
+}
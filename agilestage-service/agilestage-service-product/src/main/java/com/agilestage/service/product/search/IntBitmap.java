@@ -0,0 +1,604 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.service.product.search;
+
+import java.util.Arrays;
+
+/**
+ * 压缩的非负整数集合（Roaring Bitmap的简化实现）
+ * <p>
+ * 整数按高16位分组，每组的低16位保存在一个容器中：元素不超过4096个时为有序的char数组（每个元素2字节），
+ * 超过时为8KB的位图。稀疏和稠密的集合都只占用很少的内存，交、并、差运算按容器逐个进行，位图容器之间按long整字运算。
+ * <p>
+ * 非线程安全；建好后发布给其他线程只读使用时不能再修改，集合运算都返回新的对象。
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月21日
+ */
+public final class IntBitmap {
+
+    /** 数组容器的最大元素数，超过后转为位图容器 */
+    static final int ARRAY_MAX = 4096;
+
+    private char[] keys;
+
+    private Container[] containers;
+
+    private int size;
+
+    public IntBitmap() {
+        this(4);
+    }
+
+    private IntBitmap(final int capacity) {
+        this.keys = new char[Math.max(capacity, 1)];
+        this.containers = new Container[Math.max(capacity, 1)];
+    }
+
+    /**
+     * 添加元素
+     * 
+     * @param value 非负整数
+     */
+    public void add(final int value) {
+        char high = (char) (value >>> 16);
+        int i = find(high);
+        if (i >= 0) {
+            this.containers[i] = this.containers[i].add((char) value);
+        } else {
+            insert(-i - 1, high, new ArrayContainer().add((char) value));
+        }
+    }
+
+    public void remove(final int value) {
+        int i = find((char) (value >>> 16));
+        if (i < 0) {
+            return;
+        }
+        Container c = this.containers[i].remove((char) value);
+        if (0 == c.cardinality()) {
+            removeAt(i);
+        } else {
+            this.containers[i] = c;
+        }
+    }
+
+    public boolean contains(final int value) {
+        int i = find((char) (value >>> 16));
+        return i >= 0 && this.containers[i].contains((char) value);
+    }
+
+    public int cardinality() {
+        int card = 0;
+        for (int i = 0; i < this.size; i++) {
+            card += this.containers[i].cardinality();
+        }
+        return card;
+    }
+
+    public boolean isEmpty() {
+        return 0 == this.size;
+    }
+
+    /**
+     * 交集
+     */
+    public IntBitmap and(final IntBitmap other) {
+        IntBitmap result = new IntBitmap(Math.min(this.size, other.size));
+        int i = 0;
+        int j = 0;
+        while (i < this.size && j < other.size) {
+            if (this.keys[i] < other.keys[j]) {
+                i++;
+            } else if (this.keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                Container c = this.containers[i].and(other.containers[j]);
+                if (c.cardinality() > 0) {
+                    result.append(this.keys[i], c);
+                }
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 交集的元素个数，不创建结果集合
+     */
+    public int andCardinality(final IntBitmap other) {
+        int card = 0;
+        int i = 0;
+        int j = 0;
+        while (i < this.size && j < other.size) {
+            if (this.keys[i] < other.keys[j]) {
+                i++;
+            } else if (this.keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                card += this.containers[i].andCardinality(other.containers[j]);
+                i++;
+                j++;
+            }
+        }
+        return card;
+    }
+
+    /**
+     * 并集
+     */
+    public IntBitmap or(final IntBitmap other) {
+        IntBitmap result = new IntBitmap(this.size + other.size);
+        int i = 0;
+        int j = 0;
+        while (i < this.size || j < other.size) {
+            if (j >= other.size || (i < this.size && this.keys[i] < other.keys[j])) {
+                result.append(this.keys[i], this.containers[i].copy());
+                i++;
+            } else if (i >= this.size || this.keys[i] > other.keys[j]) {
+                result.append(other.keys[j], other.containers[j].copy());
+                j++;
+            } else {
+                result.append(this.keys[i], this.containers[i].or(other.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 差集：在本集合中但不在other中的元素
+     */
+    public IntBitmap andNot(final IntBitmap other) {
+        IntBitmap result = new IntBitmap(this.size);
+        int j = 0;
+        for (int i = 0; i < this.size; i++) {
+            while (j < other.size && other.keys[j] < this.keys[i]) {
+                j++;
+            }
+            Container c = j < other.size && other.keys[j] == this.keys[i]
+                          ? this.containers[i].andNot(other.containers[j]) : this.containers[i].copy();
+            if (c.cardinality() > 0) {
+                result.append(this.keys[i], c);
+            }
+        }
+        return result;
+    }
+
+    public IntBitmap copy() {
+        IntBitmap result = new IntBitmap(this.size);
+        for (int i = 0; i < this.size; i++) {
+            result.append(this.keys[i], this.containers[i].copy());
+        }
+        return result;
+    }
+
+    /**
+     * 按从小到大的顺序访问所有元素
+     */
+    public void forEach(final Visitor visitor) {
+        for (int i = 0; i < this.size; i++) {
+            this.containers[i].forEach(this.keys[i] << 16, visitor);
+        }
+    }
+
+    /**
+     * 所有元素，从小到大排列
+     */
+    public int[] toArray() {
+        final int[] values = new int[cardinality()];
+        forEach(new Visitor() {
+
+            private int pos;
+
+            @Override
+            public void visit(final int value) {
+                values[this.pos++] = value;
+            }
+        });
+        return values;
+    }
+
+    private int find(final char high) {
+        // 元素多为递增添加，先检查最后一个容器
+        if (this.size > 0 && this.keys[this.size - 1] == high) {
+            return this.size - 1;
+        }
+        return Arrays.binarySearch(this.keys, 0, this.size, high);
+    }
+
+    private void append(final char high, final Container c) {
+        insert(this.size, high, c);
+    }
+
+    private void insert(final int index, final char high, final Container c) {
+        if (this.size == this.keys.length) {
+            int capacity = this.size * 2;
+            this.keys = Arrays.copyOf(this.keys, capacity);
+            this.containers = Arrays.copyOf(this.containers, capacity);
+        }
+        System.arraycopy(this.keys, index, this.keys, index + 1, this.size - index);
+        System.arraycopy(this.containers, index, this.containers, index + 1, this.size - index);
+        this.keys[index] = high;
+        this.containers[index] = c;
+        this.size++;
+    }
+
+    private void removeAt(final int index) {
+        System.arraycopy(this.keys, index + 1, this.keys, index, this.size - index - 1);
+        System.arraycopy(this.containers, index + 1, this.containers, index, this.size - index - 1);
+        this.containers[--this.size] = null;
+    }
+
+    /**
+     * 元素访问器
+     */
+    public interface Visitor {
+
+        void visit(int value);
+    }
+
+    /**
+     * 一组低16位的容器
+     */
+    private abstract static class Container {
+
+        abstract Container add(char value);
+
+        abstract Container remove(char value);
+
+        abstract boolean contains(char value);
+
+        abstract int cardinality();
+
+        abstract Container and(Container other);
+
+        abstract int andCardinality(Container other);
+
+        abstract Container or(Container other);
+
+        abstract Container andNot(Container other);
+
+        abstract Container copy();
+
+        abstract void forEach(int base, Visitor visitor);
+    }
+
+    /**
+     * 有序数组容器
+     */
+    private static final class ArrayContainer extends Container {
+
+        char[] values;
+
+        int card;
+
+        ArrayContainer() {
+            this.values = new char[4];
+        }
+
+        ArrayContainer(final char[] values, final int card) {
+            this.values = values;
+            this.card = card;
+        }
+
+        @Override
+        Container add(final char value) {
+            // 递增添加时直接追加
+            int i = this.card > 0 && this.values[this.card - 1] < value ? -this.card - 1
+                                                                         : Arrays.binarySearch(this.values, 0, this.card, value);
+            if (i >= 0) {
+                return this;
+            }
+            if (this.card == ARRAY_MAX) {
+                return toBitmap().add(value);
+            }
+
+            i = -i - 1;
+            if (this.card == this.values.length) {
+                this.values = Arrays.copyOf(this.values, Math.min(this.card * 2, ARRAY_MAX));
+            }
+            System.arraycopy(this.values, i, this.values, i + 1, this.card - i);
+            this.values[i] = value;
+            this.card++;
+            return this;
+        }
+
+        @Override
+        Container remove(final char value) {
+            int i = Arrays.binarySearch(this.values, 0, this.card, value);
+            if (i >= 0) {
+                System.arraycopy(this.values, i + 1, this.values, i, this.card - i - 1);
+                this.card--;
+            }
+            return this;
+        }
+
+        @Override
+        boolean contains(final char value) {
+            return Arrays.binarySearch(this.values, 0, this.card, value) >= 0;
+        }
+
+        @Override
+        int cardinality() {
+            return this.card;
+        }
+
+        @Override
+        Container and(final Container other) {
+            char[] result = new char[Math.min(this.card, other.cardinality())];
+            int n = 0;
+            if (other instanceof ArrayContainer) {
+                ArrayContainer o = (ArrayContainer) other;
+                int i = 0;
+                int j = 0;
+                while (i < this.card && j < o.card) {
+                    if (this.values[i] < o.values[j]) {
+                        i++;
+                    } else if (this.values[i] > o.values[j]) {
+                        j++;
+                    } else {
+                        result[n++] = this.values[i];
+                        i++;
+                        j++;
+                    }
+                }
+            } else {
+                for (int i = 0; i < this.card; i++) {
+                    if (other.contains(this.values[i])) {
+                        result[n++] = this.values[i];
+                    }
+                }
+            }
+            return new ArrayContainer(result, n);
+        }
+
+        @Override
+        int andCardinality(final Container other) {
+            int n = 0;
+            if (other instanceof ArrayContainer) {
+                ArrayContainer o = (ArrayContainer) other;
+                int i = 0;
+                int j = 0;
+                while (i < this.card && j < o.card) {
+                    if (this.values[i] < o.values[j]) {
+                        i++;
+                    } else if (this.values[i] > o.values[j]) {
+                        j++;
+                    } else {
+                        n++;
+                        i++;
+                        j++;
+                    }
+                }
+            } else {
+                for (int i = 0; i < this.card; i++) {
+                    if (other.contains(this.values[i])) {
+                        n++;
+                    }
+                }
+            }
+            return n;
+        }
+
+        @Override
+        Container or(final Container other) {
+            if (other instanceof BitmapContainer) {
+                return other.or(this);
+            }
+
+            ArrayContainer o = (ArrayContainer) other;
+            if (this.card + o.card > ARRAY_MAX) {
+                return toBitmap().or(o);
+            }
+
+            char[] result = new char[this.card + o.card];
+            int n = 0;
+            int i = 0;
+            int j = 0;
+            while (i < this.card || j < o.card) {
+                if (j >= o.card || (i < this.card && this.values[i] < o.values[j])) {
+                    result[n++] = this.values[i++];
+                } else if (i >= this.card || this.values[i] > o.values[j]) {
+                    result[n++] = o.values[j++];
+                } else {
+                    result[n++] = this.values[i];
+                    i++;
+                    j++;
+                }
+            }
+            return new ArrayContainer(result, n);
+        }
+
+        @Override
+        Container andNot(final Container other) {
+            char[] result = new char[this.card];
+            int n = 0;
+            for (int i = 0; i < this.card; i++) {
+                if (!other.contains(this.values[i])) {
+                    result[n++] = this.values[i];
+                }
+            }
+            return new ArrayContainer(result, n);
+        }
+
+        @Override
+        Container copy() {
+            return new ArrayContainer(Arrays.copyOf(this.values, Math.max(this.card, 1)), this.card);
+        }
+
+        @Override
+        void forEach(final int base, final Visitor visitor) {
+            for (int i = 0; i < this.card; i++) {
+                visitor.visit(base | this.values[i]);
+            }
+        }
+
+        BitmapContainer toBitmap() {
+            BitmapContainer bitmap = new BitmapContainer();
+            for (int i = 0; i < this.card; i++) {
+                bitmap.words[this.values[i] >>> 6] |= 1L << this.values[i];
+            }
+            bitmap.card = this.card;
+            return bitmap;
+        }
+    }
+
+    /**
+     * 位图容器，65536位
+     */
+    private static final class BitmapContainer extends Container {
+
+        final long[] words;
+
+        int card;
+
+        BitmapContainer() {
+            this.words = new long[1024];
+        }
+
+        BitmapContainer(final long[] words, final int card) {
+            this.words = words;
+            this.card = card;
+        }
+
+        @Override
+        Container add(final char value) {
+            long before = this.words[value >>> 6];
+            long after = before | (1L << value);
+            if (before != after) {
+                this.words[value >>> 6] = after;
+                this.card++;
+            }
+            return this;
+        }
+
+        @Override
+        Container remove(final char value) {
+            long before = this.words[value >>> 6];
+            long after = before & ~(1L << value);
+            if (before != after) {
+                this.words[value >>> 6] = after;
+                this.card--;
+            }
+            return this.card <= ARRAY_MAX ? toArrayContainer() : this;
+        }
+
+        @Override
+        boolean contains(final char value) {
+            return 0 != (this.words[value >>> 6] & (1L << value));
+        }
+
+        @Override
+        int cardinality() {
+            return this.card;
+        }
+
+        @Override
+        Container and(final Container other) {
+            if (other instanceof ArrayContainer) {
+                return other.and(this);
+            }
+            long[] o = ((BitmapContainer) other).words;
+            long[] result = new long[1024];
+            int n = 0;
+            for (int i = 0; i < 1024; i++) {
+                result[i] = this.words[i] & o[i];
+                n += Long.bitCount(result[i]);
+            }
+            return normalize(result, n);
+        }
+
+        @Override
+        int andCardinality(final Container other) {
+            if (other instanceof ArrayContainer) {
+                return other.andCardinality(this);
+            }
+            long[] o = ((BitmapContainer) other).words;
+            int n = 0;
+            for (int i = 0; i < 1024; i++) {
+                n += Long.bitCount(this.words[i] & o[i]);
+            }
+            return n;
+        }
+
+        @Override
+        Container or(final Container other) {
+            long[] result = Arrays.copyOf(this.words, 1024);
+            if (other instanceof ArrayContainer) {
+                ArrayContainer o = (ArrayContainer) other;
+                for (int i = 0; i < o.card; i++) {
+                    result[o.values[i] >>> 6] |= 1L << o.values[i];
+                }
+            } else {
+                long[] o = ((BitmapContainer) other).words;
+                for (int i = 0; i < 1024; i++) {
+                    result[i] |= o[i];
+                }
+            }
+            int n = 0;
+            for (int i = 0; i < 1024; i++) {
+                n += Long.bitCount(result[i]);
+            }
+            return new BitmapContainer(result, n);
+        }
+
+        @Override
+        Container andNot(final Container other) {
+            long[] result = Arrays.copyOf(this.words, 1024);
+            if (other instanceof ArrayContainer) {
+                ArrayContainer o = (ArrayContainer) other;
+                for (int i = 0; i < o.card; i++) {
+                    result[o.values[i] >>> 6] &= ~(1L << o.values[i]);
+                }
+            } else {
+                long[] o = ((BitmapContainer) other).words;
+                for (int i = 0; i < 1024; i++) {
+                    result[i] &= ~o[i];
+                }
+            }
+            int n = 0;
+            for (int i = 0; i < 1024; i++) {
+                n += Long.bitCount(result[i]);
+            }
+            return normalize(result, n);
+        }
+
+        @Override
+        Container copy() {
+            return new BitmapContainer(Arrays.copyOf(this.words, 1024), this.card);
+        }
+
+        @Override
+        void forEach(final int base, final Visitor visitor) {
+            for (int i = 0; i < 1024; i++) {
+                long word = this.words[i];
+                while (0 != word) {
+                    visitor.visit(base | (i << 6) | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+        }
+
+        private static Container normalize(final long[] words, final int card) {
+            BitmapContainer bitmap = new BitmapContainer(words, card);
+            return card <= ARRAY_MAX ? bitmap.toArrayContainer() : bitmap;
+        }
+
+        ArrayContainer toArrayContainer() {
+            char[] values = new char[Math.max(this.card, 1)];
+            int n = 0;
+            for (int i = 0; i < 1024; i++) {
+                long word = this.words[i];
+                while (0 != word) {
+                    values[n++] = (char) ((i << 6) | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return new ArrayContainer(values, n);
+        }
+    }
+}
@@ -0,0 +1,587 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.service.product.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.agilestage.service.product.model.Product;
+
+/**
+ * 商品的内存倒排索引
+ * <p>
+ * 每个文档版本分配一个全局的文档编号，倒排表和属性表都是文档编号的{@link IntBitmap}，关键词的AND/OR、属性过滤和分面统计
+ * 都是集合运算，不需要逐个文档判断；排序只对命中的文档按得分维护一个大小为size的最小堆，不排序全部结果。
+ * <p>
+ * 商品变更先进入待处理队列，{@link #refresh()}时生成一个新的小段，旧版本的文档编号加入删除集合，然后整体替换只读的快照，
+ * 检索只读取快照，不加锁。段的数量超过上限或段内大部分文档已删除时合并，合并后被清除的文档编号回收再用。
+ * 变更在下次刷新后可见，刷新间隔即为可见延迟。
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月21日
+ */
+public class ProductSearchIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(ProductSearchIndex.class);
+
+    private static final Comparator<Segment> BY_SIZE = new Comparator<Segment>() {
+
+        @Override
+        public int compare(final Segment o1, final Segment o2) {
+            return Integer.compare(o1.getDocCount(), o2.getDocCount());
+        }
+    };
+
+    /** 段数上限，超过时合并最小的段 */
+    private final int maxSegments;
+
+    /** 每次合并的最少段数 */
+    private final int mergeFactor;
+
+    private volatile Snapshot snapshot = new Snapshot(Collections.<Segment> emptyList(), new IntBitmap(),
+                                                      new long[0], new int[0], 0);
+
+    /** 待处理的变更，商品ID -&gt; 文档，null表示删除 */
+    private final Map<Long, IndexDocument> pending = new LinkedHashMap<Long, IndexDocument>();
+
+    /** 以下字段只在持有writeLock时访问 */
+    private final Object writeLock = new Object();
+
+    /** 商品ID -&gt; 当前的文档编号 */
+    private final LongIntMap docIds = new LongIntMap();
+
+    /** 文档编号 -&gt; 商品ID，已发布的部分只追加不修改 */
+    private long[] productIds = new long[1024];
+
+    /** 文档编号 -&gt; 得分 */
+    private int[] scores = new int[1024];
+
+    private int nextDocId;
+
+    /** 回收的文档编号 */
+    private int[] freeDocIds = new int[64];
+
+    private int freeCount;
+
+    private ScheduledExecutorService scheduler;
+
+    public ProductSearchIndex() {
+        this(16, 4);
+    }
+
+    /**
+     * @param maxSegments 段数上限
+     * @param mergeFactor 每次合并的最少段数
+     */
+    public ProductSearchIndex(final int maxSegments, final int mergeFactor) {
+        if (maxSegments < 1 || mergeFactor < 2) {
+            throw new IllegalArgumentException("maxSegments must be positive and mergeFactor at least 2");
+        }
+        this.maxSegments = maxSegments;
+        this.mergeFactor = mergeFactor;
+    }
+
+    /**
+     * 定时刷新
+     * 
+     * @param refreshIntervalMillis 刷新间隔
+     */
+    public synchronized void start(final long refreshIntervalMillis) {
+        if (null != this.scheduler) {
+            return;
+        }
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                Thread t = new Thread(r, "product-search-index");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        this.scheduler.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    refresh();
+                } catch (RuntimeException e) {
+                    log.error("refresh product search index failed", e);
+                }
+            }
+        }, refreshIntervalMillis, refreshIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (null != this.scheduler) {
+            this.scheduler.shutdown();
+            try {
+                this.scheduler.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            this.scheduler = null;
+        }
+    }
+
+    /**
+     * 商品变更，下架的商品从索引中删除
+     * 
+     * @param product
+     * @param score 排序得分
+     */
+    public void update(final Product product, final int score) {
+        if (Product.STATUS_ON_SALE == product.getStatus()) {
+            update(IndexDocument.of(product, score));
+        } else {
+            remove(product.getId());
+        }
+    }
+
+    /**
+     * 新增或替换文档，下次刷新后可见
+     */
+    public void update(final IndexDocument doc) {
+        synchronized (this.pending) {
+            this.pending.put(doc.getProductId(), doc);
+        }
+    }
+
+    /**
+     * 删除文档，下次刷新后可见
+     */
+    public void remove(final long productId) {
+        synchronized (this.pending) {
+            this.pending.put(productId, null);
+        }
+    }
+
+    /**
+     * 把待处理的变更生成新的段并发布，需要时合并段
+     */
+    public void refresh() {
+        synchronized (this.writeLock) {
+            Map<Long, IndexDocument> changes;
+            synchronized (this.pending) {
+                if (this.pending.isEmpty()) {
+                    return;
+                }
+                changes = new LinkedHashMap<Long, IndexDocument>(this.pending);
+                this.pending.clear();
+            }
+
+            Snapshot current = this.snapshot;
+            IntBitmap deleted = current.deleted.copy();
+            Segment.Builder builder = new Segment.Builder();
+            for (Map.Entry<Long, IndexDocument> change : changes.entrySet()) {
+                long productId = change.getKey();
+                int old = this.docIds.remove(productId);
+                if (old >= 0) {
+                    deleted.add(old);
+                }
+
+                IndexDocument doc = change.getValue();
+                if (null != doc) {
+                    int docId = allocate();
+                    this.productIds[docId] = productId;
+                    this.scores[docId] = doc.getScore();
+                    this.docIds.put(productId, docId);
+                    builder.add(docId, doc);
+                }
+            }
+
+            List<Segment> segments = new ArrayList<Segment>(current.segments);
+            if (!builder.isEmpty()) {
+                segments.add(builder.build());
+            }
+            publish(segments, deleted);
+            mergeIfNeeded();
+        }
+    }
+
+    /**
+     * 刷新并把所有段合并为一个，清除全部已删除的文档，用于全量导入后或低峰期整理
+     */
+    public void optimize() {
+        synchronized (this.writeLock) {
+            refresh();
+            Snapshot current = this.snapshot;
+            if (current.segments.size() > 1 || !current.deleted.isEmpty()) {
+                merge(current.segments);
+            }
+        }
+    }
+
+    /**
+     * 检索
+     */
+    public SearchResult search(final SearchQuery query) {
+        Snapshot current = this.snapshot;
+        List<String> tokens = Tokenizer.tokenize(query.getKeyword());
+
+        Map<String, Map<String, Integer>> facets = new LinkedHashMap<String, Map<String, Integer>>();
+        for (String facet : query.getFacets()) {
+            facets.put(facet, new HashMap<String, Integer>());
+        }
+        TopK top = new TopK(query.getSize(), current.scores);
+        int total = 0;
+
+        for (Segment segment : current.segments) {
+            IntBitmap matched = segment.match(tokens, query.isMatchAll(), query.getFilters());
+            if (null == matched) {
+                continue;
+            }
+            if (!current.deleted.isEmpty()) {
+                matched = matched.andNot(current.deleted);
+            }
+            total += matched.cardinality();
+
+            for (Map.Entry<String, Map<String, Integer>> facet : facets.entrySet()) {
+                Map<String, Integer> counts = facet.getValue();
+                for (Map.Entry<String, IntBitmap> value : segment.getAttributeValues(facet.getKey()).entrySet()) {
+                    int count = matched.andCardinality(value.getValue());
+                    if (count > 0) {
+                        Integer existing = counts.get(value.getKey());
+                        counts.put(value.getKey(), null == existing ? count : existing + count);
+                    }
+                }
+            }
+            if (query.getSize() > 0) {
+                matched.forEach(top);
+            }
+        }
+        return new SearchResult(top.toProductIds(current.productIds), total, facets);
+    }
+
+    /**
+     * 索引中的商品数
+     */
+    public int size() {
+        return this.snapshot.size;
+    }
+
+    public int getSegmentCount() {
+        return this.snapshot.segments.size();
+    }
+
+    private void mergeIfNeeded() {
+        Snapshot current = this.snapshot;
+        List<Segment> selected = new ArrayList<Segment>();
+
+        // 大部分文档已删除的段
+        for (Segment segment : current.segments) {
+            if (segment.getDocs().andCardinality(current.deleted) * 2 > segment.getDocCount()) {
+                selected.add(segment);
+            }
+        }
+
+        if (current.segments.size() > this.maxSegments) {
+            List<Segment> bySize = new ArrayList<Segment>(current.segments);
+            Collections.sort(bySize, BY_SIZE);
+            int needed = Math.max(this.mergeFactor, current.segments.size() - this.maxSegments + 1);
+            for (Segment segment : bySize) {
+                if (selected.size() >= needed) {
+                    break;
+                }
+                if (!selected.contains(segment)) {
+                    selected.add(segment);
+                }
+            }
+        }
+
+        if (!selected.isEmpty()) {
+            merge(selected);
+        }
+    }
+
+    private void merge(final List<Segment> selected) {
+        long begin = System.currentTimeMillis();
+        Snapshot current = this.snapshot;
+
+        IntBitmap docs = new IntBitmap();
+        for (Segment segment : selected) {
+            docs = docs.or(segment.getDocs());
+        }
+        IntBitmap purged = docs.and(current.deleted);
+        Segment merged = Segment.merge(selected, current.deleted);
+
+        List<Segment> segments = new ArrayList<Segment>(current.segments.size());
+        for (Segment segment : current.segments) {
+            if (!selected.contains(segment)) {
+                segments.add(segment);
+            }
+        }
+        if (null != merged) {
+            segments.add(merged);
+        }
+        publish(segments, current.deleted.andNot(purged));
+
+        // 新快照中已没有段包含这些编号，旧快照中它们仍在删除集合里，不会被读取，可以回收
+        purged.forEach(new IntBitmap.Visitor() {
+
+            @Override
+            public void visit(final int docId) {
+                release(docId);
+            }
+        });
+
+        log.info("merged {} segments into {} docs, purged {} deleted docs in {}ms", selected.size(),
+                 null != merged ? merged.getDocCount() : 0, purged.cardinality(), System.currentTimeMillis() - begin);
+    }
+
+    private void publish(final List<Segment> segments, final IntBitmap deleted) {
+        this.snapshot = new Snapshot(Collections.unmodifiableList(segments), deleted, this.productIds, this.scores,
+                                     this.docIds.size());
+    }
+
+    private int allocate() {
+        if (this.freeCount > 0) {
+            return this.freeDocIds[--this.freeCount];
+        }
+
+        int docId = this.nextDocId++;
+        if (docId == this.productIds.length) {
+            // 已发布的快照仍引用旧数组，复制后只在新数组上追加
+            this.productIds = Arrays.copyOf(this.productIds, docId * 2);
+            this.scores = Arrays.copyOf(this.scores, docId * 2);
+        }
+        return docId;
+    }
+
+    private void release(final int docId) {
+        if (this.freeCount == this.freeDocIds.length) {
+            this.freeDocIds = Arrays.copyOf(this.freeDocIds, this.freeCount * 2);
+        }
+        this.freeDocIds[this.freeCount++] = docId;
+    }
+
+    /**
+     * 只读的索引快照
+     */
+    private static final class Snapshot {
+
+        final List<Segment> segments;
+
+        final IntBitmap deleted;
+
+        final long[] productIds;
+
+        final int[] scores;
+
+        final int size;
+
+        Snapshot(final List<Segment> segments, final IntBitmap deleted, final long[] productIds, final int[] scores,
+                 final int size) {
+            this.segments = segments;
+            this.deleted = deleted;
+            this.productIds = productIds;
+            this.scores = scores;
+            this.size = size;
+        }
+    }
+
+    /**
+     * 得分最高的k个文档，最小堆，得分相同时文档编号大的优先
+     */
+    private static final class TopK implements IntBitmap.Visitor {
+
+        private final int[] scores;
+
+        private final int[] heap;
+
+        private int size;
+
+        TopK(final int k, final int[] scores) {
+            this.scores = scores;
+            this.heap = new int[k];
+        }
+
+        @Override
+        public void visit(final int docId) {
+            if (this.size < this.heap.length) {
+                this.heap[this.size] = docId;
+                siftUp(this.size++);
+            } else if (this.size > 0 && greater(docId, this.heap[0])) {
+                this.heap[0] = docId;
+                siftDown(0);
+            }
+        }
+
+        /**
+         * 从高到低排列的商品ID
+         */
+        long[] toProductIds(final long[] productIds) {
+            long[] result = new long[this.size];
+            while (this.size > 0) {
+                result[this.size - 1] = productIds[this.heap[0]];
+                this.heap[0] = this.heap[--this.size];
+                siftDown(0);
+            }
+            return result;
+        }
+
+        private boolean greater(final int a, final int b) {
+            int sa = this.scores[a];
+            int sb = this.scores[b];
+            return sa != sb ? sa > sb : a > b;
+        }
+
+        private void siftUp(int i) {
+            int docId = this.heap[i];
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!greater(this.heap[parent], docId)) {
+                    break;
+                }
+                this.heap[i] = this.heap[parent];
+                i = parent;
+            }
+            this.heap[i] = docId;
+        }
+
+        private void siftDown(int i) {
+            int docId = this.heap[i];
+            int half = this.size >>> 1;
+            while (i < half) {
+                int child = 2 * i + 1;
+                if (child + 1 < this.size && greater(this.heap[child], this.heap[child + 1])) {
+                    child++;
+                }
+                if (!greater(docId, this.heap[child])) {
+                    break;
+                }
+                this.heap[i] = this.heap[child];
+                i = child;
+            }
+            this.heap[i] = docId;
+        }
+    }
+
+    /**
+     * long -&gt; 非负int的开放寻址哈希表，避免百万级商品的装箱开销
+     */
+    private static final class LongIntMap {
+
+        private long[] keys = new long[1024];
+
+        /** -1表示空位 */
+        private int[] values = newValues(1024);
+
+        private int size;
+
+        int size() {
+            return this.size;
+        }
+
+        /**
+         * @return 不存在时返回-1
+         */
+        int get(final long key) {
+            int mask = this.keys.length - 1;
+            for (int i = index(key, mask);; i = (i + 1) & mask) {
+                if (this.values[i] < 0) {
+                    return -1;
+                }
+                if (this.keys[i] == key) {
+                    return this.values[i];
+                }
+            }
+        }
+
+        void put(final long key, final int value) {
+            if ((this.size + 1) * 2 > this.keys.length) {
+                resize();
+            }
+            int mask = this.keys.length - 1;
+            for (int i = index(key, mask);; i = (i + 1) & mask) {
+                if (this.values[i] < 0) {
+                    this.keys[i] = key;
+                    this.values[i] = value;
+                    this.size++;
+                    return;
+                }
+                if (this.keys[i] == key) {
+                    this.values[i] = value;
+                    return;
+                }
+            }
+        }
+
+        /**
+         * @return 删除前的值，不存在时返回-1
+         */
+        int remove(final long key) {
+            int mask = this.keys.length - 1;
+            int i = index(key, mask);
+            while (true) {
+                if (this.values[i] < 0) {
+                    return -1;
+                }
+                if (this.keys[i] == key) {
+                    break;
+                }
+                i = (i + 1) & mask;
+            }
+
+            int old = this.values[i];
+            this.values[i] = -1;
+            this.size--;
+
+            // 后续同一探测链上的元素前移，保证查找不会提前遇到空位
+            int j = i;
+            while (true) {
+                j = (j + 1) & mask;
+                if (this.values[j] < 0) {
+                    return old;
+                }
+                int home = index(this.keys[j], mask);
+                boolean stays = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+                if (!stays) {
+                    this.keys[i] = this.keys[j];
+                    this.values[i] = this.values[j];
+                    this.values[j] = -1;
+                    i = j;
+                }
+            }
+        }
+
+        private void resize() {
+            long[] oldKeys = this.keys;
+            int[] oldValues = this.values;
+            this.keys = new long[oldKeys.length * 2];
+            this.values = newValues(oldKeys.length * 2);
+            this.size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldValues[i] >= 0) {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        private static int index(final long key, final int mask) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32)) & mask;
+        }
+
+        private static int[] newValues(final int capacity) {
+            int[] values = new int[capacity];
+            Arrays.fill(values, -1);
+            return values;
+        }
+    }
+}
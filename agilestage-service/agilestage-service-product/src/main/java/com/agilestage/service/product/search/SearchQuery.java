@@ -0,0 +1,94 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.service.product.search;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 检索条件
+ * <p>
+ * 关键词切分后按{@link #isMatchAll()}取交集或并集；过滤条件同一属性的多个值取并集，不同属性之间取交集。
+ * 关键词为空时只按过滤条件筛选。
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月21日
+ */
+public class SearchQuery {
+
+    private String keyword;
+
+    /** true：所有词都命中（AND）；false：任意一个词命中（OR） */
+    private boolean matchAll = true;
+
+    private final Map<String, Set<String>> filters = new LinkedHashMap<String, Set<String>>();
+
+    /** 需要分面统计的属性 */
+    private final List<String> facets = new ArrayList<String>();
+
+    private int size = 20;
+
+    public SearchQuery keyword(final String keyword) {
+        this.keyword = keyword;
+        return this;
+    }
+
+    public SearchQuery matchAll(final boolean matchAll) {
+        this.matchAll = matchAll;
+        return this;
+    }
+
+    /**
+     * 增加过滤条件，同一属性多次调用时取并集
+     */
+    public SearchQuery filter(final String attribute, final String value) {
+        Set<String> values = this.filters.get(attribute);
+        if (null == values) {
+            values = new HashSet<String>();
+            this.filters.put(attribute, values);
+        }
+        values.add(value);
+        return this;
+    }
+
+    public SearchQuery facet(final String attribute) {
+        this.facets.add(attribute);
+        return this;
+    }
+
+    /**
+     * @param size 返回的条数
+     */
+    public SearchQuery size(final int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("size must not be negative: " + size);
+        }
+        this.size = size;
+        return this;
+    }
+
+    public String getKeyword() {
+        return this.keyword;
+    }
+
+    public boolean isMatchAll() {
+        return this.matchAll;
+    }
+
+    public Map<String, Set<String>> getFilters() {
+        return this.filters;
+    }
+
+    public List<String> getFacets() {
+        return this.facets;
+    }
+
+    public int getSize() {
+        return this.size;
+    }
+}
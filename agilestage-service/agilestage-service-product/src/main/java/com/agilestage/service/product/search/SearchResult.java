@@ -0,0 +1,42 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.service.product.search;
+
+import java.util.Map;
+
+/**
+ * 检索结果
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月21日
+ */
+public class SearchResult {
+
+    /** 按得分从高到低排列的商品ID */
+    private final long[] productIds;
+
+    /** 命中的总数 */
+    private final int total;
+
+    /** 分面统计：属性 -> 属性值 -> 命中数 */
+    private final Map<String, Map<String, Integer>> facets;
+
+    public SearchResult(final long[] productIds, final int total, final Map<String, Map<String, Integer>> facets) {
+        this.productIds = productIds;
+        this.total = total;
+        this.facets = facets;
+    }
+
+    public long[] getProductIds() {
+        return this.productIds;
+    }
+
+    public int getTotal() {
+        return this.total;
+    }
+
+    public Map<String, Map<String, Integer>> getFacets() {
+        return this.facets;
+    }
+}
@@ -0,0 +1,231 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.service.product.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 索引段
+ * <p>
+ * 一批文档的倒排表（词 -&gt; 文档编号集合）和属性表（属性 -&gt; 属性值 -&gt; 文档编号集合），建好后不再修改。
+ * 文档编号全局唯一，段之间不重叠，合并时只需按词合并各段的集合并去掉已删除的文档，不用重新分词。
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月21日
+ */
+final class Segment {
+
+    private static final Comparator<IntBitmap> BY_CARDINALITY = new Comparator<IntBitmap>() {
+
+        @Override
+        public int compare(final IntBitmap o1, final IntBitmap o2) {
+            return Integer.compare(o1.cardinality(), o2.cardinality());
+        }
+    };
+
+    private final Map<String, IntBitmap> terms;
+
+    private final Map<String, Map<String, IntBitmap>> attributes;
+
+    /** 段内所有文档 */
+    private final IntBitmap docs;
+
+    private final int docCount;
+
+    private Segment(final Map<String, IntBitmap> terms, final Map<String, Map<String, IntBitmap>> attributes,
+                    final IntBitmap docs) {
+        this.terms = terms;
+        this.attributes = attributes;
+        this.docs = docs;
+        this.docCount = docs.cardinality();
+    }
+
+    IntBitmap getDocs() {
+        return this.docs;
+    }
+
+    int getDocCount() {
+        return this.docCount;
+    }
+
+    Map<String, IntBitmap> getAttributeValues(final String attribute) {
+        Map<String, IntBitmap> values = this.attributes.get(attribute);
+        return null != values ? values : Collections.<String, IntBitmap> emptyMap();
+    }
+
+    /**
+     * 匹配的文档，未排除已删除的文档
+     * 
+     * @param tokens 关键词切分的结果
+     * @param matchAll 是否要求所有词都命中
+     * @param filters 过滤条件
+     * @return 没有匹配时返回null；返回的集合可能是段内部的集合，不能修改
+     */
+    IntBitmap match(final List<String> tokens, final boolean matchAll, final Map<String, Set<String>> filters) {
+        IntBitmap result = null;
+
+        if (!tokens.isEmpty()) {
+            List<IntBitmap> postings = new ArrayList<IntBitmap>(tokens.size());
+            for (String token : tokens) {
+                IntBitmap posting = this.terms.get(token);
+                if (null != posting) {
+                    postings.add(posting);
+                } else if (matchAll) {
+                    return null;
+                }
+            }
+            if (postings.isEmpty()) {
+                return null;
+            }
+
+            if (matchAll) {
+                // 从最短的倒排表开始求交集，中间结果尽快变小
+                Collections.sort(postings, BY_CARDINALITY);
+                result = postings.get(0);
+                for (int i = 1; i < postings.size() && !result.isEmpty(); i++) {
+                    result = result.and(postings.get(i));
+                }
+            } else {
+                result = postings.get(0);
+                for (int i = 1; i < postings.size(); i++) {
+                    result = result.or(postings.get(i));
+                }
+            }
+        }
+
+        for (Map.Entry<String, Set<String>> filter : filters.entrySet()) {
+            Map<String, IntBitmap> values = this.attributes.get(filter.getKey());
+            if (null == values) {
+                return null;
+            }
+            IntBitmap matched = null;
+            for (String value : filter.getValue()) {
+                IntBitmap docs = values.get(value);
+                if (null != docs) {
+                    matched = null == matched ? docs : matched.or(docs);
+                }
+            }
+            if (null == matched) {
+                return null;
+            }
+            result = null == result ? matched : result.and(matched);
+        }
+
+        if (null == result) {
+            return this.docs;
+        }
+        return result.isEmpty() ? null : result;
+    }
+
+    /**
+     * 合并多个段，去掉已删除的文档
+     * 
+     * @param segments 待合并的段
+     * @param deleted 已删除的文档
+     * @return 合并后没有文档时返回null
+     */
+    static Segment merge(final List<Segment> segments, final IntBitmap deleted) {
+        Map<String, IntBitmap> terms = new HashMap<String, IntBitmap>();
+        Map<String, Map<String, IntBitmap>> attributes = new HashMap<String, Map<String, IntBitmap>>();
+        IntBitmap docs = new IntBitmap();
+
+        for (Segment segment : segments) {
+            docs = docs.or(segment.docs);
+            union(terms, segment.terms);
+            for (Map.Entry<String, Map<String, IntBitmap>> entry : segment.attributes.entrySet()) {
+                Map<String, IntBitmap> values = attributes.get(entry.getKey());
+                if (null == values) {
+                    values = new HashMap<String, IntBitmap>();
+                    attributes.put(entry.getKey(), values);
+                }
+                union(values, entry.getValue());
+            }
+        }
+
+        docs = docs.andNot(deleted);
+        if (docs.isEmpty()) {
+            return null;
+        }
+        purge(terms, deleted);
+        for (Map<String, IntBitmap> values : attributes.values()) {
+            purge(values, deleted);
+        }
+        return new Segment(terms, attributes, docs);
+    }
+
+    private static void union(final Map<String, IntBitmap> target, final Map<String, IntBitmap> source) {
+        for (Map.Entry<String, IntBitmap> entry : source.entrySet()) {
+            IntBitmap existing = target.get(entry.getKey());
+            target.put(entry.getKey(), null == existing ? entry.getValue() : existing.or(entry.getValue()));
+        }
+    }
+
+    private static void purge(final Map<String, IntBitmap> map, final IntBitmap deleted) {
+        List<String> empty = new ArrayList<String>();
+        for (Map.Entry<String, IntBitmap> entry : map.entrySet()) {
+            IntBitmap live = entry.getValue().andNot(deleted);
+            if (live.isEmpty()) {
+                empty.add(entry.getKey());
+            } else {
+                entry.setValue(live);
+            }
+        }
+        for (String key : empty) {
+            map.remove(key);
+        }
+    }
+
+    /**
+     * 构建新的段
+     */
+    static final class Builder {
+
+        private final Map<String, IntBitmap> terms = new HashMap<String, IntBitmap>();
+
+        private final Map<String, Map<String, IntBitmap>> attributes = new HashMap<String, Map<String, IntBitmap>>();
+
+        private final IntBitmap docs = new IntBitmap();
+
+        void add(final int docId, final IndexDocument doc) {
+            this.docs.add(docId);
+            for (String token : Tokenizer.tokenize(doc.getText())) {
+                get(this.terms, token).add(docId);
+            }
+            for (Map.Entry<String, String> attribute : doc.getAttributes().entrySet()) {
+                if (null == attribute.getValue()) {
+                    continue;
+                }
+                Map<String, IntBitmap> values = this.attributes.get(attribute.getKey());
+                if (null == values) {
+                    values = new HashMap<String, IntBitmap>();
+                    this.attributes.put(attribute.getKey(), values);
+                }
+                get(values, attribute.getValue()).add(docId);
+            }
+        }
+
+        boolean isEmpty() {
+            return this.docs.isEmpty();
+        }
+
+        Segment build() {
+            return new Segment(this.terms, this.attributes, this.docs);
+        }
+
+        private static IntBitmap get(final Map<String, IntBitmap> map, final String key) {
+            IntBitmap bitmap = map.get(key);
+            if (null == bitmap) {
+                bitmap = new IntBitmap();
+                map.put(key, bitmap);
+            }
+            return bitmap;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.service.product.search;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 分词
+ * <p>
+ * 字母和数字连续的部分作为一个词并转为小写；中文按相邻两个字切分（二元切分），单独的一个汉字作为一个词。
+ * 不依赖词典，建索引和查询使用同样的切分，查询“蓝牙耳机”切分为“蓝牙”、“牙耳”、“耳机”，全部命中即可匹配。
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月21日
+ */
+public final class Tokenizer {
+
+    private Tokenizer() {
+    }
+
+    /**
+     * 切分文本，结果去重并保持出现的顺序
+     * 
+     * @param text 文本，可以为null
+     */
+    public static List<String> tokenize(final String text) {
+        Set<String> tokens = new LinkedHashSet<String>();
+        if (null == text) {
+            return new ArrayList<String>(tokens);
+        }
+
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            char c = text.charAt(i);
+            if (isCjk(c)) {
+                int start = i;
+                while (i < length && isCjk(text.charAt(i))) {
+                    i++;
+                }
+                if (i - start == 1) {
+                    tokens.add(text.substring(start, i));
+                } else {
+                    for (int j = start; j < i - 1; j++) {
+                        tokens.add(text.substring(j, j + 2));
+                    }
+                }
+            } else if (Character.isLetterOrDigit(c)) {
+                int start = i;
+                while (i < length && Character.isLetterOrDigit(text.charAt(i)) && !isCjk(text.charAt(i))) {
+                    i++;
+                }
+                tokens.add(text.substring(start, i).toLowerCase());
+            } else {
+                i++;
+            }
+        }
+        return new ArrayList<String>(tokens);
+    }
+
+    private static boolean isCjk(final char c) {
+        return Character.UnicodeBlock.of(c) == Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS;
+    }
+}
@@ -0,0 +1,138 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.service.product.suggest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 搜索框的输入联想
+ * <p>
+ * 后台线程定时从数据来源读取全部联想词并重建{@link SuggestionTrie}，建好后通过volatile字段整体替换，查询不加锁。
+ * 重建失败时继续使用旧的树。
+ * <p>
+ * 对延迟敏感的调用方先通过{@link #getTrie()}取得当前的树，再调用{@link SuggestionTrie#lookup}写入自己复用的int数组，
+ * 并从同一棵树上取文本，每次按键的查询不创建对象。
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月22日
+ */
+public class AutocompleteService {
+
+    private static final Logger log = LoggerFactory.getLogger(AutocompleteService.class);
+
+    private final SuggestionSource source;
+
+    /** 每个前缀保留的联想词数 */
+    private final int topN;
+
+    private volatile SuggestionTrie trie;
+
+    /** 避免手动和定时的重建同时进行，先读取的数据后发布 */
+    private final Object rebuildLock = new Object();
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param source 数据来源
+     * @param topN 每个前缀保留的联想词数
+     */
+    public AutocompleteService(final SuggestionSource source, final int topN) {
+        this.source = source;
+        this.topN = topN;
+        this.trie = SuggestionTrie.build(Collections.<Suggestion> emptyList(), topN);
+    }
+
+    /**
+     * 立即在后台构建一次，之后定时重建
+     * 
+     * @param rebuildIntervalMillis 重建间隔
+     */
+    public synchronized void start(final long rebuildIntervalMillis) {
+        if (null != this.scheduler) {
+            return;
+        }
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                Thread t = new Thread(r, "autocomplete-rebuild");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        this.scheduler.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    rebuild();
+                } catch (Exception e) {
+                    log.error("rebuild autocomplete trie failed, keep the previous one", e);
+                }
+            }
+        }, 0, rebuildIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (null != this.scheduler) {
+            this.scheduler.shutdownNow();
+            try {
+                this.scheduler.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            this.scheduler = null;
+        }
+    }
+
+    /**
+     * 读取联想词并重建，在调用线程上执行
+     * 
+     * @throws Exception 读取失败
+     */
+    public void rebuild() throws Exception {
+        synchronized (this.rebuildLock) {
+            long begin = System.currentTimeMillis();
+            SuggestionTrie rebuilt = SuggestionTrie.build(this.source.load(), this.topN);
+            this.trie = rebuilt;
+            log.info("autocomplete trie rebuilt with {} suggestions and {} nodes in {}ms", rebuilt.size(),
+                     rebuilt.getNodeCount(), System.currentTimeMillis() - begin);
+        }
+    }
+
+    /**
+     * 当前的树，同一次查询的编号和文本要从同一棵树上获取
+     */
+    public SuggestionTrie getTrie() {
+        return this.trie;
+    }
+
+    /**
+     * 查询联想词的文本，会创建结果列表
+     * 
+     * @param prefix 输入的前缀
+     * @param limit 最多返回的个数，不超过topN
+     */
+    public List<String> suggest(final String prefix, final int limit) {
+        SuggestionTrie current = this.trie;
+        int[] ids = new int[Math.max(Math.min(limit, this.topN), 0)];
+        int count = current.lookup(prefix, ids);
+
+        List<String> result = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(current.getText(ids[i]));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,48 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.service.product.suggest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 联想词
+ * <p>
+ * 按文本本身和别名的前缀都能联想到该词，别名一般是全拼和拼音首字母，如“蓝牙耳机”的别名“lanyaerji”、“lyej”，由调用方提供。
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月22日
+ */
+public class Suggestion {
+
+    /** 展示的文本，如商品名称 */
+    private final String text;
+
+    /** 热度，越大越靠前 */
+    private final int popularity;
+
+    private final List<String> aliases;
+
+    public Suggestion(final String text, final int popularity, final List<String> aliases) {
+        this.text = text;
+        this.popularity = popularity;
+        this.aliases = null != aliases ? aliases : new ArrayList<String>();
+    }
+
+    public Suggestion(final String text, final int popularity) {
+        this(text, popularity, null);
+    }
+
+    public String getText() {
+        return this.text;
+    }
+
+    public int getPopularity() {
+        return this.popularity;
+    }
+
+    public List<String> getAliases() {
+        return this.aliases;
+    }
+}
@@ -0,0 +1,22 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.service.product.suggest;
+
+import java.util.List;
+
+/**
+ * 联想词的数据来源
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月22日
+ */
+public interface SuggestionSource {
+
+    /**
+     * 读取全部联想词
+     * 
+     * @throws Exception 读取失败
+     */
+    List<Suggestion> load() throws Exception;
+}
@@ -0,0 +1,307 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.service.product.suggest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 数组实现的前缀树，只读
+ * <p>
+ * 节点按层次遍历的顺序编号，同一节点的子节点编号连续，且按字符排序：子节点范围为[childStart[n], childStart[n + 1])，
+ * 查找子节点时在labels上二分查找。每个节点预先计算好其下热度最高的topN个联想词，依次存放在top数组中，
+ * 查询时只需沿前缀走到对应节点后复制，与匹配的词条数无关，且不创建任何对象。
+ * <p>
+ * 文本和别名去掉空白并转为小写后建树，查询时对输入做同样的处理。
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月22日
+ */
+public final class SuggestionTrie {
+
+    /** 节点的字符，根节点为0 */
+    private final char[] labels;
+
+    /** 节点的子节点起始编号，长度为节点数 + 1 */
+    private final int[] childStart;
+
+    /** 节点的联想词在top中的起始位置，长度为节点数 + 1 */
+    private final int[] topStart;
+
+    /** 各节点的联想词编号，按热度从高到低 */
+    private final int[] top;
+
+    /** 联想词编号 -&gt; 文本 */
+    private final String[] texts;
+
+    private SuggestionTrie(final char[] labels, final int[] childStart, final int[] topStart, final int[] top,
+                           final String[] texts) {
+        this.labels = labels;
+        this.childStart = childStart;
+        this.topStart = topStart;
+        this.top = top;
+        this.texts = texts;
+    }
+
+    /**
+     * 查询前缀的联想词
+     * 
+     * @param prefix 输入的前缀
+     * @param out 写入联想词编号，按热度从高到低，最多写入out.length个
+     * @return 写入的个数
+     */
+    public int lookup(final CharSequence prefix, final int[] out) {
+        int node = 0;
+        for (int i = 0, length = prefix.length(); i < length; i++) {
+            char c = prefix.charAt(i);
+            if (Character.isWhitespace(c)) {
+                continue;
+            }
+            node = child(node, Character.toLowerCase(c));
+            if (node < 0) {
+                return 0;
+            }
+        }
+
+        int start = this.topStart[node];
+        int count = Math.min(this.topStart[node + 1] - start, out.length);
+        System.arraycopy(this.top, start, out, 0, count);
+        return count;
+    }
+
+    /**
+     * 联想词的文本
+     * 
+     * @param id {@link #lookup}返回的编号，只对同一个对象有效
+     */
+    public String getText(final int id) {
+        return this.texts[id];
+    }
+
+    /**
+     * 联想词的个数
+     */
+    public int size() {
+        return this.texts.length;
+    }
+
+    /**
+     * 节点数
+     */
+    public int getNodeCount() {
+        return this.labels.length;
+    }
+
+    private int child(final int node, final char c) {
+        int low = this.childStart[node];
+        int high = this.childStart[node + 1] - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            char label = this.labels[mid];
+            if (label < c) {
+                low = mid + 1;
+            } else if (label > c) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 建树，文本相同的联想词合并，取最大的热度
+     * 
+     * @param suggestions 联想词
+     * @param topN 每个节点保留的联想词数
+     */
+    public static SuggestionTrie build(final List<Suggestion> suggestions, final int topN) {
+        if (topN < 1) {
+            throw new IllegalArgumentException("topN must be positive: " + topN);
+        }
+
+        // 合并相同的文本
+        Map<String, Integer> ids = new HashMap<String, Integer>();
+        List<String> texts = new ArrayList<String>();
+        List<Integer> popularities = new ArrayList<Integer>();
+        List<List<String>> keys = new ArrayList<List<String>>();
+        for (Suggestion suggestion : suggestions) {
+            if (null == suggestion.getText()) {
+                continue;
+            }
+            Integer id = ids.get(suggestion.getText());
+            if (null == id) {
+                id = texts.size();
+                ids.put(suggestion.getText(), id);
+                texts.add(suggestion.getText());
+                popularities.add(suggestion.getPopularity());
+                keys.add(new ArrayList<String>());
+                keys.get(id).add(suggestion.getText());
+            } else if (suggestion.getPopularity() > popularities.get(id)) {
+                popularities.set(id, suggestion.getPopularity());
+            }
+            keys.get(id).addAll(suggestion.getAliases());
+        }
+
+        int[] popularity = new int[popularities.size()];
+        for (int i = 0; i < popularity.length; i++) {
+            popularity[i] = popularities.get(i);
+        }
+
+        Node root = new Node((char) 0);
+        for (int id = 0; id < keys.size(); id++) {
+            for (String key : keys.get(id)) {
+                if (null != key) {
+                    root.insert(key, id);
+                }
+            }
+        }
+        root.collectTop(popularity, topN);
+
+        // 层次遍历编号，同一节点的子节点连续
+        List<Node> nodes = new ArrayList<Node>();
+        nodes.add(root);
+        int totalTop = 0;
+        for (int i = 0; i < nodes.size(); i++) {
+            Node node = nodes.get(i);
+            totalTop += node.top.length;
+            for (int j = 0; j < node.childCount; j++) {
+                nodes.add(node.children[j]);
+            }
+        }
+
+        char[] labels = new char[nodes.size()];
+        int[] childStart = new int[nodes.size() + 1];
+        int[] topStart = new int[nodes.size() + 1];
+        int[] top = new int[totalTop];
+        int nextChild = 1;
+        int nextTop = 0;
+        for (int i = 0; i < nodes.size(); i++) {
+            Node node = nodes.get(i);
+            labels[i] = node.label;
+            childStart[i] = nextChild;
+            nextChild += node.childCount;
+            topStart[i] = nextTop;
+            System.arraycopy(node.top, 0, top, nextTop, node.top.length);
+            nextTop += node.top.length;
+        }
+        childStart[nodes.size()] = nextChild;
+        topStart[nodes.size()] = nextTop;
+
+        return new SuggestionTrie(labels, childStart, topStart, top, texts.toArray(new String[texts.size()]));
+    }
+
+    /**
+     * 建树时使用的节点
+     */
+    private static final class Node {
+
+        private static final int[] EMPTY = new int[0];
+
+        final char label;
+
+        /** 子节点，按字符排序 */
+        Node[] children;
+
+        int childCount;
+
+        /** 以该节点结束的联想词 */
+        int[] terminals = EMPTY;
+
+        int[] top = EMPTY;
+
+        Node(final char label) {
+            this.label = label;
+        }
+
+        void insert(final String key, final int id) {
+            Node node = this;
+            for (int i = 0; i < key.length(); i++) {
+                char c = key.charAt(i);
+                if (!Character.isWhitespace(c)) {
+                    node = node.getOrAddChild(Character.toLowerCase(c));
+                }
+            }
+            if (node != this) {
+                node.terminals = Arrays.copyOf(node.terminals, node.terminals.length + 1);
+                node.terminals[node.terminals.length - 1] = id;
+            }
+        }
+
+        /**
+         * 自底向上计算每个节点的topN，同一联想词经由多个别名出现时只保留一次
+         */
+        void collectTop(final int[] popularity, final int topN) {
+            int[] best = new int[topN];
+            int count = 0;
+            for (int id : this.terminals) {
+                count = offer(best, count, id, popularity);
+            }
+            for (int i = 0; i < this.childCount; i++) {
+                Node child = this.children[i];
+                child.collectTop(popularity, topN);
+                for (int id : child.top) {
+                    count = offer(best, count, id, popularity);
+                }
+            }
+            this.top = Arrays.copyOf(best, count);
+            this.terminals = EMPTY;
+        }
+
+        private Node getOrAddChild(final char c) {
+            int low = 0;
+            int high = this.childCount - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                char label = this.children[mid].label;
+                if (label < c) {
+                    low = mid + 1;
+                } else if (label > c) {
+                    high = mid - 1;
+                } else {
+                    return this.children[mid];
+                }
+            }
+
+            if (null == this.children) {
+                this.children = new Node[2];
+            } else if (this.childCount == this.children.length) {
+                this.children = Arrays.copyOf(this.children, this.childCount * 2);
+            }
+            System.arraycopy(this.children, low, this.children, low + 1, this.childCount - low);
+            Node child = new Node(c);
+            this.children[low] = child;
+            this.childCount++;
+            return child;
+        }
+
+        /**
+         * 插入到按热度从高到低排列的best中，热度相同时编号小的在前
+         */
+        private static int offer(final int[] best, final int count, final int id, final int[] popularity) {
+            for (int i = 0; i < count; i++) {
+                if (best[i] == id) {
+                    return count;
+                }
+            }
+
+            int pos = count;
+            while (pos > 0 && (popularity[best[pos - 1]] < popularity[id]
+                               || (popularity[best[pos - 1]] == popularity[id] && best[pos - 1] > id))) {
+                pos--;
+            }
+            if (pos >= best.length) {
+                return count;
+            }
+
+            int newCount = Math.min(count + 1, best.length);
+            System.arraycopy(best, pos, best, pos + 1, newCount - pos - 1);
+            best[pos] = id;
+            return newCount;
+        }
+    }
+}
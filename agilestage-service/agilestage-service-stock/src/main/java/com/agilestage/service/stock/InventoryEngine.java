@@ -0,0 +1,331 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.service.stock;
+
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.agilestage.service.order.id.IdGenerator;
+
+/**
+ * 库存预占引擎
+ * <p>
+ * 每个节点按需从{@link StockStore}租用一部分库存（参见{@link StockStore#lease(String, long, long)}），租用时数据库中的库存已扣减，
+ * 之后的预占、确认、释放都只修改本节点的租用库存（参见{@link StockCounter}），不再对数据库中的同一行加锁，秒杀时的吞吐量随CPU核数增长。
+ * 各节点只能卖出自己租用的库存，多个节点之间不会超卖；确认预占时不需要写数据库，进程崩溃也不会丢失已确认的扣减。
+ * <ul>
+ * <li>{@link #reserve(String, long, long)}：扣减可售数量，租用库存不足时向数据库续租，数据库库存也不足时失败</li>
+ * <li>{@link #confirm(long)}：确认预占（如支付成功）</li>
+ * <li>{@link #release(long)}：释放预占（如取消订单），数量归还租用库存；过期未确认的预占由后台线程自动释放</li>
+ * </ul>
+ * 一个归还周期内没有预占的商品，其租用库存由后台线程归还数据库，供其他节点售卖；停止时归还全部租用库存。
+ * 进程崩溃时未售出的租用库存和未确认的预占不会归还，只会少卖，需按订单核对后补回。
+ * <p>
+ * 预占编号由{@link IdGenerator}生成，在节点之间和重启前后都不重复。
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月17日
+ */
+public class InventoryEngine {
+
+    private static final Logger log = LoggerFactory.getLogger(InventoryEngine.class);
+
+    /** 默认每次租用的数量 */
+    public static final long DEFAULT_LEASE_SIZE = 100L;
+
+    private final StockStore store;
+
+    private final IdGenerator ids;
+
+    private final int stripes;
+
+    private final long leaseSize;
+
+    /** 商品编号 -> 租用库存 */
+    private final ConcurrentHashMap<String, StockCounter> counters = new ConcurrentHashMap<String, StockCounter>();
+
+    /** 未确认、未释放的预占：预占编号 -> 预占 */
+    private final ConcurrentHashMap<Long, Reservation> reservations = new ConcurrentHashMap<Long, Reservation>();
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param store 库存存储
+     * @param ids 预占编号生成器
+     */
+    public InventoryEngine(final StockStore store, final IdGenerator ids) {
+        this(store, ids, Math.min(Runtime.getRuntime().availableProcessors(), 16), DEFAULT_LEASE_SIZE);
+    }
+
+    /**
+     * @param store 库存存储
+     * @param ids 预占编号生成器
+     * @param stripes 每个商品的库存槽位数
+     * @param leaseSize 每次租用的数量，越大访问数据库越少，但节点之间库存分布越不均匀
+     */
+    public InventoryEngine(final StockStore store, final IdGenerator ids, final int stripes, final long leaseSize) {
+        this.store = store;
+        this.ids = ids;
+        this.stripes = Math.max(stripes, 1);
+        this.leaseSize = Math.max(leaseSize, 1L);
+    }
+
+    /**
+     * 启动后台的过期清理和空闲库存归还
+     * 
+     * @param giveBackIntervalMillis 归还空闲租用库存的间隔
+     * @param sweepIntervalMillis 检查过期预占的间隔
+     */
+    public synchronized void start(final long giveBackIntervalMillis, final long sweepIntervalMillis) {
+        if (null != this.scheduler) {
+            return;
+        }
+
+        this.scheduler = Executors.newScheduledThreadPool(2, new ThreadFactory() {
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                Thread t = new Thread(r, "inventory-engine");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        this.scheduler.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                giveBackIdle();
+            }
+        }, giveBackIntervalMillis, giveBackIntervalMillis, TimeUnit.MILLISECONDS);
+        this.scheduler.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                sweep();
+            }
+        }, sweepIntervalMillis, sweepIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 停止后台任务，并把未售出的租用库存归还数据库
+     */
+    public synchronized void stop() {
+        if (null != this.scheduler) {
+            this.scheduler.shutdown();
+            try {
+                this.scheduler.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            this.scheduler = null;
+        }
+        for (String skuId : this.counters.keySet()) {
+            giveBack(skuId);
+        }
+    }
+
+    /**
+     * 预占库存
+     * 
+     * @param skuId 商品编号
+     * @param quantity 数量
+     * @param ttlMillis 有效期，过期未确认时自动释放
+     * @return 可售数量不足时返回null
+     */
+    public Reservation reserve(final String skuId, final long quantity, final long ttlMillis) {
+        if (quantity <= 0) {
+            throw new IllegalArgumentException("quantity must be positive: " + quantity);
+        }
+
+        long id = this.ids.nextId();
+        StockCounter counter = getCounter(skuId);
+        if (!counter.active) {
+            counter.active = true;
+        }
+        if (!counter.take(quantity) && !leaseAndTake(skuId, counter, quantity)) {
+            return null;
+        }
+        counter.reserved.addAndGet(quantity);
+
+        Reservation reservation = new Reservation(id, skuId, quantity, System.currentTimeMillis() + ttlMillis);
+        this.reservations.put(id, reservation);
+        return reservation;
+    }
+
+    /**
+     * 确认预占，预占的数量在租用时已从数据库扣减，确认后即为已售出
+     * 
+     * @param reservationId 预占编号
+     * @return 预占不存在、已释放或已过期时返回false
+     */
+    public boolean confirm(final long reservationId) {
+        Reservation reservation = this.reservations.get(reservationId);
+        if (null == reservation) {
+            return false;
+        }
+        if (reservation.getExpireAt() < System.currentTimeMillis()) {
+            // 已过期但尚未被后台线程释放
+            release(reservation);
+            return false;
+        }
+        if (!reservation.transit(Reservation.CONFIRMED)) {
+            return false;
+        }
+        this.reservations.remove(reservationId);
+
+        this.counters.get(reservation.getSkuId()).reserved.addAndGet(-reservation.getQuantity());
+        return true;
+    }
+
+    /**
+     * 释放预占，数量归还可售库存
+     * 
+     * @param reservationId 预占编号
+     * @return 预占不存在、已确认或已释放时返回false
+     */
+    public boolean release(final long reservationId) {
+        Reservation reservation = this.reservations.get(reservationId);
+        return null != reservation && release(reservation);
+    }
+
+    private boolean release(final Reservation reservation) {
+        if (!reservation.transit(Reservation.RELEASED)) {
+            return false;
+        }
+        this.reservations.remove(reservation.getId());
+
+        StockCounter counter = this.counters.get(reservation.getSkuId());
+        counter.reserved.addAndGet(-reservation.getQuantity());
+        counter.put(reservation.getQuantity());
+        return true;
+    }
+
+    /**
+     * 商品在当前节点的可售数量（不含已预占的数量和数据库中未租用的库存），并发修改时为近似值
+     * 
+     * @param skuId 商品编号
+     */
+    public long getAvailable(final String skuId) {
+        StockCounter counter = this.counters.get(skuId);
+        return null == counter ? 0L : counter.available();
+    }
+
+    /**
+     * 释放过期的预占
+     */
+    void sweep() {
+        long now = System.currentTimeMillis();
+        int expired = 0;
+        for (Reservation reservation : this.reservations.values()) {
+            if (reservation.getExpireAt() < now && release(reservation)) {
+                expired++;
+            }
+        }
+        if (expired > 0) {
+            log.info("{} expired stock reservations released.", expired);
+        }
+    }
+
+    /**
+     * 归还上个周期内没有预占的商品的租用库存
+     */
+    void giveBackIdle() {
+        for (Entry<String, StockCounter> entry : this.counters.entrySet()) {
+            StockCounter counter = entry.getValue();
+            if (counter.active) {
+                counter.active = false;
+            } else {
+                giveBack(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * 把商品未售出的租用库存归还数据库，如后台调整库存或下架商品前
+     * 
+     * @param skuId 商品编号
+     * @return 归还的数量
+     */
+    public long giveBack(final String skuId) {
+        StockCounter counter = this.counters.get(skuId);
+        if (null == counter) {
+            return 0L;
+        }
+
+        synchronized (counter.leaseLock) {
+            long held = counter.drain();
+            if (held <= 0) {
+                return 0L;
+            }
+            try {
+                this.store.giveBack(skuId, held);
+            } catch (RuntimeException e) {
+                // 无法确定是否已归还，不再放回本节点，只会少卖
+                log.error("failed to give back " + held + " stock of sku " + skuId + ", check it manually: "
+                          + e.getMessage(), e);
+                return 0L;
+            }
+            log.debug("{} stock of sku {} given back.", held, skuId);
+            return held;
+        }
+    }
+
+    /**
+     * 租用库存不足时向数据库续租并扣减
+     * <p>
+     * 本节点剩余的零头与续租的数量合并使用，同一商品同时只有一个线程续租
+     */
+    private boolean leaseAndTake(final String skuId, final StockCounter counter, final long quantity) {
+        synchronized (counter.leaseLock) {
+            long held = counter.drain();
+            if (held >= quantity) {
+                // 等待期间其他线程已续租或有预占被释放
+                counter.put(held - quantity);
+                return true;
+            }
+
+            long leased = 0L;
+            try {
+                leased = this.store.lease(skuId, quantity - held, Math.max(quantity, this.leaseSize) - held);
+            } finally {
+                if (leased <= 0) {
+                    counter.put(held);
+                }
+            }
+            if (leased <= 0) {
+                return false;
+            }
+
+            counter.put(held + leased - quantity);
+            log.debug("{} stock of sku {} leased.", leased, skuId);
+            return true;
+        }
+    }
+
+    private StockCounter getCounter(final String skuId) {
+        StockCounter counter = this.counters.get(skuId);
+        if (null == counter) {
+            StockCounter created = new StockCounter(this.stripes);
+            counter = this.counters.putIfAbsent(skuId, created);
+            if (null == counter) {
+                counter = created;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * 未确认、未释放的预占数量
+     */
+    public int getReservationCount() {
+        return this.reservations.size();
+    }
+}
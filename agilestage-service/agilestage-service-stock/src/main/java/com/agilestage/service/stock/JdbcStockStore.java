@@ -0,0 +1,98 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.service.stock;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+
+/**
+ * 基于数据库的库存存储
+ * <p>
+ * 租用库存使用条件更新：
+ * 
+ * <pre>
+ * UPDATE t_stock SET quantity = quantity - ? WHERE sku_id = ? AND quantity &gt;= ?
+ * </pre>
+ * 
+ * 影响行数为0即为库存不足，此时按当前库存缩小租用数量后重试，数据库中的库存不会小于0，多个节点租用的库存之和不会超过总库存。
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月17日
+ */
+public class JdbcStockStore implements StockStore {
+
+    /** 库存被其他节点并发租用时的最多尝试次数 */
+    private static final int MAX_LEASE_ATTEMPTS = 3;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final String selectSql;
+
+    private final String deductSql;
+
+    private final String giveBackSql;
+
+    /**
+     * 使用默认的表t_stock(sku_id, quantity)
+     * 
+     * @param jdbcTemplate
+     */
+    public JdbcStockStore(final JdbcTemplate jdbcTemplate) {
+        this(jdbcTemplate, "t_stock", "sku_id", "quantity");
+    }
+
+    /**
+     * @param jdbcTemplate
+     * @param table 库存表
+     * @param skuColumn 商品编号列
+     * @param quantityColumn 库存数量列
+     */
+    public JdbcStockStore(final JdbcTemplate jdbcTemplate, final String table, final String skuColumn,
+                          final String quantityColumn) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.selectSql = "SELECT " + quantityColumn + " FROM " + table + " WHERE " + skuColumn + " = ?";
+        this.deductSql = "UPDATE " + table + " SET " + quantityColumn + " = " + quantityColumn + " - ? WHERE "
+                         + skuColumn + " = ? AND " + quantityColumn + " >= ?";
+        this.giveBackSql = "UPDATE " + table + " SET " + quantityColumn + " = " + quantityColumn + " + ? WHERE "
+                           + skuColumn + " = ?";
+    }
+
+    @Override
+    public long load(final String skuId) {
+        List<Long> rows = this.jdbcTemplate.query(this.selectSql, new RowMapper<Long>() {
+
+            @Override
+            public Long mapRow(final ResultSet rs, final int rowNum) throws SQLException {
+                return rs.getLong(1);
+            }
+        }, skuId);
+        return rows.isEmpty() ? 0L : rows.get(0);
+    }
+
+    @Override
+    public long lease(final String skuId, final long min, final long max) {
+        long quantity = max;
+        for (int i = 0; i < MAX_LEASE_ATTEMPTS; i++) {
+            if (this.jdbcTemplate.update(this.deductSql, quantity, skuId, quantity) > 0) {
+                return quantity;
+            }
+
+            long stock = load(skuId);
+            if (stock < min) {
+                return 0L;
+            }
+            quantity = Math.min(stock, max);
+        }
+        return 0L;
+    }
+
+    @Override
+    public void giveBack(final String skuId, final long quantity) {
+        this.jdbcTemplate.update(this.giveBackSql, quantity, skuId);
+    }
+}
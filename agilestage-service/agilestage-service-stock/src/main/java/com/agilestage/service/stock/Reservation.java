@@ -0,0 +1,77 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.service.stock;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 库存预占
+ * <p>
+ * 预占后需要在有效期内确认或释放，过期未确认的预占由{@link InventoryEngine}自动释放。
+ * 状态只能从预占变为确认或释放一次，并发的确认、释放、过期中只有一个生效。
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月17日
+ */
+public final class Reservation {
+
+    static final int RESERVED = 0;
+
+    static final int CONFIRMED = 1;
+
+    static final int RELEASED = 2;
+
+    private final long id;
+
+    private final String skuId;
+
+    private final long quantity;
+
+    private final long expireAt;
+
+    private final AtomicInteger state = new AtomicInteger(RESERVED);
+
+    Reservation(final long id, final String skuId, final long quantity, final long expireAt) {
+        this.id = id;
+        this.skuId = skuId;
+        this.quantity = quantity;
+        this.expireAt = expireAt;
+    }
+
+    public long getId() {
+        return this.id;
+    }
+
+    public String getSkuId() {
+        return this.skuId;
+    }
+
+    public long getQuantity() {
+        return this.quantity;
+    }
+
+    /**
+     * 过期时间，毫秒时间戳
+     */
+    public long getExpireAt() {
+        return this.expireAt;
+    }
+
+    public boolean isConfirmed() {
+        return CONFIRMED == this.state.get();
+    }
+
+    public boolean isReleased() {
+        return RELEASED == this.state.get();
+    }
+
+    boolean transit(final int target) {
+        return this.state.compareAndSet(RESERVED, target);
+    }
+
+    @Override
+    public String toString() {
+        return "Reservation[" + this.id + " " + this.skuId + " x" + this.quantity + "]";
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.service.stock;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 单个商品在当前节点的租用库存
+ * <p>
+ * 可售数量分散在多个槽位中，线程优先在自己的槽位上CAS扣减，热点商品的并发扣减不会集中在同一个缓存行上。
+ * 自己的槽位不足时依次尝试其他槽位，所有槽位都不足时加锁把各槽位的数量合并后再扣减，
+ * 因此只要总数足够就能扣减成功，且每一件库存只在一个槽位中，不会超卖。
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月17日
+ */
+final class StockCounter {
+
+    /** 槽位间隔，避免相邻槽位在同一缓存行 */
+    private static final int PAD = 8;
+
+    private final int stripes;
+
+    private final AtomicLongArray cells;
+
+    /** 已预占未确认的数量 */
+    final AtomicLong reserved = new AtomicLong();
+
+    /** 向数据库租用、归还库存时持有，不阻塞槽位上的扣减 */
+    final Object leaseLock = new Object();
+
+    /** 上次归还空闲库存后是否有过预占 */
+    volatile boolean active;
+
+    StockCounter(final int stripes) {
+        this.stripes = stripes;
+        this.cells = new AtomicLongArray(stripes * PAD);
+    }
+
+    /**
+     * 扣减可售数量
+     * 
+     * @return 可售数量不足时返回false
+     */
+    boolean take(final long quantity) {
+        int home = home();
+        for (int i = 0; i < this.stripes; i++) {
+            int index = ((home + i) % this.stripes) * PAD;
+            long value;
+            while ((value = this.cells.get(index)) >= quantity) {
+                if (this.cells.compareAndSet(index, value, value - quantity)) {
+                    return true;
+                }
+            }
+        }
+        return consolidateAndTake(quantity);
+    }
+
+    /**
+     * 归还可售数量
+     */
+    void put(final long quantity) {
+        this.cells.addAndGet(home() * PAD, quantity);
+    }
+
+    /**
+     * 可售数量，并发修改时为近似值
+     */
+    long available() {
+        long sum = 0L;
+        for (int i = 0; i < this.stripes; i++) {
+            sum += this.cells.get(i * PAD);
+        }
+        return sum;
+    }
+
+    /**
+     * 取出全部可售数量
+     */
+    synchronized long drain() {
+        long total = 0L;
+        for (int i = 0; i < this.stripes; i++) {
+            total += this.cells.getAndSet(i * PAD, 0L);
+        }
+        return total;
+    }
+
+    private synchronized boolean consolidateAndTake(final long quantity) {
+        long total = drain();
+        boolean taken = total >= quantity;
+        this.cells.addAndGet(home() * PAD, taken ? total - quantity : total);
+        return taken;
+    }
+
+    private int home() {
+        long id = Thread.currentThread().getId();
+        return (int) ((id ^ (id >>> 16)) % this.stripes);
+    }
+}
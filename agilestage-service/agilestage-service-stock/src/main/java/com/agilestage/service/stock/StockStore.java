@@ -0,0 +1,39 @@
+/**
+ * Copyright (c) All rights reserved.
+ */
+package com.agilestage.service.stock;
+
+/**
+ * 库存的持久化存储
+ * 
+ * @author <a href="mailto:729824941@qq.com">fengxing</a>
+ * 2016年12月17日
+ */
+public interface StockStore {
+
+    /**
+     * 读取商品的库存
+     * 
+     * @param skuId 商品编号
+     * @return 库存数量，商品不存在时返回0
+     */
+    long load(String skuId);
+
+    /**
+     * 从库存中租用一部分给当前节点，返回前库存已扣减
+     * 
+     * @param skuId 商品编号
+     * @param min 至少租用的数量
+     * @param max 最多租用的数量
+     * @return 实际租用的数量，库存不足min时返回0
+     */
+    long lease(String skuId, long min, long max);
+
+    /**
+     * 归还未售出的租用库存
+     * 
+     * @param skuId 商品编号
+     * @param quantity 数量
+     */
+    void giveBack(String skuId, long quantity);
+}